@@ -0,0 +1,61 @@
+package org.yajul.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.yajul.io.Base64Decoder;
+import org.yajul.io.Base64Encoder;
+import org.yajul.io.Base64InputStream;
+import org.yajul.io.Base64OutputStream;
+import org.yajul.io.NullOutputStream;
+import org.yajul.util.Copier;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BASE64 encoding and decoding, with the static methods and with the streams.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Base64Benchmark {
+    @Param({"64", "65536"})
+    private int length;
+
+    private byte[] data;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        data = new byte[length];
+        new Random(42).nextBytes(data);
+        encoded = Base64Encoder.encode(data).getBytes();
+    }
+
+    @Benchmark
+    public String encode() {
+        return Base64Encoder.encode(data);
+    }
+
+    @Benchmark
+    public byte[] decode() throws IOException {
+        return Base64Decoder.decode(encoded);
+    }
+
+    @Benchmark
+    public void encodeStream() throws IOException {
+        Base64OutputStream out = new Base64OutputStream(new NullOutputStream());
+        out.write(data);
+        out.close();
+    }
+
+    @Benchmark
+    public int decodeStream() throws IOException {
+        Base64InputStream in = new Base64InputStream(new ByteArrayInputStream(encoded));
+        return Copier.copy(in, new NullOutputStream(), Copier.DEFAULT_BUFFER_SIZE, Copier.UNLIMITED);
+    }
+}
@@ -0,0 +1,101 @@
+package org.yajul.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.yajul.reflection.BeanCopier;
+import org.yajul.reflection.BeanProperties;
+import org.yajul.reflection.PropertyMap;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BeanProperties property access and copy, BeanCopier copy, and PropertyMap creation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BeanPropertiesBenchmark {
+    public static class Bean {
+        private long id;
+        private String name;
+        private int count;
+        private double amount;
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(long id) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+
+        public double getAmount() {
+            return amount;
+        }
+
+        public void setAmount(double amount) {
+            this.amount = amount;
+        }
+    }
+
+    private BeanProperties properties;
+    private BeanCopier<Bean, Bean> copier;
+    private Bean bean;
+    private Bean target;
+
+    @Setup
+    public void setup() {
+        properties = BeanProperties.forClass(Bean.class);
+        copier = BeanCopier.compile(Bean.class, Bean.class);
+        bean = new Bean();
+        bean.setId(42);
+        bean.setName("forty two");
+        bean.setCount(7);
+        bean.setAmount(3.5);
+        target = new Bean();
+    }
+
+    @Benchmark
+    public Object getProperty() {
+        return properties.getProperty(bean, "name");
+    }
+
+    @Benchmark
+    public Object setProperty() {
+        return properties.setProperty(target, "count", 7);
+    }
+
+    @Benchmark
+    public Bean copy() throws Exception {
+        properties.copy(bean, target);
+        return target;
+    }
+
+    @Benchmark
+    public Bean compiledCopy() throws Exception {
+        return copier.copy(bean, target);
+    }
+
+    @Benchmark
+    public Object propertyMapGet() {
+        return new PropertyMap(bean).get("amount");
+    }
+}
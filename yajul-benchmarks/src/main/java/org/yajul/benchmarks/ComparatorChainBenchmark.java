@@ -0,0 +1,123 @@
+package org.yajul.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.yajul.comparators.ComparatorChain;
+import org.yajul.comparators.ComparatorUtil;
+import org.yajul.comparators.KeyComparator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorting a list of rows with a ComparatorChain, a KeyComparator, and KeyComparator's parallel index sort.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ComparatorChainBenchmark {
+    public static class Row {
+        private final String name;
+        private final int count;
+        private final long id;
+
+        public Row(String name, int count, long id) {
+            this.name = name;
+            this.count = count;
+            this.id = id;
+        }
+    }
+
+    private static final Comparator<Row> BY_NAME = new Comparator<Row>() {
+        public int compare(Row o1, Row o2) {
+            return ComparatorUtil.NULL_LOW_STRING_COMPARATOR.compare(o1.name, o2.name);
+        }
+    };
+
+    private static final Comparator<Row> BY_COUNT = new Comparator<Row>() {
+        public int compare(Row o1, Row o2) {
+            return ComparatorUtil.compareIntegers(o1.count, o2.count);
+        }
+    };
+
+    private static final Comparator<Row> BY_ID = new Comparator<Row>() {
+        public int compare(Row o1, Row o2) {
+            return o1.id < o2.id ? -1 : (o1.id == o2.id ? 0 : 1);
+        }
+    };
+
+    private static final KeyComparator.StringKey<Row> NAME = new KeyComparator.StringKey<Row>() {
+        public String key(Row o) {
+            return o.name;
+        }
+    };
+
+    private static final KeyComparator.IntKey<Row> COUNT = new KeyComparator.IntKey<Row>() {
+        public int key(Row o) {
+            return o.count;
+        }
+    };
+
+    private static final KeyComparator.LongKey<Row> ID = new KeyComparator.LongKey<Row>() {
+        public long key(Row o) {
+            return o.id;
+        }
+    };
+
+    @Param({"10000", "1000000"})
+    private int size;
+
+    private List<Row> rows;
+    private Comparator<Row> chain;
+    private KeyComparator<Row> keys;
+    private KeyComparator<Row> countOnly;
+
+    @SuppressWarnings("unchecked")
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        rows = new ArrayList<Row>(size);
+        for (int i = 0; i < size; i++) {
+            // Lots of duplicates in the first two keys, so the whole chain is exercised.
+            String name = random.nextInt(10) == 0 ? null : "name" + random.nextInt(100);
+            rows.add(new Row(name, random.nextInt(50), random.nextLong()));
+        }
+        chain = new ComparatorChain<Row>(BY_NAME, BY_COUNT, BY_ID);
+        keys = new KeyComparator.Builder<Row>().byString(NAME).byInt(COUNT).byLong(ID).build();
+        countOnly = new KeyComparator.Builder<Row>().byInt(COUNT).build();
+    }
+
+    @Benchmark
+    public List<Row> sort() {
+        List<Row> copy = new ArrayList<Row>(rows);
+        Collections.sort(copy, chain);
+        return copy;
+    }
+
+    @Benchmark
+    public List<Row> keyComparator() {
+        List<Row> copy = new ArrayList<Row>(rows);
+        Collections.sort(copy, keys);
+        return copy;
+    }
+
+    @Benchmark
+    public List<Row> keySort() {
+        List<Row> copy = new ArrayList<Row>(rows);
+        keys.sort(copy);
+        return copy;
+    }
+
+    @Benchmark
+    public List<Row> intKeySort() {
+        List<Row> copy = new ArrayList<Row>(rows);
+        countOnly.sort(copy);
+        return copy;
+    }
+}
@@ -0,0 +1,85 @@
+package org.yajul.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.yajul.util.CompoundKey;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CompoundKey construction, hashing and equality, and HashMap lookups with compound keys.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompoundKeyBenchmark {
+    private static final int SIZE = 100000;
+
+    private CompoundKey[] keys;
+    private CompoundKey[] probes;
+    private Map<CompoundKey, Integer> map;
+    private CompoundKey[] primitiveProbes;
+    private Map<CompoundKey, Integer> primitiveMap;
+    private int index;
+
+    @Setup
+    public void setup() {
+        keys = new CompoundKey[SIZE];
+        probes = new CompoundKey[SIZE];
+        map = new HashMap<CompoundKey, Integer>(SIZE * 2);
+        primitiveProbes = new CompoundKey[SIZE];
+        primitiveMap = new HashMap<CompoundKey, Integer>(SIZE * 2);
+        for (int i = 0; i < SIZE; i++) {
+            // Small, correlated components like (account id, day) pairs.
+            keys[i] = new CompoundKey.Two<Long, Integer>((long) (i / 100), i % 100);
+            probes[i] = new CompoundKey.Two<Long, Integer>((long) (i / 100), i % 100);
+            map.put(keys[i], i);
+            primitiveProbes[i] = new CompoundKey.LongInt(i / 100, i % 100);
+            primitiveMap.put(new CompoundKey.LongInt(i / 100, i % 100), i);
+        }
+    }
+
+    private int next() {
+        int i = index++;
+        if (index == SIZE)
+            index = 0;
+        return i;
+    }
+
+    @Benchmark
+    public CompoundKey create() {
+        int i = next();
+        return new CompoundKey.Two<Long, Integer>((long) i, i);
+    }
+
+    @Benchmark
+    public int hash() {
+        return probes[next()].hashCode();
+    }
+
+    @Benchmark
+    public boolean equality() {
+        int i = next();
+        return keys[i].equals(probes[i]);
+    }
+
+    @Benchmark
+    public Integer mapGet() {
+        return map.get(probes[next()]);
+    }
+
+    @Benchmark
+    public CompoundKey createPrimitive() {
+        int i = next();
+        return new CompoundKey.LongInt(i, i);
+    }
+
+    @Benchmark
+    public Integer mapGetPrimitive() {
+        return primitiveMap.get(primitiveProbes[next()]);
+    }
+}
@@ -0,0 +1,52 @@
+package org.yajul.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.yajul.io.NullOutputStream;
+import org.yajul.util.Copier;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copier.copy() with different buffer sizes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CopierBenchmark {
+    @Param({"256", "1024", "8192", "65536"})
+    private int bufferSize;
+
+    @Param({"1048576"})
+    private int length;
+
+    private byte[] data;
+    private OutputStream discard;
+    private ByteArrayOutputStream buffer;
+
+    @Setup
+    public void setup() {
+        data = new byte[length];
+        new Random(42).nextBytes(data);
+        discard = new NullOutputStream();
+        buffer = new ByteArrayOutputStream(length);
+    }
+
+    @Benchmark
+    public int copyToNull() throws IOException {
+        return Copier.copy(new ByteArrayInputStream(data), discard, bufferSize, Copier.UNLIMITED);
+    }
+
+    @Benchmark
+    public int copyToByteArray() throws IOException {
+        buffer.reset();
+        return Copier.copy(new ByteArrayInputStream(data), buffer, bufferSize, Copier.UNLIMITED);
+    }
+}
@@ -0,0 +1,76 @@
+package org.yajul.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.w3c.dom.Document;
+import org.yajul.xml.DOMPrinter;
+import org.yajul.xml.DOMUtil;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DOM parsing and printing with DOMUtil and DOMPrinter's cached builders and transformers, compared with
+ * looking up new JAXP factories every time (what they used to do).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DOMParseBenchmark {
+    /**
+     * Number of elements in the document: small, and large.
+     */
+    @Param({"10", "10000"})
+    private int elements;
+
+    private byte[] xml;
+    private Document document;
+
+    @Setup
+    public void setup() throws Exception {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\"?>\n<root>\n");
+        for (int i = 0; i < elements; i++)
+            sb.append("  <item id=\"").append(i).append("\"><name>item ").append(i).append("</name></item>\n");
+        sb.append("</root>\n");
+        xml = sb.toString().getBytes("UTF-8");
+        document = DOMUtil.parse(new ByteArrayInputStream(xml));
+    }
+
+    @Benchmark
+    public Document parseNewFactory() throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(xml), "file://");
+    }
+
+    @Benchmark
+    public Document parse() throws Exception {
+        return DOMUtil.parse(new ByteArrayInputStream(xml));
+    }
+
+    @Benchmark
+    public int printNewFactory() throws Exception {
+        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.METHOD, "xml");
+        transformer.setOutputProperty(OutputKeys.INDENT, DOMPrinter.TRUE);
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, DOMPrinter.TRUE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        transformer.transform(new DOMSource(document), new StreamResult(out));
+        return out.size();
+    }
+
+    @Benchmark
+    public int print() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DOMPrinter.printNode(document, out);
+        return out.size();
+    }
+}
@@ -0,0 +1,73 @@
+package org.yajul.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.yajul.reflection.FieldPrinter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FieldPrinter with fields, getters and nested objects, compared with a hand written toString().
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FieldPrinterBenchmark {
+    public static class Item {
+        public long id = 42;
+        public String name = "forty two";
+        public int count = 7;
+        public Item parent;
+
+        public String toString() {
+            return getClass().getName() + "[id=" + id + ", name='" + name + "', count=" + count
+                    + ", parent=" + (parent == null ? "null" : "|" + parent + "|") + "]";
+        }
+    }
+
+    public static class Bean {
+        public long getId() {
+            return 42;
+        }
+
+        public String getName() {
+            return "forty two";
+        }
+    }
+
+    private Item item;
+    private Bean bean;
+    private FieldPrinter printer;
+
+    @Setup
+    public void setup() {
+        item = new Item();
+        item.parent = new Item();
+        bean = new Bean();
+        printer = new FieldPrinter();
+    }
+
+    @Benchmark
+    public String fields() {
+        return FieldPrinter.toString(item);
+    }
+
+    @Benchmark
+    public String getters() {
+        return FieldPrinter.toString(bean);
+    }
+
+    @Benchmark
+    public int reusedBuilder() {
+        printer.reset();
+        printer.append(item);
+        return printer.getBuilder().length();
+    }
+
+    @Benchmark
+    public String handWritten() {
+        return item.toString();
+    }
+}
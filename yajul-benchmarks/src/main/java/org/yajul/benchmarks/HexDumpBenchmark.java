@@ -0,0 +1,43 @@
+package org.yajul.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.yajul.io.HexDumpOutputStream;
+import org.yajul.io.NullOutputStream;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HexDumpOutputStream, writing a block of bytes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HexDumpBenchmark {
+    @Param({"256", "16384"})
+    private int length;
+
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        data = new byte[length];
+        new Random(42).nextBytes(data);
+    }
+
+    @Benchmark
+    public void hexDump() throws IOException {
+        HexDumpOutputStream out = new HexDumpOutputStream(new NullOutputStream(), 16);
+        out.write(data);
+        out.flush();
+    }
+
+    @Benchmark
+    public String toHexString() {
+        return HexDumpOutputStream.toHexString(data, data.length);
+    }
+}
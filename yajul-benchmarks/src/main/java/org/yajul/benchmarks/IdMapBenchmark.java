@@ -0,0 +1,89 @@
+package org.yajul.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.yajul.collections.EntityWithId;
+import org.yajul.collections.IdMap;
+import org.yajul.collections.LongIdMap;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IdMap and LongIdMap put and get with Long ids.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IdMapBenchmark {
+    public static class Entity implements EntityWithId<Long> {
+        private final Long id;
+
+        public Entity(long id) {
+            this.id = id;
+        }
+
+        public Long getId() {
+            return id;
+        }
+    }
+
+    @Param({"1000", "100000"})
+    private int size;
+
+    private Entity[] entities;
+    private Long[] ids;
+    private IdMap<Long, Entity> map;
+    private LongIdMap<Entity> longMap;
+    private long[] longIds;
+    private int index;
+
+    @Setup
+    public void setup() {
+        entities = new Entity[size];
+        ids = new Long[size];
+        map = new IdMap<Long, Entity>();
+        longMap = new LongIdMap<Entity>();
+        longIds = new long[size];
+        for (int i = 0; i < size; i++) {
+            entities[i] = new Entity(i * 7L);
+            ids[i] = i * 7L;
+            map.put(entities[i]);
+            longIds[i] = i * 7L;
+            longMap.put(entities[i]);
+        }
+    }
+
+    @Benchmark
+    public IdMap<Long, Entity> putAll() {
+        IdMap<Long, Entity> m = new IdMap<Long, Entity>();
+        for (Entity entity : entities)
+            m.put(entity);
+        return m;
+    }
+
+    @Benchmark
+    public Entity get() {
+        int i = index++;
+        if (index == size)
+            index = 0;
+        return map.get(ids[i]);
+    }
+
+    @Benchmark
+    public LongIdMap<Entity> putAllLong() {
+        LongIdMap<Entity> m = new LongIdMap<Entity>();
+        for (Entity entity : entities)
+            m.put(entity);
+        return m;
+    }
+
+    @Benchmark
+    public Entity getLong() {
+        int i = index++;
+        if (index == size)
+            index = 0;
+        return longMap.get(longIds[i]);
+    }
+}
@@ -0,0 +1,78 @@
+package org.yajul.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.yajul.serialization.SerializationHelper;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SerializationHelper.toByteArray() and fromByteArray() with a small and a large object graph.  toByteBuffer()
+ * returns a view of the per-thread buffer, so it measures serialization without the result allocation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+    /**
+     * A typical small DTO.
+     */
+    public static class Message implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private long id;
+        private String name;
+        private Date timestamp;
+        private Double price;
+        private int quantity;
+
+        public Message(long id) {
+            this.id = id;
+            this.name = "message-" + id;
+            this.timestamp = new Date(1234567890000L + id);
+            this.price = id * 1.5;
+            this.quantity = (int) id;
+        }
+    }
+
+    @Param({"1", "1000"})
+    private int count;
+
+    private Serializable object;
+    private byte[] bytes;
+
+    @Setup
+    public void setup() throws IOException {
+        if (count == 1) {
+            object = new Message(1);
+        } else {
+            List<Message> list = new ArrayList<Message>(count);
+            for (int i = 0; i < count; i++)
+                list.add(new Message(i));
+            object = (Serializable) list;
+        }
+        bytes = SerializationHelper.toByteArray(object);
+    }
+
+    @Benchmark
+    public byte[] toByteArray() throws IOException {
+        return SerializationHelper.toByteArray(object);
+    }
+
+    @Benchmark
+    public ByteBuffer toByteBuffer() throws IOException {
+        return SerializationHelper.toByteBuffer(object);
+    }
+
+    @Benchmark
+    public Object fromByteArray() throws IOException, ClassNotFoundException {
+        return SerializationHelper.fromByteArray(bytes);
+    }
+}
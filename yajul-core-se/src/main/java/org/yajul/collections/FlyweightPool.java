@@ -1,7 +1,12 @@
 package org.yajul.collections;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
-import java.util.WeakHashMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Weak reference map that can be used to implement the Flyweight pattern while still releasing memory
@@ -14,6 +19,10 @@ import java.util.WeakHashMap;
  * <li>Implement equals() and hashCode()</li>
  * <li>Be immutable.  The same object may be shared by many threads.</li>
  * </ol>
+ * The pool is split into independently locked segments by hash code, so threads interning different objects
+ * rarely wait for each other.  Each entry is a single reference object to the pooled instance, which is both
+ * the key and the value.  Entries can be held weakly (the default), softly, or strongly.  With a maximum size,
+ * each segment evicts its least recently used entries, so the bound is approximate.
  * <br>
  * User: josh
  * Date: 2/29/12
@@ -21,42 +30,428 @@ import java.util.WeakHashMap;
  */
 public class FlyweightPool<T>
 {
-    private final WeakHashMap<T, WeakReference<T>> map = new WeakHashMap<T, WeakReference<T>>();
+    /**
+     * How the pool holds on to the pooled objects.
+     */
+    public enum Retention
+    {
+        /**
+         * Entries go away when nothing else refers to the object.
+         */
+        WEAK,
+        /**
+         * Entries go away when memory is low.
+         */
+        SOFT,
+        /**
+         * Entries only go away by eviction, so use a maximum size.
+         */
+        STRONG
+    }
+
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    private static final FlyweightPool<String> STRINGS = new FlyweightPool<String>();
+
+    private static volatile boolean internWithPool;
+
+    private final Retention retention;
+    private final int maxSize;
+    private final Segment[] segments;
+    private final int shift;
+
+    /**
+     * Creates an unbounded pool with weak references.
+     */
+    public FlyweightPool()
+    {
+        this(Retention.WEAK, 0);
+    }
+
+    /**
+     * Creates a pool.
+     *
+     * @param retention how the pooled objects are held
+     * @param maxSize   the maximum number of objects, or zero for no limit
+     */
+    public FlyweightPool(Retention retention, int maxSize)
+    {
+        this(retention, maxSize, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Creates a pool.
+     *
+     * @param retention        how the pooled objects are held
+     * @param maxSize          the maximum number of objects, or zero for no limit
+     * @param concurrencyLevel the expected number of threads using the pool at the same time
+     */
+    public FlyweightPool(Retention retention, int maxSize, int concurrencyLevel)
+    {
+        if (retention == null)
+            throw new IllegalArgumentException("Retention is required");
+        if (maxSize < 0)
+            throw new IllegalArgumentException("Maximum size must be >= 0");
+        if (concurrencyLevel <= 0)
+            throw new IllegalArgumentException("Concurrency level must be > 0");
+        int count = Integer.highestOneBit(concurrencyLevel * 2 - 1);
+        if (maxSize > 0)
+            count = Math.min(count, Integer.highestOneBit(maxSize));
+        this.retention = retention;
+        this.maxSize = maxSize;
+        this.shift = 32 - Integer.numberOfTrailingZeros(count);
+        int segmentMax = maxSize == 0 ? 0 : (maxSize + count - 1) / count;
+        //noinspection unchecked
+        segments = (Segment[]) new FlyweightPool.Segment[count];
+        for (int i = 0; i < count; i++)
+            segments[i] = new Segment(segmentMax);
+    }
 
     /**
      * Like String.intern(), returns the shareable reference to 'object'.
      *
      * @param object the object
-     * @return the shared reference to the object
+     * @return the shared reference to the object, or null if the object is null
      */
     public T get(T object)
     {
-        synchronized (map)
+        if (object == null)
+            return null;
+        int hash = object.hashCode();
+        Segment segment = segmentFor(hash);
+        synchronized (segment)
         {
-            WeakReference<T> ref = map.get(object);
-            if (ref != null)
+            return segment.get(object, hash);
+        }
+    }
+
+    /**
+     * @return the number of pooled objects, including ones that were collected but not yet removed
+     */
+    public int size()
+    {
+        int n = 0;
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
             {
-                T o = ref.get();
-                if (o != null)
-                {
-                    return o;
-                }
+                n += segment.map.size();
             }
+        }
+        return n;
+    }
 
-            // Either the map didn't have the object in it, or the reference was cleaned up.
-            // Add it to the map and return it.
-            map.put(object, new WeakReference<T>(object));
-            return object;
+    public void clear()
+    {
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
+            {
+                segment.map.clear();
+                segment.drain();
+            }
         }
     }
 
+    public Retention getRetention()
+    {
+        return retention;
+    }
+
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * @return the number of calls that returned a pooled object
+     */
+    public long getHits()
+    {
+        long n = 0;
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
+            {
+                n += segment.hits;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return the number of calls that added their object to the pool
+     */
+    public long getMisses()
+    {
+        long n = 0;
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
+            {
+                n += segment.misses;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return the number of objects removed because the pool was full
+     */
+    public long getEvictions()
+    {
+        long n = 0;
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
+            {
+                n += segment.evictions;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return the number of entries removed because the garbage collector cleared them
+     */
+    public long getCollected()
+    {
+        long n = 0;
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
+            {
+                n += segment.collected;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return hits / calls, or zero if there were no calls
+     */
+    public double getHitRate()
+    {
+        long hits = getHits();
+        long calls = hits + getMisses();
+        return calls == 0 ? 0.0 : (double) hits / calls;
+    }
+
+    public String toString()
+    {
+        return "FlyweightPool{retention=" + retention + ", maxSize=" + maxSize + ", size=" + size()
+                + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions()
+                + ", collected=" + getCollected() + "}";
+    }
+
     /**
      * Strings have their own flyweight pool.
      * @param string a string (or null)
-     * @return string.intern(), or null
+     * @return string.intern(), or null.  If {@link #setInternWithPool(boolean)} is on, the shared string
+     * pool is used instead.
      */
     public static String intern(String string)
     {
-        return string == null ? null : string.intern();
+        return intern(string, internWithPool);
+    }
+
+    /**
+     * Returns the shareable instance of a string.
+     *
+     * @param string   a string (or null)
+     * @param withPool true to use a weak, concurrent flyweight pool, false to use String.intern()
+     * @return the shareable instance of the string, or null
+     */
+    public static String intern(String string, boolean withPool)
+    {
+        if (string == null)
+            return null;
+        return withPool ? STRINGS.get(string) : string.intern();
+    }
+
+    /**
+     * Switches intern(String) between String.intern() (the default) and a flyweight pool.  The pool is
+     * cheaper for strings that are only shared for a while, e.g. values parsed from messages, as the
+     * entries are ordinary heap objects, collected as soon as they are no longer used.
+     *
+     * @param withPool true to use the flyweight pool
+     */
+    public static void setInternWithPool(boolean withPool)
+    {
+        internWithPool = withPool;
+    }
+
+    /**
+     * @return the pool that intern(String) uses, for statistics
+     */
+    public static FlyweightPool<String> getStringPool()
+    {
+        return STRINGS;
+    }
+
+    private Segment segmentFor(int hash)
+    {
+        return shift == 32 ? segments[0] : segments[(hash * 0x9E3779B9) >>> shift];
+    }
+
+    /**
+     * An entry: a reference to the pooled object, with the object's hash code.  Entries are only equal to
+     * themselves, lookups use a {@link Probe}.
+     */
+    private interface Ref<T>
+    {
+        T get();
+    }
+
+    private static class WeakRef<T> extends WeakReference<T> implements Ref<T>
+    {
+        private final int hash;
+
+        private WeakRef(T referent, int hash, ReferenceQueue<T> queue)
+        {
+            super(referent, queue);
+            this.hash = hash;
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+
+    private static class SoftRef<T> extends SoftReference<T> implements Ref<T>
+    {
+        private final int hash;
+
+        private SoftRef(T referent, int hash, ReferenceQueue<T> queue)
+        {
+            super(referent, queue);
+            this.hash = hash;
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+
+    private static class StrongRef<T> implements Ref<T>
+    {
+        private final T referent;
+        private final int hash;
+
+        private StrongRef(T referent, int hash)
+        {
+            this.referent = referent;
+            this.hash = hash;
+        }
+
+        public T get()
+        {
+            return referent;
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+
+    /**
+     * Looks up an entry by the value of its object.  HashMap calls equals() on the key being looked up,
+     * so the probe does the comparison.
+     */
+    private static class Probe
+    {
+        private Object object;
+        private int hash;
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public boolean equals(Object o)
+        {
+            return o instanceof Ref && object.equals(((Ref<?>) o).get());
+        }
+    }
+
+    private class Segment
+    {
+        private final Map<Object, Ref<T>> map;
+        private final ReferenceQueue<T> queue = new ReferenceQueue<T>();
+        private final Probe probe = new Probe();   // Only used while holding the lock.
+        private long hits;
+        private long misses;
+        private long evictions;
+        private long collected;
+
+        private Segment(final int max)
+        {
+            if (max == 0)
+                map = new HashMap<Object, Ref<T>>();
+            else
+                map = new LinkedHashMap<Object, Ref<T>>(16, 0.75f, true)
+                {
+                    protected boolean removeEldestEntry(Map.Entry<Object, Ref<T>> eldest)
+                    {
+                        if (size() <= max)
+                            return false;
+                        evictions++;
+                        return true;
+                    }
+                };
+        }
+
+        private T get(T object, int hash)
+        {
+            drain();
+            probe.object = object;
+            probe.hash = hash;
+            Ref<T> ref = map.get(probe);
+            probe.object = null;
+            if (ref != null)
+            {
+                T o = ref.get();
+                if (o != null)
+                {
+                    hits++;
+                    return o;
+                }
+                // Cleared, but not queued yet.
+                map.remove(ref);
+            }
+            misses++;
+            Ref<T> entry = newRef(object, hash);
+            map.put(entry, entry);
+            return object;
+        }
+
+        private Ref<T> newRef(T object, int hash)
+        {
+            switch (retention)
+            {
+                case WEAK:
+                    return new WeakRef<T>(object, hash, queue);
+                case SOFT:
+                    return new SoftRef<T>(object, hash, queue);
+                default:
+                    return new StrongRef<T>(object, hash);
+            }
+        }
+
+        /**
+         * Removes the entries that the garbage collector has cleared.
+         */
+        private void drain()
+        {
+            Reference<? extends T> ref;
+            while ((ref = queue.poll()) != null)
+            {
+                if (map.remove(ref) != null)
+                    collected++;
+            }
+        }
     }
-}
\ No newline at end of file
+}
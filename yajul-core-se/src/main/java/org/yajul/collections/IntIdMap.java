@@ -0,0 +1,412 @@
+package org.yajul.collections;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An {@link IdMap} for entities with int ids, without boxed keys or entry objects.  The keys and values are
+ * kept in two arrays in insertion order, and an open addressing table of int indexes into them does the
+ * lookups.  That is roughly 16 bytes per entry, instead of around 70 for a LinkedHashMap with Integer keys.
+ * <br>
+ * Iteration is in insertion order, as with IdMap.  Removing an entry leaves a hole that is skipped by
+ * iterators, the holes are squeezed out when the arrays need to grow.  Null values are not stored.
+ * Not thread safe.
+ *
+ * @see LongIdMap
+ */
+public class IntIdMap<V extends EntityWithId<Integer>> implements Externalizable, Iterable<V> {
+    private static final int MIN_CAPACITY = 4;
+    private static final int[] NO_KEYS = new int[0];
+    private static final Object[] NO_VALUES = new Object[0];
+    private static final int[] NO_SLOTS = new int[0];
+
+    private int[] keys = NO_KEYS;
+    private Object[] values = NO_VALUES;
+    /**
+     * Open addressing table, holding index + 1 of the entry in keys/values, or 0 for an empty slot.
+     * The length is a power of two, at least twice the length of keys.
+     */
+    private int[] slots = NO_SLOTS;
+    private int count;  // Used positions in keys/values, including holes.
+    private int size;
+
+    /**
+     * Makes an empty map.
+     */
+    public IntIdMap() {
+    }
+
+    /**
+     * Makes an empty map that can hold the expected number of entities without growing.
+     *
+     * @param expectedSize the expected number of entities
+     */
+    public IntIdMap(int expectedSize) {
+        allocate(expectedSize);
+    }
+
+    /**
+     * Makes a map with the entities.
+     *
+     * @param items the entities to add
+     */
+    public IntIdMap(Collection<V> items) {
+        this(items == null ? 0 : items.size());
+        aggregate(items);
+    }
+
+    /**
+     * Creates a map as a subset of another map.
+     *
+     * @param superSet the superset map
+     * @param ids      the subset of ids for this map
+     */
+    public IntIdMap(IntIdMap<V> superSet, int[] ids) {
+        addSubset(superSet, ids);
+    }
+
+    /**
+     * Replaces the contents with a subset of the reference map.  Ids that aren't in the reference map are ignored.
+     *
+     * @param reference the reference map (superset)
+     * @param ids       the ids in the subset
+     */
+    public void addSubset(IntIdMap<V> reference, int[] ids) {
+        allocate(ids.length);
+        for (int id : ids)
+            put(reference.get(id));
+    }
+
+    /**
+     * Replaces the contents with a subset of the reference map.  Ids that aren't in the reference map are ignored.
+     *
+     * @param reference the reference map (superset)
+     * @param ids       the ids in the subset
+     */
+    public void addSubset(IntIdMap<V> reference, Collection<Integer> ids) {
+        allocate(ids.size());
+        for (Integer id : ids) {
+            if (id != null)
+                put(reference.get(id));
+        }
+    }
+
+    /**
+     * Adds the entity to the map by it's id.  Null entities, and entities with null ids, are ignored.
+     *
+     * @param thing the entity to add
+     */
+    public void put(V thing) {
+        if (thing == null)
+            return;
+        Integer id = thing.getId();
+        if (id == null)
+            return;
+        put(id, thing);
+    }
+
+    /**
+     * Objects are added if their ids don't exist, replaced if the id exists.
+     *
+     * @param objects the objects to add or replace
+     */
+    public void aggregate(Iterable<V> objects) {
+        if (objects == null)
+            return;
+        for (V thing : objects)
+            put(thing);
+    }
+
+    /**
+     * Adds or replaces the value for an id.  A replaced value keeps its position in the iteration order.
+     *
+     * @param id    the id
+     * @param value the value, not null
+     * @return the previous value, or null if there was none
+     */
+    public V put(int id, V value) {
+        if (value == null)
+            throw new IllegalArgumentException("Null values are not allowed");
+        int slot = findSlot(id);
+        if (slot >= 0) {
+            int index = slots[slot] - 1;
+            V old = valueAt(index);
+            values[index] = value;
+            return old;
+        }
+        if (count == keys.length) {
+            grow();
+            slot = findSlot(id);
+        }
+        keys[count] = id;
+        values[count] = value;
+        slots[-slot - 1] = ++count;
+        size++;
+        return null;
+    }
+
+    /**
+     * @param id the id
+     * @return the value, or null if the id isn't in the map
+     */
+    public V get(int id) {
+        int slot = findSlot(id);
+        return slot < 0 ? null : valueAt(slots[slot] - 1);
+    }
+
+    /**
+     * @param id the id to look for
+     * @return true if the id exists in the map
+     */
+    public boolean containsId(int id) {
+        return findSlot(id) >= 0;
+    }
+
+    /**
+     * @param id the id
+     * @return the removed value, or null if the id wasn't in the map
+     */
+    public V remove(int id) {
+        int slot = findSlot(id);
+        if (slot < 0)
+            return null;
+        int index = slots[slot] - 1;
+        V old = valueAt(index);
+        deleteSlot(slot);
+        values[index] = null;
+        size--;
+        return old;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(values, 0, count, null);
+        Arrays.fill(slots, 0);
+        count = 0;
+        size = 0;
+    }
+
+    /**
+     * @return the unique ids, in insertion order
+     */
+    public int[] getIds() {
+        int[] ids = new int[size];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (values[i] != null)
+                ids[n++] = keys[i];
+        }
+        return ids;
+    }
+
+    /**
+     * @return a live view of the values, in insertion order.  Removing through the view is supported.
+     */
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            public Iterator<V> iterator() {
+                return IntIdMap.this.iterator();
+            }
+
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * @return the values in the id map, same as values()
+     */
+    public Collection<V> getCollection() {
+        return values();
+    }
+
+    public V getOne() {
+        assert size == 1;
+        return iterator().next();
+    }
+
+    public Iterator<V> iterator() {
+        return new Iterator<V>() {
+            private int next = advance(0);
+            private int last = -1;
+
+            private int advance(int i) {
+                while (i < count && values[i] == null)
+                    i++;
+                return i;
+            }
+
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            public V next() {
+                if (next >= count)
+                    throw new NoSuchElementException();
+                last = next;
+                next = advance(next + 1);
+                return valueAt(last);
+            }
+
+            public void remove() {
+                if (last < 0 || values[last] == null)
+                    throw new IllegalStateException();
+                IntIdMap.this.remove(keys[last]);
+            }
+        };
+    }
+
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof IntIdMap))
+            return false;
+        IntIdMap<?> other = (IntIdMap<?>) o;
+        if (other.size != size)
+            return false;
+        for (int i = 0; i < count; i++) {
+            if (values[i] != null && !values[i].equals(other.get(keys[i])))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the same hash code as a Map with the same entries
+     */
+    public int hashCode() {
+        int h = 0;
+        for (int i = 0; i < count; i++) {
+            if (values[i] != null)
+                h += keys[i] ^ values[i].hashCode();
+        }
+        return h;
+    }
+
+    public String toString() {
+        if (size == 0)
+            return "{}";
+        else
+            return getClass().getSimpleName() + "{" + values() + '}';
+    }
+
+    public void writeExternal(ObjectOutput out) throws IOException {
+        // We don't need to store the keys, just the values.
+        out.writeInt(size);
+        for (int i = 0; i < count; i++) {
+            if (values[i] != null)
+                out.writeObject(values[i]);
+        }
+    }
+
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        int n = in.readInt();
+        allocate(n);
+        for (int i = 0; i < n; i++) {
+            @SuppressWarnings({"unchecked"})
+            V v = (V) in.readObject();
+            put(v); // Get the key from the object.
+        }
+    }
+
+    /**
+     * Gets the unique ids from a bunch of entities, in order.
+     *
+     * @param things the entities
+     * @param <E>    the entity type
+     * @return the unique ids
+     */
+    public static <E extends EntityWithId<Integer>> int[] idArray(Iterable<E> things) {
+        IntIdMap<E> map = new IntIdMap<E>();
+        map.aggregate(things);
+        return map.getIds();
+    }
+
+    private V valueAt(int index) {
+        //noinspection unchecked
+        return (V) values[index];
+    }
+
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the slot holding the id, or -(empty slot + 1) if the id isn't in the table
+     */
+    private int findSlot(int id) {
+        if (slots.length == 0)
+            return -1;
+        int mask = slots.length - 1;
+        for (int slot = hash(id) & mask; ; slot = (slot + 1) & mask) {
+            int entry = slots[slot];
+            if (entry == 0)
+                return -slot - 1;
+            if (keys[entry - 1] == id)
+                return slot;
+        }
+    }
+
+    /**
+     * Empties a slot, moving later entries of the same probe sequence back so that lookups don't need tombstones.
+     */
+    private void deleteSlot(int gap) {
+        int mask = slots.length - 1;
+        for (int j = (gap + 1) & mask; slots[j] != 0; j = (j + 1) & mask) {
+            int home = hash(keys[slots[j] - 1]) & mask;
+            // Entry j can fill the gap unless its home slot is cyclically in (gap, j].
+            if (gap <= j ? (home <= gap || home > j) : (home <= gap && home > j)) {
+                slots[gap] = slots[j];
+                gap = j;
+            }
+        }
+        slots[gap] = 0;
+    }
+
+    /**
+     * Discards the contents and makes room for exactly n entries.
+     */
+    private void allocate(int n) {
+        keys = n == 0 ? NO_KEYS : new int[n];
+        values = n == 0 ? NO_VALUES : new Object[n];
+        slots = n == 0 ? NO_SLOTS : new int[tableSize(n)];
+        count = 0;
+        size = 0;
+    }
+
+    private void grow() {
+        int capacity = size < count / 2 ? count : Math.max(MIN_CAPACITY, count + (count >> 1));
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        int oldCount = count;
+        allocate(capacity);
+        for (int i = 0; i < oldCount; i++) {
+            if (oldValues[i] != null) {
+                keys[count] = oldKeys[i];
+                values[count] = oldValues[i];
+                slots[-findSlot(oldKeys[i]) - 1] = ++count;
+            }
+        }
+        size = count;
+    }
+
+    private static int tableSize(int n) {
+        return Integer.highestOneBit(Math.max(MIN_CAPACITY, n) * 2 - 1) << 1;
+    }
+}
@@ -1,17 +1,61 @@
 package org.yajul.collections;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
 
 /**
  * Calculates the differences between two sets.
  * <br>
+ * For very large sets, the differences can be streamed to a {@link Handler} instead of being collected:
+ * <ul>
+ * <li>{@link #merge(Iterator, Iterator, Comparator, Handler)} and {@link #merge(long[], long[], LongHandler)}
+ * walk two sorted inputs in step, e.g. two ordered queries, without holding either of them in memory.</li>
+ * <li>{@link #parallelDiff(Set, Set, Handler)} splits two hash based sets across a fork/join pool.</li>
+ * </ul>
+ * <br>
  * User: josh
  * Date: 12/13/11
  * Time: 1:54 PM
  */
 public class SetDifference<T>
 {
+    /**
+     * Sets smaller than this are not split any further by parallelDiff().
+     */
+    private static final int MIN_PARALLEL_CHUNK = 8192;
+
+    /**
+     * Receives the elements of a difference, one at a time.
+     */
+    public interface Handler<T>
+    {
+        void leftOnly(T element);
+
+        void rightOnly(T element);
+
+        void both(T element);
+    }
+
+    /**
+     * Receives the elements of a difference of long values, one at a time.
+     */
+    public interface LongHandler
+    {
+        void leftOnly(long element);
+
+        void rightOnly(long element);
+
+        void both(long element);
+    }
+
     private Set<T> leftOnly;
     private Set<T> rightOnly;
     private Set<T> both;
@@ -40,20 +84,273 @@ public class SetDifference<T>
 
     public static <T> SetDifference<T> diff(Set<T> left, Set<T> right)
     {
-        Set<T> leftOnly = new HashSet<T>(left.size());
-        Set<T> rightOnly = new HashSet<T>(right);
-        Set<T> both = new HashSet<T>(left.size());
+        final Set<T> leftOnly = new HashSet<T>(left.size());
+        final Set<T> rightOnly = new HashSet<T>(right.size());
+        final Set<T> both = new HashSet<T>(left.size());
+        diff(left, right, new Handler<T>()
+        {
+            public void leftOnly(T element)
+            {
+                leftOnly.add(element);
+            }
+
+            public void rightOnly(T element)
+            {
+                rightOnly.add(element);
+            }
+
+            public void both(T element)
+            {
+                both.add(element);
+            }
+        });
+        return new SetDifference<T>(leftOnly, rightOnly, both);
+    }
+
+    /**
+     * Streams the differences between two sets to a handler, without copying either set.
+     *
+     * @param left    the left set
+     * @param right   the right set
+     * @param handler receives the elements
+     */
+    public static <T> void diff(Set<T> left, Set<T> right, Handler<? super T> handler)
+    {
         for (T x : left)
         {
             if (right.contains(x))
+                handler.both(x);
+            else
+                handler.leftOnly(x);
+        }
+        for (T x : right)
+        {
+            if (!left.contains(x))
+                handler.rightOnly(x);
+        }
+    }
+
+    /**
+     * Streams the differences between two sorted inputs to a handler, in order.  Each input must be
+     * in ascending order according to the comparator, without duplicates.  The inputs may contain null if
+     * the comparator orders it.
+     *
+     * @param left       the left elements
+     * @param right      the right elements
+     * @param comparator the order of the elements, or null for their natural order
+     * @param handler    receives the elements
+     * @throws IllegalArgumentException if an input is out of order
+     */
+    public static <T> void merge(Iterator<? extends T> left, Iterator<? extends T> right,
+                                 Comparator<? super T> comparator, Handler<? super T> handler)
+    {
+        boolean hasLeft = left.hasNext();
+        boolean hasRight = right.hasNext();
+        T l = hasLeft ? left.next() : null;
+        T r = hasRight ? right.next() : null;
+        while (hasLeft && hasRight)
+        {
+            int rc = compare(l, r, comparator);
+            if (rc < 0)
+            {
+                handler.leftOnly(l);
+                hasLeft = left.hasNext();
+                if (hasLeft)
+                    l = next(left, l, comparator, "left");
+            }
+            else if (rc > 0)
+            {
+                handler.rightOnly(r);
+                hasRight = right.hasNext();
+                if (hasRight)
+                    r = next(right, r, comparator, "right");
+            }
+            else
+            {
+                handler.both(l);
+                hasLeft = left.hasNext();
+                if (hasLeft)
+                    l = next(left, l, comparator, "left");
+                hasRight = right.hasNext();
+                if (hasRight)
+                    r = next(right, r, comparator, "right");
+            }
+        }
+        while (hasLeft)
+        {
+            handler.leftOnly(l);
+            hasLeft = left.hasNext();
+            if (hasLeft)
+                l = next(left, l, comparator, "left");
+        }
+        while (hasRight)
+        {
+            handler.rightOnly(r);
+            hasRight = right.hasNext();
+            if (hasRight)
+                r = next(right, r, comparator, "right");
+        }
+    }
+
+    /**
+     * Streams the differences between two sorted arrays of longs, e.g. ids, to a handler, in order.
+     * Each array must be in ascending order, without duplicates.
+     *
+     * @param left    the left values
+     * @param right   the right values
+     * @param handler receives the values
+     * @throws IllegalArgumentException if an array is out of order
+     */
+    public static void merge(long[] left, long[] right, LongHandler handler)
+    {
+        int i = 0;
+        int j = 0;
+        while (i < left.length && j < right.length)
+        {
+            long l = left[i];
+            long r = right[j];
+            if (l < r)
             {
-                rightOnly.remove(x);
-                both.add(x);
+                handler.leftOnly(l);
+                i = checkOrder(left, i, "left");
+            }
+            else if (l > r)
+            {
+                handler.rightOnly(r);
+                j = checkOrder(right, j, "right");
             }
             else
-                leftOnly.add(x);
+            {
+                handler.both(l);
+                i = checkOrder(left, i, "left");
+                j = checkOrder(right, j, "right");
+            }
+        }
+        for (; i < left.length; i = checkOrder(left, i, "left"))
+            handler.leftOnly(left[i]);
+        for (; j < right.length; j = checkOrder(right, j, "right"))
+            handler.rightOnly(right[j]);
+    }
+
+    /**
+     * Streams the differences between two sets to a handler, using the common fork/join pool.
+     *
+     * @param left    the left set
+     * @param right   the right set
+     * @param handler receives the elements, from many threads at once, in no particular order
+     * @see #parallelDiff(Set, Set, Handler, ForkJoinPool)
+     */
+    public static <T> void parallelDiff(Set<T> left, Set<T> right, Handler<? super T> handler)
+    {
+        parallelDiff(left, right, handler, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Streams the differences between two sets to a handler, splitting the work across a fork/join
+     * pool.  The sets are split in place with their spliterators, so nothing is copied.  The sets must
+     * not change while this runs, and contains() must be safe to call from many threads (true of
+     * HashSet and the other JDK sets when nothing is writing to them).
+     *
+     * @param left    the left set
+     * @param right   the right set
+     * @param handler receives the elements, from many threads at once, in no particular order
+     * @param pool    the pool to run the tasks in
+     */
+    public static <T> void parallelDiff(Set<T> left, Set<T> right, Handler<? super T> handler, ForkJoinPool pool)
+    {
+        long threshold = Math.max(MIN_PARALLEL_CHUNK,
+                (left.size() + right.size()) / (pool.getParallelism() * 8L));
+        List<DiffTask<T>> tasks = new ArrayList<DiffTask<T>>(2);
+        tasks.add(new DiffTask<T>(left.spliterator(), right, true, handler, threshold));
+        tasks.add(new DiffTask<T>(right.spliterator(), left, false, handler, threshold));
+        for (DiffTask<T> task : tasks)
+            pool.execute(task);
+        for (DiffTask<T> task : tasks)
+            task.join();
+    }
+
+    /**
+     * Checks one side of a set against the other.  Elements on the left side go to leftOnly() or both(),
+     * elements on the right side that aren't on the left go to rightOnly().
+     */
+    private static class DiffTask<T> extends RecursiveAction implements Consumer<T>
+    {
+        private final Spliterator<T> elements;
+        private final Set<T> other;
+        private final boolean leftSide;
+        private final Handler<? super T> handler;
+        private final long threshold;
+
+        private DiffTask(Spliterator<T> elements, Set<T> other, boolean leftSide,
+                         Handler<? super T> handler, long threshold)
+        {
+            this.elements = elements;
+            this.other = other;
+            this.leftSide = leftSide;
+            this.handler = handler;
+            this.threshold = threshold;
         }
-        return new SetDifference<T>(leftOnly,rightOnly,both);
 
+        protected void compute()
+        {
+            List<DiffTask<T>> forked = null;
+            Spliterator<T> split;
+            while (elements.estimateSize() > threshold && (split = elements.trySplit()) != null)
+            {
+                DiffTask<T> task = new DiffTask<T>(split, other, leftSide, handler, threshold);
+                task.fork();
+                if (forked == null)
+                    forked = new ArrayList<DiffTask<T>>();
+                forked.add(task);
+            }
+            elements.forEachRemaining(this);
+            if (forked != null)
+            {
+                for (DiffTask<T> task : forked)
+                    task.join();
+            }
+        }
+
+        public void accept(T x)
+        {
+            if (leftSide)
+            {
+                if (other.contains(x))
+                    handler.both(x);
+                else
+                    handler.leftOnly(x);
+            }
+            else if (!other.contains(x))
+                handler.rightOnly(x);
+        }
+    }
+
+    private static <T> int compare(T a, T b, Comparator<? super T> comparator)
+    {
+        //noinspection unchecked
+        return comparator != null ? comparator.compare(a, b) : ((Comparable<? super T>) a).compareTo(b);
+    }
+
+    /**
+     * @return the next element, after checking that it is greater than the previous one
+     */
+    private static <T> T next(Iterator<? extends T> iterator, T previous, Comparator<? super T> comparator,
+                              String side)
+    {
+        T next = iterator.next();
+        if (compare(previous, next, comparator) >= 0)
+            throw new IllegalArgumentException("The " + side + " input is not in ascending order at " + next);
+        return next;
+    }
+
+    /**
+     * @return i + 1, after checking that the next value is greater than the one at i
+     */
+    private static int checkOrder(long[] values, int i, String side)
+    {
+        int next = i + 1;
+        if (next < values.length && values[next] <= values[i])
+            throw new IllegalArgumentException("The " + side + " array is not in ascending order at index " + next);
+        return next;
     }
 }
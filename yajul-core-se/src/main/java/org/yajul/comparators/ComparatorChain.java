@@ -15,6 +15,8 @@
  */
 package org.yajul.comparators;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.*;
 
@@ -27,8 +29,18 @@ import java.util.*;
  */
 public class ComparatorChain<T> implements Comparator<T>, Serializable {
 
+    /**
+     * The default serialVersionUID of the original class, which serialized the list.
+     */
+    private static final long serialVersionUID = 3457673390484655505L;
+
     private List<Comparator<T>> comparatorChain;
 
+    /**
+     * The comparators as an array, so compare() doesn't allocate an iterator.  Rebuilt after deserialization.
+     */
+    private transient Comparator<T>[] comparators;
+
     /**
      * Construct a ComparatorChain from the Comparators in the
      * List.  All Comparators will default to the forward
@@ -36,7 +48,8 @@ public class ComparatorChain<T> implements Comparator<T>, Serializable {
      * @param comparators any number of comparators
      */
     public ComparatorChain(Comparator<T>... comparators) {
-        comparatorChain = Arrays.asList(comparators);
+        this.comparators = comparators.clone();
+        comparatorChain = Arrays.asList(this.comparators);
     }
 
     /**
@@ -45,7 +58,7 @@ public class ComparatorChain<T> implements Comparator<T>, Serializable {
      * @return Comparator count
      */
     public int size() {
-        return comparatorChain.size();
+        return comparators.length;
     }
 
     //-----------------------------------------------------------------------
@@ -61,8 +74,9 @@ public class ComparatorChain<T> implements Comparator<T>, Serializable {
      *                                       Comparator
      */
     public int compare(T o1, T o2) throws UnsupportedOperationException {
-        for (Comparator<T> comparator : comparatorChain) {
-            int retval = comparator.compare(o1, o2);
+        // Index the array, rather than allocating an iterator for every comparison.
+        for (int i = 0; i < comparators.length; i++) {
+            int retval = comparators[i].compare(o1, o2);
             if (retval != 0) {
                 return retval;
             }
@@ -119,4 +133,10 @@ public class ComparatorChain<T> implements Comparator<T>, Serializable {
             return false;
         }
     }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        comparators = comparatorChain.toArray(new Comparator[comparatorChain.size()]);
+    }
 }
@@ -0,0 +1,435 @@
+package org.yajul.comparators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.RandomAccess;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A comparator made of sort keys: int, long, double and String values extracted from each object, compared
+ * directly in one loop (no boxing, no chain of comparators), and optionally an ordinary comparator as a final
+ * tie breaker.  Build one with {@link Builder}:
+ * <pre>
+ * KeyComparator&lt;Row&gt; c = new KeyComparator.Builder&lt;Row&gt;()
+ *         .byString(NAME).byInt(COUNT).descending().byLong(ID).build();
+ * </pre>
+ * For big lists, {@link #sort(List)} extracts the keys once into arrays, and sorts an int[] of row indexes
+ * with a merge sort over those arrays, splitting large sorts across the common fork/join pool.  With a single
+ * int key the keys and indexes are packed into a long[] and sorted with Arrays.parallelSort(), so no comparison
+ * code is run at all.
+ */
+public class KeyComparator<T> implements Comparator<T> {
+
+    /**
+     * Runs shorter than this are insertion sorted.
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+
+    /**
+     * Runs longer than this are split across the fork/join pool.
+     */
+    private static final int PARALLEL_THRESHOLD = 8192;
+
+    /**
+     * Extracts an int sort key.
+     */
+    public interface IntKey<T> {
+        int key(T o);
+    }
+
+    /**
+     * Extracts a long sort key.
+     */
+    public interface LongKey<T> {
+        long key(T o);
+    }
+
+    /**
+     * Extracts a double sort key, compared as with Double.compare().
+     */
+    public interface DoubleKey<T> {
+        double key(T o);
+    }
+
+    /**
+     * Extracts a String sort key, which may be null.
+     */
+    public interface StringKey<T> {
+        String key(T o);
+    }
+
+    /**
+     * Builds a KeyComparator, the keys are compared in the order they are added.
+     */
+    public static class Builder<T> {
+        private final List<Key<T>> keys = new ArrayList<Key<T>>();
+
+        public Builder<T> byInt(IntKey<? super T> key) {
+            return add(new Key<T>(Kind.INT, key, null, null, null, null, false));
+        }
+
+        public Builder<T> byLong(LongKey<? super T> key) {
+            return add(new Key<T>(Kind.LONG, null, key, null, null, null, false));
+        }
+
+        public Builder<T> byDouble(DoubleKey<? super T> key) {
+            return add(new Key<T>(Kind.DOUBLE, null, null, key, null, null, false));
+        }
+
+        /**
+         * Adds a String key, where nulls are low, as with {@link ComparatorUtil#NULL_LOW_STRING_COMPARATOR}.
+         *
+         * @param key the key
+         * @return this builder
+         */
+        public Builder<T> byString(StringKey<? super T> key) {
+            return byString(key, false);
+        }
+
+        /**
+         * Adds a String key.
+         *
+         * @param key          the key
+         * @param nullsAreHigh true if nulls are greater than non-null values, as in {@link NullComparator}
+         * @return this builder
+         */
+        public Builder<T> byString(StringKey<? super T> key, boolean nullsAreHigh) {
+            return add(new Key<T>(Kind.STRING, null, null, null, key, null, nullsAreHigh));
+        }
+
+        /**
+         * Adds a comparator, for anything that isn't a primitive or String key.
+         *
+         * @param comparator the comparator
+         * @return this builder
+         */
+        public Builder<T> then(Comparator<? super T> comparator) {
+            return add(new Key<T>(Kind.COMPARATOR, null, null, null, null, comparator, false));
+        }
+
+        /**
+         * Reverses the order of the last key added.
+         *
+         * @return this builder
+         */
+        public Builder<T> descending() {
+            if (keys.isEmpty())
+                throw new IllegalStateException("No key to reverse");
+            int last = keys.size() - 1;
+            keys.set(last, keys.get(last).reversed());
+            return this;
+        }
+
+        public KeyComparator<T> build() {
+            if (keys.isEmpty())
+                throw new IllegalStateException("No keys");
+            return new KeyComparator<T>(new ArrayList<Key<T>>(keys));
+        }
+
+        private Builder<T> add(Key<T> key) {
+            keys.add(key);
+            return this;
+        }
+    }
+
+    private enum Kind {
+        INT, LONG, DOUBLE, STRING, COMPARATOR
+    }
+
+    private static class Key<T> {
+        private final Kind kind;
+        private final IntKey<? super T> intKey;
+        private final LongKey<? super T> longKey;
+        private final DoubleKey<? super T> doubleKey;
+        private final StringKey<? super T> stringKey;
+        private final Comparator<? super T> comparator;
+        private final boolean nullsAreHigh;
+        private final boolean descending;
+
+        private Key(Kind kind, IntKey<? super T> intKey, LongKey<? super T> longKey, DoubleKey<? super T> doubleKey,
+                    StringKey<? super T> stringKey, Comparator<? super T> comparator, boolean nullsAreHigh) {
+            this(kind, intKey, longKey, doubleKey, stringKey, comparator, nullsAreHigh, false);
+        }
+
+        private Key(Kind kind, IntKey<? super T> intKey, LongKey<? super T> longKey, DoubleKey<? super T> doubleKey,
+                    StringKey<? super T> stringKey, Comparator<? super T> comparator, boolean nullsAreHigh,
+                    boolean descending) {
+            if (intKey == null && longKey == null && doubleKey == null && stringKey == null && comparator == null)
+                throw new IllegalArgumentException("Key cannot be null!");
+            this.kind = kind;
+            this.intKey = intKey;
+            this.longKey = longKey;
+            this.doubleKey = doubleKey;
+            this.stringKey = stringKey;
+            this.comparator = comparator;
+            this.nullsAreHigh = nullsAreHigh;
+            this.descending = descending;
+        }
+
+        /**
+         * @return a copy of this key, in descending order
+         */
+        private Key<T> reversed() {
+            return new Key<T>(kind, intKey, longKey, doubleKey, stringKey, comparator, nullsAreHigh, true);
+        }
+    }
+
+    /**
+     * The keys of the rows being sorted, extracted once.  The columns are chained in key order.
+     */
+    private static class Column<T> {
+        private final Key<T> key;
+        private final Column<T> next;
+        private int[] ints;
+        private long[] longs;
+        private double[] doubles;
+        private String[] strings;
+        private List<? extends T> rows;
+
+        private Column(Key<T> key, List<? extends T> rows, Column<T> next) {
+            this.key = key;
+            this.next = next;
+            int n = rows.size();
+            switch (key.kind) {
+                case INT:
+                    ints = new int[n];
+                    for (int i = 0; i < n; i++)
+                        ints[i] = key.intKey.key(rows.get(i));
+                    break;
+                case LONG:
+                    longs = new long[n];
+                    for (int i = 0; i < n; i++)
+                        longs[i] = key.longKey.key(rows.get(i));
+                    break;
+                case DOUBLE:
+                    doubles = new double[n];
+                    for (int i = 0; i < n; i++)
+                        doubles[i] = key.doubleKey.key(rows.get(i));
+                    break;
+                case STRING:
+                    strings = new String[n];
+                    for (int i = 0; i < n; i++)
+                        strings[i] = key.stringKey.key(rows.get(i));
+                    break;
+                default:
+                    this.rows = rows;
+            }
+        }
+
+        /**
+         * Compares two rows by this column and the ones after it.
+         */
+        private int compare(int i, int j) {
+            for (Column<T> column = this; column != null; column = column.next) {
+                int rc = column.compareKey(i, j);
+                if (rc != 0)
+                    return rc;
+            }
+            return 0;
+        }
+
+        private int compareKey(int i, int j) {
+            int rc;
+            switch (key.kind) {
+                case INT:
+                    rc = ComparatorUtil.compareIntegers(ints[i], ints[j]);
+                    break;
+                case LONG:
+                    rc = compareLongs(longs[i], longs[j]);
+                    break;
+                case DOUBLE:
+                    rc = Double.compare(doubles[i], doubles[j]);
+                    break;
+                case STRING:
+                    rc = compareStrings(strings[i], strings[j], key.nullsAreHigh);
+                    break;
+                default:
+                    rc = key.comparator.compare(rows.get(i), rows.get(j));
+            }
+            return reverse(rc, key.descending);
+        }
+    }
+
+    /**
+     * A stable merge sort of row indexes, by their columns.  Sorts src[from, to) into dst[from, to), where both
+     * arrays start out with the same indexes.  Large runs sort their halves in parallel.
+     */
+    private static class MergeSort<T> extends RecursiveAction {
+        private final Column<T> columns;
+        private final int[] src;
+        private final int[] dst;
+        private final int from;
+        private final int to;
+
+        private MergeSort(Column<T> columns, int[] src, int[] dst, int from, int to) {
+            this.columns = columns;
+            this.src = src;
+            this.dst = dst;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            int n = to - from;
+            if (n < INSERTION_SORT_THRESHOLD) {
+                for (int i = from + 1; i < to; i++) {
+                    int index = dst[i];
+                    int j = i;
+                    for (; j > from && columns.compare(dst[j - 1], index) > 0; j--)
+                        dst[j] = dst[j - 1];
+                    dst[j] = index;
+                }
+                return;
+            }
+            // Sort the halves into src, then merge them into dst.
+            int mid = (from + to) >>> 1;
+            MergeSort<T> low = new MergeSort<T>(columns, dst, src, from, mid);
+            MergeSort<T> high = new MergeSort<T>(columns, dst, src, mid, to);
+            if (n > PARALLEL_THRESHOLD)
+                invokeAll(low, high);
+            else {
+                low.compute();
+                high.compute();
+            }
+            if (columns.compare(src[mid - 1], src[mid]) <= 0) {
+                System.arraycopy(src, from, dst, from, n);     // Already in order.
+                return;
+            }
+            for (int k = from, i = from, j = mid; k < to; k++) {
+                if (j >= to || (i < mid && columns.compare(src[i], src[j]) <= 0))
+                    dst[k] = src[i++];
+                else
+                    dst[k] = src[j++];
+            }
+        }
+    }
+
+    private final List<Key<T>> keys;
+
+    private KeyComparator(List<Key<T>> keys) {
+        this.keys = keys;
+    }
+
+    public int compare(T o1, T o2) {
+        for (int k = 0, n = keys.size(); k < n; k++) {
+            Key<T> key = keys.get(k);
+            int rc;
+            switch (key.kind) {
+                case INT:
+                    rc = ComparatorUtil.compareIntegers(key.intKey.key(o1), key.intKey.key(o2));
+                    break;
+                case LONG:
+                    rc = compareLongs(key.longKey.key(o1), key.longKey.key(o2));
+                    break;
+                case DOUBLE:
+                    rc = Double.compare(key.doubleKey.key(o1), key.doubleKey.key(o2));
+                    break;
+                case STRING:
+                    rc = compareStrings(key.stringKey.key(o1), key.stringKey.key(o2), key.nullsAreHigh);
+                    break;
+                default:
+                    rc = key.comparator.compare(o1, o2);
+            }
+            if (rc != 0)
+                return reverse(rc, key.descending);
+        }
+        return 0;
+    }
+
+    /**
+     * Sorts the rows, by extracting the keys once and sorting the indexes in parallel.  The sort is stable.
+     *
+     * @param rows the rows
+     * @return the indexes of the rows, in sorted order
+     */
+    public int[] sortedIndexes(List<? extends T> rows) {
+        return sortRows(rows instanceof RandomAccess ? rows : new ArrayList<T>(rows));
+    }
+
+    /**
+     * Sorts the rows, by extracting the keys once and sorting the indexes in parallel.  The sort is stable.
+     *
+     * @param rows the rows
+     * @return the indexes of the rows, in sorted order
+     */
+    public int[] sortedIndexes(T[] rows) {
+        return sortRows(Arrays.asList(rows));
+    }
+
+    /**
+     * Sorts a list in place, like Collections.sort(list, this), using {@link #sortedIndexes(List)}.
+     *
+     * @param rows the list
+     */
+    public void sort(List<T> rows) {
+        List<T> copy = new ArrayList<T>(rows);
+        int[] order = sortRows(copy);
+        ListIterator<T> iter = rows.listIterator();
+        for (int index : order) {
+            iter.next();
+            iter.set(copy.get(index));
+        }
+    }
+
+    /**
+     * Sorts an array in place, like Arrays.sort(rows, this), using {@link #sortedIndexes(Object[])}.
+     *
+     * @param rows the array
+     */
+    public void sort(T[] rows) {
+        T[] copy = rows.clone();
+        int[] order = sortRows(Arrays.asList(copy));
+        for (int i = 0; i < order.length; i++)
+            rows[i] = copy[order[i]];
+    }
+
+    /**
+     * @param rows the rows, a random access list
+     * @return the indexes of the rows, in sorted order
+     */
+    private int[] sortRows(List<? extends T> rows) {
+        int n = rows.size();
+        int[] order = new int[n];
+        if (keys.size() == 1 && keys.get(0).kind == Kind.INT) {
+            // Pack the key into the high half and the index into the low half, ties sort by index.
+            Key<T> key = keys.get(0);
+            long[] packed = new long[n];
+            for (int i = 0; i < n; i++) {
+                int k = key.intKey.key(rows.get(i));
+                packed[i] = ((long) (key.descending ? ~k : k) << 32) | i;
+            }
+            Arrays.parallelSort(packed);
+            for (int i = 0; i < n; i++)
+                order[i] = (int) packed[i];
+            return order;
+        }
+        Column<T> columns = null;
+        for (int c = keys.size() - 1; c >= 0; c--)
+            columns = new Column<T>(keys.get(c), rows, columns);
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        new MergeSort<T>(columns, order.clone(), order, 0, n).invoke();
+        return order;
+    }
+
+    private static int reverse(int rc, boolean descending) {
+        return descending && rc != 0 ? (rc < 0 ? 1 : -1) : rc;
+    }
+
+    private static int compareLongs(long a, long b) {
+        return (a < b ? -1 : (a == b ? 0 : 1));
+    }
+
+    private static int compareStrings(String a, String b, boolean nullsAreHigh) {
+        if (a == b)
+            return 0;
+        if (a == null)
+            return nullsAreHigh ? 1 : -1;
+        if (b == null)
+            return nullsAreHigh ? -1 : 1;
+        return a.compareTo(b);
+    }
+}
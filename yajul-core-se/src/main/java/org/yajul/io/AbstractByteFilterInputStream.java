@@ -35,7 +35,8 @@ import java.io.PushbackInputStream;
 /**
  * Implements the array based read method to simplify writing 'byte at a time'
  * FilterInputStream classes.  Sub-classes need only implement the read()
- * method.
+ * method, but can override the array based read method if they can do better
+ * than one call to read() per byte.
  * <br>
  * User: josh
  * Date: Nov 27, 2002
@@ -118,7 +119,7 @@ public abstract class AbstractByteFilterInputStream extends FilterInputStream {
      * @throws java.io.IOException if an I/O error occurs.
      * @see java.io.FilterInputStream#in
      */
-    public final int read(byte b[], int off, int len) throws IOException {
+    public int read(byte b[], int off, int len) throws IOException {
         int ch;
         int i;
         for (i = 0; i < len; i++) {
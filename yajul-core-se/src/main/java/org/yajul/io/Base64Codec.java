@@ -0,0 +1,228 @@
+package org.yajul.io;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lookup tables and block encoding / decoding routines shared by the BASE64
+ * streams and the static encode / decode methods.  Encoding works on 3 byte
+ * input groups that become 4 output characters; decoding does the reverse.
+ * <br>
+ * The decoding table accepts both the standard alphabet and the URL safe
+ * alphabet ('-' and '_' instead of '+' and '/').  Characters that are not
+ * in either alphabet (e.g. line breaks) are skipped, and '=' ends the input.
+ */
+final class Base64Codec {
+    /**
+     * The maximum line length for MIME.
+     */
+    static final int MIME_LINE_LENGTH = 76;
+
+    /**
+     * The standard alphabet, RFC 2045 / RFC 4648 section 4.
+     */
+    static final byte[] STANDARD = alphabet('+', '/');
+
+    /**
+     * The URL and filename safe alphabet, RFC 4648 section 5.
+     */
+    static final byte[] URL_SAFE = alphabet('-', '_');
+
+    static final byte PAD = '=';
+
+    static final byte NEWLINE = '\n';
+
+    /**
+     * Decoding table value for characters that are not in the alphabet.
+     */
+    static final byte INVALID = -1;
+
+    /**
+     * Decoding table value for the end of input (padding) character.
+     */
+    static final byte END_OF_INPUT = -2;
+
+    /**
+     * The decoding table.  The index is the encoded character, the value is the 6 bit binary
+     * value, or INVALID, or END_OF_INPUT.
+     */
+    static final byte[] DECODE = new byte[256];
+
+    static {
+        for (int i = 0; i < DECODE.length; i++)
+            DECODE[i] = INVALID;
+        for (int i = 0; i < STANDARD.length; i++) {
+            DECODE[STANDARD[i]] = (byte) i;
+            DECODE[URL_SAFE[i]] = (byte) i;
+        }
+        DECODE[PAD] = END_OF_INPUT;
+    }
+
+    private Base64Codec() {
+    }
+
+    private static byte[] alphabet(char c62, char c63) {
+        String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789" + c62 + c63;
+        return chars.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the number of encoded characters (including padding and line breaks)
+     * for the given number of input bytes.
+     *
+     * @param length     the number of input bytes
+     * @param lineLength the line length, or zero for no line breaks
+     * @return the encoded length
+     */
+    static int encodedLength(int length, int lineLength) {
+        int chars = ((length + 2) / 3) * 4;
+        if (lineLength > 0 && chars > 0)
+            chars += (chars - 1) / lineLength;
+        return chars;
+    }
+
+    /**
+     * Encodes the bytes in one pass, without any intermediate streams.
+     *
+     * @param src        the input
+     * @param off        offset of the first input byte
+     * @param len        number of input bytes
+     * @param alphabet   the alphabet, STANDARD or URL_SAFE
+     * @param lineLength the line length, or zero for no line breaks
+     * @return the encoded bytes
+     */
+    static byte[] encode(byte[] src, int off, int len, byte[] alphabet, int lineLength) {
+        byte[] dest = new byte[encodedLength(len, lineLength)];
+        int end = off + len;
+        int full = off + (len / 3) * 3;
+        int d = 0;
+        int column = 0;
+        int s = off;
+        while (s < full) {
+            int bits = (src[s++] & 0xff) << 16 | (src[s++] & 0xff) << 8 | (src[s++] & 0xff);
+            if (lineLength > 0 && column + 4 > lineLength) {
+                d = encodeWrapped(bits, 4, dest, d, column, alphabet, lineLength);
+                column = columnAfter(column, lineLength);
+            } else {
+                dest[d++] = alphabet[(bits >>> 18) & 0x3f];
+                dest[d++] = alphabet[(bits >>> 12) & 0x3f];
+                dest[d++] = alphabet[(bits >>> 6) & 0x3f];
+                dest[d++] = alphabet[bits & 0x3f];
+                column += 4;
+            }
+        }
+        int remaining = end - s;
+        if (remaining > 0) {
+            int bits = (src[s] & 0xff) << 16;
+            if (remaining == 2)
+                bits |= (src[s + 1] & 0xff) << 8;
+            encodeWrapped(bits, remaining + 1, dest, d, column, alphabet, lineLength);
+        }
+        return dest;
+    }
+
+    /**
+     * Encodes one group of up to three bytes into four characters, padding as needed and adding
+     * line breaks where they are due.  This is the slow path, used at the end of lines and at the
+     * end of the input.
+     *
+     * @param bits       the (up to) 24 input bits
+     * @param chars      the number of significant characters (2, 3 or 4), the rest are padding
+     * @param dest       the output
+     * @param d          the output position
+     * @param column     the number of characters on the current line
+     * @param alphabet   the alphabet
+     * @param lineLength the line length, or zero for no line breaks
+     * @return the new output position
+     */
+    static int encodeWrapped(int bits, int chars, byte[] dest, int d, int column, byte[] alphabet, int lineLength) {
+        for (int i = 0; i < 4; i++) {
+            if (lineLength > 0 && column == lineLength) {
+                dest[d++] = NEWLINE;
+                column = 0;
+            }
+            dest[d++] = (i < chars) ? alphabet[(bits >>> (18 - 6 * i)) & 0x3f] : PAD;
+            column++;
+        }
+        return d;
+    }
+
+    /**
+     * Returns the number of characters on the current line after a group of four characters
+     * was written by {@link #encodeWrapped(int, int, byte[], int, int, byte[], int)}.
+     *
+     * @param column     the number of characters on the line before the group
+     * @param lineLength the line length, must be greater than zero
+     * @return the number of characters on the line after the group
+     */
+    static int columnAfter(int column, int lineLength) {
+        return (column + 3) % lineLength + 1;
+    }
+
+    /**
+     * Decodes the characters in one pass, without any intermediate streams.
+     *
+     * @param src the encoded input
+     * @param off offset of the first input character
+     * @param len number of input characters
+     * @return the decoded bytes
+     * @throws Base64FormatException if the input is not terminated properly
+     */
+    static byte[] decode(byte[] src, int off, int len) throws Base64FormatException {
+        byte[] dest = new byte[(len / 4) * 3 + 2];
+        int d = 0;
+        int bits = 0;
+        int count = 0;
+        int end = off + len;
+        for (int s = off; s < end; s++) {
+            int value = DECODE[src[s] & 0xff];
+            if (value >= 0) {
+                bits = (bits << 6) | value;
+                if (++count == 4) {
+                    dest[d++] = (byte) (bits >>> 16);
+                    dest[d++] = (byte) (bits >>> 8);
+                    dest[d++] = (byte) bits;
+                    bits = 0;
+                    count = 0;
+                }
+            } else if (value == END_OF_INPUT) {
+                break;
+            }
+        }
+        d = decodeLast(bits, count, dest, d);
+        if (d == dest.length)
+            return dest;
+        byte[] result = new byte[d];
+        System.arraycopy(dest, 0, result, 0, d);
+        return result;
+    }
+
+    /**
+     * Decodes an incomplete group of characters at the end of the input.
+     *
+     * @param bits  the accumulated bits
+     * @param count the number of characters in the group
+     * @param dest  the output
+     * @param d     the output position
+     * @return the new output position
+     * @throws Base64FormatException if there is only one character in the group
+     */
+    static int decodeLast(int bits, int count, byte[] dest, int d) throws Base64FormatException {
+        switch (count) {
+            case 0:
+                break;
+            case 1: // 1 byte of encoded input... no output can be written!
+                throw new Base64FormatException(
+                        "Base64 encoded input is not terminated properly!");
+            case 2: // 12 bits, one byte.
+                dest[d++] = (byte) (bits >>> 4);
+                break;
+            case 3: // 18 bits, two bytes.
+                dest[d++] = (byte) (bits >>> 10);
+                dest[d++] = (byte) (bits >>> 2);
+                break;
+            default:
+                throw new IllegalStateException("Unexpected count: " + count);
+        }
+        return d;
+    }
+}
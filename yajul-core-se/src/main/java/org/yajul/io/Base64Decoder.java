@@ -34,6 +34,7 @@
 package org.yajul.io;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Decode a BASE64 encoded input stream to some output stream.
@@ -53,8 +54,8 @@ public class Base64Decoder {
      *          if the input is not valid.
      */
     public static String decode(String input) throws Base64FormatException {
-        Base64Decoder dec = new Base64Decoder(input);
-        return dec.processString();
+        byte[] decoded = decode(input.getBytes(StandardCharsets.ISO_8859_1));
+        return new String(decoded, StandardCharsets.ISO_8859_1);
     }
 
     /**
@@ -82,15 +83,9 @@ public class Base64Decoder {
      */
     public static byte[] decode(byte[] input, int offset, int length)
             throws Base64FormatException {
-        Base64Decoder dec = new Base64Decoder(input, offset, length);
-        try {
-            dec.process();
-        }
-        catch (IOException e) {
-            throw new Base64FormatException("Unable to decode input due to: "
-                    + e.getMessage());
-        }
-        return dec.toByteArray();
+        if (offset < 0 || length < 0 || length > input.length - offset)
+            throw new IndexOutOfBoundsException();
+        return Base64Codec.decode(input, offset, length);
     }
 
     private InputStream in = null;
@@ -170,7 +165,7 @@ public class Base64Decoder {
     public void process()
             throws IOException {
         Base64InputStream decodedInput = new Base64InputStream(in);
-        StreamCopier.unsyncCopy(decodedInput, out, 16);
+        StreamCopier.unsyncCopy(decodedInput, out, StreamCopier.DEFAULT_BUFFER_SIZE);
         out.flush();
     }
 
@@ -34,6 +34,7 @@
 package org.yajul.io;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 
 /**
  * BASE64 encoder implementation.
@@ -48,6 +49,11 @@ import java.io.*;
  */
 public class Base64Encoder {
 
+    /**
+     * Input buffer size for process(), a multiple of three so whole groups are encoded.
+     */
+    private static final int BUFFER_SIZE = 3 * 1024;
+
     private InputStream in = null;
     private OutputStream out = null;
     boolean stringp = false;
@@ -63,7 +69,7 @@ public class Base64Encoder {
     public void process()
             throws IOException {
         Base64OutputStream encoder = new Base64OutputStream(out);
-        StreamCopier.unsyncCopy(in, encoder, 16);
+        StreamCopier.unsyncCopy(in, encoder, BUFFER_SIZE);
         encoder.flush();
     }
 
@@ -97,8 +103,7 @@ public class Base64Encoder {
      * @return the encoded string
      */
     public static String encode(String string) {
-        Base64Encoder enc = new Base64Encoder(string);
-        return enc.processString();
+        return encode(string.getBytes(StandardCharsets.ISO_8859_1));
     }
 
     /**
@@ -108,8 +113,41 @@ public class Base64Encoder {
      * @return the decoded string
      */
     public static String encode(byte[] bytes) {
-        Base64Encoder enc = new Base64Encoder(bytes);
-        return enc.processString();
+        return toString(encodeToBytes(bytes, 0, bytes.length, false, Base64OutputStream.MIME_LINE_LENGTH));
+    }
+
+    /**
+     * A static utility method that encodes an array of bytes with the URL and filename
+     * safe alphabet, without line breaks.
+     *
+     * @param bytes The input to be encoded.
+     * @return the encoded string
+     */
+    public static String encodeUrlSafe(byte[] bytes) {
+        return toString(encodeToBytes(bytes, 0, bytes.length, true, Base64OutputStream.NO_LINE_BREAKS));
+    }
+
+    /**
+     * Encodes part of an array of bytes in one pass, without any intermediate streams.
+     *
+     * @param bytes      The input to be encoded.
+     * @param offset     The offset of the first byte to encode.
+     * @param length     The number of bytes to encode.
+     * @param urlSafe    true to use the URL and filename safe alphabet
+     * @param lineLength the number of characters per line, or Base64OutputStream.NO_LINE_BREAKS
+     * @return the encoded bytes
+     */
+    public static byte[] encodeToBytes(byte[] bytes, int offset, int length, boolean urlSafe, int lineLength) {
+        if (offset < 0 || length < 0 || length > bytes.length - offset)
+            throw new IndexOutOfBoundsException();
+        if (lineLength < 0)
+            throw new IllegalArgumentException("Line length must be >= 0");
+        return Base64Codec.encode(bytes, offset, length,
+                urlSafe ? Base64Codec.URL_SAFE : Base64Codec.STANDARD, lineLength);
+    }
+
+    private static String toString(byte[] encoded) {
+        return new String(encoded, StandardCharsets.ISO_8859_1);
     }
 
     /**
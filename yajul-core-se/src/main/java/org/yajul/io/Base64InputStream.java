@@ -41,6 +41,11 @@ import java.io.InputStream;
 /**
  * Provides decoding of BASE64 encoded data as an input stream filter.  The
  * underlying input stream is expected to be encoded in BASE64 form.
+ * <br>
+ * The encoded input is read in blocks and decoded four characters at a time
+ * using a lookup table, so this stream may read past the end of the BASE64
+ * data in the underlying stream.  Both the standard and the URL safe alphabets
+ * are accepted.
  *
  * @author Joshua Davis
  */
@@ -49,14 +54,53 @@ public class Base64InputStream
     private static final int END_OF_INPUT = 65;
 
     /**
-     * Keeps track of the state (byte number) in the input stream. *
+     * The size of the encoded input buffer.
      */
-    private int state;
+    private static final int BUFFER_SIZE = 4096;
 
     /**
-     * The previous encoded and parsed byte. *
+     * Encoded input buffer.
      */
-    private int previous;
+    private final byte[] input = new byte[BUFFER_SIZE];
+
+    /**
+     * The position of the next encoded character in the input buffer.
+     */
+    private int inputPos;
+
+    /**
+     * The number of encoded characters in the input buffer.
+     */
+    private int inputLength;
+
+    /**
+     * The bits of the current group of encoded characters.
+     */
+    private int bits;
+
+    /**
+     * The number of encoded characters in the current group.
+     */
+    private int count;
+
+    /**
+     * Decoded bytes that didn't fit in the caller's buffer.
+     */
+    private final byte[] leftover = new byte[3];
+
+    private int leftoverPos;
+
+    private int leftoverLength;
+
+    /**
+     * Buffer for read().
+     */
+    private final byte[] single = new byte[1];
+
+    /**
+     * True when the end of the BASE64 input has been reached.
+     */
+    private boolean eof;
 
     /**
      * Creates a new Base64 decoding input stream, using the input stream
@@ -66,8 +110,6 @@ public class Base64InputStream
      */
     public Base64InputStream(InputStream in) {
         super(in);
-        state = 0;
-        previous = 0;
     }
 
     /**
@@ -78,110 +120,137 @@ public class Base64InputStream
      * <code>-1</code> is returned. This method blocks until input data
      * is available, the end of the stream is detected, or an exception
      * is thrown.
-     * <p/>
-     * This method
-     * simply performs <code>in.read()</code> and returns the result.
      *
      * @return the next byte of data, or <code>-1</code> if the end of the
      *         stream is reached.
      * @throws IOException if an I/O error occurs.
      * @see FilterInputStream#in
      */
-    @SuppressWarnings({"UnusedAssignment"})
     public int read() throws IOException {
-        int input = 0;
-        int parsed = 0;
-        int output = 0;
-        if (state == -1)    // EOF reached?
-            return -1;      // Just return -1
-
-        while ((input = super.readByte()) >= 0) {
-            parsed = parseCharacter(input);
-            // If the parsed character is valid BASE64 input, then
-            // enter the state machine.  Otherwise, keep reading.
-            if (parsed >= 0 && parsed <= 64) {
-                // A simple finite state machine based on the state, and the
-                // current and previous *parsed* input.
-                state++;
-                switch (state) {
-                    case 1: // 1 byte of input, nothing to do.
-                        previous = parsed;
-                        break;
-                    case 2: // 2 bytes of input, output the first byte.
-                        output = get1((byte) previous, (byte) parsed);
-                        previous = parsed;
-                        return output;
-                    case 3: // 3 bytes parsed, output the second byte.
-                        output = get2((byte) previous, (byte) parsed);
-                        previous = parsed;
-                        return output;
-                    case 4: // 4 bytes parsed, output the third byte.
-                        output = get3((byte) previous, (byte) parsed);
-                        state = 0;  // Go back to the initial state.
-                        return output;
-                    default:
-                        throw new IllegalStateException(
-                                "Unexpected state: " + state);
-
-                } // switch
-            } // if
-            else if (parsed == END_OF_INPUT) {
-                return lastByte();
-            }
-        } // while
-
-        return lastByte();
+        if (leftoverPos < leftoverLength)
+            return leftover[leftoverPos++] & 0xff;
+        int n = read(single, 0, 1);
+        return (n == -1) ? -1 : single[0] & 0xff;
     }
 
-    @SuppressWarnings({"UnusedAssignment"})
-    private int lastByte() throws IOException {
-        int output = -1;
-        switch (state) {
-            case 1: // 1 byte of encoded input... no output can be written!
-                throw new Base64FormatException(
-                        "Base64 encoded input is not terminated properly!");
-            case 0:
-            case 2: // 2 bytes of encoded input, the first decoded byte has been written.
-            case 3: // 3 bytes of encoded input, the second decoded byte has been written.
-            case 4: // 4 bytes parsed, third byte already written.
-                output = -1;
-                break;
-            default:
-                throw new IllegalStateException(
-                        "Unexpected state: " + state);
-
-        } // switch
-        // Set 'end of file' state.
-        state = -1;
-        return output;
+    /**
+     * Reads up to <code>len</code> decoded bytes into an array of bytes, decoding
+     * a block of encoded input at a time.  This method blocks until some input is
+     * available.
+     *
+     * @param b   the buffer into which the data is read.
+     * @param off the start offset of the data.
+     * @param len the maximum number of bytes read.
+     * @return the total number of bytes read into the buffer, or
+     *         <code>-1</code> if there is no more data because the end of
+     *         the stream has been reached.
+     * @throws IOException if an I/O error occurs, or if the input is not valid.
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return 0;
+        int d = off;
+        int end = off + len;
+        while (leftoverPos < leftoverLength && d < end)
+            b[d++] = leftover[leftoverPos++];
+        while (d < end && !eof) {
+            if (inputPos == inputLength) {
+                // Don't block if some bytes have already been decoded.
+                if (d > off && in.available() <= 0)
+                    break;
+                if (!fill()) {
+                    d = finish(b, d, end);
+                    break;
+                }
+            }
+            d = decode(b, d, end);
+        }
+        int n = d - off;
+        return (n == 0 && eof && leftoverPos == leftoverLength) ? -1 : n;
     }
 
     /**
-     * Returns the first decoded byte, given the first two bytes of
-     * a set of BASE64 encoded input.
-     *
-     * @param byte1 The first encoded byte.
-     * @param byte2 The second encoded byte.
-     * @return The first decoded byte.
+     * Decodes characters from the input buffer into the caller's buffer until one of them runs out.
      */
-    private static int get1(byte byte1, byte byte2) {
-        return ((byte1 & 0x3f) << 2) | ((byte2 & 0x30) >>> 4);
+    private int decode(byte[] b, int d, int end) throws IOException {
+        byte[] table = Base64Codec.DECODE;
+        int s = inputPos;
+        int limit = inputLength;
+        int bits = this.bits;
+        int count = this.count;
+        try {
+            while (s < limit) {
+                int value = table[input[s++] & 0xff];
+                if (value >= 0) {
+                    bits = (bits << 6) | value;
+                    if (++count == 4) {
+                        count = 0;
+                        if (end - d >= 3) {
+                            b[d++] = (byte) (bits >>> 16);
+                            b[d++] = (byte) (bits >>> 8);
+                            b[d++] = (byte) bits;
+                        } else {
+                            leftover[0] = (byte) (bits >>> 16);
+                            leftover[1] = (byte) (bits >>> 8);
+                            leftover[2] = (byte) bits;
+                            leftoverPos = 0;
+                            leftoverLength = 3;
+                            while (d < end)
+                                b[d++] = leftover[leftoverPos++];
+                            bits = 0;
+                            break;
+                        }
+                        bits = 0;
+                        if (d == end)
+                            break;
+                    }
+                } else if (value == Base64Codec.END_OF_INPUT) {
+                    // The rest of the buffer is not BASE64 data.
+                    s = limit;
+                    this.bits = bits;
+                    this.count = count;
+                    return finish(b, d, end);
+                }
+            }
+        } finally {
+            inputPos = s;
+        }
+        this.bits = bits;
+        this.count = count;
+        return d;
     }
 
     /**
-     * Returns the second decoded byte, given the second and third bytes
-     * of a aset of BASE64 encoded input.
-     *
-     * @param byte2 The second encoded byte.
-     * @param byte3 The third encoded byte.
-     * @return The second decoded byte.
+     * Decodes the last (incomplete) group and sets the end of file state.
      */
-    private static int get2(byte byte2, byte byte3) {
-        return ((byte2 & 0x0f) << 4) | ((byte3 & 0x3c) >>> 2);
+    private int finish(byte[] b, int d, int end) throws IOException {
+        eof = true;
+        leftoverPos = 0;
+        leftoverLength = Base64Codec.decodeLast(bits, count, leftover, 0);
+        bits = 0;
+        count = 0;
+        while (leftoverPos < leftoverLength && d < end)
+            b[d++] = leftover[leftoverPos++];
+        return d;
     }
 
-    private static int get3(byte byte3, byte byte4) {
-        return ((byte3 & 0x03) << 6) | (byte4 & 0x3f);
+    /**
+     * Reads the next block of encoded input.
+     *
+     * @return false if the end of the underlying stream was reached
+     */
+    private boolean fill() throws IOException {
+        int n;
+        do {
+            n = in.read(input, 0, input.length);
+        } while (n == 0);
+        if (n < 0)
+            return false;
+        inputPos = 0;
+        inputLength = n;
+        return true;
     }
 
     /**
@@ -194,24 +263,9 @@ public class Base64InputStream
      *         not a valid BASE64 character.
      */
     public static int parseCharacter(int ch) {
-        if ((ch >= 'A') && (ch <= 'Z')) {
-            return ch - 'A';
-        } else if ((ch >= 'a') && (ch <= 'z')) {
-            return ch - 'a' + 26;
-        } else if ((ch >= '0') && (ch <= '9')) {
-            return ch - '0' + 52;
-        } else {
-            switch (ch) {
-                case'=':
-                    return END_OF_INPUT;
-                case'+':
-                    return 62;
-                case'/':
-                    return 63;
-                default:
-                    // Invalid BASE64 character.
-                    return -1;
-            }
-        }
+        if (ch < 0 || ch > 255)
+            return -1;
+        int value = Base64Codec.DECODE[ch];
+        return (value == Base64Codec.END_OF_INPUT) ? END_OF_INPUT : value;
     }
 }
@@ -50,58 +50,70 @@ import java.io.OutputStream;
  * encoding rules, as defined in
  * <a href="http://ds.internic.net/rfc/rfc1521.txt">MIME specification</a>
  * and written to the underlying output stream.
+ * <br>
+ * Arrays of bytes are encoded three bytes at a time using a lookup table, so
+ * wrap this around the underlying stream and write blocks to it rather than
+ * single bytes.  The final group is padded when the stream is flushed or closed.
  *
  * @author josh (Refactored from old 'Intira' code)
  */
 public class Base64OutputStream extends FilterOutputStream {
-    /** A logger for this class. */
-//    private static Logger log = Logger.getLogger(Base64OutputStream.class);
+    /**
+     * The number of BASE64 encoded bytes to put on a line, as per MIME.
+     */
+    public static final int MIME_LINE_LENGTH = Base64Codec.MIME_LINE_LENGTH;
+
+    /**
+     * Line length that turns off line breaks.
+     */
+    public static final int NO_LINE_BREAKS = 0;
 
     /**
-     * The number of BASE64 encoded bytes to put in a 'block'. *
+     * The size of the encoded output buffer used by write(byte[],int,int).
      */
-    private static final int BLOCK_SIZE = 76;
+    private static final int BUFFER_SIZE = 4096;
 
     /**
-     * The encoding matrix.   The index is the 'input' binary value, and
+     * The encoding alphabet.   The index is the 'input' binary value, and
      * the value is the BASE64 encoded representation. *
      */
-    private static final byte ENCODED[] =
-            {
-                    (byte) 'A', (byte) 'B', (byte) 'C', (byte) 'D',
-                    (byte) 'E', (byte) 'F', (byte) 'G', (byte) 'H', // 0-7
-                    (byte) 'I', (byte) 'J', (byte) 'K', (byte) 'L',
-                    (byte) 'M', (byte) 'N', (byte) 'O', (byte) 'P', // 8-15
-                    (byte) 'Q', (byte) 'R', (byte) 'S', (byte) 'T',
-                    (byte) 'U', (byte) 'V', (byte) 'W', (byte) 'X', // 16-23
-                    (byte) 'Y', (byte) 'Z', (byte) 'a', (byte) 'b',
-                    (byte) 'c', (byte) 'd', (byte) 'e', (byte) 'f', // 24-31
-                    (byte) 'g', (byte) 'h', (byte) 'i', (byte) 'j',
-                    (byte) 'k', (byte) 'l', (byte) 'm', (byte) 'n', // 32-39
-                    (byte) 'o', (byte) 'p', (byte) 'q', (byte) 'r',
-                    (byte) 's', (byte) 't', (byte) 'u', (byte) 'v', // 40-47
-                    (byte) 'w', (byte) 'x', (byte) 'y', (byte) 'z',
-                    (byte) '0', (byte) '1', (byte) '2', (byte) '3', // 48-55
-                    (byte) '4', (byte) '5', (byte) '6', (byte) '7',
-                    (byte) '8', (byte) '9', (byte) '+', (byte) '/', // 56-63
-                    (byte) '='                        // 64
-            };
-
-    /**
-     * Keeps track of the BASE64 state (byte number) in the input stream. *
-     */
-    private int state;
-
-    /**
-     * Keeps track of the number of bytes written so far, used to add a
+    private final byte[] alphabet;
+
+    /**
+     * The line length, or zero for no line breaks.
+     */
+    private final int lineLength;
+
+    /**
+     * The most bytes one group of four characters can take, including line breaks.
+     */
+    private final int groupSize;
+
+    /**
+     * The encoded characters of one group, used by write(int) and flush().
+     */
+    private final byte[] group;
+
+    /**
+     * Input bytes that have not been encoded yet (less than three).
+     */
+    private final byte[] pending = new byte[3];
+
+    /**
+     * The number of bytes in 'pending'.
+     */
+    private int pendingCount;
+
+    /**
+     * Keeps track of the number of bytes written on the current line, used to add a
      * newline every 76 encoded bytes. *
      */
-    private int count;
+    private int column;
 
     /**
-     * The previous encoded and parsed byte. *
+     * The encoded output buffer.
      */
-    private int previous;
+    private byte[] buffer;
 
     /**
      * Creates a new BASE64 encoding output stream.
@@ -109,10 +121,25 @@ public class Base64OutputStream extends FilterOutputStream {
      * @param out The underlying output stream.
      */
     public Base64OutputStream(OutputStream out) {
+        this(out, false, MIME_LINE_LENGTH);
+    }
+
+    /**
+     * Creates a new BASE64 encoding output stream.
+     *
+     * @param out        The underlying output stream.
+     * @param urlSafe    true to use the URL and filename safe alphabet ('-' and '_' instead of '+' and '/')
+     * @param lineLength the number of characters per line, or NO_LINE_BREAKS
+     */
+    public Base64OutputStream(OutputStream out, boolean urlSafe, int lineLength) {
         super(out);
-        state = 0;
-        count = 0;
-        previous = 0;
+        if (lineLength < 0)
+            throw new IllegalArgumentException("Line length must be >= 0");
+        this.alphabet = urlSafe ? Base64Codec.URL_SAFE : Base64Codec.STANDARD;
+        this.lineLength = lineLength;
+        // With short lines, a group can have a line break before each character.
+        this.groupSize = 4 + (lineLength > 0 ? Math.min(4, (3 + lineLength) / lineLength) : 0);
+        this.group = new byte[groupSize];
     }
 
     /**
@@ -128,31 +155,71 @@ public class Base64OutputStream extends FilterOutputStream {
      * @throws java.io.IOException if an I/O error occurs.
      */
     public void write(int b) throws IOException {
-        state++;
-        byte inbyte = (byte) b;
-        byte prevByte = (byte) previous;
-        switch (state) {
-            case 1:
-                writeByte(ENCODED[get1(inbyte)]);
-                previous = b;
-                break;
-            case 2:
-                writeByte(ENCODED[get2(prevByte, inbyte)]);
-                previous = b;
-                break;
-            case 3:
-                writeByte(ENCODED[get3(prevByte, inbyte)]);
-                writeByte(ENCODED[get4(inbyte)]);
-                state = 0;
-                break;
-            default:
-                throw new IllegalStateException("Unknown state: " + state);
+        pending[pendingCount++] = (byte) b;
+        if (pendingCount == 3) {
+            int n = encodeGroup(bits(pending, 0), 4, group, 0);
+            pendingCount = 0;
+            out.write(group, 0, n);
+        }
+    }
+
+    /**
+     * Encodes <code>len</code> bytes from the specified byte array starting at offset <code>off</code>,
+     * writing the encoded characters to the underlying stream in blocks.
+     *
+     * @param b   the data.
+     * @param off the start offset in the data.
+     * @param len the number of bytes to write.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        if ((off | len | (b.length - (len + off)) | (off + len)) < 0)
+            throw new IndexOutOfBoundsException();
+        // Finish the pending group, if there is one.
+        while (pendingCount > 0 && len > 0) {
+            write(b[off++]);
+            len--;
         }
+        if (len < 3) {
+            for (int i = 0; i < len; i++)
+                pending[pendingCount++] = b[off + i];
+            return;
+        }
+        if (buffer == null)
+            buffer = new byte[BUFFER_SIZE];
+        int limit = buffer.length - groupSize;
+        int d = 0;
+        int end = off + (len / 3) * 3;
+        while (off < end) {
+            int bits = bits(b, off);
+            off += 3;
+            if (lineLength > 0 && column + 4 > lineLength) {
+                d = encodeGroup(bits, 4, buffer, d);
+            } else {
+                buffer[d++] = alphabet[(bits >>> 18) & 0x3f];
+                buffer[d++] = alphabet[(bits >>> 12) & 0x3f];
+                buffer[d++] = alphabet[(bits >>> 6) & 0x3f];
+                buffer[d++] = alphabet[bits & 0x3f];
+                column += 4;
+            }
+            if (d > limit) {
+                out.write(buffer, 0, d);
+                d = 0;
+            }
+        }
+        if (d > 0)
+            out.write(buffer, 0, d);
+        // Keep the left over bytes for next time.
+        len = len % 3;
+        for (int i = 0; i < len; i++)
+            pending[pendingCount++] = b[off + i];
     }
 
     /**
      * Flushes this output stream and forces any buffered output bytes
-     * to be written out to the stream.
+     * to be written out to the stream.  If the number of bytes written so far
+     * is not a multiple of three, the final group is padded, which ends the
+     * BASE64 data.
      * <p/>
      * The <code>flush</code> method of <code>FilterOutputStream</code>
      * calls the <code>flush</code> method of its underlying output stream.
@@ -161,65 +228,28 @@ public class Base64OutputStream extends FilterOutputStream {
      * @see java.io.FilterOutputStream#out
      */
     public void flush() throws IOException {
-        switch (state) {
-/*
-                   1          2          3
-            in:  xx123456 xx781234 xx567812 xx345678
-            out: 12345678 12345678 12345678 12345678
-                 1        2        3        4
-            Input byte 1 -> output bytes 1 & 2
-            Input byte 2 -> output bytes 2 & 3
-            Input byte 3 -> output bytes 3 & 4
-*/
-            case 1:
-                // First output byte written, so write the second
-                // output byte with the last two bits of the first input
-                // byte in it.
-                writeByte(ENCODED[get2((byte) previous, (byte) 0)]);
-                super.write('=');
-                super.write('=');
-                break;
-            case 2:
-                // First and second bytes written, so write the third output
-                // byte with bits 5-8 of the second input byte.
-                writeByte(ENCODED[get3((byte) previous, (byte) 0)]);
-                super.write('=');
-                break;
-            case 3: // Input length mod 3 is zero, so no padding.
-                break;
+        if (pendingCount > 0) {
+            if (pendingCount == 1)
+                pending[1] = 0;
+            pending[2] = 0;
+            // One byte makes two characters, two bytes make three.
+            int n = encodeGroup(bits(pending, 0), pendingCount + 1, group, 0);
+            pendingCount = 0;
+            out.write(group, 0, n);
         }
         super.flush();
     }
 
     /**
-     * Writes the byte to the encoded output stream, inserting '\n' characters
-     * to separate the blocks (as per the BASE64 spec).
-     *
-     * @param b The encoded byte to write.
-     * @throws IOException if something goes wrong.
-     */
-    private void writeByte(int b) throws IOException {
-        count++;
-        if (count > BLOCK_SIZE) {
-            super.write('\n');
-            count = 0;
-        }
-        super.write(b);
-    }
-
-    private static int get1(byte byte1) {
-        return (byte1 & 0xfc) >> 2;
-    }
-
-    private static int get2(byte byte1, byte byte2) {
-        return ((byte1 & 0x3) << 4) | ((byte2 & 0xf0) >>> 4);
-    }
-
-    private static int get3(byte byte2, byte byte3) {
-        return ((byte2 & 0x0f) << 2) | ((byte3 & 0xc0) >>> 6);
+     * Encodes a group of characters the slow way, adding padding and line breaks as needed.
+     */
+    private int encodeGroup(int bits, int chars, byte[] dest, int d) {
+        d = Base64Codec.encodeWrapped(bits, chars, dest, d, column, alphabet, lineLength);
+        column = (lineLength > 0) ? Base64Codec.columnAfter(column, lineLength) : column + 4;
+        return d;
     }
 
-    private static int get4(byte byte3) {
-        return byte3 & 0x3f;
+    private static int bits(byte[] b, int off) {
+        return (b[off] & 0xff) << 16 | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff);
     }
 }
@@ -0,0 +1,63 @@
+package org.yajul.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An input stream that reads the remaining bytes of a ByteBuffer.  The buffer is
+ * duplicated, so the position and limit of the original are not changed, and several
+ * streams can read the same (e.g. memory mapped) buffer at once.
+ */
+public class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+    private int mark;
+
+    /**
+     * Creates a stream that reads from the current position to the limit of the buffer.
+     *
+     * @param buffer the buffer
+     */
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate();
+        this.mark = this.buffer.position();
+    }
+
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    public int read(byte[] b, int off, int len) {
+        if (len == 0)
+            return 0;
+        int remaining = buffer.remaining();
+        if (remaining == 0)
+            return -1;
+        int n = Math.min(len, remaining);
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    public long skip(long n) {
+        if (n <= 0)
+            return 0;
+        int skipped = (int) Math.min(n, buffer.remaining());
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    public int available() {
+        return buffer.remaining();
+    }
+
+    public boolean markSupported() {
+        return true;
+    }
+
+    public void mark(int readlimit) {
+        mark = buffer.position();
+    }
+
+    public void reset() {
+        buffer.position(mark);
+    }
+}
@@ -0,0 +1,128 @@
+package org.yajul.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe throughput counters for one compression codec.  The time is the time spent in the
+ * compressing / decompressing streams, which includes the time spent writing to or reading from
+ * the underlying stream.
+ */
+public class CodecStats {
+    private final String codecName;
+    private final AtomicLong compressCount = new AtomicLong();
+    private final AtomicLong compressInputBytes = new AtomicLong();
+    private final AtomicLong compressOutputBytes = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+    private final AtomicLong decompressCount = new AtomicLong();
+    private final AtomicLong decompressInputBytes = new AtomicLong();
+    private final AtomicLong decompressOutputBytes = new AtomicLong();
+    private final AtomicLong decompressNanos = new AtomicLong();
+
+    public CodecStats(String codecName) {
+        this.codecName = codecName;
+    }
+
+    void addCompress(long uncompressed, long compressed, long nanos) {
+        compressCount.incrementAndGet();
+        compressInputBytes.addAndGet(uncompressed);
+        compressOutputBytes.addAndGet(compressed);
+        compressNanos.addAndGet(nanos);
+    }
+
+    void addDecompress(long compressed, long uncompressed, long nanos) {
+        decompressCount.incrementAndGet();
+        decompressInputBytes.addAndGet(compressed);
+        decompressOutputBytes.addAndGet(uncompressed);
+        decompressNanos.addAndGet(nanos);
+    }
+
+    public String getCodecName() {
+        return codecName;
+    }
+
+    /**
+     * @return the number of documents compressed
+     */
+    public long getCompressCount() {
+        return compressCount.get();
+    }
+
+    /**
+     * @return the number of uncompressed bytes written
+     */
+    public long getCompressInputBytes() {
+        return compressInputBytes.get();
+    }
+
+    /**
+     * @return the number of compressed bytes produced
+     */
+    public long getCompressOutputBytes() {
+        return compressOutputBytes.get();
+    }
+
+    public long getCompressNanos() {
+        return compressNanos.get();
+    }
+
+    /**
+     * @return the number of documents decompressed
+     */
+    public long getDecompressCount() {
+        return decompressCount.get();
+    }
+
+    /**
+     * @return the number of compressed bytes read
+     */
+    public long getDecompressInputBytes() {
+        return decompressInputBytes.get();
+    }
+
+    /**
+     * @return the number of uncompressed bytes produced
+     */
+    public long getDecompressOutputBytes() {
+        return decompressOutputBytes.get();
+    }
+
+    public long getDecompressNanos() {
+        return decompressNanos.get();
+    }
+
+    /**
+     * @return compressed size / uncompressed size of everything compressed so far, or 1 if nothing was compressed
+     */
+    public double getCompressionRatio() {
+        long in = compressInputBytes.get();
+        return (in == 0) ? 1.0 : (double) compressOutputBytes.get() / (double) in;
+    }
+
+    /**
+     * @return uncompressed megabytes (2^20) per second when compressing
+     */
+    public double getCompressThroughput() {
+        return throughput(compressInputBytes.get(), compressNanos.get());
+    }
+
+    /**
+     * @return uncompressed megabytes (2^20) per second when decompressing
+     */
+    public double getDecompressThroughput() {
+        return throughput(decompressOutputBytes.get(), decompressNanos.get());
+    }
+
+    private static double throughput(long bytes, long nanos) {
+        if (nanos == 0)
+            return 0.0;
+        return ((double) bytes / (1024.0 * 1024.0)) / ((double) nanos / 1e9);
+    }
+
+    public String toString() {
+        return "CodecStats{" + codecName +
+                " compressed=" + compressCount + " (" + compressInputBytes + " -> " + compressOutputBytes + " bytes, "
+                + String.format("%.1f", getCompressThroughput()) + " MB/s)" +
+                " decompressed=" + decompressCount + " (" + decompressInputBytes + " -> " + decompressOutputBytes
+                + " bytes, " + String.format("%.1f", getDecompressThroughput()) + " MB/s)}";
+    }
+}
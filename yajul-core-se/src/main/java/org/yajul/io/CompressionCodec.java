@@ -0,0 +1,55 @@
+package org.yajul.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A compression algorithm that can be plugged into the document archivers.  Implementations
+ * must be thread safe: one codec instance creates the streams for every document.
+ * <br>
+ * Register new codecs with {@link CompressionCodecs#register(CompressionCodec)} so that
+ * documents written with them can be recognized when they are read.
+ */
+public interface CompressionCodec {
+    /**
+     * Returns the id that is written in the header of compressed documents.
+     *
+     * @return the codec id, unique among registered codecs
+     */
+    byte getId();
+
+    /**
+     * Returns the name of the codec, e.g. 'gzip'.
+     *
+     * @return the name of the codec
+     */
+    String getName();
+
+    /**
+     * Returns the filename extension for documents compressed with this codec, e.g. '.gz', including
+     * the dot.  Returns an empty string if the documents have no extra extension.
+     *
+     * @return the filename extension
+     */
+    String getExtension();
+
+    /**
+     * Returns a stream that compresses to the given stream.  Closing the returned stream must close the
+     * underlying stream.
+     *
+     * @param out the stream that will receive the compressed bytes
+     * @return the compressing stream
+     * @throws IOException if something goes wrong
+     */
+    OutputStream compress(OutputStream out) throws IOException;
+
+    /**
+     * Returns a stream that decompresses the given stream.
+     *
+     * @param in the compressed bytes
+     * @return the decompressing stream
+     * @throws IOException if something goes wrong
+     */
+    InputStream decompress(InputStream in) throws IOException;
+}
@@ -0,0 +1,365 @@
+package org.yajul.io;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The built in compression codecs, the codec registry, and the document header that records
+ * which codec a document was compressed with.
+ * <br>
+ * The header is four bytes: 0x89 'Y' 'C' and the codec id.  GZIP documents don't get a header, which keeps
+ * them readable by older archivers.  Every other codec, including no compression, records itself in the
+ * header, so an uncompressed document is never taken for GZIP because its data happens to start with the
+ * GZIP magic number.
+ * <br>
+ * Documents without a header are GZIP, or were written by an older archiver with compression turned off
+ * (in the same '.dat.gz' files).  Readers that know which of the two to expect pass it to
+ * {@link #openInput(InputStream, CompressionCodec, ConcurrentMap)}, otherwise the GZIP magic number decides.
+ */
+public final class CompressionCodecs {
+    public static final byte NONE_ID = 0;
+    public static final byte GZIP_ID = 1;
+    public static final byte DEFLATE_ID = 2;
+    public static final byte LZ4_ID = 3;
+
+    private static final int HEADER_LENGTH = 4;
+    private static final byte MAGIC_0 = (byte) 0x89;
+    private static final byte MAGIC_1 = 'Y';
+    private static final byte MAGIC_2 = 'C';
+    private static final byte GZIP_MAGIC_0 = (byte) 0x1f;
+    private static final byte GZIP_MAGIC_1 = (byte) 0x8b;
+
+    /**
+     * No compression.
+     */
+    public static final CompressionCodec NONE = new CompressionCodec() {
+        public byte getId() {
+            return NONE_ID;
+        }
+
+        public String getName() {
+            return "none";
+        }
+
+        public String getExtension() {
+            return "";
+        }
+
+        public OutputStream compress(OutputStream out) {
+            return out;
+        }
+
+        public InputStream decompress(InputStream in) {
+            return in;
+        }
+
+        public String toString() {
+            return "CompressionCodecs.NONE";
+        }
+    };
+
+    /**
+     * GZIP, with the default compression level.  The archivers use this by default.
+     */
+    public static final CompressionCodec GZIP = new CompressionCodec() {
+        public byte getId() {
+            return GZIP_ID;
+        }
+
+        public String getName() {
+            return "gzip";
+        }
+
+        public String getExtension() {
+            return ".gz";
+        }
+
+        public OutputStream compress(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out);
+        }
+
+        public InputStream decompress(InputStream in) throws IOException {
+            return new GZIPInputStream(in);
+        }
+
+        public String toString() {
+            return "CompressionCodecs.GZIP";
+        }
+    };
+
+    /**
+     * Deflate, with the fastest compression level.  This is the codec registered under the name 'deflate', create
+     * a DeflateCodec for other levels.
+     */
+    public static final CompressionCodec DEFLATE_FAST = new DeflateCodec(Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY);
+
+    /**
+     * The pure Java LZ4 style block codec.
+     */
+    public static final CompressionCodec LZ4 = new Lz4Codec();
+
+    private static final ConcurrentMap<Byte, CompressionCodec> BY_ID = new ConcurrentHashMap<Byte, CompressionCodec>();
+    private static final ConcurrentMap<String, CompressionCodec> BY_NAME =
+            new ConcurrentHashMap<String, CompressionCodec>();
+
+    static {
+        register(NONE);
+        register(GZIP);
+        register(DEFLATE_FAST);
+        register(LZ4);
+    }
+
+    private CompressionCodecs() {
+    }
+
+    /**
+     * Registers a codec so documents that were written with it can be read.  A codec registered
+     * with the same id or name as an existing codec replaces it.
+     *
+     * @param codec the codec
+     */
+    public static void register(CompressionCodec codec) {
+        BY_ID.put(codec.getId(), codec);
+        BY_NAME.put(codec.getName(), codec);
+    }
+
+    /**
+     * @return the registered codecs
+     */
+    public static Collection<CompressionCodec> getCodecs() {
+        return Collections.unmodifiableCollection(BY_NAME.values());
+    }
+
+    /**
+     * Returns the registered codec with the given id.
+     *
+     * @param id the codec id
+     * @return the codec
+     * @throws IOException if there is no such codec
+     */
+    public static CompressionCodec forId(byte id) throws IOException {
+        CompressionCodec codec = BY_ID.get(id);
+        if (codec == null)
+            throw new IOException("Unknown compression codec id: " + id);
+        return codec;
+    }
+
+    /**
+     * Returns the registered codec with the given name, e.g. 'lz4'.
+     *
+     * @param name the codec name
+     * @return the codec
+     * @throws IllegalArgumentException if there is no such codec
+     */
+    public static CompressionCodec forName(String name) {
+        CompressionCodec codec = BY_NAME.get(name);
+        if (codec == null)
+            throw new IllegalArgumentException("Unknown compression codec: " + name);
+        return codec;
+    }
+
+    /**
+     * Writes the header, if the codec needs one, and returns the compressing stream.
+     *
+     * @param out   the stream that will receive the document
+     * @param codec the codec
+     * @param stats per codec name stats, updated when the returned stream is closed (optional)
+     * @return the compressing stream
+     * @throws IOException if something goes wrong
+     */
+    public static OutputStream openOutput(OutputStream out, CompressionCodec codec,
+                                          ConcurrentMap<String, CodecStats> stats) throws IOException {
+        ByteCountingOutputStream counter = null;
+        if (stats != null)
+            out = counter = new ByteCountingOutputStream(out);
+        if (needsHeader(codec.getId()))
+            out.write(new byte[]{MAGIC_0, MAGIC_1, MAGIC_2, codec.getId()});
+        OutputStream compressed = codec.compress(out);
+        if (stats == null)
+            return compressed;
+        return new MeteredOutputStream(compressed, counter, getStats(stats, codec));
+    }
+
+    /**
+     * Reads the header, if there is one, and returns the decompressing stream.  Documents without a header
+     * are GZIP if they start with the GZIP magic number, and are otherwise uncompressed.
+     *
+     * @param in    the stream that contains the document
+     * @param stats per codec name stats, updated when the returned stream is closed or reaches the end (optional)
+     * @return the decompressing stream
+     * @throws IOException if something goes wrong
+     */
+    public static InputStream openInput(InputStream in, ConcurrentMap<String, CodecStats> stats)
+            throws IOException {
+        return openInput(in, null, stats);
+    }
+
+    /**
+     * Reads the header, if there is one, and returns the decompressing stream.
+     *
+     * @param in         the stream that contains the document
+     * @param headerless the codec of documents without a header, NONE or GZIP; if null, documents without a
+     *                   header are GZIP if they start with the GZIP magic number, and are otherwise uncompressed
+     * @param stats      per codec name stats, updated when the returned stream is closed or reaches the end
+     *                   (optional)
+     * @return the decompressing stream
+     * @throws IOException if something goes wrong
+     */
+    public static InputStream openInput(InputStream in, CompressionCodec headerless,
+                                        ConcurrentMap<String, CodecStats> stats) throws IOException {
+        ByteCountingInputStream counter = null;
+        if (stats != null)
+            in = counter = new ByteCountingInputStream(in);
+        PushbackInputStream pushback = new PushbackInputStream(in, HEADER_LENGTH);
+        byte[] header = new byte[HEADER_LENGTH];
+        int n = 0;
+        while (n < HEADER_LENGTH) {
+            int r = pushback.read(header, n, HEADER_LENGTH - n);
+            if (r < 0)
+                break;
+            n += r;
+        }
+        CompressionCodec codec;
+        if (n == HEADER_LENGTH && header[0] == MAGIC_0 && header[1] == MAGIC_1 && header[2] == MAGIC_2) {
+            codec = forId(header[3]);
+        } else {
+            pushback.unread(header, 0, n);
+            if (headerless != null)
+                codec = headerless;
+            else
+                codec = (n >= 2 && header[0] == GZIP_MAGIC_0 && header[1] == GZIP_MAGIC_1) ? GZIP : NONE;
+        }
+        InputStream decompressed = codec.decompress(pushback);
+        if (stats == null)
+            return decompressed;
+        return new MeteredInputStream(decompressed, counter, getStats(stats, codec));
+    }
+
+    private static boolean needsHeader(byte id) {
+        return id != GZIP_ID;
+    }
+
+    private static CodecStats getStats(ConcurrentMap<String, CodecStats> stats, CompressionCodec codec) {
+        CodecStats s = stats.get(codec.getName());
+        if (s == null) {
+            s = new CodecStats(codec.getName());
+            CodecStats existing = stats.putIfAbsent(codec.getName(), s);
+            if (existing != null)
+                s = existing;
+        }
+        return s;
+    }
+
+    /**
+     * Counts the uncompressed bytes and the time spent compressing.
+     */
+    private static class MeteredOutputStream extends FilterOutputStream {
+        private final ByteCountingOutputStream counter;
+        private final CodecStats stats;
+        private long bytes;
+        private long nanos;
+        private boolean closed;
+
+        MeteredOutputStream(OutputStream out, ByteCountingOutputStream counter, CodecStats stats) {
+            super(out);
+            this.counter = counter;
+            this.stats = stats;
+        }
+
+        public void write(int b) throws IOException {
+            long start = System.nanoTime();
+            out.write(b);
+            nanos += System.nanoTime() - start;
+            bytes++;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            out.write(b, off, len);
+            nanos += System.nanoTime() - start;
+            bytes += len;
+        }
+
+        public void flush() throws IOException {
+            long start = System.nanoTime();
+            out.flush();
+            nanos += System.nanoTime() - start;
+        }
+
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            long start = System.nanoTime();
+            out.close();
+            nanos += System.nanoTime() - start;
+            stats.addCompress(bytes, counter.getByteCount(), nanos);
+        }
+    }
+
+    /**
+     * Counts the uncompressed bytes and the time spent decompressing.
+     */
+    private static class MeteredInputStream extends FilterInputStream {
+        private final ByteCountingInputStream counter;
+        private final CodecStats stats;
+        private long bytes;
+        private long nanos;
+        private boolean recorded;
+
+        MeteredInputStream(InputStream in, ByteCountingInputStream counter, CodecStats stats) {
+            super(in);
+            this.counter = counter;
+            this.stats = stats;
+        }
+
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = in.read();
+            nanos += System.nanoTime() - start;
+            if (b < 0)
+                record();
+            else
+                bytes++;
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int n = in.read(b, off, len);
+            nanos += System.nanoTime() - start;
+            if (n < 0)
+                record();
+            else
+                bytes += n;
+            return n;
+        }
+
+        public boolean markSupported() {
+            return false;
+        }
+
+        public void close() throws IOException {
+            record();
+            in.close();
+        }
+
+        private void record() {
+            if (recorded)
+                return;
+            recorded = true;
+            stats.addDecompress(counter.getByteCount(), bytes, nanos);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package org.yajul.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Raw deflate compression (no zlib or gzip wrapper), with a selectable compression level and strategy.
+ * Lower levels (e.g. {@link Deflater#BEST_SPEED}) are much cheaper than the default level used by
+ * GZIPOutputStream and usually compress documents almost as well.
+ * <br>
+ * The level and strategy only affect compression, any DeflateCodec can read what another one wrote.
+ */
+public class DeflateCodec implements CompressionCodec {
+    private static final int BUFFER_SIZE = 4096;
+
+    private final int level;
+    private final int strategy;
+
+    /**
+     * Creates a codec with the default level and strategy.
+     */
+    public DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+    }
+
+    /**
+     * Creates a codec.
+     *
+     * @param level    the compression level, 0-9 or Deflater.DEFAULT_COMPRESSION
+     * @param strategy the strategy, Deflater.DEFAULT_STRATEGY, FILTERED or HUFFMAN_ONLY
+     */
+    public DeflateCodec(int level, int strategy) {
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION)
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED
+                && strategy != Deflater.HUFFMAN_ONLY)
+            throw new IllegalArgumentException("Invalid strategy: " + strategy);
+        this.level = level;
+        this.strategy = strategy;
+    }
+
+    public byte getId() {
+        return CompressionCodecs.DEFLATE_ID;
+    }
+
+    public String getName() {
+        return "deflate";
+    }
+
+    public String getExtension() {
+        return ".z";
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getStrategy() {
+        return strategy;
+    }
+
+    public OutputStream compress(OutputStream out) throws IOException {
+        final Deflater deflater = new Deflater(level, true);
+        deflater.setStrategy(strategy);
+        return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+            private boolean closed;
+
+            public void close() throws IOException {
+                if (closed)
+                    return;
+                closed = true;
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    public InputStream decompress(InputStream in) throws IOException {
+        // A raw inflater needs an extra dummy byte at the end of the input.
+        final Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+            private boolean closed;
+            private boolean eof;
+
+            protected void fill() throws IOException {
+                if (eof)
+                    throw new EOFException("Unexpected end of deflate input");
+                len = in.read(buf, 0, buf.length);
+                if (len == -1) {
+                    eof = true;
+                    buf[0] = 0;
+                    len = 1;
+                }
+                inflater.setInput(buf, 0, len);
+            }
+
+            public void close() throws IOException {
+                if (closed)
+                    return;
+                closed = true;
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    public String toString() {
+        return "DeflateCodec{level=" + level + ", strategy=" + strategy + "}";
+    }
+}
@@ -1,6 +1,8 @@
 // $Id$
 package org.yajul.io;
 
+import org.yajul.util.CompoundKey;
+import org.yajul.util.LruCache;
 import org.yajul.util.StringUtil;
 
 import java.io.BufferedInputStream;
@@ -15,14 +17,19 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import static org.yajul.juli.LogHelper.unexpected;
 
@@ -39,6 +46,18 @@ import static org.yajul.juli.LogHelper.unexpected;
  * <li>For more control over what is stored, use getSource() / getSink() which provides the generated file names
  * and input / output streams.</li>
  * </ul>
+ * Documents are compressed with a pluggable CompressionCodec, GZIP by default.  The codec is recorded in the
+ * document, so documents written with any codec can be retrieved whatever the current codec is.  Documents
+ * from older versions have no record of the codec: they are read as uncompressed while compression is off,
+ * as those versions did, and are otherwise recognized by the GZIP magic number.
+ * Per codec throughput is available from getCodecStats().
+ * <br>
+ * An optional LruCache can be set to keep recently retrieved objects in memory.  Cached objects are shared
+ * by all callers, so they must be treated as read only.  Storing a document removes it from the cache, and a
+ * retrieve that overlaps a store of the same document doesn't cache what it read.
+ * <br>
+ * An optional RetrieveDirectoryIndex avoids checking every retrieve directory for documents that aren't in
+ * the storeage directory.
  * See the setter / getter method javadoc for a description of the properties and the default values.
  * <br>
  * An example of a Spring initializer is listed here:
@@ -65,10 +84,25 @@ public class DocumentArchiver
 
     public static final String DEFAULT_EXTENSION = ".dat.gz";
 
+    private static final String BASE_EXTENSION = ".dat";
+
+    /**
+     * Number of cache versions that the cache keys are hashed onto.
+     */
+    private static final int VERSION_STRIPES = 64;
+
     private File storeageDirectory;
-    private String extension = DEFAULT_EXTENSION;
+    private String baseExtension = BASE_EXTENSION;
+    private String extension;
     private List retrieveDirectories;
-    private boolean gzip = true;
+    private CompressionCodec codec = CompressionCodecs.GZIP;
+    private final ConcurrentMap<String, CodecStats> codecStats = new ConcurrentHashMap<String, CodecStats>();
+    private LruCache<CompoundKey, Object> cache;
+    /**
+     * Incremented by every invalidate(), so a retrieve can tell that a store overlapped it.
+     */
+    private final AtomicLongArray cacheVersions = new AtomicLongArray(VERSION_STRIPES);
+    private RetrieveDirectoryIndex retrieveIndex;
     private boolean buffered = true;
     private boolean overwrite = false;
 
@@ -111,12 +145,86 @@ public class DocumentArchiver
      */
     public String getExtension()
     {
-        return extension;
+        return (extension != null) ? extension : extensionFor(codec);
+    }
+
+    /**
+     * Returns the default extension for a codec.  Uncompressed and GZIP documents have always been
+     * stored with the '.gz' extension, so that stays the same when GZIP is turned off.
+     * @param c the codec
+     * @return the extension
+     */
+    private String extensionFor(CompressionCodec c)
+    {
+        return (c == CompressionCodecs.NONE || c == CompressionCodecs.GZIP) ?
+                baseExtension + CompressionCodecs.GZIP.getExtension() : baseExtension + c.getExtension();
+    }
+
+    /**
+     * Something that is looked up by file name.
+     */
+    protected interface Lookup<T>
+    {
+        T find(String fileName) throws IOException;
+    }
+
+    /**
+     * Looks up a document by id.  If it isn't found, and no extension has been set, the file names the
+     * id would have with the other codecs are tried, so documents stored before the codec was changed
+     * can still be found.
+     * @param fileName the file name from generateFileName()
+     * @param lookup   finds the document with a given file name
+     * @return what the lookup found
+     * @throws IOException if something goes wrong, FileNotFoundException if the document doesn't exist
+     */
+    protected <T> T findById(String fileName, Lookup<T> lookup) throws IOException
+    {
+        try
+        {
+            return lookup.find(fileName);
+        }
+        catch (FileNotFoundException e)
+        {
+            for (String other : getAlternateFileNames(fileName))
+            {
+                try
+                {
+                    return lookup.find(other);
+                }
+                catch (FileNotFoundException ignore)
+                {
+                    // Try the next one.
+                }
+            }
+            throw e;
+        }
+    }
+
+    private List<String> getAlternateFileNames(String fileName)
+    {
+        String current = getExtension();
+        if (extension != null || !fileName.endsWith(current))
+            return Collections.emptyList();
+        String stem = fileName.substring(0, fileName.length() - current.length());
+        List<String> names = new ArrayList<String>();
+        // The plain base extension, as well as each codec's.
+        List<String> extensions = new ArrayList<String>();
+        extensions.add(baseExtension);
+        for (CompressionCodec c : CompressionCodecs.getCodecs())
+            extensions.add(extensionFor(c));
+        for (String ext : extensions)
+        {
+            String name = stem + ext;
+            if (!ext.equals(current) && !names.contains(name))
+                names.add(name);
+        }
+        return names;
     }
 
     /**
      * Sets the filename extension used for stored documents.
-     * @param extension The filename extension, defaults to '.dat.gz'.
+     * @param extension The filename extension, defaults to '.dat' followed by the codec extension, e.g. '.dat.lz4'.
+     * Uncompressed and GZIP documents use '.dat.gz', as they always have.
      */
     public void setExtension(String extension)
     {
@@ -125,6 +233,16 @@ public class DocumentArchiver
         this.extension = extension;
     }
 
+    /**
+     * Sets the part of the default extension that comes before the codec extension, for subclasses
+     * that store other kinds of documents.
+     * @param baseExtension The base extension, e.g. '.xml'.
+     */
+    protected void setBaseExtension(String baseExtension)
+    {
+        this.baseExtension = baseExtension;
+    }
+
     /**
      * Returns the list of retrieval directories.   Documents not found in the storeage directory will
      * be searched along this path of directories.
@@ -161,7 +279,7 @@ public class DocumentArchiver
      */
     public boolean isGzip()
     {
-        return gzip;
+        return codec == CompressionCodecs.GZIP;
     }
 
     /**
@@ -170,7 +288,46 @@ public class DocumentArchiver
      */
     public void setGzip(boolean gzip)
     {
-        this.gzip = gzip;
+        setCodec(gzip ? CompressionCodecs.GZIP : CompressionCodecs.NONE);
+    }
+
+    /**
+     * Returns the codec that new documents are compressed with.
+     * @return the codec that new documents are compressed with.
+     */
+    public CompressionCodec getCodec()
+    {
+        return codec;
+    }
+
+    /**
+     * Sets the codec that new documents are compressed with, the default is GZIP.  Unless an extension
+     * has been set, the extension follows the codec.
+     * @param codec The codec, see CompressionCodecs.
+     */
+    public void setCodec(CompressionCodec codec)
+    {
+        if (codec == null)
+            throw new IllegalArgumentException("Codec cannot be null!");
+        this.codec = codec;
+    }
+
+    /**
+     * Sets the codec by name: 'none', 'gzip', 'deflate' or 'lz4', or the name of a registered codec.
+     * @param name The codec name.
+     */
+    public void setCodecName(String name)
+    {
+        setCodec(CompressionCodecs.forName(name));
+    }
+
+    /**
+     * Returns the compression and decompression statistics, by codec name.
+     * @return the compression and decompression statistics, by codec name.
+     */
+    public Map<String, CodecStats> getCodecStats()
+    {
+        return Collections.unmodifiableMap(codecStats);
     }
 
     /**
@@ -193,6 +350,59 @@ public class DocumentArchiver
         this.buffered = buffered;
     }
 
+    /**
+     * Returns the cache of retrieved documents.
+     * @return the cache, or null if retrieved documents are not cached.
+     */
+    public LruCache<CompoundKey, Object> getCache()
+    {
+        return cache;
+    }
+
+    /**
+     * Sets the cache of retrieved documents, keyed by sub-directory and file name.  The size of each entry
+     * is the uncompressed length of the document.  The default is null, no caching.
+     * @param cache The cache.
+     */
+    public void setCache(LruCache<CompoundKey, Object> cache)
+    {
+        this.cache = cache;
+    }
+
+    /**
+     * Returns the index of the retrieve directories.
+     * @return the index, or null if the retrieve directories are searched file by file.
+     */
+    public RetrieveDirectoryIndex getRetrieveIndex()
+    {
+        return retrieveIndex;
+    }
+
+    /**
+     * Sets the index of the retrieve directories, which remembers what is in each retrieve directory
+     * so that a document can be found (or found to be missing) without a file system call per
+     * retrieve directory.  The default is null, no index.
+     * @param retrieveIndex The index.
+     */
+    public void setRetrieveIndex(RetrieveDirectoryIndex retrieveIndex)
+    {
+        this.retrieveIndex = retrieveIndex;
+    }
+
+    /**
+     * Fills the retrieve directory index in the background.
+     * @param executor The executor that will scan the retrieve directories.
+     */
+    public void scanRetrieveDirectories(Executor executor)
+    {
+        if (retrieveIndex == null)
+            throw new IllegalStateException("There is no retrieve directory index!");
+        List<File> roots = new ArrayList<File>(getRetrieveDirectoryCount());
+        for (int i = 0; i < getRetrieveDirectoryCount(); i++)
+            roots.add(new File((String) retrieveDirectories.get(i)));
+        retrieveIndex.scanInBackground(executor, roots);
+    }
+
     /**
      * Initializes the bean.
      * @throws IOException if something goes wrong.
@@ -246,6 +456,7 @@ public class DocumentArchiver
             oos.writeObject(object);
             oos.flush();
             oos.close();
+            invalidate(subDirectory, docOut.getFilename());
             if (log.isLoggable(Level.FINE))
                 log.log(Level.FINE,"storeObject() : Object sucessfully stored.");
             return docOut.getFilename();    // Return the relative file name.
@@ -270,9 +481,15 @@ public class DocumentArchiver
      * @return The object.
      * @throws IOException if something goes wrong.
      */
-    public Object retrieveObject(String subDirectory, Object id, Date date) throws IOException
+    public Object retrieveObject(final String subDirectory, Object id, Date date) throws IOException
     {
-        return retrieveObject(subDirectory, generateFileName(id, date));
+        return findById(generateFileName(id, date), new Lookup<Object>()
+        {
+            public Object find(String fileName) throws IOException
+            {
+                return retrieveObject(subDirectory, fileName);
+            }
+        });
     }
 
     /**
@@ -289,14 +506,27 @@ public class DocumentArchiver
             log.log(Level.FINE,"retrieveObject() : ENTER");
         try
         {
+            Object cached = getCached(subDirectory, fileName);
+            if (cached != null)
+                return cached;
+            long version = getCacheVersion(subDirectory, fileName);
             Source source = getSource(subDirectory, fileName);
             if (log.isLoggable(Level.FINE))
                 log.log(Level.FINE,"retrieveObject() : " + source.getFilename());
-            ObjectInputStream ois = new ObjectInputStream(source.getStream());
-            Object o = ois.readObject();
-            if (log.isLoggable(Level.FINE))
-                log.log(Level.FINE,"retrieveObject() : Object sucessfully retrieved.");
-            return o;
+            ByteCountingInputStream counter = new ByteCountingInputStream(source.getStream());
+            ObjectInputStream ois = new ObjectInputStream(counter);
+            try
+            {
+                Object o = ois.readObject();
+                if (log.isLoggable(Level.FINE))
+                    log.log(Level.FINE,"retrieveObject() : Object sucessfully retrieved.");
+                putCached(subDirectory, fileName, o, counter.getByteCount(), version);
+                return o;
+            }
+            finally
+            {
+                ois.close();
+            }
         } // try
         catch (FileNotFoundException e)
         {
@@ -363,11 +593,78 @@ public class DocumentArchiver
             }
         }
         log.info("getSink() : " + f.getAbsolutePath());
+        invalidate(subDirectory, fileName);
         OutputStream os = getOutputStream(f);
         Sink docOut = new Sink(fileName, os);
         return docOut;
     }
 
+    /**
+     * Returns a cached document.
+     * @param subDirectory The sub-directory.
+     * @param fileName     The file name.
+     * @return the cached document, or null if it isn't cached (or there is no cache).
+     */
+    protected Object getCached(String subDirectory, String fileName)
+    {
+        return (cache == null) ? null : cache.get(cacheKey(subDirectory, fileName));
+    }
+
+    /**
+     * Returns the cache version of a document, to be passed to putCached() once it has been read.
+     * @param subDirectory The sub-directory.
+     * @param fileName     The file name.
+     * @return the version
+     */
+    protected long getCacheVersion(String subDirectory, String fileName)
+    {
+        return cacheVersions.get(versionStripe(subDirectory, fileName));
+    }
+
+    /**
+     * Adds a retrieved document to the cache, if there is one, unless the document was stored since
+     * the version was taken.
+     * @param subDirectory The sub-directory.
+     * @param fileName     The file name.
+     * @param document     The document.
+     * @param size         The size of the document, the uncompressed length.
+     * @param version      The cache version from before the document was read.
+     */
+    protected void putCached(String subDirectory, String fileName, Object document, long size, long version)
+    {
+        if (cache == null || document == null)
+            return;
+        CompoundKey key = cacheKey(subDirectory, fileName);
+        cache.put(key, document, size);
+        // Checked after the put, so an invalidate() can't fall between the check and the put.
+        if (cacheVersions.get(versionStripe(subDirectory, fileName)) != version)
+            cache.remove(key);
+    }
+
+    /**
+     * Removes a document from the cache, if there is one.
+     * @param subDirectory The sub-directory.
+     * @param fileName     The file name.
+     */
+    protected void invalidate(String subDirectory, String fileName)
+    {
+        if (cache == null)
+            return;
+        cacheVersions.incrementAndGet(versionStripe(subDirectory, fileName));
+        cache.remove(cacheKey(subDirectory, fileName));
+    }
+
+    private static int versionStripe(String subDirectory, String fileName)
+    {
+        int h = fileName.hashCode() * 31 + (subDirectory == null ? 0 : subDirectory.hashCode());
+        return (h & 0x7fffffff) % VERSION_STRIPES;
+    }
+
+    private static CompoundKey cacheKey(String subDirectory, String fileName)
+    {
+        return new CompoundKey(StringUtil.isEmpty(subDirectory) ? "" : subDirectory, fileName);
+    }
+
     /**
      * Generates a file name from an object id and a date and file extension.
      * @param id   The object id, used to generate the unique file name.
@@ -383,7 +680,7 @@ public class DocumentArchiver
         fileName = fileName.replace('\t', '_');
         fileName = fileName.replace('\r', '_');
         fileName = fileName.replace('\n', '_');
-        fileName = fileName + this.extension;
+        fileName = fileName + getExtension();
         // Get the month and year as a string, with the file separator in the middle.
         SimpleDateFormat df = new SimpleDateFormat(File.separator +
                 "yyyy" +
@@ -405,9 +702,15 @@ public class DocumentArchiver
      * @return The object.
      * @throws IOException if something goes wrong.
      */
-    public Source getSource(String subDirectory, Object id, Date date) throws IOException
+    public Source getSource(final String subDirectory, Object id, Date date) throws IOException
     {
-        return getSource(subDirectory, generateFileName(id, date));
+        return findById(generateFileName(id, date), new Lookup<Source>()
+        {
+            public Source find(String fileName) throws IOException
+            {
+                return getSource(subDirectory, fileName);
+            }
+        });
     }
 
     /**
@@ -440,14 +743,21 @@ public class DocumentArchiver
             {
                 String baseString = (String) iterator.next();
                 File base = new File(baseString);
+                dir = getSubDirectory(base, subDirectory);
+                f = new File(dir, fileName);
+                if (retrieveIndex != null)
+                {
+                    // The index knows what is in the directory, and whether it exists at all.
+                    if (retrieveIndex.mightContain(f) && f.exists())
+                        return getSource(f);
+                    continue;
+                }
                 if (!base.exists())
                 {
                     if (log.isLoggable(Level.FINE))
                         log.log(Level.FINE,"getSource() : directory " + base + " does not exist, skipping.");
                     continue;
                 }
-                dir = getSubDirectory(base, subDirectory);
-                f = new File(dir, fileName);
                 if (f.exists())
                     return getSource(f);   // Return the source.
             } // for
@@ -494,9 +804,7 @@ public class DocumentArchiver
         OutputStream os = new FileOutputStream(f);
         if (buffered)
             os = new BufferedOutputStream(os);
-        if (gzip)
-            os = new GZIPOutputStream(os);
-        return os;
+        return CompressionCodecs.openOutput(os, codec, codecStats);
     }
 
     /**
@@ -511,9 +819,8 @@ public class DocumentArchiver
         InputStream is = new FileInputStream(f);
         if (buffered)
             is = new BufferedInputStream(is);
-        if (gzip)
-            is = new GZIPInputStream(is);
-        return is;
+        return CompressionCodecs.openInput(is, codec == CompressionCodecs.NONE ? CompressionCodecs.NONE : null,
+                codecStats);
     }
 
     /**
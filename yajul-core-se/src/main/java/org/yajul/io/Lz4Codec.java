@@ -0,0 +1,387 @@
+package org.yajul.io;
+
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A fast, pure Java, LZ77 block codec.  The blocks use the LZ4 sequence format (token, literals,
+ * little endian 16 bit offset, match length) with a single probe hash table, which trades
+ * compression ratio for speed: compression is several times faster than deflate.
+ * <br>
+ * The stream is a series of blocks of up to 64K of input, each one with an 8 byte header: the
+ * uncompressed length, and the compressed length.  A compressed length with the high bit set means
+ * the block is stored uncompressed.  An uncompressed length of zero ends the stream.  The stream framing
+ * is not the LZ4 frame format, so the output can't be read by the lz4 command line tools.
+ */
+public class Lz4Codec implements CompressionCodec {
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    private static final int STORED = 0x80000000;
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_OFFSET = 0xffff;
+    private static final int HASH_LOG = 12;
+    private static final int SKIP_TRIGGER = 6;
+
+    public byte getId() {
+        return CompressionCodecs.LZ4_ID;
+    }
+
+    public String getName() {
+        return "lz4";
+    }
+
+    public String getExtension() {
+        return ".lz4";
+    }
+
+    public OutputStream compress(OutputStream out) {
+        return new BlockOutputStream(out);
+    }
+
+    public InputStream decompress(InputStream in) {
+        return new BlockInputStream(in);
+    }
+
+    public String toString() {
+        return "Lz4Codec";
+    }
+
+    /**
+     * Returns the largest possible compressed size for a block.
+     *
+     * @param length the block length
+     * @return the largest compressed size
+     */
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses one block.
+     *
+     * @param src     the input
+     * @param srcOff  offset of the input
+     * @param srcLen  length of the input
+     * @param dest    the output, at least maxCompressedLength(srcLen) bytes after destOff
+     * @param destOff offset of the output
+     * @param table   the hash table, 1 &lt;&lt; 12 entries, overwritten
+     * @return the compressed length
+     */
+    static int compress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff, int[] table) {
+        Arrays.fill(table, -1);
+        int end = srcOff + srcLen;
+        int matchLimit = end - LAST_LITERALS;
+        int findLimit = end - MATCH_FIND_LIMIT;
+        int anchor = srcOff;
+        int ip = srcOff;
+        int op = destOff;
+        int searches = 1 << SKIP_TRIGGER;
+        while (ip < findLimit) {
+            int seq = readInt(src, ip);
+            int h = hash(seq);
+            int ref = table[h];
+            table[h] = ip;
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                // No match, skip ahead faster the longer we go without one.
+                ip += searches++ >>> SKIP_TRIGGER;
+                continue;
+            }
+            // Extend the match backwards over the pending literals.
+            while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+                ip--;
+                ref--;
+            }
+            int matchLength = MIN_MATCH;
+            while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength])
+                matchLength++;
+            op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dest, op);
+            ip += matchLength;
+            anchor = ip;
+            searches = 1 << SKIP_TRIGGER;
+        }
+        op = writeSequence(src, anchor, end - anchor, 0, 0, dest, op);
+        return op - destOff;
+    }
+
+    /**
+     * Decompresses one block.
+     *
+     * @param src     the compressed block
+     * @param srcOff  offset of the block
+     * @param srcLen  length of the compressed block
+     * @param dest    the output
+     * @param destOff offset of the output
+     * @param destLen the uncompressed length
+     * @throws IOException if the block is corrupt
+     */
+    static void decompress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff, int destLen)
+            throws IOException {
+        int ip = srcOff;
+        int end = srcOff + srcLen;
+        int op = destOff;
+        int destEnd = destOff + destLen;
+        try {
+            while (true) {
+                int token = src[ip++] & 0xff;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        literals += b;
+                    } while (b == 255);
+                }
+                if (ip + literals > end || op + literals > destEnd)
+                    throw corrupt();
+                System.arraycopy(src, ip, dest, op, literals);
+                ip += literals;
+                op += literals;
+                if (ip == end)
+                    break;      // The last sequence has no match.
+                int offset = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+                ip += 2;
+                int matchLength = token & 0x0f;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                int ref = op - offset;
+                if (offset == 0 || ref < destOff || op + matchLength > destEnd)
+                    throw corrupt();
+                if (offset >= matchLength) {
+                    System.arraycopy(dest, ref, dest, op, matchLength);
+                    op += matchLength;
+                } else {
+                    // Overlapping copy, the match repeats bytes that it is writing.
+                    for (int i = 0; i < matchLength; i++)
+                        dest[op++] = dest[ref++];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw corrupt();
+        }
+        if (op != destEnd)
+            throw corrupt();
+    }
+
+    private static IOException corrupt() {
+        return new IOException("Corrupt LZ4 block");
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literals, int offset, int matchLength,
+                                     byte[] dest, int op) {
+        int tokenPos = op++;
+        int token;
+        if (literals >= 15) {
+            token = 15 << 4;
+            op = writeLength(literals - 15, dest, op);
+        } else {
+            token = literals << 4;
+        }
+        System.arraycopy(src, literalStart, dest, op, literals);
+        op += literals;
+        if (matchLength > 0) {
+            dest[op++] = (byte) offset;
+            dest[op++] = (byte) (offset >>> 8);
+            int ml = matchLength - MIN_MATCH;
+            if (ml >= 15) {
+                token |= 15;
+                op = writeLength(ml - 15, dest, op);
+            } else {
+                token |= ml;
+            }
+        }
+        dest[tokenPos] = (byte) token;
+        return op;
+    }
+
+    private static int writeLength(int n, byte[] dest, int op) {
+        while (n >= 255) {
+            dest[op++] = (byte) 255;
+            n -= 255;
+        }
+        dest[op++] = (byte) n;
+        return op;
+    }
+
+    private static void writeInt(byte[] b, int i, int v) {
+        b[i] = (byte) (v >>> 24);
+        b[i + 1] = (byte) (v >>> 16);
+        b[i + 2] = (byte) (v >>> 8);
+        b[i + 3] = (byte) v;
+    }
+
+    private static int readBigEndianInt(byte[] b, int i) {
+        return (b[i] & 0xff) << 24 | (b[i + 1] & 0xff) << 16 | (b[i + 2] & 0xff) << 8 | (b[i + 3] & 0xff);
+    }
+
+    /**
+     * Buffers a block of input, and writes it compressed when the buffer fills up, or on flush.
+     */
+    private static class BlockOutputStream extends FilterOutputStream {
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private final byte[] compressed = new byte[8 + maxCompressedLength(BLOCK_SIZE)];
+        private final int[] table = new int[1 << HASH_LOG];
+        private int count;
+        private boolean closed;
+
+        BlockOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        public void write(int b) throws IOException {
+            if (count == block.length)
+                writeBlock();
+            block[count++] = (byte) b;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == block.length)
+                    writeBlock();
+                int n = Math.min(len, block.length - count);
+                System.arraycopy(b, off, block, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        public void flush() throws IOException {
+            if (count > 0)
+                writeBlock();
+            out.flush();
+        }
+
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                if (count > 0)
+                    writeBlock();
+                writeInt(compressed, 0, 0);
+                out.write(compressed, 0, 4);
+                out.flush();
+            } finally {
+                out.close();
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            int length = compress(block, 0, count, compressed, 8, table);
+            writeInt(compressed, 0, count);
+            if (length < count) {
+                writeInt(compressed, 4, length);
+                out.write(compressed, 0, 8 + length);
+            } else {
+                writeInt(compressed, 4, count | STORED);
+                out.write(compressed, 0, 8);
+                out.write(block, 0, count);
+            }
+            count = 0;
+        }
+    }
+
+    /**
+     * Reads and decompresses one block at a time.
+     */
+    private static class BlockInputStream extends InputStream {
+        private final InputStream in;
+        private final byte[] header = new byte[8];
+        private byte[] block = new byte[0];
+        private byte[] compressed = new byte[0];
+        private int position;
+        private int limit;
+        private boolean eof;
+
+        BlockInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        public int read() throws IOException {
+            if (position == limit && !nextBlock())
+                return -1;
+            return block[position++] & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (position == limit && !nextBlock())
+                return -1;
+            int n = Math.min(len, limit - position);
+            System.arraycopy(block, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        public int available() {
+            return limit - position;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private boolean nextBlock() throws IOException {
+            if (eof)
+                return false;
+            readFully(header, 0, 4);
+            int length = readBigEndianInt(header, 0);
+            if (length == 0) {
+                eof = true;
+                return false;
+            }
+            readFully(header, 4, 4);
+            int stored = readBigEndianInt(header, 4);
+            if (length < 0 || length > BLOCK_SIZE)
+                throw corrupt();
+            if (block.length < length)
+                block = new byte[BLOCK_SIZE];
+            if ((stored & STORED) != 0) {
+                if ((stored & ~STORED) != length)
+                    throw corrupt();
+                readFully(block, 0, length);
+            } else {
+                if (stored <= 0 || stored > maxCompressedLength(BLOCK_SIZE))
+                    throw corrupt();
+                if (compressed.length < stored)
+                    compressed = new byte[maxCompressedLength(BLOCK_SIZE)];
+                readFully(compressed, 0, stored);
+                decompress(compressed, 0, stored, block, 0, length);
+            }
+            position = 0;
+            limit = length;
+            return true;
+        }
+
+        private void readFully(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = in.read(b, off, len);
+                if (n < 0)
+                    throw new EOFException("Unexpected end of LZ4 stream");
+                off += n;
+                len -= n;
+            }
+        }
+    }
+}
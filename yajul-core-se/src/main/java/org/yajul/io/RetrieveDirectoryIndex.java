@@ -0,0 +1,249 @@
+package org.yajul.io;
+
+import org.yajul.util.BloomFilter;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers which files are in the (mostly read only) retrieve directories of an archiver, so that
+ * looking for a document does not need a stat call for each retrieve directory.
+ * <br>
+ * Each directory that is asked about is listed once, and the names in it are put in a Bloom filter.
+ * After that, {@link #mightContain(File)} answers from memory: false means the file is definitely not
+ * there, true means it almost certainly is.  A directory that doesn't exist gets an empty filter, so
+ * missing day directories on slow mounts are only looked at once.  Directories can also be
+ * indexed ahead of time with {@link #scan(File)}, e.g. on a background thread.
+ * <br>
+ * The index holds a bounded number of directories, least recently used first out.  Files added to a
+ * directory after it was listed are not seen until the directory is refreshed, so the index should only
+ * be used for directories that don't change, or with a refresh interval.  Thread safe.
+ */
+public class RetrieveDirectoryIndex {
+    private static final Logger log = Logger.getLogger(RetrieveDirectoryIndex.class.getName());
+
+    public static final double DEFAULT_FALSE_POSITIVE_PROBABILITY = 0.01;
+    public static final int DEFAULT_MAX_DIRECTORIES = 10000;
+
+    /**
+     * Lists the document names in a directory.  The archivers that store documents in something other
+     * than plain files supply their own.
+     */
+    public interface Lister {
+        /**
+         * @param dir the directory
+         * @return the names of the documents in the directory, or null if the directory doesn't exist
+         */
+        Collection<String> list(File dir);
+    }
+
+    /**
+     * Lists the plain file names in a directory.
+     */
+    public static final Lister FILE_LISTER = new Lister() {
+        public Collection<String> list(File dir) {
+            String[] names = dir.list();
+            return (names == null) ? null : Arrays.asList(names);
+        }
+    };
+
+    private final double falsePositiveProbability;
+    private final long refreshMillis;
+    private final Map<File, DirectoryEntry> directories;
+    private Lister lister = FILE_LISTER;
+    private long listings;
+    private long lookups;
+    private long negatives;
+
+    private static class DirectoryEntry {
+        private final BloomFilter filter;
+        private final long created;
+
+        private DirectoryEntry(BloomFilter filter, long created) {
+            this.filter = filter;
+            this.created = created;
+        }
+    }
+
+    /**
+     * Creates an index with the default settings: 1% false positives, 10000 directories and no refresh.
+     */
+    public RetrieveDirectoryIndex() {
+        this(DEFAULT_FALSE_POSITIVE_PROBABILITY, DEFAULT_MAX_DIRECTORIES, 0);
+    }
+
+    /**
+     * Creates an index.
+     *
+     * @param falsePositiveProbability the chance that mightContain() returns true for a file that isn't there
+     * @param maxDirectories           the maximum number of directories to remember
+     * @param refreshMillis            how long before a directory is listed again, or zero for never
+     */
+    public RetrieveDirectoryIndex(double falsePositiveProbability, final int maxDirectories, long refreshMillis) {
+        if (maxDirectories <= 0)
+            throw new IllegalArgumentException("Maximum directories must be > 0");
+        this.falsePositiveProbability = falsePositiveProbability;
+        this.refreshMillis = refreshMillis;
+        this.directories = new LinkedHashMap<File, DirectoryEntry>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<File, DirectoryEntry> eldest) {
+                return size() > maxDirectories;
+            }
+        };
+    }
+
+    /**
+     * Sets the lister used to find the documents in a directory.  The default lists the files.
+     *
+     * @param lister the lister
+     */
+    public void setLister(Lister lister) {
+        this.lister = lister;
+    }
+
+    /**
+     * Returns false if the file is definitely not in its directory, true if it is probably there.  Lists the
+     * directory if it isn't in the index yet.
+     *
+     * @param file the file
+     * @return true if the file might exist
+     */
+    public boolean mightContain(File file) {
+        File dir = file.getParentFile();
+        DirectoryEntry entry;
+        synchronized (directories) {
+            lookups++;
+            entry = directories.get(dir);
+        }
+        if (entry == null || isStale(entry))
+            entry = index(dir);
+        boolean found = entry.filter.mightContain(file.getName());
+        if (!found) {
+            synchronized (directories) {
+                negatives++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Indexes every directory under the root.
+     *
+     * @param root the root directory, e.g. one of the retrieve directories
+     * @return the number of directories indexed
+     */
+    public int scan(File root) {
+        File[] files = root.listFiles();
+        if (files == null)
+            return 0;
+        int count = 0;
+        boolean hasFiles = false;
+        for (File f : files) {
+            if (f.isDirectory())
+                count += scan(f);
+            else
+                hasFiles = true;
+        }
+        if (hasFiles) {
+            index(root);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Indexes the roots on the executor.
+     *
+     * @param executor the executor
+     * @param roots    the root directories
+     */
+    public void scanInBackground(Executor executor, Collection<File> roots) {
+        for (final File root : roots) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    long start = System.currentTimeMillis();
+                    int count = scan(root);
+                    log.info("scan() : " + count + " directories in " + root + " indexed in "
+                            + (System.currentTimeMillis() - start) + "ms");
+                }
+            });
+        }
+    }
+
+    /**
+     * Forgets a directory, e.g. after a document was added to it.
+     *
+     * @param dir the directory
+     */
+    public void invalidate(File dir) {
+        synchronized (directories) {
+            directories.remove(dir);
+        }
+    }
+
+    /**
+     * Forgets all directories.
+     */
+    public void clear() {
+        synchronized (directories) {
+            directories.clear();
+        }
+    }
+
+    public int getDirectoryCount() {
+        synchronized (directories) {
+            return directories.size();
+        }
+    }
+
+    /**
+     * @return the number of directory listings done
+     */
+    public long getListings() {
+        synchronized (directories) {
+            return listings;
+        }
+    }
+
+    public long getLookups() {
+        synchronized (directories) {
+            return lookups;
+        }
+    }
+
+    /**
+     * @return the number of lookups that were answered 'definitely not there'
+     */
+    public long getNegatives() {
+        synchronized (directories) {
+            return negatives;
+        }
+    }
+
+    private boolean isStale(DirectoryEntry entry) {
+        return refreshMillis > 0 && System.currentTimeMillis() - entry.created >= refreshMillis;
+    }
+
+    private DirectoryEntry index(File dir) {
+        Collection<String> names = lister.list(dir);
+        if (names == null)
+            names = Collections.emptyList();
+        BloomFilter filter = new BloomFilter(names.size(), falsePositiveProbability);
+        for (String name : names)
+            filter.add(name);
+        DirectoryEntry entry = new DirectoryEntry(filter, System.currentTimeMillis());
+        if (log.isLoggable(Level.FINE))
+            log.log(Level.FINE, "index() : " + dir + " " + names.size() + " names");
+        synchronized (directories) {
+            listings++;
+            directories.put(dir, entry);
+        }
+        return entry;
+    }
+}
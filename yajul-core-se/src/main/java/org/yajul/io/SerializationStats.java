@@ -5,6 +5,7 @@ import org.yajul.comparators.ComparatorChain;
 import org.yajul.comparators.ComparatorUtil;
 import org.yajul.serialization.SerializableWrapper;
 import org.yajul.serialization.SerializationHelper;
+import org.yajul.serialization.SerializationProfiler;
 
 import java.io.*;
 import java.util.Collection;
@@ -56,6 +57,20 @@ public class SerializationStats {
         }
     }
 
+    /**
+     * Attributes the serialized bytes of the object to classes and field paths.  See SerializationProfiler for
+     * sampling many objects.
+     *
+     * @param obj the object
+     * @return the bytes by class and path
+     * @throws IOException if the object can't be serialized
+     */
+    public static SerializationProfiler.Snapshot profile(Serializable obj) throws IOException {
+        SerializationProfiler profiler = new SerializationProfiler(1);
+        profiler.profile(obj);
+        return profiler.snapshot();
+    }
+
     /**
      * The total size, and the number of instances of each class in an object.
      */
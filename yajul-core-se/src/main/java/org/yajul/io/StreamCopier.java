@@ -31,6 +31,11 @@ import org.yajul.util.Copier;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
@@ -46,7 +51,11 @@ import static org.yajul.util.Copier.UNLIMITED;
  * redirect streams from a spawned JVM, or to 'pump' a one side of
  * PipedInputStream / PipedOutputStream pair.<br>
  * Also provides a static method that copies an entire input stream into
- * an output stream.
+ * an output stream.<br>
+ * When created with a buffer count greater than one, the copier is pipelined: the
+ * thread calling run() fills a ring of buffers from the input while a second
+ * thread drains them into the output, so a slow output doesn't stall the input
+ * (and vice versa).
  *
  * @author Joshua Davis
  */
@@ -56,7 +65,7 @@ public class StreamCopier implements Runnable {
     /**
      * The default buffer size.
      */
-    public static final int DEFAULT_BUFFER_SIZE = 256;
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
 
     /**
      * The input stream.
@@ -74,7 +83,32 @@ public class StreamCopier implements Runnable {
     /**
      * The number of bytes to copy.
      */
-    private final int limit;
+    private final long limit;
+
+    /**
+     * The number of buffers in the ring between the reader and the writer, or 1 to read and write on the same thread.
+     */
+    private final int bufferCount;
+
+    /**
+     * Runs the writer side of a pipelined copy.  If null, a new daemon thread is created.
+     */
+    private Executor writerExecutor;
+
+    /**
+     * The number of bytes copied by the run() method.
+     */
+    private volatile long total;
+
+    /**
+     * True when the run() method is complete.  Guarded by the lock.
+     */
+    private boolean done;
+
+    /**
+     * Completed with the total number of bytes when the run() method is complete.
+     */
+    private final CompletableFuture<Long> future = new CompletableFuture<Long>();
 
     /**
      * Progress callback functions.
@@ -98,6 +132,8 @@ public class StreamCopier implements Runnable {
 
     private static final int DEFAULT_BYTE_ARRAY_BUFSZ = 128;
 
+    private static final long WRITER_CHECK_MILLIS = 100;
+
     /**
      * Copies the input stream into the output stream in a thread safe and
      * efficient manner.
@@ -375,11 +411,62 @@ public class StreamCopier implements Runnable {
      */
     public StreamCopier(InputStream in,OutputStream out,int bufsz,int limit,Copier.Callback callback)
     {
+        this(in, out, bufsz, (long) limit, callback);
+    }
+
+    /**
+     * Creates a new stream copier, that will copy the input stream into the
+     * output stream when the run() method is caled.  If there is no callback and
+     * one of the streams is a file stream, the copy will be done with a file channel
+     * transfer.
+     *
+     * @param in  The input stream to read from.
+     * @param out The output stream.  If this is null, the input will be
+     *            discarded, similar to piping to /dev/null on UN*X.
+     * @param bufsz the buffer size to use
+     * @param limit limit the copy to this number of bytes (-1 for unlimited)
+     * @param callback optional progress callback
+     */
+    public StreamCopier(InputStream in,OutputStream out,int bufsz,long limit,Copier.Callback callback)
+    {
+        this(in, out, bufsz, limit, callback, 1);
+    }
+
+    /**
+     * Creates a new pipelined stream copier.  When the run() method is called, the
+     * calling thread reads the input into a ring of buffers which are written to the output
+     * by another thread.
+     *
+     * @param in  The input stream to read from.
+     * @param out The output stream.  If this is null, the input will be
+     *            discarded, similar to piping to /dev/null on UN*X.
+     * @param bufsz the size of each buffer
+     * @param limit limit the copy to this number of bytes (-1 for unlimited)
+     * @param callback optional progress callback, called by the reading thread
+     * @param bufferCount the number of buffers in the ring, 1 to read and write on the same thread
+     */
+    public StreamCopier(InputStream in,OutputStream out,int bufsz,long limit,Copier.Callback callback,int bufferCount)
+    {
+        if (bufsz <= 0)
+            throw new IllegalArgumentException("Buffer size must be > 0");
+        if (bufferCount <= 0)
+            throw new IllegalArgumentException("Buffer count must be > 0");
         this.in = in;
         this.out = out;
         this.bufsz = bufsz;
         this.limit = limit;
         this.callback = callback;
+        this.bufferCount = bufferCount;
+    }
+
+    /**
+     * Sets the executor that will run the writer side of a pipelined copy.  The executor
+     * must not be the one that is running this copier, or it may deadlock.
+     *
+     * @param writerExecutor the executor, or null to create a new thread for each copy
+     */
+    public void setWriterExecutor(Executor writerExecutor) {
+        this.writerExecutor = writerExecutor;
     }
 
     /**
@@ -400,20 +487,51 @@ public class StreamCopier implements Runnable {
      */
     public void run() {
         try {
-            // Copy, using the a buffer.
-            Copier.copy(in, out, bufsz, limit, callback);
-            // Flush the output.
-            if (out != null)
-                out.flush();
+            if (bufferCount > 1 && out != null) {
+                total = pipelinedCopy();
+            } else {
+                // Copy, using a buffer or a channel transfer.
+                total = Copier.transfer(in, out, bufsz, limit, callback);
+                // Flush the output.
+                if (out != null)
+                    out.flush();
+            }
         } catch (IOException e) {
             // Log the exception!
             unexpected(log, e);
             setException(e);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
         } finally {
             signalComplete();
         }
     }
 
+    private long pipelinedCopy() throws IOException {
+        Pipeline pipeline = new Pipeline(bufferCount, bufsz);
+        if (writerExecutor != null) {
+            writerExecutor.execute(pipeline);
+        } else {
+            Thread writer = new Thread(pipeline, "StreamCopier-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+        long copied;
+        try {
+            // The pipeline looks like an output stream to the copy loop.
+            copied = Copier.transfer(in, pipeline, bufsz, limit, callback);
+        } catch (IOException e) {
+            pipeline.abort();
+            throw e;
+        } catch (RuntimeException e) {
+            pipeline.abort();
+            throw e;
+        }
+        pipeline.close();
+        return copied;
+    }
+
     private void setException(IOException e) {
         // Remember the exception, just in case anyone cares.
         synchronized (this) {
@@ -424,10 +542,16 @@ public class StreamCopier implements Runnable {
     private void signalComplete() {
         lock.lock();
         try {
+            done = true;
             complete.signalAll();
         } finally {
             lock.unlock();
         }
+        IOException e = getException();
+        if (e != null)
+            future.completeExceptionally(e);
+        else
+            future.complete(total);
     }
 
     /**
@@ -440,19 +564,44 @@ public class StreamCopier implements Runnable {
      * @throws InterruptedException if the thread was interrupted.
      */
     public boolean waitForComplete(long millis) throws InterruptedException {
-        boolean rv = true;
         lock.lock();
         try {
             if (millis >= 0) {
-                rv = complete.await(millis, TimeUnit.MILLISECONDS);
-            } else
-                complete.await();
-            return rv;
+                long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+                while (!done) {
+                    if (nanos <= 0)
+                        return false;
+                    nanos = complete.awaitNanos(nanos);
+                }
+            } else {
+                while (!done)
+                    complete.await();
+            }
+            return true;
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * Returns a future that is completed with the number of bytes copied when the run() method
+     * is complete, or completed exceptionally with the exception from the run() method.
+     *
+     * @return the completion future
+     */
+    public CompletableFuture<Long> getFuture() {
+        return future;
+    }
+
+    /**
+     * Returns the number of bytes copied by the run() method, once it is complete.
+     *
+     * @return the number of bytes copied
+     */
+    public long getTotal() {
+        return total;
+    }
+
     /**
      * Returns the exception thrown in the run() method, if any.
      *
@@ -464,4 +613,147 @@ public class StreamCopier implements Runnable {
             return exception;
         }
     }
+
+    /**
+     * A buffer in the pipeline ring.
+     */
+    private static class Chunk {
+        private final byte[] buf;
+        private int length;
+
+        private Chunk(int size) {
+            buf = new byte[size];
+        }
+    }
+
+    /**
+     * A bounded ring of buffers between the reading thread and the writing thread.  The
+     * reading side is an OutputStream, so the normal copy loop can fill it.  The writing side
+     * is a Runnable that drains the buffers into the real output.
+     */
+    private class Pipeline extends OutputStream implements Runnable {
+        private final Chunk endOfStream = new Chunk(0);
+        private final BlockingQueue<Chunk> free;
+        private final BlockingQueue<Chunk> filled;
+        private final CountDownLatch drained = new CountDownLatch(1);
+        private volatile IOException writeException;
+
+        private Pipeline(int count, int size) {
+            free = new ArrayBlockingQueue<Chunk>(count);
+            // One extra slot for the end of stream marker.
+            filled = new ArrayBlockingQueue<Chunk>(count + 1);
+            for (int i = 0; i < count; i++)
+                free.add(new Chunk(size));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                checkWriter();
+                Chunk chunk = take(free);
+                int n = Math.min(len, chunk.buf.length);
+                System.arraycopy(b, off, chunk.buf, 0, n);
+                chunk.length = n;
+                put(chunk);
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Waits for the writer to drain all the buffers, and throws the writer's exception if there was one.
+         */
+        @Override
+        public void close() throws IOException {
+            put(endOfStream);
+            awaitDrained();
+            checkWriter();
+        }
+
+        /**
+         * Stops the writer without reporting any errors.
+         */
+        private void abort() {
+            try {
+                put(endOfStream);
+                awaitDrained();
+            } catch (IOException ignore) {
+                // The copy already failed, report that exception instead.
+            }
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    Chunk chunk = filled.take();
+                    if (chunk == endOfStream)
+                        break;
+                    // After a write error, keep recycling buffers so the reader doesn't block.
+                    if (writeException == null) {
+                        try {
+                            out.write(chunk.buf, 0, chunk.length);
+                        } catch (Throwable t) {
+                            writeException = asIOException(t);
+                        }
+                    }
+                    free.put(chunk);
+                }
+                if (writeException == null)
+                    out.flush();
+            } catch (InterruptedException e) {
+                writeException = new InterruptedIOException("Writer interrupted");
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                writeException = asIOException(t);
+            } finally {
+                drained.countDown();
+            }
+        }
+
+        private IOException asIOException(Throwable t) {
+            return (t instanceof IOException) ? (IOException) t : new IOException("Unable to write: " + t, t);
+        }
+
+        private void checkWriter() throws IOException {
+            IOException e = writeException;
+            if (e != null)
+                throw e;
+        }
+
+        private Chunk take(BlockingQueue<Chunk> queue) throws IOException {
+            try {
+                Chunk chunk;
+                // Don't wait forever if the writer has died.
+                while ((chunk = queue.poll(WRITER_CHECK_MILLIS, TimeUnit.MILLISECONDS)) == null)
+                    checkWriter();
+                return chunk;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a buffer");
+            }
+        }
+
+        private void put(Chunk chunk) throws IOException {
+            try {
+                filled.put(chunk);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while queueing a buffer");
+            }
+        }
+
+        private void awaitDrained() throws IOException {
+            try {
+                drained.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the writer");
+            }
+        }
+    }
 }
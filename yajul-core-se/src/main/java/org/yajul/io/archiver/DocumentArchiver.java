@@ -1,5 +1,10 @@
 package org.yajul.io.archiver;
 
+import org.yajul.io.ByteBufferInputStream;
+import org.yajul.io.CodecStats;
+import org.yajul.io.CompressionCodec;
+import org.yajul.io.CompressionCodecs;
+import org.yajul.io.RetrieveDirectoryIndex;
 import org.yajul.util.StringUtil;
 
 import java.io.BufferedInputStream;
@@ -10,18 +15,32 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import static org.yajul.juli.LogHelper.unexpected;
 
@@ -37,7 +56,29 @@ import static org.yajul.juli.LogHelper.unexpected;
  * <li>To store XML documents, XMLDocumentArchiver.</li>
  * <li>For more control over what is stored, use getSource() / getSink() which provides the generated file names
  * and input / output streams.</li>
+ * <li>Use storeAll() / retrieveAll() to store and retrieve a batch of objects for the same day.  If an executor
+ * has been set, the batch is spread across the executor's threads.</li>
  * </ul>
+ * Set the packed property to store documents in per-day segment files (see PackDirectory) instead
+ * of one file per document.  The file names returned by storeObject() are the same either way, and
+ * retrieval will find documents in both packed and unpacked directories, so PackMigrator
+ * can pack existing directory trees while they are still in use.  Once a directory has been packed, documents
+ * stored in it are appended to the pack whether or not the packed property is set, so the pack always has the
+ * latest version.  Appends to a pack are serialized by a lock on its index file, so any number of archivers
+ * and migrators can share a tree.
+ * <br>
+ * Documents are compressed with a pluggable CompressionCodec, GZIP by default.  The codec is recorded in the
+ * document, so documents written with any codec can be retrieved whatever the current codec is.  Documents
+ * from older versions have no record of the codec: they are read as uncompressed while compression is off,
+ * as those versions did, and are otherwise recognized by the GZIP magic number.  Retrieving
+ * by id also tries the file names the other codecs would use, unless an extension has been set.
+ * Per codec throughput is available from getCodecStats().
+ * <br>
+ * An optional RetrieveDirectoryIndex avoids checking every retrieve directory for documents that aren't in
+ * the storeage directory.
+ * <br>
+ * The archiver is thread safe.  Stores to the same file name are serialized by a lock striped over the path, so
+ * backups are never lost when the same id is stored concurrently.
  * See the setter / getter method javadoc for a description of the properties and the default values.
  * <br>
  * An example of a Spring initializer is listed here:
@@ -64,15 +105,73 @@ public class DocumentArchiver {
 
     public static final String DEFAULT_EXTENSION = ".dat.gz";
 
+    private static final String BASE_EXTENSION = ".dat";
+
+    /**
+     * Number of locks that the file paths are hashed onto when storing.
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * Upper bound on the number of remembered directories, the set is simply cleared when it
+     * gets this big.
+     */
+    private static final int MAX_CREATED_DIRECTORIES = 4096;
+
+    /**
+     * Marks ids that were not found by retrieveAll().
+     */
+    private static final Object NOT_FOUND = new Object();
+
+    /**
+     * Number of pack directories that keep their index and file handles open.
+     */
+    private static final int MAX_OPEN_PACK_DIRECTORIES = 16;
+
+    /**
+     * Upper bound on the number of directories remembered as not packed, the set is simply cleared when
+     * it gets this big.
+     */
+    private static final int MAX_UNPACKED_DIRECTORIES = 4096;
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final Set<File> createdDirectories =
+            Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+    private final Map<File, PackDirectory> packDirectories = new HashMap<File, PackDirectory>();
+    /**
+     * Directories that had no pack when they were last looked at.  Retrieves trust this until the document
+     * isn't found as a file, stores always look for the pack.
+     */
+    private final Set<File> unpackedDirectories = new HashSet<File>();
+    private final Map<File, PackDirectory> openPackDirectories =
+            new LinkedHashMap<File, PackDirectory>(MAX_OPEN_PACK_DIRECTORIES, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<File, PackDirectory> eldest) {
+                    if (size() <= MAX_OPEN_PACK_DIRECTORIES)
+                        return false;
+                    eldest.getValue().close();
+                    return true;
+                }
+            };
+
+    private Executor executor;
+    private RetrieveDirectoryIndex retrieveIndex;
     private File storeageDirectory;
-    private String extension = DEFAULT_EXTENSION;
+    private String extension;
     private List retrieveDirectories;
-    private boolean gzip = true;
+    private CompressionCodec codec = CompressionCodecs.GZIP;
+    private final ConcurrentMap<String, CodecStats> codecStats = new ConcurrentHashMap<String, CodecStats>();
     private boolean buffered = true;
     private boolean overwrite = false;
+    private boolean packed = false;
+    private int maxSegmentSize = PackDirectory.DEFAULT_MAX_SEGMENT_SIZE;
     private boolean initialized = false;
     private IdEncoder idEncoder = new DashAndUnderscoreEncoder();
 
+    public DocumentArchiver() {
+        for (int i = 0; i < locks.length; i++)
+            locks[i] = new Object();
+    }
+
     /**
      * Returns the storage directory.
      *
@@ -120,13 +219,69 @@ public class DocumentArchiver {
      * @return the filename extension that will be used for the stored documents.
      */
     public String getExtension() {
-        return extension;
+        return (extension != null) ? extension : extensionFor(codec);
+    }
+
+    /**
+     * Returns the default extension for a codec.  Uncompressed and GZIP documents have always been
+     * stored as '.dat.gz', so that stays the same when GZIP is turned off.
+     */
+    private static String extensionFor(CompressionCodec c) {
+        return (c == CompressionCodecs.NONE || c == CompressionCodecs.GZIP) ?
+                DEFAULT_EXTENSION : BASE_EXTENSION + c.getExtension();
+    }
+
+    /**
+     * Something that is looked up by file name.
+     */
+    private interface Lookup<T> {
+        T find(String fileName) throws IOException;
+    }
+
+    /**
+     * Looks up a document by id.  If it isn't found, and no extension has been set, the file names the
+     * id would have with the other codecs are tried, so documents stored before the codec was changed
+     * can still be found.
+     */
+    private <T> T findById(String fileName, Lookup<T> lookup) throws IOException {
+        try {
+            return lookup.find(fileName);
+        } catch (FileNotFoundException e) {
+            for (String other : getAlternateFileNames(fileName)) {
+                try {
+                    return lookup.find(other);
+                } catch (FileNotFoundException ignore) {
+                    // Try the next one.
+                }
+            }
+            throw e;
+        }
+    }
+
+    private List<String> getAlternateFileNames(String fileName) {
+        String current = getExtension();
+        if (extension != null || !fileName.endsWith(current))
+            return Collections.emptyList();
+        String stem = fileName.substring(0, fileName.length() - current.length());
+        List<String> names = new ArrayList<String>();
+        // The plain base extension, as well as each codec's.
+        List<String> extensions = new ArrayList<String>();
+        extensions.add(BASE_EXTENSION);
+        for (CompressionCodec c : CompressionCodecs.getCodecs())
+            extensions.add(extensionFor(c));
+        for (String ext : extensions) {
+            String name = stem + ext;
+            if (!ext.equals(current) && !names.contains(name))
+                names.add(name);
+        }
+        return names;
     }
 
     /**
      * Sets the filename extension used for stored documents.
      *
-     * @param extension The filename extension, defaults to '.dat.gz'.
+     * @param extension The filename extension, defaults to '.dat' followed by the codec extension, e.g. '.dat.lz4'.
+     *                  Uncompressed and GZIP documents use '.dat.gz', as they always have.
      */
     public void setExtension(String extension) {
         if (extension == null)
@@ -169,7 +324,7 @@ public class DocumentArchiver {
      * @return true if documents are being GZIP compressed.
      */
     public boolean isGzip() {
-        return gzip;
+        return codec == CompressionCodecs.GZIP;
     }
 
     /**
@@ -178,7 +333,46 @@ public class DocumentArchiver {
      * @param gzip True for gzip compression, false for uncompressed.
      */
     public void setGzip(boolean gzip) {
-        this.gzip = gzip;
+        setCodec(gzip ? CompressionCodecs.GZIP : CompressionCodecs.NONE);
+    }
+
+    /**
+     * Returns the codec that new documents are compressed with.
+     *
+     * @return the codec that new documents are compressed with.
+     */
+    public CompressionCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Sets the codec that new documents are compressed with, the default is GZIP.  Unless an extension
+     * has been set, the extension follows the codec.
+     *
+     * @param codec The codec, see CompressionCodecs.
+     */
+    public void setCodec(CompressionCodec codec) {
+        if (codec == null)
+            throw new IllegalArgumentException("Codec cannot be null!");
+        this.codec = codec;
+    }
+
+    /**
+     * Sets the codec by name: 'none', 'gzip', 'deflate' or 'lz4', or the name of a registered codec.
+     *
+     * @param name The codec name.
+     */
+    public void setCodecName(String name) {
+        setCodec(CompressionCodecs.forName(name));
+    }
+
+    /**
+     * Returns the compression and decompression statistics, by codec name.
+     *
+     * @return the compression and decompression statistics, by codec name.
+     */
+    public Map<String, CodecStats> getCodecStats() {
+        return Collections.unmodifiableMap(codecStats);
     }
 
     /**
@@ -201,6 +395,105 @@ public class DocumentArchiver {
         this.buffered = buffered;
     }
 
+    /**
+     * Returns the executor used by the batch methods.
+     *
+     * @return the executor, or null if batches are processed on the calling thread.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor that storeAll() and retrieveAll() spread the documents over.  The default is null,
+     * which processes batches sequentially on the calling thread.
+     *
+     * @param executor The executor, or null.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the index of the retrieve directories.
+     *
+     * @return the index, or null if the retrieve directories are searched file by file.
+     */
+    public RetrieveDirectoryIndex getRetrieveIndex() {
+        return retrieveIndex;
+    }
+
+    /**
+     * Sets the index of the retrieve directories, which remembers what is in each retrieve directory
+     * so that a document can be found (or found to be missing) without a file system call per
+     * retrieve directory.  Packed directories are indexed by the names in the pack.  The default is null, no index.
+     *
+     * @param retrieveIndex The index.
+     */
+    public void setRetrieveIndex(RetrieveDirectoryIndex retrieveIndex) {
+        if (retrieveIndex != null) {
+            retrieveIndex.setLister(new RetrieveDirectoryIndex.Lister() {
+                public Collection<String> list(File dir) {
+                    return listDocuments(dir);
+                }
+            });
+        }
+        this.retrieveIndex = retrieveIndex;
+    }
+
+    /**
+     * Fills the retrieve directory index in the background.
+     *
+     * @param executor The executor that will scan the retrieve directories.
+     */
+    public void scanRetrieveDirectories(Executor executor) {
+        if (retrieveIndex == null)
+            throw new IllegalStateException("There is no retrieve directory index!");
+        List<File> roots = new ArrayList<File>(getRetrieveDirectoryCount());
+        for (int i = 0; i < getRetrieveDirectoryCount(); i++)
+            roots.add(new File((String) retrieveDirectories.get(i)));
+        retrieveIndex.scanInBackground(executor, roots);
+    }
+
+    /**
+     * Returns true if new documents are appended to per-day segment files.
+     *
+     * @return true if new documents are appended to per-day segment files.
+     */
+    public boolean isPacked() {
+        return packed;
+    }
+
+    /**
+     * Enables/disables packed storeage.  When enabled, new documents are appended to segment files in the
+     * day directory rather than written to their own files.  The default is 'false'.
+     *
+     * @param packed If true, documents will be packed.
+     */
+    public void setPacked(boolean packed) {
+        this.packed = packed;
+    }
+
+    /**
+     * Returns the size at which a new segment file is started, in bytes.
+     *
+     * @return the size at which a new segment file is started.
+     */
+    public int getMaxSegmentSize() {
+        return maxSegmentSize;
+    }
+
+    /**
+     * Sets the size at which a new segment file is started, the default is 256M.
+     *
+     * @param maxSegmentSize The maximum segment size in bytes.
+     */
+    public void setMaxSegmentSize(int maxSegmentSize) {
+        if (maxSegmentSize <= 0)
+            throw new IllegalArgumentException("Maximum segment size must be > 0");
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
     /**
      * Initializes the bean.
      *
@@ -268,8 +561,12 @@ public class DocumentArchiver {
      * @return The object.
      * @throws IOException if something goes wrong.
      */
-    public Object retrieveObject(String subDirectory, Object id, Date date) throws IOException {
-        return retrieveObject(subDirectory, generateFileName(id, date));
+    public Object retrieveObject(final String subDirectory, Object id, Date date) throws IOException {
+        return findById(generateFileName(id, date), new Lookup<Object>() {
+            public Object find(String fileName) throws IOException {
+                return retrieveObject(subDirectory, fileName);
+            }
+        });
     }
 
     /**
@@ -288,10 +585,14 @@ public class DocumentArchiver {
             if (log.isLoggable(Level.FINE))
                 log.log(Level.FINE, "retrieveObject() : " + source.getFilename());
             ObjectInputStream ois = new ObjectInputStream(source.getStream());
-            Object o = ois.readObject();
-            if (log.isLoggable(Level.FINE))
-                log.log(Level.FINE, "retrieveObject() : Object sucessfully retrieved.");
-            return o;
+            try {
+                Object o = ois.readObject();
+                if (log.isLoggable(Level.FINE))
+                    log.log(Level.FINE, "retrieveObject() : Object sucessfully retrieved.");
+                return o;
+            } finally {
+                ois.close();
+            }
         } // try
         catch (FileNotFoundException e) {
             throw e;
@@ -307,6 +608,114 @@ public class DocumentArchiver {
         }
     }
 
+    /**
+     * Stores a batch of objects that all have the same date and sub-directory.  If an executor has been set,
+     * the objects are stored in parallel.
+     *
+     * @param subDirectory The sub-directory of the storeage directory where documents of this type are stored.
+     * @param date         The date, which will be used to generate the directory name.
+     * @param objects      A map of id to the object that will be stored.
+     * @return A map of id to the name of the file that was used to store the object, in the same order as the input.
+     * @throws IOException if any object could not be stored.  All of the other objects are attempted first.
+     */
+    public Map<Object, String> storeAll(final String subDirectory, final Date date, final Map<?, ?> objects)
+            throws IOException {
+        return runAll(objects.keySet(), new BatchTask<String>() {
+            public String run(Object id) throws IOException {
+                return storeObject(subDirectory, id, date, objects.get(id));
+            }
+        });
+    }
+
+    /**
+     * Retrieves a batch of objects that all have the same date and sub-directory.  If an executor has been set,
+     * the objects are retrieved in parallel.  Ids that are not found in any directory are left out of the result.
+     *
+     * @param subDirectory The sub-directory.
+     * @param date         The date.
+     * @param ids          The object ids.
+     * @return A map of id to retrieved object, in the same order as the input.
+     * @throws IOException if any object could not be read.  All of the other objects are attempted first.
+     */
+    public Map<Object, Object> retrieveAll(final String subDirectory, final Date date, Collection<?> ids)
+            throws IOException {
+        Map<Object, Object> found = runAll(ids, new BatchTask<Object>() {
+            public Object run(Object id) throws IOException {
+                try {
+                    return retrieveObject(subDirectory, id, date);
+                } catch (FileNotFoundException e) {
+                    if (log.isLoggable(Level.FINE))
+                        log.log(Level.FINE, "retrieveAll() : " + e.getMessage());
+                    return NOT_FOUND;
+                }
+            }
+        });
+        for (Iterator<Object> iterator = found.values().iterator(); iterator.hasNext(); ) {
+            if (iterator.next() == NOT_FOUND)
+                iterator.remove();
+        }
+        return found;
+    }
+
+    /**
+     * One unit of work in a batch.
+     */
+    private interface BatchTask<T> {
+        T run(Object id) throws IOException;
+    }
+
+    /**
+     * Runs the task for each id, on the executor if there is one.  Waits for all of the tasks to finish
+     * and then throws the first failure, if any.
+     */
+    private <T> Map<Object, T> runAll(Collection<?> ids, final BatchTask<T> task) throws IOException {
+        Map<Object, T> results = new LinkedHashMap<Object, T>(ids.size() * 4 / 3 + 1);
+        if (executor == null) {
+            for (Object id : ids)
+                results.put(id, task.run(id));
+            return results;
+        }
+        List<FutureTask<T>> futures = new ArrayList<FutureTask<T>>(ids.size());
+        for (final Object id : ids) {
+            FutureTask<T> future = new FutureTask<T>(new Callable<T>() {
+                public T call() throws Exception {
+                    return task.run(id);
+                }
+            });
+            futures.add(future);
+            executor.execute(future);
+        }
+        IOException failure = null;
+        Iterator<FutureTask<T>> futureIterator = futures.iterator();
+        for (Object id : ids) {
+            FutureTask<T> future = futureIterator.next();
+            try {
+                results.put(id, future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (FutureTask<T> f : futures)
+                    f.cancel(true);
+                throw new InterruptedIOException("Interrupted while waiting for batch.");
+            } catch (ExecutionException e) {
+                if (failure == null)
+                    failure = asIOException(e.getCause());
+            }
+        }
+        if (failure != null)
+            throw failure;
+        return results;
+    }
+
+    private static IOException asIOException(Throwable t) {
+        if (t instanceof IOException)
+            return (IOException) t;
+        if (t instanceof RuntimeException)
+            throw (RuntimeException) t;
+        if (t instanceof Error)
+            throw (Error) t;
+        return new IOException(t);
+    }
+
     /**
      * Returns the Sink (information for writing a document) for a given id, date and sub-directory.
      *
@@ -324,33 +733,87 @@ public class DocumentArchiver {
         // If a storeage sub-directory was specified, use it.
         File dir = getSubDirectory(storeageDirectory, subDirectory);
         File path = new File(dir, fileName);
+        // Once a directory has been packed, documents stored in it go to the pack even when not packing.
+        if (packed || isPackedDirectory(path.getParentFile(), false)) {
+            PackDirectory pack = getPackDirectory(path.getParentFile());
+            OutputStream os = CompressionCodecs.openOutput(pack.openOutput(path.getName(), overwrite),
+                    codec, codecStats);
+            return new Sink(fileName, os);
+        }
         String pathname = path.getAbsolutePath();
         File f = new File(pathname);
-        if (f.exists()) {
-            if (!overwrite) {
-                // This might need to be optimized a bit.  We could enumerate the directory
-                // to find a good filename for the backup.
-                int i = 1;
-                File backup = new File(pathname + "." + i);
-                while (backup.exists()) {
-                    i++;
-                    backup = new File(pathname + "." + i);
+        OutputStream os;
+        synchronized (lockFor(pathname)) {
+            if (f.exists()) {
+                if (!overwrite) {
+                    File backup = nextBackup(f);
+                    log.info("getSink() : Renaming existing file to " + backup.getAbsolutePath());
+                    f.renameTo(backup);
+                    f = new File(pathname);
+                } else {
+                    log.info("getSink() : deleting " + f.getAbsolutePath());
+                    f.delete();
+                    f = new File(pathname);
                 }
-                log.info("getSink() : Renaming existing file to " + backup.getAbsolutePath());
-                f.renameTo(backup);
-                f = new File(pathname);
-            } else {
-                log.info("getSink() : deleting " + f.getAbsolutePath());
-                f.delete();
-                f = new File(pathname);
             }
+            if (log.isLoggable(Level.FINE))
+                log.log(Level.FINE, "getSink() : " + f.getAbsolutePath());
+            os = getOutputStream(f);
         }
-        log.info("getSink() : " + f.getAbsolutePath());
-        OutputStream os = getOutputStream(f);
         Sink docOut = new Sink(fileName, os);
         return docOut;
     }
 
+    /**
+     * Returns the lock for a path.  The path is hashed onto a fixed set of locks so that
+     * unrelated documents can be stored concurrently.
+     */
+    private Object lockFor(String pathname) {
+        int h = pathname.hashCode();
+        h ^= (h >>> 16);
+        return locks[h & (locks.length - 1)];
+    }
+
+    /**
+     * Finds the next unused backup file name ('name.1', 'name.2', ...) for an existing file, with one
+     * listing of the directory rather than probing each candidate name.
+     *
+     * @param f the existing file
+     * @return the backup file
+     */
+    static File nextBackup(File f) {
+        String prefix = f.getName() + ".";
+        String[] names = f.getParentFile().list();
+        int max = 0;
+        if (names != null) {
+            for (String name : names)
+                max = Math.max(max, backupNumber(prefix, name));
+        }
+        return new File(f.getParentFile(), prefix + (max + 1));
+    }
+
+    /**
+     * Returns the backup number of a name, if it is a backup name.
+     *
+     * @param prefix the original name, followed by '.'
+     * @param name   the name to check
+     * @return the number after the prefix, or zero if the name is not a backup of the original
+     */
+    static int backupNumber(String prefix, String name) {
+        if (name.length() <= prefix.length() || !name.startsWith(prefix))
+            return 0;
+        for (int i = prefix.length(); i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9')
+                return 0;
+        }
+        try {
+            return Integer.parseInt(name.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return 0;   // Too big to be one of ours.
+        }
+    }
+
     /**
      * Generates a file name from an object id and a date and file extension.
      *
@@ -361,7 +824,7 @@ public class DocumentArchiver {
     public String generateFileName(Object id, Date date) {
         // Generate the file name, use URL DEFAULT_CHARACTER_ENCODING to ensure that 'id' does not contain
         // characters that would be meaningful to the filesystem.
-        String fileName = idEncoder.encode(id) + this.extension;
+        String fileName = idEncoder.encode(id) + getExtension();
         // Get the month and year as a string, with the file separator in the middle.
         SimpleDateFormat df = new SimpleDateFormat(File.separator +
                 "yyyy" +
@@ -384,8 +847,12 @@ public class DocumentArchiver {
      * @return The object.
      * @throws IOException if something goes wrong.
      */
-    public Source getSource(String subDirectory, Object id, Date date) throws IOException {
-        return getSource(subDirectory, generateFileName(id, date));
+    public Source getSource(final String subDirectory, Object id, Date date) throws IOException {
+        return findById(generateFileName(id, date), new Lookup<Source>() {
+            public Source find(String fileName) throws IOException {
+                return getSource(subDirectory, fileName);
+            }
+        });
     }
 
     /**
@@ -400,15 +867,14 @@ public class DocumentArchiver {
         if (storeageDirectory == null)
             throw new IOException("Storeage directory cannot be null!  (Did you forget to invoke setStoreageDirectory()?)");
 
-        // If a storeage sub-directory was specified, use it.
-        File dir = getSubDirectory(storeageDirectory, subDirectory);
-        File f = new File(dir, fileName);
+        // Look in the primary storeage directory first.
+        Source source = findSource(storeageDirectory, subDirectory, fileName);
 
         // If the file doesn't exist in the primary storeage directory, then
         // check the other directories.
-        if (!f.exists()) {
+        if (source == null) {
             if (log.isLoggable(Level.FINE))
-                log.log(Level.FINE, "getSource() : " + f.getAbsolutePath() + " doesn't exist.");
+                log.log(Level.FINE, "getSource() : " + fileName + " doesn't exist in " + storeageDirectory);
 
             if (retrieveDirectories == null || getRetrieveDirectoryCount() == 0)
                 throw new FileNotFoundException("Unable to find " + fileName + " in the storeage directory.");
@@ -416,21 +882,142 @@ public class DocumentArchiver {
             for (Iterator iterator = retrieveDirectories.iterator(); iterator.hasNext(); ) {
                 String baseString = (String) iterator.next();
                 File base = new File(baseString);
-                if (!base.exists()) {
+                if (retrieveIndex != null) {
+                    // The index knows what is in the directory, and whether it exists at all.
+                    if (!retrieveIndex.mightContain(new File(getSubDirectory(base, subDirectory), fileName)))
+                        continue;
+                } else if (!base.exists()) {
                     if (log.isLoggable(Level.FINE))
                         log.log(Level.FINE, "getSource() : directory " + base + " does not exist, skipping.");
                     continue;
                 }
-                dir = getSubDirectory(base, subDirectory);
-                f = new File(dir, fileName);
-                if (f.exists())
-                    return getSource(f);   // Return the source.
+                source = findSource(base, subDirectory, fileName);
+                if (source != null)
+                    return source;   // Return the source.
             } // for
             throw new FileNotFoundException("Unable to find " + fileName + " in the any directories ("
                     + (getRetrieveDirectoryCount() + 1) + " directories searched).");
-        } // if !f.exists()
+        } // if source == null
         else
-            return getSource(f);   // Return the object.
+            return source;   // Return the object.
+    }
+
+    /**
+     * Looks for a document under one base directory, in the pack for the day if the day directory
+     * has been packed, and then as a file.  A file is only used when the pack doesn't have the document:
+     * PackMigrator may leave copies of the documents it has packed.
+     *
+     * @param base         the base directory
+     * @param subDirectory the sub-directory (optional)
+     * @param fileName     the file name
+     * @return the source, or null if the document is not under the base directory
+     * @throws IOException if something goes wrong
+     */
+    private Source findSource(File base, String subDirectory, String fileName) throws IOException {
+        File f = new File(getSubDirectory(base, subDirectory), fileName);
+        File dir = f.getParentFile();
+        Source source = findPacked(dir, f, true);
+        if (source != null)
+            return source;
+        try {
+            if (f.exists())
+                return getSource(f);
+        } catch (FileNotFoundException ignore) {
+            // Deleted, see below.
+        }
+        // The directory may have been packed, and the file deleted, since the pack was checked.
+        return findPacked(dir, f, false);
+    }
+
+    private Source findPacked(File dir, File f, boolean cached) throws IOException {
+        if (!isPackedDirectory(dir, cached))
+            return null;
+        ByteBuffer bytes = getPackDirectory(dir).read(f.getName());
+        return bytes == null ? null : new Source(f.getAbsolutePath(), decode(new ByteBufferInputStream(bytes)));
+    }
+
+    /**
+     * Lists the names of the documents in a directory, both packed and unpacked.
+     *
+     * @param dir the directory
+     * @return the document names, or null if the directory doesn't exist
+     */
+    private Collection<String> listDocuments(File dir) {
+        String[] files = dir.list();
+        if (files == null)
+            return null;
+        List<String> names = new ArrayList<String>(files.length);
+        boolean packed = false;
+        for (String name : files) {
+            if (PackDirectory.isPackFile(name))
+                packed = true;
+            else
+                names.add(name);
+        }
+        if (packed) {
+            try {
+                names.addAll(getPackDirectory(dir).names());
+            } catch (IOException e) {
+                unexpected(log, e);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns true if the directory has a pack.
+     *
+     * @param dir    the directory
+     * @param cached if true, a directory that had no pack when it was last looked at is assumed to still have none
+     * @return true if the directory is packed
+     */
+    private boolean isPackedDirectory(File dir, boolean cached) {
+        synchronized (packDirectories) {
+            if (packDirectories.containsKey(dir))
+                return true;
+            if (cached && unpackedDirectories.contains(dir))
+                return false;
+        }
+        boolean packed = PackDirectory.isPacked(dir);
+        if (!packed) {
+            synchronized (packDirectories) {
+                if (unpackedDirectories.size() >= MAX_UNPACKED_DIRECTORIES)
+                    unpackedDirectories.clear();
+                unpackedDirectories.add(dir);
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * Returns the pack for a directory, closing the least recently used pack if too many are open.
+     *
+     * @param dir the directory
+     * @return the pack
+     */
+    private PackDirectory getPackDirectory(File dir) {
+        synchronized (packDirectories) {
+            PackDirectory pack = packDirectories.get(dir);
+            if (pack == null) {
+                pack = new PackDirectory(dir, maxSegmentSize);
+                packDirectories.put(dir, pack);
+                unpackedDirectories.remove(dir);
+            }
+            openPackDirectories.put(dir, pack);
+            return pack;
+        }
+    }
+
+    /**
+     * Closes any open segment and index files.  The archiver can still be used afterwards, the files
+     * will be re-opened as needed.
+     */
+    public void close() {
+        synchronized (packDirectories) {
+            for (PackDirectory pack : openPackDirectories.values())
+                pack.close();
+            openPackDirectories.clear();
+        }
     }
 
     /**
@@ -465,13 +1052,35 @@ public class DocumentArchiver {
      */
     private OutputStream getOutputStream(File f)
             throws IOException {
-        f.getParentFile().mkdirs();
-        OutputStream os = new FileOutputStream(f);
+        File dir = f.getParentFile();
+        makeDirectories(dir);
+        OutputStream os;
+        try {
+            os = new FileOutputStream(f);
+        } catch (FileNotFoundException e) {
+            // The directory may have been removed since it was created, try once more.
+            createdDirectories.remove(dir);
+            makeDirectories(dir);
+            os = new FileOutputStream(f);
+        }
         if (buffered)
             os = new BufferedOutputStream(os);
-        if (gzip)
-            os = new GZIPOutputStream(os);
-        return os;
+        return CompressionCodecs.openOutput(os, codec, codecStats);
+    }
+
+    /**
+     * Creates the directory if it hasn't already been created by this archiver.  All the documents for a
+     * day go in the same directory, so this saves a round of file system calls per document.
+     *
+     * @param dir the directory
+     */
+    private void makeDirectories(File dir) {
+        if (createdDirectories.contains(dir))
+            return;
+        dir.mkdirs();
+        if (createdDirectories.size() >= MAX_CREATED_DIRECTORIES)
+            createdDirectories.clear();
+        createdDirectories.add(dir);
     }
 
     /**
@@ -486,9 +1095,12 @@ public class DocumentArchiver {
         InputStream is = new FileInputStream(f);
         if (buffered)
             is = new BufferedInputStream(is);
-        if (gzip)
-            is = new GZIPInputStream(is);
-        return is;
+        return decode(is);
+    }
+
+    private InputStream decode(InputStream is) throws IOException {
+        return CompressionCodecs.openInput(is, codec == CompressionCodecs.NONE ? CompressionCodecs.NONE : null,
+                codecStats);
     }
 
 }
@@ -0,0 +1,448 @@
+package org.yajul.io.archiver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The documents of one archive directory (normally one day), appended to a few large segment
+ * files instead of being stored one file per document.
+ * <ul>
+ * <li>documents-N.pack - the segments, which hold the document bytes back to back.  A new segment
+ * is started when the current one reaches the maximum segment size.</li>
+ * <li>documents.idx - the index, a log of (name, segment, offset, length) records.  The last record for
+ * a name wins.</li>
+ * </ul>
+ * Segments are read through memory mapped buffers, mapped in chunks as they grow, so a retrieve is a
+ * hash lookup and a slice.  Data is forced to disk before its index record is written, so a crash can
+ * only lose the document being written.  Space used by overwritten documents is not reclaimed.
+ * <br>
+ * Once a directory is packed, the pack is where its documents are stored: a document stored through
+ * {@link #openOutput(String, boolean)} supersedes a loose file of the same name.
+ * <br>
+ * Appends hold a lock on the index file, and read the records other writers have added to the index
+ * before writing, so several archivers (and PackMigrator) can share a directory, in one process or many.
+ * A document that isn't in the loaded index is looked for again in the records added since.
+ * <br>
+ * The index is loaded when the directory is first used, and dropped by {@link #close()}; the
+ * directory can still be used after it is closed.
+ */
+class PackDirectory {
+    private static final Logger log = Logger.getLogger(PackDirectory.class.getName());
+
+    static final String INDEX_FILE = "documents.idx";
+    static final String SEGMENT_PREFIX = "documents-";
+    static final String SEGMENT_SUFFIX = ".pack";
+
+    /**
+     * The default maximum segment size (256M).  Segments are mapped in one piece, so the
+     * maximum can't be more than 2G.
+     */
+    static final int DEFAULT_MAX_SEGMENT_SIZE = 256 * 1024 * 1024;
+
+    /**
+     * Number of locks that the directories are hashed onto when appending.  A file lock can't be held twice
+     * in one process, so appends within the process are serialized by these first.
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * Segments are mapped in chunks of this size (16M), so a growing segment only has its last chunk
+     * re-mapped.  Documents that cross a chunk boundary are read into a heap buffer.
+     */
+    static final int MAP_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private static final Object[] LOCKS = new Object[LOCK_STRIPES];
+
+    static {
+        for (int i = 0; i < LOCKS.length; i++)
+            LOCKS[i] = new Object();
+    }
+
+    private final File dir;
+    private final int maxSegmentSize;
+
+    private Map<String, Entry> index;
+    /**
+     * The number of index file bytes that have been read into the index.
+     */
+    private long indexLength;
+    /**
+     * The mapped chunks, by segment number and chunk number (see chunkKey()).
+     */
+    private final Map<Long, MappedByteBuffer> maps = new HashMap<Long, MappedByteBuffer>();
+    private int segment;
+    private long segmentLength;
+    private FileChannel segmentOut;
+    private FileChannel indexOut;
+
+    /**
+     * The location of one document.
+     */
+    static class Entry {
+        final int segment;
+        final long offset;
+        final int length;
+
+        Entry(int segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    PackDirectory(File dir, int maxSegmentSize) {
+        if (maxSegmentSize <= 0)
+            throw new IllegalArgumentException("Maximum segment size must be > 0");
+        this.dir = dir;
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    /**
+     * Returns true if there is a pack index in the directory.
+     *
+     * @param dir the directory
+     * @return true if the directory has been packed
+     */
+    static boolean isPacked(File dir) {
+        return new File(dir, INDEX_FILE).exists();
+    }
+
+    /**
+     * Returns true if the file is one of the pack files (index or segment).
+     *
+     * @param name the file name
+     * @return true if the file name is a pack file name
+     */
+    static boolean isPackFile(String name) {
+        return INDEX_FILE.equals(name) || (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+    }
+
+    File getDirectory() {
+        return dir;
+    }
+
+    synchronized boolean contains(String name) throws IOException {
+        return getIndex().containsKey(name);
+    }
+
+    synchronized int size() throws IOException {
+        return getIndex().size();
+    }
+
+    synchronized List<String> names() throws IOException {
+        return new ArrayList<String>(getIndex().keySet());
+    }
+
+    /**
+     * Returns the bytes of a document as a read only slice of the mapped segment.
+     *
+     * @param name the document name
+     * @return the document bytes, or null if there is no such document
+     * @throws IOException if the segment could not be mapped
+     */
+    ByteBuffer read(String name) throws IOException {
+        MappedByteBuffer map;
+        Entry entry;
+        synchronized (this) {
+            entry = getIndex().get(name);
+            if (entry == null) {
+                // Another writer may have added it since the index was read.
+                readIndex();
+                entry = index.get(name);
+            }
+            if (entry == null)
+                return null;
+            if (entry.length > 0 && entry.offset / MAP_CHUNK_SIZE != (entry.offset + entry.length - 1) / MAP_CHUNK_SIZE)
+                return readSpanning(entry);
+            map = getMap(entry);
+        }
+        int start = (int) (entry.offset % MAP_CHUNK_SIZE);
+        ByteBuffer slice = map.duplicate();
+        slice.position(start);
+        slice.limit(start + entry.length);
+        return slice.slice();
+    }
+
+    /**
+     * Returns a stream that appends a document when it is closed.  A loose file of the same name in the
+     * directory is superseded by the packed document, see supersede().
+     *
+     * @param name      the document name
+     * @param overwrite if false, an existing document with the same name is kept under a backup name
+     * @return the output stream
+     */
+    OutputStream openOutput(final String name, final boolean overwrite) {
+        return new ByteArrayOutputStream() {
+            private boolean closed;
+
+            public void close() throws IOException {
+                if (closed)
+                    return;
+                closed = true;
+                boolean replaced = append(name, buf, count, overwrite);
+                supersede(name, overwrite || replaced);
+            }
+        };
+    }
+
+    /**
+     * Removes a loose file that has been superseded by the packed document of the same name.  If the
+     * document was new to the pack and overwrite is off, the file is kept under a backup name instead.
+     */
+    private void supersede(String name, boolean delete) {
+        File f = new File(dir, name);
+        if (!f.exists())
+            return;
+        if (delete) {
+            if (!f.delete())
+                log.warning("supersede() : Unable to delete " + f);
+        } else {
+            File backup = DocumentArchiver.nextBackup(f);
+            log.info("supersede() : Renaming existing file to " + backup);
+            if (!f.renameTo(backup))
+                log.warning("supersede() : Unable to rename " + f);
+        }
+    }
+
+    /**
+     * Appends a document.
+     *
+     * @param name      the document name
+     * @param data      the document bytes
+     * @param length    the number of bytes
+     * @param overwrite if false, an existing document with the same name is kept under a backup name
+     * @return true if there already was a document with the name in the pack
+     * @throws IOException if the document could not be written
+     */
+    synchronized boolean append(String name, byte[] data, int length, boolean overwrite) throws IOException {
+        if (segmentOut == null)
+            openForWrite();
+        synchronized (LOCKS[(dir.getAbsoluteFile().hashCode() & 0x7fffffff) % LOCK_STRIPES]) {
+            FileLock lock = indexOut.lock();
+            try {
+                return append(name, ByteBuffer.wrap(data, 0, length), overwrite);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private boolean append(String name, ByteBuffer src, boolean overwrite) throws IOException {
+        // Catch up with the other writers: their index records, and the end of the last segment.
+        readIndex();
+        int last = lastSegment();
+        if (last != segment) {
+            segmentOut.close();
+            segment = last;
+            segmentOut = openSegment(segment);
+        }
+        segmentLength = segmentOut.size();
+        segmentOut.position(segmentLength);
+        Map<String, Entry> idx = index;
+        Entry previous = idx.get(name);
+        int length = src.remaining();
+        if (segmentLength > 0 && segmentLength + length > maxSegmentSize) {
+            segmentOut.close();
+            segment++;
+            segmentOut = openSegment(segment);
+            segmentLength = segmentOut.size();
+            segmentOut.position(segmentLength);
+        }
+        long offset = segmentLength;
+        while (src.hasRemaining())
+            segmentOut.write(src);
+        segmentLength += length;
+        // The data must be on disk before an index record can point at it.
+        segmentOut.force(false);
+        if (previous != null && !overwrite) {
+            String backup = nextBackup(name, idx);
+            log.info("append() : Keeping existing " + name + " as " + backup + " in " + dir);
+            writeIndex(backup, previous);
+        }
+        writeIndex(name, new Entry(segment, offset, length));
+        return previous != null;
+    }
+
+    /**
+     * Releases the file handles and the index.
+     */
+    synchronized void close() {
+        index = null;
+        indexLength = 0;
+        maps.clear();
+        close(segmentOut);
+        close(indexOut);
+        segmentOut = null;
+        indexOut = null;
+    }
+
+    private static void close(FileChannel channel) {
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Unable to close " + channel + " due to: " + e, e);
+        }
+    }
+
+    private Map<String, Entry> getIndex() throws IOException {
+        if (index == null)
+            readIndex();
+        return index;
+    }
+
+    /**
+     * Reads the index records that were written after the ones already read.
+     */
+    private void readIndex() throws IOException {
+        if (index == null) {
+            index = new HashMap<String, Entry>();
+            indexLength = 0;
+        }
+        File f = new File(dir, INDEX_FILE);
+        if (!f.exists())
+            return;
+        FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+        byte[] bytes;
+        try {
+            long size = channel.size();
+            if (size <= indexLength)
+                return;
+            ByteBuffer buf = ByteBuffer.allocate((int) (size - indexLength));
+            while (buf.hasRemaining() && channel.read(buf, indexLength + buf.position()) >= 0) {
+                // Keep reading.
+            }
+            bytes = buf.array();
+        } finally {
+            channel.close();
+        }
+        ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
+        DataInputStream in = new DataInputStream(bis);
+        int read = 0;
+        while (true) {
+            String name;
+            Entry entry;
+            try {
+                name = in.readUTF();
+                entry = new Entry(in.readInt(), in.readLong(), in.readInt());
+            } catch (EOFException e) {
+                break;  // End of the index, or an incomplete last record.
+            }
+            index.put(name, entry);
+            read = bytes.length - bis.available();
+        }
+        indexLength += read;
+    }
+
+    private int lastSegment() {
+        int last = 0;
+        for (Entry entry : index.values())
+            last = Math.max(last, entry.segment);
+        return last;
+    }
+
+    private void openForWrite() throws IOException {
+        dir.mkdirs();
+        getIndex();
+        segment = lastSegment();
+        segmentOut = openSegment(segment);
+        indexOut = FileChannel.open(new File(dir, INDEX_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private FileChannel openSegment(int n) throws IOException {
+        return FileChannel.open(segmentFile(n).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    private File segmentFile(int n) {
+        return new File(dir, SEGMENT_PREFIX + n + SEGMENT_SUFFIX);
+    }
+
+    private void writeIndex(String name, Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(name.length() + 18);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(name);
+        out.writeInt(entry.segment);
+        out.writeLong(entry.offset);
+        out.writeInt(entry.length);
+        out.flush();
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        while (record.hasRemaining())
+            indexOut.write(record);
+        indexLength += record.capacity();
+        index.put(name, entry);
+    }
+
+    /**
+     * Returns a mapping of the chunk of the entry's segment that holds the entry, re-mapping the chunk if
+     * the segment has grown since it was mapped.  Only the last chunk of a segment is ever re-mapped.
+     */
+    private MappedByteBuffer getMap(Entry entry) throws IOException {
+        long chunk = entry.offset / MAP_CHUNK_SIZE;
+        long chunkStart = chunk * MAP_CHUNK_SIZE;
+        Long key = (long) entry.segment << 32 | chunk;
+        MappedByteBuffer map = maps.get(key);
+        if (map == null || chunkStart + map.capacity() < entry.offset + entry.length) {
+            FileChannel channel = FileChannel.open(segmentFile(entry.segment).toPath(), StandardOpenOption.READ);
+            try {
+                long size = Math.min(MAP_CHUNK_SIZE, channel.size() - chunkStart);
+                if (chunkStart + size < entry.offset + entry.length)
+                    throw tooShort(entry);
+                map = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, size);
+            } finally {
+                channel.close();
+            }
+            maps.put(key, map);
+        }
+        return map;
+    }
+
+    /**
+     * Reads an entry that crosses a chunk boundary.
+     */
+    private ByteBuffer readSpanning(Entry entry) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(entry.length);
+        FileChannel channel = FileChannel.open(segmentFile(entry.segment).toPath(), StandardOpenOption.READ);
+        try {
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, entry.offset + buf.position()) < 0)
+                    throw tooShort(entry);
+            }
+        } finally {
+            channel.close();
+        }
+        buf.flip();
+        return buf.asReadOnlyBuffer();
+    }
+
+    private EOFException tooShort(Entry entry) {
+        return new EOFException("Segment " + segmentFile(entry.segment) + " is too short for "
+                + entry.length + " bytes at " + entry.offset);
+    }
+
+    private static String nextBackup(String name, Map<String, Entry> idx) {
+        String prefix = name + ".";
+        int max = 0;
+        for (String key : idx.keySet())
+            max = Math.max(max, DocumentArchiver.backupNumber(prefix, key));
+        return prefix + (max + 1);
+    }
+}
@@ -0,0 +1,126 @@
+package org.yajul.io.archiver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Packs an existing DocumentArchiver directory tree: the files in each directory are appended to
+ * the segment files for that directory, so they can be read by an archiver with or without the
+ * packed property set.  The files are stored as they are, the archiver recognizes the compression
+ * codec when they are read.
+ * <br>
+ * Archivers can keep using the tree while it is being packed: appends to a pack are locked (see
+ * PackDirectory), readers look for documents in the pack again when a file has gone, and a file that
+ * changes while it is being packed is packed again, and not deleted.  Files whose names are already in
+ * the pack are left out, the pack has the latest version of those; they are deleted along with the others.
+ * <br>
+ * Usage: <code>java org.yajul.io.archiver.PackMigrator [-delete] directory...</code>
+ */
+public class PackMigrator {
+    private static final Logger log = Logger.getLogger(PackMigrator.class.getName());
+
+    private int maxSegmentSize = PackDirectory.DEFAULT_MAX_SEGMENT_SIZE;
+    private boolean deleteFiles;
+
+    public static void main(String[] args) throws IOException {
+        PackMigrator migrator = new PackMigrator();
+        int count = 0;
+        for (String arg : args) {
+            if ("-delete".equals(arg))
+                migrator.setDeleteFiles(true);
+            else
+                count += migrator.pack(new File(arg));
+        }
+        System.out.println(count + " files packed.");
+    }
+
+    /**
+     * Sets the size at which a new segment file is started, the default is 256M.
+     *
+     * @param maxSegmentSize The maximum segment size in bytes.
+     */
+    public void setMaxSegmentSize(int maxSegmentSize) {
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    /**
+     * If true, files are deleted once every file in their directory has been packed.  The default is 'false'.
+     *
+     * @param deleteFiles true to delete the packed files
+     */
+    public void setDeleteFiles(boolean deleteFiles) {
+        this.deleteFiles = deleteFiles;
+    }
+
+    /**
+     * Packs the files in the directory and all of its sub-directories.
+     *
+     * @param dir the root of the tree
+     * @return the number of files packed
+     * @throws IOException if something goes wrong
+     */
+    public int pack(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null)
+            throw new IOException("'" + dir + "' is not a directory.");
+        Arrays.sort(files);
+        List<File> loose = new ArrayList<File>();
+        int count = 0;
+        for (File f : files) {
+            if (f.isDirectory())
+                count += pack(f);
+            else if (f.isFile() && !PackDirectory.isPackFile(f.getName()))
+                loose.add(f);
+        }
+        if (loose.isEmpty())
+            return count;
+        PackDirectory pack = new PackDirectory(dir, maxSegmentSize);
+        long[] modified = new long[loose.size()];
+        int packed = 0;
+        try {
+            for (int i = 0; i < modified.length; i++) {
+                File f = loose.get(i);
+                // Already packed, by an earlier run or by an archiver: the pack has the latest version.
+                if (pack.contains(f.getName()))
+                    continue;
+                modified[i] = f.lastModified();
+                byte[] bytes = Files.readAllBytes(f.toPath());
+                pack.append(f.getName(), bytes, bytes.length, true);
+                packed++;
+            }
+            // A store that started before the directory was packed may have changed a file since it was read.
+            for (int i = 0; i < modified.length; i++) {
+                File f = loose.get(i);
+                if (modified[i] == 0 || f.lastModified() == modified[i] || !f.exists())
+                    continue;
+                log.info("pack() : " + f + " was changed while it was being packed, packing it again.");
+                modified[i] = -1;   // Not deleted.
+                try {
+                    byte[] bytes = Files.readAllBytes(f.toPath());
+                    pack.append(f.getName(), bytes, bytes.length, true);
+                } catch (NoSuchFileException ignore) {
+                    // Superseded by a packed store in the meantime.
+                }
+            }
+        } finally {
+            pack.close();
+        }
+        log.info("pack() : " + packed + " files packed in " + dir);
+        if (deleteFiles) {
+            for (int i = 0; i < modified.length; i++) {
+                File f = loose.get(i);
+                if (modified[i] != 0 && f.lastModified() != modified[i])
+                    log.warning("pack() : " + f + " was changed while it was being packed, not deleting it.");
+                else if (f.exists() && !f.delete())
+                    log.warning("pack() : Unable to delete " + f);
+            }
+        }
+        return count + packed;
+    }
+}
@@ -0,0 +1,317 @@
+package org.yajul.reflection;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.text.Format;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copies properties from beans of one class to beans of another (or the same) class.  The matching properties,
+ * and how each value is converted, are worked out once by {@link #compile(Class, Class, Options)}, so copying
+ * is just a loop over bound getter and setter method handles: no name lookups, no reflection.
+ * <br>
+ * A property is copied if the source has a getter and the target has a setter with the same name, and either
+ * the getter's values can be passed to the setter (including boxing and primitive widening), or a Format is
+ * given for the property.  With a Format, strings are parsed (as with
+ * {@link PropertyAccessors#invokeSetter(Object, Object, Format)}) and other values are formatted into string
+ * properties.  Other properties are left out, see {@link #getSkippedProperties()}.
+ * <br>
+ * Compiled copiers are thread safe, as long as the beans aren't shared.  Formats are used while holding their lock.
+ */
+public class BeanCopier<S, T> {
+
+    /**
+     * How to compile a copier.
+     */
+    public static class Options {
+        private boolean skipNulls;
+        private final Set<String> excluded = new HashSet<String>();
+        private final Map<String, Format> formats = new HashMap<String, Format>();
+
+        /**
+         * @param skipNulls true to leave target properties alone when the source value is null
+         * @return these options
+         */
+        public Options skipNulls(boolean skipNulls) {
+            this.skipNulls = skipNulls;
+            return this;
+        }
+
+        /**
+         * @param propertyNames properties that are not to be copied
+         * @return these options
+         */
+        public Options exclude(String... propertyNames) {
+            Collections.addAll(excluded, propertyNames);
+            return this;
+        }
+
+        /**
+         * @param propertyName the property
+         * @param format       converts the property between a string and the other type
+         * @return these options
+         */
+        public Options format(String propertyName, Format format) {
+            formats.put(propertyName, format);
+            return this;
+        }
+    }
+
+    private enum Conversion {
+        DIRECT, PARSE, FORMAT
+    }
+
+    /**
+     * One property to copy.
+     */
+    private static class Step {
+        private final PropertyAccessors target;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+        private final Conversion conversion;
+        private final Format format;
+        private final boolean primitiveTarget;
+
+        private Step(PropertyAccessors source, PropertyAccessors target, Conversion conversion, Format format) {
+            this.target = target;
+            this.getter = source.getGetterHandle();
+            this.setter = target.getSetterHandle();
+            this.conversion = conversion;
+            this.format = format;
+            this.primitiveTarget = target.getSetter().getParameterTypes()[0].isPrimitive();
+        }
+    }
+
+    private final Class<S> sourceClass;
+    private final Class<T> targetClass;
+    private final Step[] steps;
+    private final boolean skipNulls;
+    private final List<String> skipped;
+    private final MethodHandle constructor;
+
+    private BeanCopier(Class<S> sourceClass, Class<T> targetClass, Step[] steps, boolean skipNulls,
+                       List<String> skipped) {
+        this.sourceClass = sourceClass;
+        this.targetClass = targetClass;
+        this.steps = steps;
+        this.skipNulls = skipNulls;
+        this.skipped = skipped;
+        this.constructor = findConstructor(targetClass);
+    }
+
+    /**
+     * Compiles a copier with the default options: nulls are copied, nothing is excluded, no formats.
+     *
+     * @param sourceClass the class of the beans to copy from
+     * @param targetClass the class of the beans to copy to
+     * @return the copier
+     */
+    public static <S, T> BeanCopier<S, T> compile(Class<S> sourceClass, Class<T> targetClass) {
+        return compile(sourceClass, targetClass, new Options());
+    }
+
+    /**
+     * Compiles a copier.
+     *
+     * @param sourceClass the class of the beans to copy from
+     * @param targetClass the class of the beans to copy to
+     * @param options     the options
+     * @return the copier
+     */
+    public static <S, T> BeanCopier<S, T> compile(Class<S> sourceClass, Class<T> targetClass, Options options) {
+        BeanProperties sourceProperties = BeanProperties.forClass(sourceClass);
+        BeanProperties targetProperties = BeanProperties.forClass(targetClass);
+        List<Step> steps = new ArrayList<Step>();
+        List<String> skipped = new ArrayList<String>();
+        for (Iterator<PropertyAccessors> iter = targetProperties.accessorMethods(); iter.hasNext(); ) {
+            PropertyAccessors target = iter.next();
+            String name = target.getName();
+            PropertyAccessors source = sourceProperties.getAccessorMethods(name);
+            if (options.excluded.contains(name) || source == null || source.getGetter() == null
+                    || target.getSetter() == null)
+                continue;
+            Class<?>[] parameterTypes = target.getSetter().getParameterTypes();
+            if (parameterTypes.length != 1 || source.getGetterHandle() == null || target.getSetterHandle() == null) {
+                skipped.add(name);
+                continue;
+            }
+            Class<?> from = source.getGetter().getReturnType();
+            Class<?> to = parameterTypes[0];
+            Format format = options.formats.get(name);
+            if (PropertyAccessors.isAssignable(to, from))
+                steps.add(new Step(source, target, Conversion.DIRECT, null));
+            else if (format != null && from == String.class)
+                steps.add(new Step(source, target, Conversion.PARSE, format));
+            else if (format != null && to == String.class)
+                steps.add(new Step(source, target, Conversion.FORMAT, format));
+            else
+                skipped.add(name);
+        }
+        return new BeanCopier<S, T>(sourceClass, targetClass, steps.toArray(new Step[steps.size()]),
+                options.skipNulls, Collections.unmodifiableList(skipped));
+    }
+
+    /**
+     * Copies the properties.
+     *
+     * @param source the bean to copy from
+     * @param target the bean to copy to
+     * @return the target
+     * @throws InvocationTargetException if a getter or setter throws an exception
+     * @throws IllegalArgumentException  if a value can't be parsed or converted
+     */
+    public T copy(S source, T target) throws InvocationTargetException {
+        if (!sourceClass.isInstance(source))
+            throw new IllegalArgumentException("Source " + source + " is not a " + sourceClass.getName());
+        if (!targetClass.isInstance(target))
+            throw new IllegalArgumentException("Target " + target + " is not a " + targetClass.getName());
+        for (Step step : steps) {
+            Object value;
+            try {
+                value = (Object) step.getter.invokeExact((Object) source);
+            } catch (Throwable t) {
+                throw new InvocationTargetException(t);
+            }
+            if (value == null && (skipNulls || step.primitiveTarget))
+                continue;
+            switch (step.conversion) {
+                case PARSE:
+                    parseInto(step, target, value);
+                    continue;
+                case FORMAT:
+                    if (value != null) {
+                        synchronized (step.format) {
+                            value = step.format.format(value);
+                        }
+                    }
+                    break;
+            }
+            try {
+                Object ignore = (Object) step.setter.invokeExact((Object) target, value);
+            } catch (Throwable t) {
+                throw new InvocationTargetException(t);
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Copies the properties into a new target, made with the target class' no argument constructor.
+     *
+     * @param source the bean to copy from
+     * @return the new target
+     * @throws InvocationTargetException if a getter, setter or the constructor throws an exception
+     */
+    public T copy(S source) throws InvocationTargetException {
+        return copy(source, newTarget());
+    }
+
+    /**
+     * Copies each source into a new target.
+     *
+     * @param sources the beans to copy from
+     * @return the new targets, in the same order
+     * @throws InvocationTargetException if a getter, setter or the constructor throws an exception
+     */
+    public List<T> copyAll(Collection<? extends S> sources) throws InvocationTargetException {
+        List<T> targets = new ArrayList<T>(sources.size());
+        for (S source : sources)
+            targets.add(source == null ? null : copy(source, newTarget()));
+        return targets;
+    }
+
+    /**
+     * Copies an array of sources into a parallel array of targets.  Null targets are created, null sources
+     * are skipped.
+     *
+     * @param sources the beans to copy from
+     * @param targets the beans to copy to, at least as long as sources
+     * @return the targets
+     * @throws InvocationTargetException if a getter, setter or the constructor throws an exception
+     */
+    public T[] copyAll(S[] sources, T[] targets) throws InvocationTargetException {
+        if (targets.length < sources.length)
+            throw new IllegalArgumentException("Target array is shorter than the source array");
+        for (int i = 0; i < sources.length; i++) {
+            if (sources[i] == null)
+                continue;
+            if (targets[i] == null)
+                targets[i] = newTarget();
+            copy(sources[i], targets[i]);
+        }
+        return targets;
+    }
+
+    /**
+     * @return the names of the properties that are copied
+     */
+    public List<String> getPropertyNames() {
+        List<String> names = new ArrayList<String>(steps.length);
+        for (Step step : steps)
+            names.add(step.target.getName());
+        return names;
+    }
+
+    /**
+     * @return the properties that match by name, but can't be copied (incompatible types without a format,
+     * or accessors that can't be bound)
+     */
+    public List<String> getSkippedProperties() {
+        return skipped;
+    }
+
+    public String toString() {
+        return "BeanCopier{" + sourceClass.getName() + " -> " + targetClass.getName()
+                + ", properties=" + getPropertyNames() + ", skipped=" + skipped + "}";
+    }
+
+    private void parseInto(Step step, T target, Object value) throws InvocationTargetException {
+        try {
+            synchronized (step.format) {
+                step.target.invokeSetter(target, value, step.format);
+            }
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Unable to parse '" + value + "' for property "
+                    + step.target.getName() + ": " + e.getMessage(), e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException(e);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private T newTarget() throws InvocationTargetException {
+        if (constructor == null)
+            throw new IllegalStateException(targetClass.getName() + " has no accessible no argument constructor");
+        try {
+            //noinspection unchecked
+            return (T) (Object) constructor.invokeExact();
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    private static MethodHandle findConstructor(Class<?> c) {
+        try {
+            Constructor<?> constructor = c.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return MethodHandles.lookup().unreflectConstructor(constructor)
+                    .asType(MethodType.methodType(Object.class));
+        } catch (Exception e) {
+            // No constructor, only copy(source, target) can be used.
+            return null;
+        }
+    }
+}
@@ -20,11 +20,36 @@ import static org.yajul.juli.LogHelper.unexpected;
  */
 public class BeanProperties {
     private static Logger log = Logger.getLogger(BeanProperties.class.getName());
-    private Map<String, PropertyAccessors> accessorsByName = CollectionUtil.newHashMap();
-    private Class clazz;
 
     /**
-     * Constructs a set of property accessors from the class.
+     * Properties by class.  ClassValue doesn't keep the classes (or their class loaders) from being unloaded.
+     */
+    private static final ClassValue<BeanProperties> CACHE = new ClassValue<BeanProperties>() {
+        protected BeanProperties computeValue(Class<?> type) {
+            return new BeanProperties(type);
+        }
+    };
+
+    private final Map<String, PropertyAccessors> accessorsByName = CollectionUtil.newHashMap();
+    private final Class clazz;
+    /**
+     * The properties with both a getter and a setter, for copy().
+     */
+    private final PropertyAccessors[] readWrite;
+
+    /**
+     * Returns the shared, cached properties of a class.  The properties are worked out, and the accessors
+     * bound, once per class.  Use this rather than the constructor.
+     *
+     * @param c the class
+     * @return the properties of the class
+     */
+    public static BeanProperties forClass(Class<?> c) {
+        return CACHE.get(c);
+    }
+
+    /**
+     * Constructs a set of property accessors from the class.  See {@link #forClass(Class)} for a cached instance.
      *
      * @param c the class
      */
@@ -45,12 +70,16 @@ public class BeanProperties {
         }
         Set<String> propertyNames = CollectionUtil.newHashSet(getters.keySet());
         propertyNames.addAll(setters.keySet());
+        List<PropertyAccessors> copyable = CollectionUtil.newArrayList();
         for (String propertyName : propertyNames) {
             Method getter = getters.get(propertyName);
             Method setter = setters.get(propertyName);
-            accessorsByName.put(propertyName,
-                    new PropertyAccessors(clazz, propertyName, getter, setter));
+            PropertyAccessors accessors = new PropertyAccessors(clazz, propertyName, getter, setter);
+            accessorsByName.put(propertyName, accessors);
+            if (getter != null && setter != null)
+                copyable.add(accessors);
         }
+        readWrite = copyable.toArray(new PropertyAccessors[copyable.size()]);
     }
 
     /**
@@ -118,7 +147,7 @@ public class BeanProperties {
      * @return an iterator that returns the String names of all properties in the class.
      */
     public Iterator<String> propertyNames() {
-        return accessorsByName.keySet().iterator();
+        return getPropertyNames().iterator();
     }
 
     /**
@@ -127,7 +156,7 @@ public class BeanProperties {
      * @return the set of all the property name Strings in the class.
      */
     public Set<String> getPropertyNames() {
-        return accessorsByName.keySet();
+        return Collections.unmodifiableSet(accessorsByName.keySet());
     }
 
     /**
@@ -146,7 +175,7 @@ public class BeanProperties {
      * @return an iterator that returns all AccessorMethods for all properties in the class.
      */
     public Iterator<PropertyAccessors> accessorMethods() {
-        return accessorsByName.values().iterator();
+        return Collections.unmodifiableCollection(accessorsByName.values()).iterator();
     }
 
     /**
@@ -203,18 +232,19 @@ public class BeanProperties {
      * @throws Exception if a property could not be accessed.
      */
     public void copy(Object bean, Object copy) throws Exception {
-        Iterator iter = accessorMethods();
-        ExceptionList exceptions = new ExceptionList();
-        while (iter.hasNext()) {
-            PropertyAccessors accessorMethods = (PropertyAccessors) iter.next();
+        ExceptionList exceptions = null;
+        for (PropertyAccessors accessorMethods : readWrite) {
             try {
                 Object value = accessorMethods.invokeGetter(bean);
                 accessorMethods.invokeSetter(copy, value);
             } catch (Exception e) {
+                if (exceptions == null)
+                    exceptions = new ExceptionList();
                 exceptions.add(e);
             }
         }
-        exceptions.throwIfException();
+        if (exceptions != null)
+            exceptions.throwIfException();
     }
 
     // --- Implementation methods ---
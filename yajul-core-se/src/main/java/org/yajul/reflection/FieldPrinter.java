@@ -3,11 +3,17 @@ package org.yajul.reflection;
 
 import org.yajul.util.ReflectionUtil;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.TimeZone;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -15,6 +21,11 @@ import java.util.logging.Logger;
 /**
  * Prints the fields of an object into a string buffer.
  * <br>
+ * The public fields of a class (or its getters, if it has no public fields) are found once and cached as a
+ * plan of method handle readers, so printing an object doesn't use reflection.  Nested objects are printed
+ * up to a maximum depth, the output can be limited to a maximum length, and in cycle safe mode (the default)
+ * an object that contains itself is printed as <code>|&lt;cycle&gt;|</code> rather than overflowing the stack.
+ * <br>
  * User: jdavis
  * Date: Oct 21, 2003
  * Time: 7:46:24 PM
@@ -27,11 +38,95 @@ public class FieldPrinter {
      */
     private static Logger log = Logger.getLogger(FieldPrinter.class.getName());
 
-    private static Class[] NO_PARAMETERS = new Class[0];
-    private static Object[] NO_ARGUMENTS = new Object[0];
+    /**
+     * The default maximum depth of nested objects.
+     */
+    public static final int DEFAULT_MAX_DEPTH = 8;
+
+    private static final int MAX_POOLED_CAPACITY = 8192;
+
+    private static final MethodType READER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private static final ClassValue<Plan> PLANS = new ClassValue<Plan>() {
+        protected Plan computeValue(Class<?> type) {
+            return new Plan(type);
+        }
+    };
+
+    /**
+     * Printers for toString(), so that the builder and date format are reused.
+     */
+    private static final ThreadLocal<FieldPrinter> PRINTERS = new ThreadLocal<FieldPrinter>() {
+        protected FieldPrinter initialValue() {
+            return new FieldPrinter();
+        }
+    };
+
+    private enum Kind {
+        PLAIN, DATE, STRING, ARRAY, NESTED
+    }
+
+    /**
+     * A field or getter to print.
+     */
+    private static class Attribute {
+        private final String name;
+        private final Kind kind;
+        private final MethodHandle reader;
+        private final boolean declaresToString;
+
+        private Attribute(String name, Class<?> type, MethodHandle reader) {
+            this.name = name;
+            this.reader = reader;
+            if (type.isPrimitive() || Number.class.isAssignableFrom(type))
+                kind = Kind.PLAIN;
+            else if (java.util.Date.class.isAssignableFrom(type))
+                kind = Kind.DATE;
+            else if (String.class.isAssignableFrom(type))
+                kind = Kind.STRING;
+            else if (type.isArray())
+                kind = Kind.ARRAY;
+            else
+                kind = Kind.NESTED;
+            declaresToString = kind == Kind.NESTED && declaresToString(type);
+        }
+    }
+
+    /**
+     * The attributes of a class.
+     */
+    private static class Plan {
+        private final Attribute[] attributes;
+
+        private Plan(Class<?> c) {
+            List<Attribute> list = new ArrayList<Attribute>();
+            Field[] fields = c.getFields();
+            // Use the publically accessible fields, or if there are none, the 'getFoo()' methods.
+            if (fields.length > 0) {
+                for (Field field : fields)
+                    list.add(new Attribute(field.getName(), field.getType(), reader(field)));
+            } else {
+                for (Method method : c.getMethods()) {
+                    if (ReflectionUtil.isPropertyGetter(method))
+                        list.add(new Attribute(method.getName(), method.getReturnType(), reader(method)));
+                }
+            }
+            attributes = list.toArray(new Attribute[list.size()]);
+        }
+    }
 
     private StringBuilder sb;
     private DateFormat df;
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+    private int maxLength;
+    private boolean cycleSafe = true;
+    /**
+     * The objects being printed, by depth, for cycle detection.
+     */
+    private Object[] stack = new Object[DEFAULT_MAX_DEPTH + 1];
+    private int start;
+    private boolean truncated;
+    private boolean inUse;
 
     public FieldPrinter() {
         this(new StringBuilder());
@@ -45,8 +140,60 @@ public class FieldPrinter {
      */
     public FieldPrinter(StringBuilder sb) {
         this.sb = sb;
-        df = new SimpleDateFormat("yyyyMMMdd HH:mm:ss zz");
-        df.setTimeZone(TimeZone.getDefault());
+    }
+
+    /**
+     * @param maxDepth how deep to print nested objects, deeper ones are printed as <code>|...|</code>
+     */
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 0)
+            throw new IllegalArgumentException("Maximum depth must be >= 0");
+        this.maxDepth = maxDepth;
+        if (stack.length < maxDepth + 1)
+            stack = new Object[maxDepth + 1];
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @param maxLength the maximum number of characters each append() adds, or zero for no limit.  Longer
+     *                  output is cut off, and ends with "..."
+     */
+    public void setMaxLength(int maxLength) {
+        if (maxLength < 0)
+            throw new IllegalArgumentException("Maximum length must be >= 0");
+        this.maxLength = maxLength;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @param cycleSafe true to check for objects that (indirectly) contain themselves
+     */
+    public void setCycleSafe(boolean cycleSafe) {
+        this.cycleSafe = cycleSafe;
+    }
+
+    public boolean isCycleSafe() {
+        return cycleSafe;
+    }
+
+    /**
+     * @return the builder that is appended to
+     */
+    public StringBuilder getBuilder() {
+        return sb;
+    }
+
+    /**
+     * Empties the builder, so the printer can be reused.
+     */
+    public void reset() {
+        sb.setLength(0);
     }
 
     /**
@@ -55,6 +202,45 @@ public class FieldPrinter {
      * @param o - The object to print.
      */
     public void append(Object o) {
+        start = sb.length();
+        truncated = false;
+        append(o, 0);
+        isFull();
+    }
+
+    public static String toString(Object o) {
+        FieldPrinter fp = PRINTERS.get();
+        if (fp.inUse)   // A toString() called while printing, use a new one.
+            fp = new FieldPrinter();
+        fp.inUse = true;
+        try {
+            fp.reset();
+            fp.append(o);
+            return fp.toString();
+        } finally {
+            fp.inUse = false;
+            if (fp.sb.capacity() > MAX_POOLED_CAPACITY)
+                fp.sb = new StringBuilder();
+        }
+    }
+
+    /**
+     * Appends the fields of an object to a builder, e.g. a log message being built.
+     *
+     * @param sb the builder
+     * @param o  the object
+     * @return the builder
+     */
+    public static StringBuilder appendTo(StringBuilder sb, Object o) {
+        new FieldPrinter(sb).append(o);
+        return sb;
+    }
+
+    public String toString() {
+        return sb.toString();
+    }
+
+    private void append(Object o, int depth) {
         if (o == null) {
             sb.append("null");
             return;
@@ -65,132 +251,154 @@ public class FieldPrinter {
         sb.append(c.getName());
         sb.append("[");
 
-        Field[] fields = c.getFields();
-        Method[] methods = c.getMethods();
-
-        // Assume first we're going to get publically accessible fields in the object's class.
-        boolean usingFields = true;
-        int length = fields.length;
-
-        // If there are 0 accessible fields, switch to looking for 'getFoo()' methods
-        if (length == 0) {
-            length = methods.length;
-            usingFields = false;
-        }
-
-        // tracks how many valid methods we've output so far (to help with knowing when to insert ", " between them)
-        int validMethodCount = 0;
-        // for methods, only drill in if it's a valid 'getter'
-        boolean validAttribute;
-
-        // Print out each item.
-        for (int i = 0; i < length; i++) {
-            Class attributeType = null;
-            Object attributeValue = null;
-
-            try {
-                // assign the Class and Object of the attribute from a Field or Method depending on what we're looking at
-                if (usingFields) {
-                    // publically-accessible fields are always valid
-                    validAttribute = true;
-                    if (i > 0)
-                        sb.append(", ");
-                    sb.append(fields[i].getName());
-                    sb.append("=");
-
-                    attributeType = fields[i].getType();
-                    attributeValue = fields[i].get(o);
-                }
-                // check the method to see if the name starts with 'get'
-                else {
-                    // assume this method not a 'getter'
-                    validAttribute = false;
-                    // if it begins with 'get' or 'is' & has 0 parameters, use it
-                    if (ReflectionUtil.isPropertyGetter(methods[i])) {
-                        validAttribute = true;
-                        if (validMethodCount > 0)
-                            sb.append(", ");
-                        validMethodCount++;
-                        sb.append(methods[i].getName());
-                        sb.append("=");
-
-                        attributeType = methods[i].getReturnType();
-                        attributeValue = methods[i].invoke(o);
-                    }
-                }
-
-                // If this is a valid attribute, process
-                if (validAttribute) {
-                    appendField(attributeValue, attributeType);
-                } // if validAttribute
-            } catch (IllegalAccessException e) {
-                log.log(Level.WARNING, "Unexpected: " + e.getMessage(), e);
+        stack[depth] = o;
+        Attribute[] attributes = PLANS.get(c).attributes;
+        for (int i = 0; i < attributes.length; i++) {
+            if (isFull())
+                break;
+            Attribute attribute = attributes[i];
+            if (i > 0)
+                sb.append(", ");
+            sb.append(attribute.name);
+            sb.append("=");
+            if (attribute.reader == null) {
                 sb.append("<error!>");
-            } catch (InvocationTargetException e) {
-                log.log(Level.WARNING, "Unexpected: " + e.getMessage(), e);
+                continue;
+            }
+            Object value;
+            try {
+                value = (Object) attribute.reader.invokeExact(o);
+            } catch (Throwable t) {
+                log.log(Level.WARNING, "Unexpected: " + t.getMessage(), t);
                 sb.append("<error!>");
+                continue;
             }
-        } // for i = 0 to length
-        sb.append("]");
-    }
-
-    public static String toString(Object o) {
-        FieldPrinter fp = new FieldPrinter();
-        fp.append(o);
-        return fp.toString();
-    }
-
-    public String toString() {
-        return sb.toString();
+            appendField(value, attribute, depth);
+        }
+        stack[depth] = null;
+        if (!truncated)
+            sb.append("]");
     }
 
-    private void appendField(Object attributeValue, Class attributeType) throws IllegalAccessException {
+    private void appendField(Object attributeValue, Attribute attribute, int depth) {
         // If the value is null, just use 'null'.
-        if (attributeValue == null)
+        if (attributeValue == null) {
             sb.append("null");
-            // If the value is a primitive or a number, just append it.
-        else if (attributeType.isPrimitive() || Number.class.isAssignableFrom(attributeType))
-            sb.append(attributeValue);
-            // Use UTC format for dates.
-        else if (java.util.Date.class.isAssignableFrom(attributeType))
-            sb.append(df.format((java.util.Date) attributeValue));
-            // Print strings in quotes.
-        else if (String.class.isAssignableFrom(attributeType))
-            appendValue(attributeValue, "'", "'", sb);
-            // Print arrays in brackets.
-        else if (attributeType.isArray())
-            appendValue(attributeValue, "{", "}", sb);
-            // Print objects nested in vertical bars.
-        else
-            appendNestedObject(attributeType, attributeValue);
-    }
-
-    private void appendNestedObject(Class attributeType, Object attributeValue) throws IllegalAccessException {
+            return;
+        }
+        switch (attribute.kind) {
+            case PLAIN:
+                // If the value is a primitive or a number, just append it.
+                sb.append(attributeValue);
+                break;
+            case DATE:
+                sb.append(dateFormat().format((java.util.Date) attributeValue));
+                break;
+            case STRING:
+                // Print strings in quotes.
+                appendValue(attributeValue, "'", "'", sb);
+                break;
+            case ARRAY:
+                // Print arrays in brackets.
+                appendValue(attributeValue, "{", "}", sb);
+                break;
+            default:
+                // Print objects nested in vertical bars.
+                appendNestedObject(attribute, attributeValue, depth);
+        }
+    }
+
+    private void appendNestedObject(Attribute attribute, Object attributeValue, int depth) {
         String stringValue = null;
         // If the class defines 'toString()', then use that.
-        Method m = null;
-        //noinspection EmptyCatchBlock
-        try {
-            //noinspection unchecked
-            m = attributeType.getDeclaredMethod("toString", NO_PARAMETERS);
-        } catch (NoSuchMethodException ignore) {
-        }
-        if (m != null) {
+        if (attribute.declaresToString) {
             try {
-                stringValue = (String) m.invoke(attributeValue, NO_ARGUMENTS);
-            } catch (InvocationTargetException ite) {
-                log.log(Level.WARNING, "Unexpected: " + ite.getMessage(), ite);
+                stringValue = attributeValue.toString();
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "Unexpected: " + e.getMessage(), e);
                 stringValue = null;
             }
         }
         if (stringValue != null)
             appendValue(stringValue, "#", "#", sb);
             // Otherwise, recurse...
+        else if (depth >= maxDepth)
+            sb.append("|...|");
+        else if (cycleSafe && isPrinting(attributeValue, depth))
+            sb.append("|<cycle>|");
         else {
             sb.append("|");
-            append(attributeValue);
-            sb.append("|");
+            append(attributeValue, depth + 1);
+            if (!truncated)
+                sb.append("|");
+        }
+    }
+
+    private boolean isPrinting(Object o, int depth) {
+        for (int i = 0; i <= depth; i++) {
+            if (stack[i] == o)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the output has reached the maximum length, in which case it is cut off
+     */
+    private boolean isFull() {
+        if (truncated)
+            return true;
+        if (maxLength == 0 || sb.length() - start < maxLength)
+            return false;
+        sb.setLength(start + maxLength);
+        sb.append("...");
+        truncated = true;
+        return true;
+    }
+
+    private DateFormat dateFormat() {
+        if (df == null) {
+            df = new SimpleDateFormat("yyyyMMMdd HH:mm:ss zz");
+            df.setTimeZone(TimeZone.getDefault());
+        }
+        return df;
+    }
+
+    private static boolean declaresToString(Class<?> type) {
+        try {
+            type.getDeclaredMethod("toString");
+            return true;
+        } catch (NoSuchMethodException ignore) {
+            return false;
+        }
+    }
+
+    private static MethodHandle reader(Field field) {
+        try {
+            MethodHandle h = MethodHandles.lookup().unreflectGetter(accessible(field));
+            if (Modifier.isStatic(field.getModifiers()))
+                h = MethodHandles.dropArguments(h, 0, Object.class);
+            return h.asType(READER_TYPE);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static MethodHandle reader(Method method) {
+        try {
+            return MethodHandles.lookup().unreflect(accessible(method)).asType(READER_TYPE);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static <T extends AccessibleObject> T accessible(T member) {
+        try {
+            member.setAccessible(true);
+        } catch (RuntimeException ignore) {
+            // Not allowed, the lookup will work if the member is public.
         }
+        return member;
     }
 
     private static void appendValue(Object fieldValue, String startDelim, String endDelim, StringBuilder sb) {
@@ -199,4 +407,3 @@ public class FieldPrinter {
         sb.append(endDelim);
     }
 }
-
@@ -3,29 +3,82 @@ package org.yajul.reflection;
 
 import org.yajul.reflection.FieldPrinter;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.text.Format;
 import java.text.ParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Encapsulates the getter and setter meta-data for a given property.
+ * <br>
+ * The getter and setter are invoked through method handles bound when the accessors are created, which is
+ * much faster than Method.invoke().  If a handle can't be made (e.g. the method isn't accessible), the
+ * accessors fall back to reflection.  Thread safe.
  */
 public class PropertyAccessors {
     private static final Object[] NO_ARGS = new Object[0];
 
-    private String name;
-    private Class type;
-    private Method getter;
-    private Method setter;
-    private String className;
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(Object.class, Object.class, Object.class);
+
+    /**
+     * The primitive types each primitive type can be widened to, as for Method.invoke().
+     */
+    private static final Map<Class<?>, List<Class<?>>> WIDENINGS = new HashMap<Class<?>, List<Class<?>>>();
+    private static final Map<Class<?>, Class<?>> WRAPPERS = new HashMap<Class<?>, Class<?>>();
+
+    static {
+        widens(Byte.class, byte.class, short.class, int.class, long.class, float.class, double.class);
+        widens(Short.class, short.class, int.class, long.class, float.class, double.class);
+        widens(Character.class, char.class, int.class, long.class, float.class, double.class);
+        widens(Integer.class, int.class, long.class, float.class, double.class);
+        widens(Long.class, long.class, float.class, double.class);
+        widens(Float.class, float.class, double.class);
+        widens(Double.class, double.class);
+        widens(Boolean.class, boolean.class);
+    }
+
+    private static void widens(Class<?> wrapper, Class<?>... primitives) {
+        WIDENINGS.put(wrapper, Arrays.asList(primitives));
+        WRAPPERS.put(primitives[0], wrapper);
+    }
+
+    private final String name;
+    private final Class type;
+    private final Method getter;
+    private final Method setter;
+    private final String className;
+    private final Class<?> declaringClass;
+    private final MethodHandle getterHandle;
+    private final MethodHandle setterHandle;
 
     public PropertyAccessors(Class clazz, String propertyName, Method getter, Method setter) {
         this.name = propertyName;
         this.className = clazz.getName();
+        this.declaringClass = clazz;
         this.getter = getter;
         this.setter = setter;
-        this.type = getter.getReturnType();
+        this.type = getter != null ? getter.getReturnType() : setter.getParameterTypes()[0];
+        this.getterHandle = getter == null ? null : bind(getter, GETTER_TYPE);
+        this.setterHandle = setter == null || setter.getParameterTypes().length != 1 ? null : bind(setter, SETTER_TYPE);
+    }
+
+    private static MethodHandle bind(Method method, MethodType type) {
+        try {
+            if (!method.isAccessible())
+                method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method).asType(type);
+        } catch (Exception e) {
+            // Not accessible, use Method.invoke().
+            return null;
+        }
     }
 
     /**
@@ -97,7 +150,7 @@ public class PropertyAccessors {
         if (setter == null)
             throw new NoSuchMethodException("No setter defined for property " + name + " in class " + className + "!");
         // If the value is a string and needs to be parsed, do so.
-        if (value.getClass() != type && value instanceof String && format != null) {
+        if (value != null && value.getClass() != type && value instanceof String && format != null) {
             try {
                 value = format.parseObject((String) value);
             }
@@ -106,7 +159,14 @@ public class PropertyAccessors {
             }
         }
         try {
-            Object rv = setter.invoke(bean, new Object[]{value});
+            Object rv;
+            if (setterHandle != null) {
+                checkBean(bean);
+                if (!isAssignable(setter.getParameterTypes()[0], value))
+                    throw new IllegalArgumentException("argument type mismatch");
+                rv = invokeHandle(setterHandle, bean, value);
+            } else
+                rv = setter.invoke(bean, new Object[]{value});
             if (rv != null)
                 return rv;
             else
@@ -130,7 +190,76 @@ public class PropertyAccessors {
     public Object invokeGetter(Object bean) throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
         if (getter == null)
             throw new NoSuchMethodException("No getter defined for property " + name + " in class " + className + "!");
-        return getter.invoke(bean, NO_ARGS);
+        if (getterHandle == null)
+            return getter.invoke(bean, NO_ARGS);
+        checkBean(bean);
+        try {
+            return (Object) getterHandle.invokeExact(bean);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    /**
+     * @return true if the getter and setter are invoked through method handles rather than reflection
+     */
+    public boolean isBound() {
+        return (getter == null || getterHandle != null) && (setter == null || setterHandle != null);
+    }
+
+    /**
+     * @return the getter adapted to (Object)Object, or null if it isn't bound
+     */
+    MethodHandle getGetterHandle() {
+        return getterHandle;
+    }
+
+    /**
+     * @return the setter adapted to (Object,Object)Object, or null if it isn't bound
+     */
+    MethodHandle getSetterHandle() {
+        return setterHandle;
+    }
+
+    private static Object invokeHandle(MethodHandle handle, Object bean, Object value)
+            throws InvocationTargetException {
+        try {
+            return (Object) handle.invokeExact(bean, value);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    /**
+     * Same checks as Method.invoke(), so that exceptions from the handle are always from the method itself.
+     */
+    private void checkBean(Object bean) {
+        if (bean == null)
+            throw new NullPointerException("Bean cannot be null!");
+        if (!declaringClass.isInstance(bean))
+            throw new IllegalArgumentException("object is not an instance of declaring class " + className);
+    }
+
+    /**
+     * @param parameterType the setter parameter type
+     * @param valueType     the type of the values, e.g. a getter return type
+     * @return true if every non-null value of the type can be passed to the setter
+     */
+    static boolean isAssignable(Class<?> parameterType, Class<?> valueType) {
+        Class<?> boxed = valueType.isPrimitive() ? WRAPPERS.get(valueType) : valueType;
+        if (!parameterType.isPrimitive())
+            return boxed != null && parameterType.isAssignableFrom(boxed);
+        List<Class<?>> widenings = WIDENINGS.get(boxed);
+        return widenings != null && widenings.contains(parameterType);
+    }
+
+    private static boolean isAssignable(Class<?> parameterType, Object value) {
+        if (!parameterType.isPrimitive())
+            return value == null || parameterType.isInstance(value);
+        if (value == null)
+            return false;
+        List<Class<?>> widenings = WIDENINGS.get(value.getClass());
+        return widenings != null && widenings.contains(parameterType);
     }
 
     public String toString() {
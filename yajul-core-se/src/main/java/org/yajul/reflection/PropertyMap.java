@@ -27,7 +27,7 @@ public class PropertyMap extends AbstractMap implements Map {
      * @param bean the bean to create a map view of.
      */
     public PropertyMap(Object bean) {
-        this(new BeanProperties(bean.getClass()), bean);
+        this(BeanProperties.forClass(bean.getClass()), bean);
     }
 
     /**
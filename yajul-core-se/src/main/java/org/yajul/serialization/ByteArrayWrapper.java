@@ -8,6 +8,10 @@ import java.io.*;
  * the object graph might be large.  Subclasses can override byteArrayToObject() and objectToByteArray()
  * to customize the serialization behavior.
  * <br>
+ * wrap() and unwrap() are synchronized, so a wrapper can be shared between threads: concurrent calls
+ * convert once, and the other callers wait for the result.  Subclasses that override keepsBytes() stay wrapped
+ * instead, and unwrap() returns a new copy each time.
+ * <br>
  * User: josh
  * Date: Sep 10, 2009
  * Time: 6:19:18 PM
@@ -27,14 +31,30 @@ public class ByteArrayWrapper<T extends Serializable>
     }
 
     public final T unwrap() throws IOException, ClassNotFoundException {
-        if (obj == null) {
-            obj = byteArrayToObject(bytes);
-            bytes = null; // Don't need the bytes now.
+        byte[] b;
+        synchronized (this) {
+            if (obj != null)
+                return obj;
+            if (!keepsBytes()) {
+                obj = byteArrayToObject(bytes);
+                bytes = null; // Don't need the bytes now.
+                return obj;
+            }
+            b = bytes;
         }
-        return obj;
+        return byteArrayToObject(b);
+    }
+
+    /**
+     * Returns true if the bytes are kept once the wrapper has been wrapped, so that unwrap() converts them to
+     * a new object every time rather than keeping the object.  False by default.
+     * @return true to keep the bytes
+     */
+    protected boolean keepsBytes() {
+        return false;
     }
 
-    public final byte[] wrap() throws IOException {
+    public final synchronized byte[] wrap() throws IOException {
         if (bytes == null) {
             bytes = objectToByteArray(obj);
             obj = null; // Don't need the object now.
@@ -57,9 +77,27 @@ public class ByteArrayWrapper<T extends Serializable>
 
     public final void writeExternal(ObjectOutput out) throws IOException {
         out.writeObject(wrap());
+        writeSettings(out);
     }
 
-    public final boolean isWrapped() {
+    /**
+     * Writes the settings of a subclass, after the bytes.  Does nothing by default.
+     * @param out the output
+     * @throws IOException if something goes wrong
+     */
+    protected void writeSettings(ObjectOutput out) throws IOException {
+    }
+
+    /**
+     * Reads the settings written by writeSettings().  Does nothing by default.
+     * @param in the input
+     * @throws IOException if something goes wrong
+     * @throws ClassNotFoundException if something goes wrong
+     */
+    protected void readSettings(ObjectInput in) throws IOException, ClassNotFoundException {
+    }
+
+    public final synchronized boolean isWrapped() {
         return obj == null && bytes != null;
     }
 
@@ -78,7 +116,11 @@ public class ByteArrayWrapper<T extends Serializable>
     }
 
     public final void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
-        bytes = (byte[]) in.readObject();
-        obj = null;
+        byte[] b = (byte[]) in.readObject();
+        readSettings(in);
+        synchronized (this) {
+            bytes = b;
+            obj = null;
+        }
     }
 }
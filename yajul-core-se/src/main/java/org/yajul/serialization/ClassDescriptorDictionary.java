@@ -0,0 +1,182 @@
+package org.yajul.serialization;
+
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Assigns small integer ids to class descriptors, so that {@link DictionaryObjectOutputStream} can write an id
+ * instead of the full descriptor (class name, serialVersionUID and field list) of each class in every message.
+ * <br>
+ * Descriptors are keyed by class name, serialVersionUID and a fingerprint of the serializable fields (names and
+ * types), so a class whose fields have changed gets a new id even if its serialVersionUID hasn't.  Both ends must
+ * have the same ids: either register the same classes in the same order at startup, or let a session learn them
+ * (see {@link SessionSerializer#setLearning(boolean)}).  The fingerprint is sent with each id, so a reader whose
+ * descriptor for an id has different fields rejects the stream instead of misreading it.
+ * Thread safe.
+ */
+public class ClassDescriptorDictionary {
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    /**
+     * The ids by descriptor instance, which saves working out the key of the local descriptors on every write.
+     */
+    private final ConcurrentMap<ObjectStreamClass, Integer> descriptorIds =
+            new ConcurrentHashMap<ObjectStreamClass, Integer>();
+    private volatile int[] fingerprints = new int[16];
+    private volatile ObjectStreamClass[] descriptors = new ObjectStreamClass[16];
+    private int nextId;
+
+    public ClassDescriptorDictionary() {
+    }
+
+    /**
+     * Creates a dictionary that starts with the descriptors of another one.  Use this to give each session
+     * that learns descriptors its own copy of a shared, pre-registered dictionary.
+     *
+     * @param base the dictionary to copy
+     */
+    public ClassDescriptorDictionary(ClassDescriptorDictionary base) {
+        synchronized (base) {
+            ids.putAll(base.ids);
+            descriptorIds.putAll(base.descriptorIds);
+            fingerprints = base.fingerprints.clone();
+            descriptors = base.descriptors.clone();
+            nextId = base.nextId;
+        }
+    }
+
+    /**
+     * Registers the class and its serializable superclasses, superclasses first.
+     *
+     * @param classes the classes
+     * @return this dictionary
+     */
+    public ClassDescriptorDictionary register(Class<?>... classes) {
+        for (Class<?> c : classes) {
+            ObjectStreamClass desc = ObjectStreamClass.lookup(c);
+            if (desc == null)
+                throw new IllegalArgumentException(c.getName() + " is not serializable");
+            if (c.getSuperclass() != null && ObjectStreamClass.lookup(c.getSuperclass()) != null)
+                register(c.getSuperclass());
+            learn(desc);
+        }
+        return this;
+    }
+
+    /**
+     * Returns the id of the descriptor, assigning the next id if it doesn't have one yet.
+     *
+     * @param desc the descriptor
+     * @return the id
+     */
+    public synchronized int learn(ObjectStreamClass desc) {
+        Integer id = ids.get(key(desc));
+        if (id != null)
+            return id;
+        while (getDescriptor(nextId) != null)
+            nextId++;
+        int assigned = nextId;
+        put(assigned, desc);
+        return assigned;
+    }
+
+    /**
+     * Reserves the next id, without adding a descriptor.  The id will not be assigned by learn() or reserve(),
+     * so it can be sent to the other end before the descriptor is added with {@link #register(int, ObjectStreamClass)}.
+     * An id that is never registered is simply not used.
+     *
+     * @return the id
+     */
+    public synchronized int reserve() {
+        while (getDescriptor(nextId) != null)
+            nextId++;
+        return nextId++;
+    }
+
+    /**
+     * Adds a descriptor with an id chosen by the other end.
+     *
+     * @param id   the id
+     * @param desc the descriptor
+     * @return false if the id is already used for a different descriptor, in which case nothing is changed
+     */
+    public synchronized boolean register(int id, ObjectStreamClass desc) {
+        if (id < 0)
+            throw new IllegalArgumentException("Id must be >= 0");
+        ObjectStreamClass existing = getDescriptor(id);
+        if (existing != null)
+            return key(existing).equals(key(desc));
+        put(id, desc);
+        return true;
+    }
+
+    /**
+     * @param desc the descriptor
+     * @return the id, or -1 if the descriptor isn't in the dictionary
+     */
+    public int getId(ObjectStreamClass desc) {
+        Integer id = descriptorIds.get(desc);
+        if (id == null)
+            id = ids.get(key(desc));
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id the id
+     * @return the descriptor, or null if there is none with that id
+     */
+    public ObjectStreamClass getDescriptor(int id) {
+        ObjectStreamClass[] d = descriptors;
+        return (id < 0 || id >= d.length) ? null : d[id];
+    }
+
+    /**
+     * @param id the id
+     * @return the fingerprint of the fields of the descriptor with that id, or 0 if there is none
+     */
+    int getFingerprint(int id) {
+        ObjectStreamClass[] d = descriptors;    // Published after the fingerprints, see put().
+        int[] f = fingerprints;
+        return (id < 0 || id >= d.length || id >= f.length) ? 0 : f[id];
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    private void put(int id, ObjectStreamClass desc) {
+        ObjectStreamClass[] d = descriptors;
+        int[] f = fingerprints;
+        if (id >= d.length - 1) {
+            d = Arrays.copyOf(d, Math.max(id + 2, d.length * 2));
+            f = Arrays.copyOf(f, d.length);
+        } else {
+            d = d.clone();  // Copy on write, readers don't lock.
+            f = f.clone();
+        }
+        d[id] = desc;
+        f[id] = fingerprint(desc);
+        fingerprints = f;
+        descriptors = d;
+        ids.put(key(desc), id);
+        descriptorIds.put(desc, id);
+    }
+
+    private static String key(ObjectStreamClass desc) {
+        return desc.getName() + ':' + desc.getSerialVersionUID() + ':' + Integer.toHexString(fingerprint(desc));
+    }
+
+    /**
+     * Hashes the names and types of the serializable fields.
+     */
+    static int fingerprint(ObjectStreamClass desc) {
+        int h = 0;
+        for (ObjectStreamField field : desc.getFields()) {
+            h = 31 * h + field.getName().hashCode();
+            h = 31 * h + (field.isPrimitive() ? field.getTypeCode() : field.getTypeString().hashCode());
+        }
+        return h;
+    }
+}
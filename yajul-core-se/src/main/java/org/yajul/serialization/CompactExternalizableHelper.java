@@ -0,0 +1,351 @@
+package org.yajul.serialization;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.Charset;
+
+/**
+ * Compact encodings for Externalizable (or writeObject/readObject) implementations, to be used instead of
+ * the fixed size encodings in {@link ExternalizableHelper}.
+ * <ul>
+ * <li>Ints and longs are written as varints: 7 bits per byte, so small values take one or two bytes.
+ * The 'signed' variants zig-zag encode the value first, so small negative numbers are small too.</li>
+ * <li>Strings are written as a varint length followed by UTF-8, so all characters survive.</li>
+ * <li>Nullable fields are described by one null mask (see {@link ExternalizableHelper#getNullBits(Object...)}),
+ * written as a varint, instead of a marker byte per field.</li>
+ * <li>Nullable strings, enums and arrays encode null in the length / ordinal, as zero.</li>
+ * </ul>
+ * Start each object with {@link #writeVersion(DataOutput, int)}, so the layout can change later without breaking
+ * stored data.
+ * <br>
+ * Example:
+ * <pre>
+ * public void writeExternal(ObjectOutput out) throws IOException {
+ *     CompactExternalizableHelper.writeVersion(out, 1);
+ *     int bits = CompactExternalizableHelper.writeNullBits(out, name, amount);
+ *     CompactExternalizableHelper.writeSignedVarLong(out, id);
+ *     if (ExternalizableHelper.isNotNullBit(bits, 0))
+ *         CompactExternalizableHelper.writeString(out, name);
+ *     if (ExternalizableHelper.isNotNullBit(bits, 1))
+ *         CompactExternalizableHelper.writeSignedVarLong(out, amount);
+ * }
+ * </pre>
+ */
+public class CompactExternalizableHelper {
+
+    /**
+     * The version of the encodings themselves, written by {@link #writeVersion(DataOutput, int)}.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int MAX_VARINT_BYTES = 5;
+    private static final int MAX_VARLONG_BYTES = 10;
+
+    /**
+     * Writes the format version and the version of the object layout.
+     *
+     * @param out     the output
+     * @param version the version of the caller's layout, 0 to 127 takes one byte
+     * @throws IOException if something goes wrong
+     */
+    public static void writeVersion(DataOutput out, int version) throws IOException {
+        if (version < 0)
+            throw new IllegalArgumentException("Version must be >= 0");
+        out.writeByte(FORMAT_VERSION);
+        writeVarInt(out, version);
+    }
+
+    /**
+     * Reads the versions written by {@link #writeVersion(DataOutput, int)}.
+     *
+     * @param in         the input
+     * @param maxVersion the latest layout version the caller understands
+     * @return the version of the caller's layout
+     * @throws InvalidObjectException if either version is newer than this code understands
+     * @throws IOException            if something goes wrong
+     */
+    public static int readVersion(DataInput in, int maxVersion) throws IOException {
+        int format = in.readUnsignedByte();
+        if (format < 1 || format > FORMAT_VERSION)
+            throw new InvalidObjectException("Unsupported compact format version " + format);
+        int version = readVarInt(in);
+        if (version > maxVersion)
+            throw new InvalidObjectException("Unsupported version " + version + ", expected at most " + maxVersion);
+        return version;
+    }
+
+    /**
+     * Writes an int as an unsigned varint.  Negative values take five bytes, use writeSignedVarInt() for those.
+     *
+     * @param out   the output
+     * @param value the value
+     * @throws IOException if something goes wrong
+     */
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int i = 0; i < MAX_VARINT_BYTES; i++) {
+            int b = in.readByte();
+            value |= (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new StreamCorruptedException("Varint is longer than " + MAX_VARINT_BYTES + " bytes");
+    }
+
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte(((int) value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int i = 0; i < MAX_VARLONG_BYTES; i++) {
+            int b = in.readByte();
+            value |= (long) (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new StreamCorruptedException("Varlong is longer than " + MAX_VARLONG_BYTES + " bytes");
+    }
+
+    /**
+     * Writes a zig-zag encoded varint: 0, -1, 1, -2, ... are written as 0, 1, 2, 3, ...
+     *
+     * @param out   the output
+     * @param value the value
+     * @throws IOException if something goes wrong
+     */
+    public static void writeSignedVarInt(DataOutput out, int value) throws IOException {
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    public static int readSignedVarInt(DataInput in) throws IOException {
+        int v = readVarInt(in);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    public static void writeSignedVarLong(DataOutput out, long value) throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    public static long readSignedVarLong(DataInput in) throws IOException {
+        long v = readVarLong(in);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Writes the null mask for the objects, and returns it so the caller can skip the null fields.
+     *
+     * @param out     the output
+     * @param objects up to 30 nullable objects
+     * @return the null bits, see {@link ExternalizableHelper#isNotNullBit(int, int)}
+     * @throws IOException if something goes wrong
+     */
+    public static int writeNullBits(DataOutput out, Object... objects) throws IOException {
+        int bits = ExternalizableHelper.getNullBits(objects);
+        writeVarInt(out, bits);
+        return bits;
+    }
+
+    public static int readNullBits(DataInput in) throws IOException {
+        return readVarInt(in);
+    }
+
+    /**
+     * Writes a nullable string as a varint (length + 1, or 0 for null) followed by the UTF-8 bytes.
+     *
+     * @param out   the output
+     * @param value the string, may be null
+     * @throws IOException if something goes wrong
+     */
+    public static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        int length = readLength(in);
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Writes a nullable enum as a varint, ordinal + 1 or 0 for null.
+     *
+     * @param out   the output
+     * @param value the enum, may be null
+     * @throws IOException if something goes wrong
+     */
+    public static void writeEnum(DataOutput out, Enum<?> value) throws IOException {
+        writeVarInt(out, value == null ? 0 : value.ordinal() + 1);
+    }
+
+    public static <T> T readEnum(DataInput in, T[] values) throws IOException {
+        int n = readVarInt(in);
+        if (n == 0)
+            return null;
+        if (n < 0 || n > values.length)
+            throw new InvalidObjectException("Ordinal " + (n - 1) + " is out of range, there are " + values.length + " values");
+        return values[n - 1];
+    }
+
+    public static void writeByteArray(DataOutput out, byte[] array) throws IOException {
+        if (writeLength(out, array == null ? -1 : array.length))
+            out.write(array);
+    }
+
+    public static byte[] readByteArray(DataInput in) throws IOException {
+        int length = readLength(in);
+        if (length < 0)
+            return null;
+        byte[] array = new byte[length];
+        in.readFully(array);
+        return array;
+    }
+
+    /**
+     * Writes a nullable int array, each element as a zig-zag varint.
+     *
+     * @param out   the output
+     * @param array the array, may be null
+     * @throws IOException if something goes wrong
+     */
+    public static void writeIntArray(DataOutput out, int[] array) throws IOException {
+        if (writeLength(out, array == null ? -1 : array.length)) {
+            for (int v : array)
+                writeSignedVarInt(out, v);
+        }
+    }
+
+    public static int[] readIntArray(DataInput in) throws IOException {
+        int length = readLength(in);
+        if (length < 0)
+            return null;
+        int[] array = new int[length];
+        for (int i = 0; i < length; i++)
+            array[i] = readSignedVarInt(in);
+        return array;
+    }
+
+    /**
+     * Writes a nullable long array, each element as a zig-zag varint.
+     *
+     * @param out   the output
+     * @param array the array, may be null
+     * @throws IOException if something goes wrong
+     */
+    public static void writeLongArray(DataOutput out, long[] array) throws IOException {
+        if (writeLength(out, array == null ? -1 : array.length)) {
+            for (long v : array)
+                writeSignedVarLong(out, v);
+        }
+    }
+
+    public static long[] readLongArray(DataInput in) throws IOException {
+        int length = readLength(in);
+        if (length < 0)
+            return null;
+        long[] array = new long[length];
+        for (int i = 0; i < length; i++)
+            array[i] = readSignedVarLong(in);
+        return array;
+    }
+
+    /**
+     * Writes a nullable double array, each element in eight bytes (doubles don't compress as varints).
+     *
+     * @param out   the output
+     * @param array the array, may be null
+     * @throws IOException if something goes wrong
+     */
+    public static void writeDoubleArray(DataOutput out, double[] array) throws IOException {
+        if (writeLength(out, array == null ? -1 : array.length)) {
+            for (double v : array)
+                out.writeDouble(v);
+        }
+    }
+
+    public static double[] readDoubleArray(DataInput in) throws IOException {
+        int length = readLength(in);
+        if (length < 0)
+            return null;
+        double[] array = new double[length];
+        for (int i = 0; i < length; i++)
+            array[i] = in.readDouble();
+        return array;
+    }
+
+    public static void writeBooleanArray(DataOutput out, boolean[] array) throws IOException {
+        if (!writeLength(out, array == null ? -1 : array.length))
+            return;
+        int b = 0;
+        for (int i = 0; i < array.length; i++) {
+            if (array[i])
+                b |= 1 << (i & 7);
+            if ((i & 7) == 7) {
+                out.writeByte(b);
+                b = 0;
+            }
+        }
+        if ((array.length & 7) != 0)
+            out.writeByte(b);
+    }
+
+    public static boolean[] readBooleanArray(DataInput in) throws IOException {
+        int length = readLength(in);
+        if (length < 0)
+            return null;
+        boolean[] array = new boolean[length];
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            if ((i & 7) == 0)
+                b = in.readUnsignedByte();
+            array[i] = (b & (1 << (i & 7))) != 0;
+        }
+        return array;
+    }
+
+    /**
+     * Writes length + 1, or zero for null (length -1).
+     *
+     * @return true if the array is not null
+     */
+    private static boolean writeLength(DataOutput out, int length) throws IOException {
+        writeVarInt(out, length + 1);
+        return length >= 0;
+    }
+
+    /**
+     * @return the length, or -1 for null
+     */
+    private static int readLength(DataInput in) throws IOException {
+        int n = readVarInt(in);
+        if (n < 0)
+            throw new StreamCorruptedException("Negative length " + (n - 1));
+        return n - 1;
+    }
+}
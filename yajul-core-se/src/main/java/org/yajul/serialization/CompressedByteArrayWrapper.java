@@ -0,0 +1,227 @@
+package org.yajul.serialization;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/**
+ * A ByteArrayWrapper that compresses the serialized bytes, for wrappers that are kept around in large numbers,
+ * e.g. in caches.  Payloads smaller than the policy threshold, and payloads that don't get smaller, are kept
+ * as plain serialized bytes.  The two are told apart by the first byte: serialized data always starts with the
+ * stream magic number (0xACED), zlib data never does.
+ * <br>
+ * The compression level, threshold and statistics are held by a shared {@link Policy}, so each wrapper only
+ * costs one reference.  The policy settings are serialized with the wrapper; wrappers deserialized from one
+ * stream share one policy, and the default policy stays the default.
+ * <br>
+ * By default the compressed bytes are kept once the wrapper has been wrapped, and unwrap() returns a new copy
+ * of the object each time, so a cached wrapper stays small however often it is read.  Use a policy with
+ * keepWrapped off to unwrap once and keep the object instead, as ByteArrayWrapper does.
+ */
+public class CompressedByteArrayWrapper<T extends Serializable> extends ByteArrayWrapper<T> {
+
+    private static final int STREAM_MAGIC_HIGH_BYTE = 0xAC;
+
+    /**
+     * Compression settings and statistics, shared by many wrappers.  Thread safe.
+     */
+    public static class Policy implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int level;
+        private final int threshold;
+        private final boolean keepWrapped;
+        // The statistics are not serialized, readResolve() starts a deserialized policy with new ones.
+        private transient final AtomicLong wrapCount = new AtomicLong();
+        private transient final AtomicLong compressedCount = new AtomicLong();
+        private transient final AtomicLong uncompressedBytes = new AtomicLong();
+        private transient final AtomicLong storedBytes = new AtomicLong();
+        private transient final AtomicLong wrapNanos = new AtomicLong();
+        private transient final AtomicLong unwrapCount = new AtomicLong();
+        private transient final AtomicLong unwrapNanos = new AtomicLong();
+
+        /**
+         * @param level     the Deflater level, e.g. Deflater.BEST_SPEED
+         * @param threshold serialized payloads smaller than this are not compressed
+         */
+        public Policy(int level, int threshold) {
+            this(level, threshold, true);
+        }
+
+        /**
+         * @param level       the Deflater level, e.g. Deflater.BEST_SPEED
+         * @param threshold   serialized payloads smaller than this are not compressed
+         * @param keepWrapped if true, wrappers keep their bytes and unwrap a new copy each time, if false they
+         *                    unwrap once and drop the bytes
+         */
+        public Policy(int level, int threshold, boolean keepWrapped) {
+            if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+                throw new IllegalArgumentException("Invalid compression level " + level);
+            if (threshold < 0)
+                throw new IllegalArgumentException("Threshold must be >= 0");
+            this.level = level;
+            this.threshold = threshold;
+            this.keepWrapped = keepWrapped;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public int getThreshold() {
+            return threshold;
+        }
+
+        public boolean isKeepWrapped() {
+            return keepWrapped;
+        }
+
+        public long getWrapCount() {
+            return wrapCount.get();
+        }
+
+        /**
+         * @return the number of wraps that were stored compressed
+         */
+        public long getCompressedCount() {
+            return compressedCount.get();
+        }
+
+        /**
+         * @return the total serialized size of the wrapped objects
+         */
+        public long getUncompressedBytes() {
+            return uncompressedBytes.get();
+        }
+
+        /**
+         * @return the total size of the stored bytes, compressed or not
+         */
+        public long getStoredBytes() {
+            return storedBytes.get();
+        }
+
+        /**
+         * @return stored bytes / serialized bytes, e.g. 0.25 if the bytes are four times smaller
+         */
+        public double getRatio() {
+            long in = uncompressedBytes.get();
+            return in == 0 ? 1.0 : (double) storedBytes.get() / in;
+        }
+
+        /**
+         * @return the total time spent serializing and compressing, in nanoseconds
+         */
+        public long getWrapNanos() {
+            return wrapNanos.get();
+        }
+
+        public long getUnwrapCount() {
+            return unwrapCount.get();
+        }
+
+        /**
+         * @return the total time spent decompressing and deserializing, in nanoseconds
+         */
+        public long getUnwrapNanos() {
+            return unwrapNanos.get();
+        }
+
+        private Object readResolve() {
+            if (level == DEFAULT_POLICY.level && threshold == DEFAULT_POLICY.threshold
+                    && keepWrapped == DEFAULT_POLICY.keepWrapped)
+                return DEFAULT_POLICY;
+            return new Policy(level, threshold, keepWrapped);
+        }
+
+        public String toString() {
+            return "Policy{level=" + level + ", threshold=" + threshold + ", keepWrapped=" + keepWrapped
+                    + ", wraps=" + wrapCount
+                    + ", compressed=" + compressedCount + ", ratio=" + String.format("%.3f", getRatio())
+                    + ", wrapNanos=" + wrapNanos + ", unwraps=" + unwrapCount + ", unwrapNanos=" + unwrapNanos + "}";
+        }
+    }
+
+    /**
+     * Fast compression, payloads under 512 bytes are not compressed.
+     */
+    public static final Policy DEFAULT_POLICY = new Policy(Deflater.BEST_SPEED, 512);
+
+    private Policy policy;
+
+    public CompressedByteArrayWrapper(T obj) {
+        this(obj, DEFAULT_POLICY);
+    }
+
+    public CompressedByteArrayWrapper(T obj, Policy policy) {
+        super(obj);
+        this.policy = policy;
+    }
+
+    public CompressedByteArrayWrapper() {
+        this.policy = DEFAULT_POLICY;
+    }
+
+    public synchronized Policy getPolicy() {
+        return policy;
+    }
+
+    @Override
+    protected boolean keepsBytes() {
+        return policy.keepWrapped;
+    }
+
+    @Override
+    protected void writeSettings(ObjectOutput out) throws IOException {
+        out.writeObject(policy);
+    }
+
+    @Override
+    protected void readSettings(ObjectInput in) throws IOException, ClassNotFoundException {
+        Policy p = (Policy) in.readObject();
+        synchronized (this) {
+            policy = p;
+        }
+    }
+
+    /**
+     * @param bytes the wrapped bytes
+     * @return true if the bytes are compressed, false if they are plain serialized data
+     */
+    public static boolean isCompressed(byte[] bytes) {
+        return bytes.length > 0 && (bytes[0] & 0xFF) != STREAM_MAGIC_HIGH_BYTE;
+    }
+
+    @Override
+    protected byte[] objectToByteArray(T obj) throws IOException {
+        long start = System.nanoTime();
+        byte[] raw = SerializationHelper.toByteArray(obj);
+        byte[] stored = raw;
+        if (raw.length >= policy.threshold) {
+            byte[] compressed = SerializationHelper.deflate(raw, 0, raw.length, policy.level);
+            if (compressed.length < raw.length) {
+                stored = compressed;
+                policy.compressedCount.incrementAndGet();
+            }
+        }
+        policy.wrapCount.incrementAndGet();
+        policy.uncompressedBytes.addAndGet(raw.length);
+        policy.storedBytes.addAndGet(stored.length);
+        policy.wrapNanos.addAndGet(System.nanoTime() - start);
+        return stored;
+    }
+
+    @Override
+    protected T byteArrayToObject(byte[] bytes) throws IOException, ClassNotFoundException {
+        long start = System.nanoTime();
+        Object o = isCompressed(bytes) ? SerializationHelper.fromCompressedByteArray(bytes)
+                : SerializationHelper.fromByteArray(bytes);
+        policy.unwrapCount.incrementAndGet();
+        policy.unwrapNanos.addAndGet(System.nanoTime() - start);
+        //noinspection unchecked
+        return (T) o;
+    }
+}
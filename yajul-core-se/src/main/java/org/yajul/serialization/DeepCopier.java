@@ -0,0 +1,386 @@
+package org.yajul.serialization;
+
+import org.yajul.util.CompoundKey;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deep copies object graphs with reflection, which is much faster than a serialization round trip.
+ * <ul>
+ * <li>Shared references and cycles are preserved: each object is copied once per call.</li>
+ * <li>Immutable objects (strings, boxed primitives, enums, CompoundKey, ...) are shared, not copied.
+ * More immutable classes can be added with {@link #addImmutable(Class)}.</li>
+ * <li>Plain JDK collections and maps (ArrayList, HashMap, TreeMap, ...) are rebuilt from copies of their
+ * elements, so hash based ones are valid even if the hash codes of the elements are identity based.  Other
+ * collections (PriorityQueue, LinkedHashMap, blocking queues, ...) have settings a rebuild would lose, so they
+ * are copied like any other object.</li>
+ * <li>Other objects are created with their no-argument constructor, and their non-static, non-transient fields
+ * are copied.  Transient fields keep the value the constructor gave them.</li>
+ * <li>Classes that customize serialization (writeObject, readObject, writeReplace, readResolve or Externalizable),
+ * and serializable classes without a no-argument constructor, are copied with serialization.  References from
+ * inside such an object to the rest of the graph are not shared with it.</li>
+ * </ul>
+ * How each class is copied is worked out once and cached.  Thread safe.  Copies recursively, so very deep
+ * graphs (e.g. long linked lists) need a big enough stack, as with serialization.
+ */
+public class DeepCopier {
+    private final static Logger log = Logger.getLogger(DeepCopier.class.getName());
+
+    private enum Kind {
+        IMMUTABLE, PRIMITIVE_ARRAY, OBJECT_ARRAY, DATE, COLLECTION, MAP, FIELDS, SERIALIZATION
+    }
+
+    private static class Plan {
+        private final Kind kind;
+        private final Constructor<?> constructor;
+        private final boolean comparatorConstructor;
+        private final Field[] fields;
+        private final char[] types;
+
+        private Plan(Kind kind) {
+            this(kind, null, false, null, null);
+        }
+
+        private Plan(Kind kind, Constructor<?> constructor, boolean comparatorConstructor, Field[] fields, char[] types) {
+            this.kind = kind;
+            this.constructor = constructor;
+            this.comparatorConstructor = comparatorConstructor;
+            this.fields = fields;
+            this.types = types;
+        }
+    }
+
+    private static final Plan IMMUTABLE = new Plan(Kind.IMMUTABLE);
+    private static final Plan PRIMITIVE_ARRAY = new Plan(Kind.PRIMITIVE_ARRAY);
+    private static final Plan OBJECT_ARRAY = new Plan(Kind.OBJECT_ARRAY);
+    private static final Plan DATE = new Plan(Kind.DATE);
+    private static final Plan SERIALIZATION = new Plan(Kind.SERIALIZATION);
+
+    /**
+     * Collections and maps whose only state, apart from the elements, is the comparator of the sorted ones.
+     */
+    private static final Set<Class<?>> REBUILT = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+            ArrayList.class, LinkedList.class, ArrayDeque.class, CopyOnWriteArrayList.class,
+            HashSet.class, LinkedHashSet.class, TreeSet.class, ConcurrentSkipListSet.class,
+            HashMap.class, TreeMap.class, ConcurrentHashMap.class, ConcurrentSkipListMap.class));
+
+    /**
+     * A shared copier with the default immutable classes.
+     */
+    public static final DeepCopier DEFAULT = new DeepCopier();
+
+    private final Set<Class<?>> immutables = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+    private final ClassValue<Plan> plans = new ClassValue<Plan>() {
+        @Override
+        protected Plan computeValue(Class<?> c) {
+            if (immutables.contains(c))
+                return IMMUTABLE;
+            Plan plan = createPlan(c);
+            if (log.isLoggable(Level.FINE))
+                log.log(Level.FINE, "createPlan() : " + c.getName() + " " + plan.kind);
+            return plan;
+        }
+    };
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    public DeepCopier() {
+        Class<?>[] immutables = {
+                String.class, Boolean.class, Byte.class, Character.class, Short.class, Integer.class, Long.class,
+                Float.class, Double.class, BigInteger.class, BigDecimal.class, Class.class, UUID.class, Locale.class,
+                CompoundKey.class, CompoundKey.Two.class, CompoundKey.Three.class, CompoundKey.LongLong.class,
+                CompoundKey.LongInt.class
+        };
+        for (Class<?> c : immutables)
+            addImmutable(c);
+    }
+
+    /**
+     * Marks a class as immutable, so its instances are shared rather than copied.  Subclasses are not included.
+     *
+     * @param c the class
+     */
+    public void addImmutable(Class<?> c) {
+        immutables.add(c);
+        plans.remove(c);
+    }
+
+    /**
+     * Deep copies an object.
+     *
+     * @param obj the object, may be null
+     * @param <T> the type of the object
+     * @return the copy
+     * @throws IOException              if an object that is copied with serialization can't be serialized
+     * @throws ClassNotFoundException   if an object that is copied with serialization can't be deserialized
+     * @throws IllegalArgumentException if an object can't be copied at all (not serializable, no constructor)
+     */
+    public <T> T copy(T obj) throws IOException, ClassNotFoundException {
+        //noinspection unchecked
+        return (T) copy(obj, new IdentityHashMap<Object, Object>());
+    }
+
+    /**
+     * @return the number of objects that were copied with serialization
+     */
+    public long getFallbackCount() {
+        return fallbacks.get();
+    }
+
+    private Object copy(Object obj, IdentityHashMap<Object, Object> copies) throws IOException, ClassNotFoundException {
+        if (obj == null)
+            return null;
+        Plan plan = plans.get(obj.getClass());
+        if (plan == IMMUTABLE)
+            return obj;
+        Object copy = copies.get(obj);
+        if (copy != null)
+            return copy;
+        switch (plan.kind) {
+            case PRIMITIVE_ARRAY:
+                copy = clonePrimitiveArray(obj);
+                copies.put(obj, copy);
+                return copy;
+            case OBJECT_ARRAY:
+                return copyArray((Object[]) obj, copies);
+            case DATE:
+                copy = ((Date) obj).clone();
+                copies.put(obj, copy);
+                return copy;
+            case COLLECTION:
+                return copyCollection((Collection<?>) obj, plan, copies);
+            case MAP:
+                return copyMap((Map<?, ?>) obj, plan, copies);
+            case FIELDS:
+                return copyFields(obj, plan, copies);
+            default:
+                fallbacks.incrementAndGet();
+                copy = SerializationHelper.clone((Serializable) obj);
+                copies.put(obj, copy);
+                return copy;
+        }
+    }
+
+    private Object[] copyArray(Object[] array, IdentityHashMap<Object, Object> copies)
+            throws IOException, ClassNotFoundException {
+        Object[] copy = (Object[]) Array.newInstance(array.getClass().getComponentType(), array.length);
+        copies.put(array, copy);
+        for (int i = 0; i < array.length; i++)
+            copy[i] = copy(array[i], copies);
+        return copy;
+    }
+
+    private Object copyCollection(Collection<?> collection, Plan plan, IdentityHashMap<Object, Object> copies)
+            throws IOException, ClassNotFoundException {
+        Comparator<?> comparator = plan.comparatorConstructor ? ((SortedSet<?>) collection).comparator() : null;
+        //noinspection unchecked
+        Collection<Object> copy = (Collection<Object>) newInstance(plan, comparator);
+        copies.put(collection, copy);
+        for (Object element : collection)
+            copy.add(copy(element, copies));
+        return copy;
+    }
+
+    private Object copyMap(Map<?, ?> map, Plan plan, IdentityHashMap<Object, Object> copies)
+            throws IOException, ClassNotFoundException {
+        Comparator<?> comparator = plan.comparatorConstructor ? ((SortedMap<?, ?>) map).comparator() : null;
+        //noinspection unchecked
+        Map<Object, Object> copy = (Map<Object, Object>) newInstance(plan, comparator);
+        copies.put(map, copy);
+        for (Map.Entry<?, ?> entry : map.entrySet())
+            copy.put(copy(entry.getKey(), copies), copy(entry.getValue(), copies));
+        return copy;
+    }
+
+    private Object copyFields(Object obj, Plan plan, IdentityHashMap<Object, Object> copies)
+            throws IOException, ClassNotFoundException {
+        Object copy = newInstance(plan, null);
+        copies.put(obj, copy);
+        Field[] fields = plan.fields;
+        char[] types = plan.types;
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                Field f = fields[i];
+                switch (types[i]) {
+                    case 'Z': f.setBoolean(copy, f.getBoolean(obj)); break;
+                    case 'B': f.setByte(copy, f.getByte(obj)); break;
+                    case 'C': f.setChar(copy, f.getChar(obj)); break;
+                    case 'S': f.setShort(copy, f.getShort(obj)); break;
+                    case 'I': f.setInt(copy, f.getInt(obj)); break;
+                    case 'J': f.setLong(copy, f.getLong(obj)); break;
+                    case 'F': f.setFloat(copy, f.getFloat(obj)); break;
+                    case 'D': f.setDouble(copy, f.getDouble(obj)); break;
+                    default: f.set(copy, copy(f.get(obj), copies)); break;
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Unable to copy " + obj.getClass().getName() + " due to: " + e, e);
+        }
+        return copy;
+    }
+
+    private static Object newInstance(Plan plan, Comparator<?> comparator) {
+        try {
+            return plan.comparatorConstructor ? plan.constructor.newInstance(comparator) : plan.constructor.newInstance();
+        } catch (InstantiationException e) {
+            throw new IllegalArgumentException("Unable to create " + plan.constructor.getDeclaringClass().getName()
+                    + " due to: " + e, e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Unable to create " + plan.constructor.getDeclaringClass().getName()
+                    + " due to: " + e, e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalArgumentException("Unable to create " + plan.constructor.getDeclaringClass().getName()
+                    + " due to: " + e.getCause(), e.getCause());
+        }
+    }
+
+    private static Object clonePrimitiveArray(Object array) {
+        int length = Array.getLength(array);
+        Object copy = Array.newInstance(array.getClass().getComponentType(), length);
+        System.arraycopy(array, 0, copy, 0, length);
+        return copy;
+    }
+
+    private static Plan createPlan(Class<?> c) {
+        if (c.isEnum() || (c.getSuperclass() != null && c.getSuperclass().isEnum()))
+            return IMMUTABLE;
+        if (c.isArray())
+            return c.getComponentType().isPrimitive() ? PRIMITIVE_ARRAY : OBJECT_ARRAY;
+        if (Date.class.isAssignableFrom(c))
+            return DATE;
+        boolean sorted = SortedSet.class.isAssignableFrom(c) || SortedMap.class.isAssignableFrom(c);
+        // Subclasses, and other collections, may have state of their own.
+        if (REBUILT.contains(c)) {
+            Constructor<?> constructor = sorted ? getConstructor(c, Comparator.class) : getConstructor(c);
+            if (constructor != null)
+                return new Plan(Collection.class.isAssignableFrom(c) ? Kind.COLLECTION : Kind.MAP, constructor,
+                        sorted, null, null);
+        }
+        boolean serializable = Serializable.class.isAssignableFrom(c);
+        if (serializable && customizesSerialization(c))
+            return SERIALIZATION;
+        Constructor<?> constructor = getConstructor(c);
+        if (constructor == null) {
+            if (serializable)
+                return SERIALIZATION;
+            throw new IllegalArgumentException("Unable to copy " + c.getName()
+                    + ", it is not serializable and has no no-argument constructor");
+        }
+        List<Field> fields = new ArrayList<Field>();
+        for (Class<?> level = c; level != null && level != Object.class; level = level.getSuperclass()) {
+            for (Field f : level.getDeclaredFields()) {
+                int modifiers = f.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers))
+                    continue;
+                try {
+                    f.setAccessible(true);
+                } catch (RuntimeException e) {
+                    // Not allowed, e.g. a JDK class on Java 9 and later.
+                    if (serializable)
+                        return SERIALIZATION;
+                    throw new IllegalArgumentException("Unable to copy " + c.getName() + ", field " + f.getName()
+                            + " is not accessible", e);
+                }
+                fields.add(f);
+            }
+        }
+        char[] types = new char[fields.size()];
+        for (int i = 0; i < types.length; i++)
+            types[i] = typeCode(fields.get(i).getType());
+        return new Plan(Kind.FIELDS, constructor, false, fields.toArray(new Field[fields.size()]), types);
+    }
+
+    private static char typeCode(Class<?> type) {
+        if (!type.isPrimitive())
+            return 'L';
+        if (type == boolean.class)
+            return 'Z';
+        if (type == byte.class)
+            return 'B';
+        if (type == char.class)
+            return 'C';
+        if (type == short.class)
+            return 'S';
+        if (type == int.class)
+            return 'I';
+        if (type == long.class)
+            return 'J';
+        if (type == float.class)
+            return 'F';
+        return 'D';
+    }
+
+    private static Constructor<?> getConstructor(Class<?> c, Class<?>... parameterTypes) {
+        if (Modifier.isAbstract(c.getModifiers()) || (c.getEnclosingClass() != null && !Modifier.isStatic(c.getModifiers())))
+            return null;
+        try {
+            Constructor<?> constructor = c.getDeclaredConstructor(parameterTypes);
+            constructor.setAccessible(true);
+            return constructor;
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (RuntimeException e) {
+            return null;    // SecurityException, or InaccessibleObjectException on Java 9 and later.
+        }
+    }
+
+    private static boolean customizesSerialization(Class<?> c) {
+        if (Externalizable.class.isAssignableFrom(c))
+            return true;
+        for (Class<?> level = c; level != null && level != Object.class; level = level.getSuperclass()) {
+            if (hasMethod(level, "writeObject", ObjectOutputStream.class)
+                    || hasMethod(level, "readObject", ObjectInputStream.class)
+                    || hasMethod(level, "writeReplace")
+                    || hasMethod(level, "readResolve"))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean hasMethod(Class<?> c, String name, Class<?>... parameterTypes) {
+        try {
+            c.getDeclaredMethod(name, parameterTypes);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.yajul.serialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectStreamClass;
+import java.io.StreamCorruptedException;
+
+/**
+ * Reads streams written by {@link DictionaryObjectOutputStream}, looking class descriptor ids up in a
+ * {@link ClassDescriptorDictionary}.
+ */
+public class DictionaryObjectInputStream extends ObjectResolvingInputStream {
+    private final ClassDescriptorDictionary dictionary;
+    private final boolean learning;
+
+    /**
+     * Creates the stream.
+     *
+     * @param in         the underlying stream
+     * @param dictionary the descriptor dictionary
+     * @param resolver   the object resolver, or null
+     * @param learning   true to add the descriptors the writer learned to the dictionary, with the writer's ids
+     * @throws IOException if the header could not be read
+     */
+    public DictionaryObjectInputStream(InputStream in, ClassDescriptorDictionary dictionary,
+                                       ObjectResolver resolver, boolean learning) throws IOException {
+        super(in, resolver);
+        this.dictionary = dictionary;
+        this.learning = learning;
+    }
+
+    @Override
+    protected void readStreamHeader() throws IOException {
+        int header = readUnsignedByte();
+        if (header != DictionaryObjectOutputStream.STREAM_HEADER)
+            throw new StreamCorruptedException(String.format("invalid stream header: %02X", header));
+    }
+
+    @Override
+    protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+        int n = CompactExternalizableHelper.readVarInt(this);
+        if (n > 0) {
+            ObjectStreamClass desc = dictionary.getDescriptor(n - 1);
+            int fingerprint = readInt();
+            if (desc == null)
+                throw new InvalidClassException("Unknown class descriptor id " + (n - 1)
+                        + ", the writer's dictionary has descriptors this one doesn't");
+            if (fingerprint != dictionary.getFingerprint(n - 1))
+                throw new InvalidClassException(desc.getName(), "the fields of class descriptor id " + (n - 1)
+                        + " are not the same as in the writer's dictionary");
+            return desc;
+        }
+        int learned = CompactExternalizableHelper.readVarInt(this);
+        ObjectStreamClass desc = super.readClassDescriptor();
+        if (learned > 0 && learning && !dictionary.register(learned - 1, desc))
+            throw new StreamCorruptedException("Class descriptor id " + (learned - 1) + " for " + desc.getName()
+                    + " is already used for " + dictionary.getDescriptor(learned - 1).getName()
+                    + " (with different fields, if the names are the same)");
+        return desc;
+    }
+}
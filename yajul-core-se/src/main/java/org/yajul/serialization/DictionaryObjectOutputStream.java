@@ -0,0 +1,109 @@
+package org.yajul.serialization;
+
+import java.io.IOException;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Writes class descriptors as ids from a {@link ClassDescriptorDictionary}, and a one byte stream header instead
+ * of the usual four.  Descriptors that aren't in the dictionary are written in full.  Must be read with
+ * {@link DictionaryObjectInputStream} using the same dictionary (or one with the same ids).
+ * <br>
+ * Each descriptor starts with a varint: id + 1 for a known descriptor, followed by the fingerprint of its fields
+ * (an int, see {@link ClassDescriptorDictionary}), or zero followed by a second varint (the id the writer assigned
+ * + 1, or zero if it didn't learn the descriptor) and the full descriptor.
+ * <br>
+ * When learning, the ids of new descriptors are reserved while the message is written, and the descriptors
+ * are only added to the dictionary by a successful flush().  A message that fails part way doesn't leave the
+ * dictionary with descriptors the other end never received, so the session can carry on.
+ */
+public class DictionaryObjectOutputStream extends ObjectReplacingOutputStream {
+    static final int STREAM_HEADER = 0xD1;
+
+    private final ClassDescriptorDictionary dictionary;
+    private final boolean learning;
+    private int knownCount;
+    private int inlineCount;
+    /**
+     * Descriptors learned by this stream, not yet added to the dictionary.
+     */
+    private final Map<ObjectStreamClass, Integer> learned = new IdentityHashMap<ObjectStreamClass, Integer>();
+
+    /**
+     * Creates the stream.
+     *
+     * @param out        the underlying stream
+     * @param dictionary the descriptor dictionary
+     * @param replacer   the object replacer, or null
+     * @param learning   true to add unknown descriptors to the dictionary, so the next stream writes ids for them
+     * @throws IOException if the header could not be written
+     */
+    public DictionaryObjectOutputStream(OutputStream out, ClassDescriptorDictionary dictionary,
+                                        ObjectReplacer replacer, boolean learning) throws IOException {
+        super(out, replacer);
+        this.dictionary = dictionary;
+        this.learning = learning;
+    }
+
+    @Override
+    protected void writeStreamHeader() throws IOException {
+        writeByte(STREAM_HEADER);
+    }
+
+    @Override
+    protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+        int id = dictionary.getId(desc);
+        if (id >= 0) {
+            CompactExternalizableHelper.writeVarInt(this, id + 1);
+            writeInt(dictionary.getFingerprint(id));
+            knownCount++;
+            return;
+        }
+        CompactExternalizableHelper.writeVarInt(this, 0);
+        CompactExternalizableHelper.writeVarInt(this, learning ? learn(desc) + 1 : 0);
+        super.writeClassDescriptor(desc);
+        inlineCount++;
+    }
+
+    /**
+     * Flushes the stream, and then adds the descriptors learned by this stream to the dictionary.
+     *
+     * @throws IOException if the stream could not be flushed, in which case the dictionary is unchanged
+     */
+    @Override
+    public void flush() throws IOException {
+        super.flush();
+        if (learned.isEmpty())
+            return;
+        for (Map.Entry<ObjectStreamClass, Integer> entry : learned.entrySet()) {
+            if (dictionary.getId(entry.getKey()) < 0)
+                dictionary.register(entry.getValue(), entry.getKey());
+        }
+        learned.clear();
+    }
+
+    private int learn(ObjectStreamClass desc) {
+        Integer id = learned.get(desc);
+        if (id == null) {
+            id = dictionary.reserve();
+            learned.put(desc, id);
+        }
+        return id;
+    }
+
+    /**
+     * @return the number of descriptors written as ids
+     */
+    public int getKnownCount() {
+        return knownCount;
+    }
+
+    /**
+     * @return the number of descriptors written in full
+     */
+    public int getInlineCount() {
+        return inlineCount;
+    }
+}
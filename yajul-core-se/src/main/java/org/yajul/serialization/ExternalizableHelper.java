@@ -17,6 +17,7 @@ import static org.yajul.juli.LogHelper.unexpected;
  * <ul>
  * <li>Nullable boxed types - readObject() / writeObject() are not very efficient.</li>
  * </ul>
+ * See {@link CompactExternalizableHelper} for smaller, variable length encodings.
  * <br>
  * User: josh
  * Date: Sep 9, 2009
@@ -28,6 +29,15 @@ public class ExternalizableHelper {
     private static final int NULL_VALUE = -1;
     private static final int NOT_NULL_VALUE = 1;
 
+    /**
+     * Writes a nullable string, one byte per character.  Only for Latin-1 strings: the high byte of
+     * each character is dropped.  Use {@link CompactExternalizableHelper#writeString(java.io.DataOutput, String)}
+     * for anything else.
+     *
+     * @param out   the output stream
+     * @param value the string, may be null
+     * @throws IOException if something goes wrong
+     */
     public static void writeNullableString(ObjectOutput out, String value) throws IOException {
         if (value == null) {
             out.writeInt(-1);
@@ -0,0 +1,65 @@
+package org.yajul.serialization;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A ByteArrayOutputStream that can be reset and used again, and that gives access to its
+ * buffer without copying it.
+ * <br>
+ * The buffer is only valid until the next write or reset; callers that keep the bytes must
+ * copy them, e.g. with toByteArray().
+ */
+public class ReusableByteArrayOutputStream extends ByteArrayOutputStream {
+    private final int initialSize;
+
+    public ReusableByteArrayOutputStream(int initialSize) {
+        super(initialSize);
+        this.initialSize = initialSize;
+    }
+
+    /**
+     * @return the internal buffer, which holds size() valid bytes
+     */
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    /**
+     * @return a view of the valid bytes, positioned at zero
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(buf, 0, count);
+    }
+
+    /**
+     * Grows the buffer in one step, so that the next <i>capacity</i> bytes can be written without
+     * repeatedly doubling and copying.
+     *
+     * @param capacity the required capacity
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > buf.length)
+            buf = Arrays.copyOf(buf, Math.max(capacity, buf.length << 1));
+    }
+
+    /**
+     * @return the current capacity of the buffer
+     */
+    public int capacity() {
+        return buf.length;
+    }
+
+    /**
+     * Resets the stream, and drops the buffer if it has grown beyond the given size, so one very
+     * large object doesn't pin a large buffer forever.
+     *
+     * @param maxRetainedSize the largest buffer to keep
+     */
+    public void reset(int maxRetainedSize) {
+        reset();
+        if (buf.length > maxRetainedSize)
+            buf = new byte[initialSize];
+    }
+}
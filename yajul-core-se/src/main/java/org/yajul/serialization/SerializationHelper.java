@@ -1,6 +1,9 @@
 package org.yajul.serialization;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.Inflater;
@@ -9,6 +12,11 @@ import java.util.zip.InflaterInputStream;
 /**
  * Generic serialization helper methods.
  * <br>
+ * toByteArray(), clone() and the ByteBuffer methods serialize into a per-thread reusable buffer, so
+ * a serialization only allocates the result.  The buffer is pre-sized from the size of the last
+ * object of the same class (the 'size hint'), so it doesn't have to grow by doubling.
+ * Nested calls (e.g. from a writeObject() method) get a buffer of their own.
+ * <br>
  * User: josh
  * Date: 1/2/13
  * Time: 3:11 PM
@@ -17,6 +25,58 @@ public class SerializationHelper {
 
     private static int DEFAULT_INITIAL_SIZE = 128;
 
+    /**
+     * Per thread buffers larger than this are dropped after use.
+     */
+    private static final int MAX_POOLED_SIZE = 64 * 1024;
+
+    /**
+     * The largest size hint.  A class whose objects are sometimes large (e.g. a collection) would otherwise make
+     * every serialization of it pre-allocate the largest size seen.
+     */
+    private static final int MAX_SIZE_HINT = MAX_POOLED_SIZE;
+
+    private static class PooledBuffer {
+        private final ReusableByteArrayOutputStream stream =
+                new ReusableByteArrayOutputStream(DEFAULT_INITIAL_SIZE);
+        private boolean inUse;
+    }
+
+    private static final ThreadLocal<PooledBuffer> buffers = new ThreadLocal<PooledBuffer>() {
+        protected PooledBuffer initialValue() {
+            return new PooledBuffer();
+        }
+    };
+
+    /**
+     * The size hints, zero if there isn't one yet.  Kept in a ClassValue so they don't keep classes from being
+     * unloaded.
+     */
+    private static final ClassValue<AtomicInteger> sizeHints = new ClassValue<AtomicInteger>() {
+        protected AtomicInteger computeValue(Class<?> type) {
+            return new AtomicInteger();
+        }
+    };
+
+    private static final int DEFAULT_INFLATER_BUFFER_SIZE = 512;
+
+    private static volatile SerializationProfiler profiler;
+
+    /**
+     * Per thread deflaters, one per level (-1 to 9).  Changing the level of a deflater that already has input
+     * compresses that input with the old level, so they aren't shared between levels.
+     */
+    private static final ThreadLocal<Deflater[]> deflaters = new ThreadLocal<Deflater[]>() {
+        protected Deflater[] initialValue() {
+            return new Deflater[11];
+        }
+    };
+
+    /**
+     * Per thread inflater, taken out while in use because deserialization can call back into this class.
+     */
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>();
+
     /**
      * Serialize an object to an output stream.
      *
@@ -25,6 +85,9 @@ public class SerializationHelper {
      * @throws java.io.IOException if something goes wrong
      */
     public static void serialize(Serializable obj, OutputStream outputStream) throws IOException {
+        SerializationProfiler p = profiler;
+        if (p != null)
+            p.sample(obj);
         ObjectOutputStream out = null;
         try {
             out = new ObjectOutputStream(outputStream);
@@ -41,6 +104,19 @@ public class SerializationHelper {
     }
 
 
+    /**
+     * Sets the profiler that samples the objects serialized by this class, or null to turn profiling off.
+     *
+     * @param serializationProfiler the profiler
+     */
+    public static void setProfiler(SerializationProfiler serializationProfiler) {
+        profiler = serializationProfiler;
+    }
+
+    public static SerializationProfiler getProfiler() {
+        return profiler;
+    }
+
     /**
      * Serializes an object to a byte array.
      *
@@ -49,7 +125,99 @@ public class SerializationHelper {
      * @throws java.io.IOException if something goes wrong
      */
     public static byte[] toByteArray(Serializable obj) throws IOException {
-        return toByteArray(obj, DEFAULT_INITIAL_SIZE);
+        PooledBuffer pooled = acquire();
+        try {
+            ReusableByteArrayOutputStream out = serializeToBuffer(obj, pooled.stream);
+            return Arrays.copyOf(out.getBuffer(), out.size());
+        } finally {
+            release(pooled);
+        }
+    }
+
+    /**
+     * Serializes an object into the per-thread buffer, and returns a view of the bytes.  No copy is made, so the
+     * view is only valid until the next serialization on this thread.
+     *
+     * @param obj the object to serialize
+     * @return the serialized bytes, positioned at zero
+     * @throws java.io.IOException if something goes wrong
+     */
+    public static ByteBuffer toByteBuffer(Serializable obj) throws IOException {
+        PooledBuffer pooled = acquire();
+        try {
+            return serializeToBuffer(obj, pooled.stream).toByteBuffer();
+        } finally {
+            release(pooled);
+        }
+    }
+
+    /**
+     * Serializes an object into the target buffer, starting at its current position.
+     *
+     * @param obj    the object to serialize
+     * @param target the buffer to write to
+     * @return the number of bytes written
+     * @throws java.nio.BufferOverflowException if the object doesn't fit, in which case the target is unchanged
+     * @throws java.io.IOException if something goes wrong
+     */
+    public static int serializeTo(Serializable obj, ByteBuffer target) throws IOException {
+        PooledBuffer pooled = acquire();
+        try {
+            ReusableByteArrayOutputStream out = serializeToBuffer(obj, pooled.stream);
+            target.put(out.getBuffer(), 0, out.size());
+            return out.size();
+        } finally {
+            release(pooled);
+        }
+    }
+
+    /**
+     * Returns the expected serialized size of an object of the class, learned from previous serializations.
+     *
+     * @param c the class
+     * @return the expected size in bytes
+     */
+    public static int getSizeHint(Class<?> c) {
+        int hint = sizeHints.get(c).get();
+        return hint == 0 ? DEFAULT_INITIAL_SIZE : hint;
+    }
+
+    private static ReusableByteArrayOutputStream serializeToBuffer(Serializable obj,
+                                                                   ReusableByteArrayOutputStream out)
+            throws IOException {
+        Class<?> c = obj == null ? null : obj.getClass();
+        if (c != null)
+            out.ensureCapacity(getSizeHint(c));
+        serialize(obj, out);
+        if (c != null)
+            recordSize(c, out.size());
+        return out;
+    }
+
+    /**
+     * Grows the hint right away (up to MAX_SIZE_HINT), shrinks it slowly so one small object doesn't cause the
+     * next large one to grow the buffer several times.
+     */
+    private static void recordSize(Class<?> c, int size) {
+        size = Math.min(size, MAX_SIZE_HINT);
+        AtomicInteger hints = sizeHints.get(c);
+        int old = hints.get();
+        int hint = (old == 0 || size >= old) ? size : old - ((old - size) >> 2);
+        if (hint != old)
+            hints.set(hint);
+    }
+
+    private static PooledBuffer acquire() {
+        PooledBuffer pooled = buffers.get();
+        if (pooled.inUse)
+            return new PooledBuffer(); // Nested call, use a buffer of its own.
+        pooled.inUse = true;
+        return pooled;
+    }
+
+    private static void release(PooledBuffer pooled) {
+        pooled.stream.reset(MAX_POOLED_SIZE);
+        pooled.inUse = false;
     }
 
     /**
@@ -93,7 +261,7 @@ public class SerializationHelper {
     }
 
     /**
-     * Clones the object using serialization.
+     * Clones the object using serialization.  See deepCopy() for a faster copy.
      * @param t the object to clone
      * @param <T> the type of the object
      * @return a clone of the object
@@ -101,8 +269,20 @@ public class SerializationHelper {
      * @throws ClassNotFoundException
      */
     public static <T extends Serializable> T serialClone(T t) throws IOException, ClassNotFoundException {
-        byte[] b = toByteArray(t);
-        return (T)fromByteArray(b);
+        return clone(t);
+    }
+
+    /**
+     * Deep copies the object with {@link DeepCopier#DEFAULT}, which copies fields directly and only uses
+     * serialization for classes that customize it.  Unlike serialClone(), immutable objects are shared.
+     * @param t the object to copy
+     * @param <T> the type of the object
+     * @return a copy of the object
+     * @throws IOException  if an object that is copied with serialization can't be serialized
+     * @throws ClassNotFoundException if an object that is copied with serialization can't be deserialized
+     */
+    public static <T> T deepCopy(T t) throws IOException, ClassNotFoundException {
+        return DeepCopier.DEFAULT.copy(t);
     }
 
     /**
@@ -118,8 +298,71 @@ public class SerializationHelper {
         if (objectData == null) {
             throw new IllegalArgumentException("The byte[] must not be null");
         }
-        ByteArrayInputStream bais = new ByteArrayInputStream(objectData);
-        return deserialize(bais);
+        return fromByteArray(objectData, 0, objectData.length);
+    }
+
+    /**
+     * Deserializes a single object from part of an array of bytes.
+     *
+     * @param objectData the serialized object, must not be null
+     * @param offset     the offset of the first byte
+     * @param length     the number of bytes
+     * @return the deserialized object
+     * @throws java.io.IOException      if something goes wrong
+     * @throws ClassNotFoundException   if a class cannot be found
+     */
+    public static Object fromByteArray(byte[] objectData, int offset, int length)
+            throws ClassNotFoundException, IOException {
+        return deserialize(new ByteArrayInputStream(objectData, offset, length));
+    }
+
+    /**
+     * Deserializes a single object from the remaining bytes in the buffer.  Heap buffers are read in place.
+     * The buffer position is not changed.
+     *
+     * @param objectData the serialized object, must not be null
+     * @return the deserialized object
+     * @throws java.io.IOException      if something goes wrong
+     * @throws ClassNotFoundException   if a class cannot be found
+     */
+    public static Object fromByteBuffer(ByteBuffer objectData) throws ClassNotFoundException, IOException {
+        if (objectData.hasArray())
+            return fromByteArray(objectData.array(), objectData.arrayOffset() + objectData.position(),
+                    objectData.remaining());
+        byte[] bytes = new byte[objectData.remaining()];
+        objectData.duplicate().get(bytes);
+        return fromByteArray(bytes);
+    }
+
+    /**
+     * Deserializes a single object from an array of bytes that were compressed with a Deflater, using a per-thread
+     * Inflater.
+     *
+     * @param objectData the serialized object, must not be null
+     * @return the deserialized object
+     * @throws java.io.IOException      if something goes wrong
+     * @throws ClassNotFoundException   if a class cannot be found
+     */
+    public static Object fromCompressedByteArray(byte[] objectData) throws ClassNotFoundException, IOException {
+        if (objectData == null) {
+            throw new IllegalArgumentException("The byte[] must not be null");
+        }
+        Inflater inf = inflaters.get();
+        if (inf == null)
+            inf = new Inflater();
+        else
+            inflaters.set(null);
+        try {
+            return deserialize(new InflaterInputStream(new ByteArrayInputStream(objectData), inf,
+                    DEFAULT_INFLATER_BUFFER_SIZE));
+        } finally {
+            if (inflaters.get() == null) {
+                inf.reset();
+                inflaters.set(inf);
+            } else {
+                inf.end();
+            }
+        }
     }
 
     /**
@@ -157,8 +400,66 @@ public class SerializationHelper {
      * @throws ClassNotFoundException if a class cannot be found
      */
     public static <T extends Serializable> T clone(T object) throws IOException, ClassNotFoundException {
-        //noinspection unchecked
-        return (T) fromByteArray(toByteArray(object));
+        PooledBuffer pooled = acquire();
+        try {
+            ReusableByteArrayOutputStream out = serializeToBuffer(object, pooled.stream);
+            //noinspection unchecked
+            return (T) fromByteArray(out.getBuffer(), 0, out.size());
+        } finally {
+            release(pooled);
+        }
+    }
+
+    /**
+     * Serializes an object into the per-thread buffer, and compresses it with a per-thread Deflater.
+     *
+     * @param obj   the object to serialize
+     * @param level the Deflater compression level
+     * @return the compressed bytes, which can be read with fromCompressedByteArray()
+     * @throws java.io.IOException if something goes wrong
+     */
+    public static byte[] toCompressedByteArray(Serializable obj, int level) throws IOException {
+        PooledBuffer pooled = acquire();
+        try {
+            ReusableByteArrayOutputStream out = serializeToBuffer(obj, pooled.stream);
+            return deflate(out.getBuffer(), 0, out.size(), level);
+        } finally {
+            release(pooled);
+        }
+    }
+
+    /**
+     * Compresses bytes in one step with a per-thread Deflater.
+     *
+     * @param data   the bytes
+     * @param offset the offset of the first byte
+     * @param length the number of bytes
+     * @param level  the Deflater compression level
+     * @return the compressed bytes (zlib format)
+     */
+    static byte[] deflate(byte[] data, int offset, int length, int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        Deflater[] perLevel = deflaters.get();
+        Deflater def = perLevel[level + 1];
+        if (def == null) {
+            def = new Deflater(level);
+            perLevel[level + 1] = def;
+        }
+        try {
+            def.setInput(data, offset, length);
+            def.finish();
+            byte[] buf = new byte[Math.max(64, length / 2)];
+            int n = 0;
+            while (!def.finished()) {
+                if (n == buf.length)
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                n += def.deflate(buf, n, buf.length - n);
+            }
+            return n == buf.length ? buf : Arrays.copyOf(buf, n);
+        } finally {
+            def.reset();
+        }
     }
 
     public static byte[] toCompressedByteArray(Serializable obj, int initialSize, int level, int bufferSize) throws IOException {
@@ -0,0 +1,542 @@
+package org.yajul.serialization;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Attributes serialized bytes to classes and to field paths (e.g. <code>Order.lines[].product.name</code>), for
+ * finding out which objects dominate message and cache sizes.
+ * <br>
+ * {@link #sample(Serializable)} profiles one in every N calls, so it can be left on in production, e.g. with
+ * {@link SerializationHelper#setProfiler(SerializationProfiler)}.  Profiling a sampled object is an extra
+ * serialization pass into a counting stream: the bytes written between the start of one object and the start
+ * of the next are charged to the first one.  An object's 'self' bytes are its header, class descriptor (the
+ * first time it's written) and primitive fields; the 'retained' bytes of a path include the objects under it.
+ * Paths are followed through default serialized fields and object arrays.  Elements written by custom
+ * writeObject() methods and Externalizable classes (e.g. collections) get a <code>[]</code> path.
+ * <br>
+ * The histograms are concurrent maps of atomic counters, so samples from many threads are recorded without
+ * locking.  {@link #snapshot()} returns a consistent enough copy, sorted by bytes.
+ */
+public class SerializationProfiler {
+    private final static Logger log = Logger.getLogger(SerializationProfiler.class.getName());
+
+    public static final int DEFAULT_MAX_PATHS = 10000;
+    public static final int DEFAULT_MAX_DEPTH = 16;
+
+    /**
+     * The path that paths beyond the maximum number of paths are counted under.
+     */
+    public static final String OTHER_PATHS = "(other)";
+
+    /**
+     * The plans, in a ClassValue so they don't keep classes from being unloaded.
+     */
+    private static final ClassValue<ClassPlan> plans = new ClassValue<ClassPlan>() {
+        protected ClassPlan computeValue(Class<?> type) {
+            return createPlan(type);
+        }
+    };
+
+    private final int sampleInterval;
+    private final int maxPaths;
+    private final int maxDepth;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong sampledBytes = new AtomicLong();
+    private final ConcurrentMap<String, Bucket> classes = new ConcurrentHashMap<String, Bucket>();
+    private final ConcurrentMap<String, Bucket> paths = new ConcurrentHashMap<String, Bucket>();
+
+    /**
+     * Creates a profiler with the default limits.
+     *
+     * @param sampleInterval profile one in this many calls to sample(), 1 for every call
+     */
+    public SerializationProfiler(int sampleInterval) {
+        this(sampleInterval, DEFAULT_MAX_PATHS, DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * Creates a profiler.
+     *
+     * @param sampleInterval profile one in this many calls to sample(), 1 for every call
+     * @param maxPaths       the maximum number of distinct paths to keep
+     * @param maxDepth       paths deeper than this are collapsed into <code>.*</code>
+     */
+    public SerializationProfiler(int sampleInterval, int maxPaths, int maxDepth) {
+        if (sampleInterval <= 0)
+            throw new IllegalArgumentException("Sample interval must be > 0");
+        if (maxDepth <= 0)
+            throw new IllegalArgumentException("Maximum depth must be > 0");
+        this.sampleInterval = sampleInterval;
+        this.maxPaths = maxPaths;
+        this.maxDepth = maxDepth;
+    }
+
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * Profiles the object if this call is one of the sampled ones.  Errors are logged, not thrown.
+     *
+     * @param obj the object being serialized
+     * @return true if the object was profiled
+     */
+    public boolean sample(Serializable obj) {
+        if (calls.incrementAndGet() % sampleInterval != 0 || obj == null)
+            return false;
+        try {
+            profile(obj);
+            return true;
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Unable to profile " + obj.getClass().getName() + " due to: " + e, e);
+            return false;
+        }
+    }
+
+    /**
+     * Profiles the object, whether it is sampled or not.
+     *
+     * @param obj the object
+     * @return the serialized size of the object
+     * @throws IOException if the object can't be serialized
+     */
+    public long profile(Serializable obj) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream();
+        ProfilingOutputStream out = new ProfilingOutputStream(counter);
+        out.writeObject(obj);
+        out.finish();
+        samples.incrementAndGet();
+        sampledBytes.addAndGet(counter.count);
+        return counter.count;
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public void reset() {
+        classes.clear();
+        paths.clear();
+        calls.set(0);
+        samples.set(0);
+        sampledBytes.set(0);
+    }
+
+    /**
+     * @return a copy of the statistics
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(calls.get(), samples.get(), sampledBytes.get(), sortedEntries(classes), sortedEntries(paths));
+    }
+
+    /**
+     * One row of a histogram.
+     */
+    public static class Entry {
+        private final String name;
+        private final long count;
+        private final long bytes;
+        private final long retainedBytes;
+
+        Entry(String name, long count, long bytes, long retainedBytes) {
+            this.name = name;
+            this.count = count;
+            this.bytes = bytes;
+            this.retainedBytes = retainedBytes;
+        }
+
+        /**
+         * @return the class name or path
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of objects
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the bytes written for the objects themselves
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the bytes written for the objects and everything under them (paths only)
+         */
+        public long getRetainedBytes() {
+            return retainedBytes;
+        }
+
+        public String toString() {
+            return name + " count=" + count + " bytes=" + bytes + " retained=" + retainedBytes;
+        }
+    }
+
+    /**
+     * A copy of the statistics at one point in time.
+     */
+    public static class Snapshot {
+        private final long calls;
+        private final long samples;
+        private final long sampledBytes;
+        private final List<Entry> classes;
+        private final List<Entry> paths;
+
+        Snapshot(long calls, long samples, long sampledBytes, List<Entry> classes, List<Entry> paths) {
+            this.calls = calls;
+            this.samples = samples;
+            this.sampledBytes = sampledBytes;
+            this.classes = classes;
+            this.paths = paths;
+        }
+
+        /**
+         * @return the number of calls to sample()
+         */
+        public long getCalls() {
+            return calls;
+        }
+
+        /**
+         * @return the number of objects profiled
+         */
+        public long getSamples() {
+            return samples;
+        }
+
+        /**
+         * @return the total serialized size of the profiled objects
+         */
+        public long getSampledBytes() {
+            return sampledBytes;
+        }
+
+        /**
+         * @return bytes per class, largest first
+         */
+        public List<Entry> getClasses() {
+            return classes;
+        }
+
+        /**
+         * @return bytes per path, largest retained bytes first
+         */
+        public List<Entry> getPaths() {
+            return paths;
+        }
+
+        public Entry getClassEntry(String className) {
+            return find(classes, className);
+        }
+
+        public Entry getPathEntry(String path) {
+            return find(paths, path);
+        }
+
+        private static Entry find(List<Entry> entries, String name) {
+            for (Entry entry : entries) {
+                if (entry.getName().equals(name))
+                    return entry;
+            }
+            return null;
+        }
+    }
+
+    private static class Bucket {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong retainedBytes = new AtomicLong();
+    }
+
+    private static List<Entry> sortedEntries(Map<String, Bucket> buckets) {
+        List<Entry> entries = new ArrayList<Entry>(buckets.size());
+        for (Map.Entry<String, Bucket> e : buckets.entrySet()) {
+            Bucket b = e.getValue();
+            entries.add(new Entry(e.getKey(), b.count.get(), b.bytes.get(), b.retainedBytes.get()));
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+            public int compare(Entry o1, Entry o2) {
+                long b1 = Math.max(o1.retainedBytes, o1.bytes);
+                long b2 = Math.max(o2.retainedBytes, o2.bytes);
+                return b1 < b2 ? 1 : (b1 == b2 ? o1.name.compareTo(o2.name) : -1);
+            }
+        });
+        return Collections.unmodifiableList(entries);
+    }
+
+    private Bucket classBucket(String name) {
+        return bucket(classes, name);
+    }
+
+    private Bucket pathBucket(String path) {
+        Bucket b = paths.get(path);
+        if (b != null)
+            return b;
+        return bucket(paths, paths.size() < maxPaths ? path : OTHER_PATHS);
+    }
+
+    private static Bucket bucket(ConcurrentMap<String, Bucket> map, String name) {
+        Bucket b = map.get(name);
+        if (b == null) {
+            Bucket created = new Bucket();
+            b = map.putIfAbsent(name, created);
+            if (b == null)
+                b = created;
+        }
+        return b;
+    }
+
+    /**
+     * How objects of a class are written, as far as finding the paths of their children goes.
+     */
+    private static class ClassPlan {
+        private static final ClassPlan LEAF = new ClassPlan(false, null, null);
+        private static final ClassPlan OPEN = new ClassPlan(true, null, null);
+        private static final ClassPlan ARRAY = new ClassPlan(false, null, null);
+
+        /**
+         * True if the objects write children that can't be predicted from their fields.
+         */
+        private final boolean open;
+        private final Field[] fields;
+        private final String[] names;
+
+        private ClassPlan(boolean open, Field[] fields, String[] names) {
+            this.open = open;
+            this.fields = fields;
+            this.names = names;
+        }
+    }
+
+    private static ClassPlan getPlan(Class<?> c) {
+        return plans.get(c);
+    }
+
+    private static ClassPlan createPlan(Class<?> c) {
+        if (c.isArray())
+            return c.getComponentType().isPrimitive() ? ClassPlan.LEAF : ClassPlan.ARRAY;
+        if (c == String.class || c.isEnum() || Enum.class.isAssignableFrom(c))
+            return ClassPlan.LEAF;
+        if (Externalizable.class.isAssignableFrom(c))
+            return ClassPlan.OPEN;
+        // The class data is written superclass first.
+        LinkedList<Class<?>> levels = new LinkedList<Class<?>>();
+        for (Class<?> level = c; level != null && ObjectStreamClass.lookup(level) != null; level = level.getSuperclass())
+            levels.addFirst(level);
+        List<Field> fields = new ArrayList<Field>();
+        List<String> names = new ArrayList<String>();
+        for (Class<?> level : levels) {
+            if (hasWriteObject(level))
+                return ClassPlan.OPEN;
+            for (ObjectStreamField osf : ObjectStreamClass.lookup(level).getFields()) {
+                if (osf.isPrimitive())
+                    continue;
+                try {
+                    Field f = level.getDeclaredField(osf.getName());
+                    f.setAccessible(true);
+                    fields.add(f);
+                    names.add(osf.getName());
+                } catch (Exception e) {
+                    return ClassPlan.OPEN;      // serialPersistentFields, or no access.
+                }
+            }
+        }
+        if (fields.isEmpty())
+            return ClassPlan.LEAF;
+        return new ClassPlan(false, fields.toArray(new Field[fields.size()]), names.toArray(new String[names.size()]));
+    }
+
+    private static boolean hasWriteObject(Class<?> c) {
+        try {
+            c.getDeclaredMethod("writeObject", ObjectOutputStream.class);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * An object being written, and the children it is expected to write next.
+     */
+    private static class Frame {
+        private final String path;
+        private final Bucket pathBucket;
+        private final Bucket classBucket;
+        private final boolean open;
+        private final Object[] expected;
+        private final String[] names;
+        private int next;
+
+        private Frame(String path, Bucket pathBucket, Bucket classBucket, boolean open, Object[] expected,
+                      String[] names) {
+            this.path = path;
+            this.pathBucket = pathBucket;
+            this.classBucket = classBucket;
+            this.open = open;
+            this.expected = expected;
+            this.names = names;
+        }
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        public void write(int b) {
+            count++;
+        }
+
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    /**
+     * Serializes into a counting stream, and charges the bytes to the objects as they start.
+     */
+    private class ProfilingOutputStream extends ObjectOutputStream {
+        private final CountingOutputStream counter;
+        private final IdentityHashMap<Object, Boolean> written = new IdentityHashMap<Object, Boolean>();
+        private final ArrayList<Frame> stack = new ArrayList<Frame>();
+        private Frame current;
+        private long mark;
+
+        private ProfilingOutputStream(CountingOutputStream counter) throws IOException {
+            super(counter);
+            this.counter = counter;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) throws IOException {
+            charge();
+            String path = findPath(obj);
+            ClassPlan plan = getPlan(obj.getClass());
+            Object[] expected = null;
+            if (plan == ClassPlan.ARRAY) {
+                expected = (Object[]) obj;
+            } else if (plan.fields != null) {
+                expected = new Object[plan.fields.length];
+                for (int i = 0; i < expected.length; i++) {
+                    try {
+                        expected[i] = plan.fields[i].get(obj);
+                    } catch (IllegalAccessException e) {
+                        expected[i] = null;
+                    }
+                }
+            }
+            Frame frame = new Frame(path, pathBucket(path), classBucket(obj.getClass().getName()),
+                    plan.open, expected, plan == ClassPlan.ARRAY ? null : plan.names);
+            frame.classBucket.count.incrementAndGet();
+            frame.pathBucket.count.incrementAndGet();
+            stack.add(frame);
+            written.put(obj, Boolean.TRUE);
+            current = frame;
+            return obj;
+        }
+
+        private void finish() throws IOException {
+            charge();
+        }
+
+        /**
+         * Charges the bytes written since the last object started to that object, and to the paths above it.
+         */
+        private void charge() throws IOException {
+            flush();
+            if (current == null)
+                return;     // The stream header is charged to the root.
+            long bytes = counter.count - mark;
+            mark = counter.count;
+            if (bytes == 0)
+                return;
+            current.classBucket.bytes.addAndGet(bytes);
+            current.pathBucket.bytes.addAndGet(bytes);
+            Bucket previous = null;
+            for (Frame frame : stack) {
+                if (frame.pathBucket != previous)
+                    frame.pathBucket.retainedBytes.addAndGet(bytes);
+                previous = frame.pathBucket;
+            }
+        }
+
+        /**
+         * Finds the frame that writes the object, pops the frames above it, and returns the path of the object.
+         */
+        private String findPath(Object obj) {
+            if (stack.isEmpty())
+                return obj.getClass().getSimpleName();
+            for (int i = stack.size() - 1; i >= 0; i--) {
+                Frame frame = stack.get(i);
+                if (expects(frame, obj)) {
+                    popAbove(i);
+                    String name = frame.names == null ? "[]" : "." + frame.names[frame.next];
+                    frame.next++;
+                    return childPath(frame, name);
+                }
+            }
+            int top = stack.size() - 1;
+            for (int i = top; i >= 0; i--) {
+                if (stack.get(i).open) {
+                    top = i;
+                    break;
+                }
+            }
+            popAbove(top);
+            return childPath(stack.get(top), "[]");
+        }
+
+        private String childPath(Frame parent, String name) {
+            if (stack.size() < maxDepth)
+                return parent.path + name;
+            return parent.path.endsWith(".*") ? parent.path : parent.path + ".*";
+        }
+
+        /**
+         * Returns true if the object is the next child the frame will write.  Null fields, and fields that refer
+         * to objects that were already written, don't start objects, so they are skipped.
+         */
+        private boolean expects(Frame frame, Object obj) {
+            if (frame.expected == null)
+                return false;
+            while (frame.next < frame.expected.length) {
+                Object v = frame.expected[frame.next];
+                if (v == obj)
+                    return true;
+                if (v != null && !written.containsKey(v) && !(v instanceof Class))
+                    return false;
+                frame.next++;
+            }
+            return false;
+        }
+
+        private void popAbove(int index) {
+            while (stack.size() > index + 1)
+                stack.remove(stack.size() - 1);
+        }
+    }
+}
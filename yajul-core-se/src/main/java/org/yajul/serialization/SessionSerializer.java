@@ -0,0 +1,116 @@
+package org.yajul.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serializes many small messages between two ends that share a {@link ClassDescriptorDictionary}.  Each
+ * message is a separate, self contained stream, but instead of the four byte stream header and the full
+ * descriptor of every class, it has a one byte header and a small id for each class in the dictionary.  For
+ * small messages the descriptors are usually most of the bytes.
+ * <br>
+ * There are two ways to keep the dictionaries at both ends the same:
+ * <ul>
+ * <li>Register the message classes at startup, in the same order at both ends.  The dictionary can then
+ * be shared by any number of serializers and threads.</li>
+ * <li>Turn on learning.  Unknown descriptors are sent in full along with a new id, and both ends add them
+ * to their dictionary.  This only works for one ordered channel (a session): every message has to be read,
+ * in the order it was written, and each end needs its own dictionary, e.g. a copy of a pre-registered one.</li>
+ * </ul>
+ * Descriptors that aren't in the dictionary are always sent in full, so unregistered classes still work,
+ * they are just not any smaller.
+ */
+public class SessionSerializer {
+    private final ClassDescriptorDictionary dictionary;
+    private ObjectReplacer replacer;
+    private ObjectResolver resolver;
+    private boolean learning;
+    private final AtomicLong knownDescriptors = new AtomicLong();
+    private final AtomicLong inlineDescriptors = new AtomicLong();
+
+    public SessionSerializer(ClassDescriptorDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    public ClassDescriptorDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public void setReplacer(ObjectReplacer replacer) {
+        this.replacer = replacer;
+    }
+
+    public void setResolver(ObjectResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    public boolean isLearning() {
+        return learning;
+    }
+
+    /**
+     * Turns descriptor learning on or off.  Both ends of a session must have the same setting.
+     *
+     * @param learning true to add unknown descriptors to the dictionary
+     */
+    public void setLearning(boolean learning) {
+        this.learning = learning;
+    }
+
+    /**
+     * Serializes an object as one message.
+     *
+     * @param obj the object, may be null
+     * @param out the output stream, which is not closed
+     * @throws IOException if something goes wrong
+     */
+    public void serialize(Serializable obj, OutputStream out) throws IOException {
+        DictionaryObjectOutputStream oos = new DictionaryObjectOutputStream(out, dictionary, replacer, learning);
+        oos.writeObject(obj);
+        oos.flush();
+        knownDescriptors.addAndGet(oos.getKnownCount());
+        inlineDescriptors.addAndGet(oos.getInlineCount());
+    }
+
+    /**
+     * Reads one message.
+     *
+     * @param in the input stream, which is not closed
+     * @return the object
+     * @throws IOException            if something goes wrong
+     * @throws ClassNotFoundException if a class cannot be found
+     */
+    public Object deserialize(InputStream in) throws IOException, ClassNotFoundException {
+        DictionaryObjectInputStream ois = new DictionaryObjectInputStream(in, dictionary, resolver, learning);
+        return ois.readObject();
+    }
+
+    public byte[] toByteArray(Serializable obj) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(128);
+        serialize(obj, baos);
+        return baos.toByteArray();
+    }
+
+    public Object fromByteArray(byte[] bytes) throws IOException, ClassNotFoundException {
+        return deserialize(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * @return the number of descriptors that were written as ids
+     */
+    public long getKnownDescriptors() {
+        return knownDescriptors.get();
+    }
+
+    /**
+     * @return the number of descriptors that were written in full
+     */
+    public long getInlineDescriptors() {
+        return inlineDescriptors.get();
+    }
+}
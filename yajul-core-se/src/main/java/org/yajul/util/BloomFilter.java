@@ -0,0 +1,89 @@
+package org.yajul.util;
+
+/**
+ * A simple Bloom filter: a compact set that can say an object is definitely not in the set, or that
+ * it might be, with a chosen false positive probability.  Objects are hashed with hashCode(), so they
+ * must have a good hashCode().  Not thread safe while objects are being added; safe to read from
+ * several threads once it has been filled.
+ */
+public class BloomFilter {
+    private final long[] bits;
+    private final int bitCount;
+    private final int hashCount;
+
+    /**
+     * Creates an empty filter sized for the expected number of objects.
+     *
+     * @param expectedInsertions     the number of objects that will be added
+     * @param falsePositiveProbability the false positive probability when that many objects have been added,
+     *                               e.g. 0.01
+     */
+    public BloomFilter(int expectedInsertions, double falsePositiveProbability) {
+        if (falsePositiveProbability <= 0.0 || falsePositiveProbability >= 1.0)
+            throw new IllegalArgumentException("False positive probability must be between 0 and 1");
+        int n = Math.max(expectedInsertions, 1);
+        double m = -n * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2));
+        bitCount = (int) Math.max(64, Math.min(Integer.MAX_VALUE - 63, Math.ceil(m)));
+        hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+        bits = new long[(bitCount + 63) >>> 6];
+    }
+
+    /**
+     * Adds an object.
+     *
+     * @param o the object
+     */
+    public void add(Object o) {
+        long h = mix(o.hashCode());
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            int bit = index(h1 + i * h2);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Returns false if the object was definitely not added, true if it probably was.
+     *
+     * @param o the object
+     * @return true if the object might be in the set
+     */
+    public boolean mightContain(Object o) {
+        long h = mix(o.hashCode());
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            int bit = index(h1 + i * h2);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    public int getBitCount() {
+        return bitCount;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    private int index(int combined) {
+        return (combined & Integer.MAX_VALUE) % bitCount;
+    }
+
+    /**
+     * Spreads a 32 bit hash code over 64 bits (the MurmurHash3 finalizer), so the two halves
+     * can be used as independent hashes.
+     */
+    private static long mix(int hash) {
+        long h = hash * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,94 @@
+package org.yajul.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A simple, thread safe pool of direct byte buffers, all the same size.  Direct
+ * buffers are expensive to allocate and are only reclaimed by the GC, so
+ * channel copying code borrows them from here instead of allocating new ones.
+ */
+public class ByteBufferPool {
+    /**
+     * The default buffer size (64K).
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The default maximum number of idle buffers kept in the pool.
+     */
+    public static final int DEFAULT_MAX_POOLED = 16;
+
+    private static final ByteBufferPool SHARED = new ByteBufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger freeCount = new AtomicInteger(0);
+
+    /**
+     * Returns the shared pool used by {@link Copier}.
+     *
+     * @return the shared pool
+     */
+    public static ByteBufferPool getSharedPool() {
+        return SHARED;
+    }
+
+    /**
+     * Creates a new pool.
+     *
+     * @param bufferSize the capacity of each buffer
+     * @param maxPooled  the maximum number of idle buffers to keep
+     */
+    public ByteBufferPool(int bufferSize, int maxPooled) {
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException("Buffer size must be > 0");
+        if (maxPooled < 0)
+            throw new IllegalArgumentException("Max pooled must be >= 0");
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Borrows a cleared direct buffer from the pool, allocating a new one if the pool is empty.
+     *
+     * @return a direct buffer with capacity {@link #getBufferSize()}
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buf = free.poll();
+        if (buf == null)
+            return ByteBuffer.allocateDirect(bufferSize);
+        freeCount.decrementAndGet();
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * Returns a buffer to the pool.  Buffers that did not come from this pool
+     * (wrong size, or not direct) are ignored, as are buffers beyond the maximum idle count.
+     *
+     * @param buf the buffer
+     */
+    public void release(ByteBuffer buf) {
+        if (buf == null || !buf.isDirect() || buf.capacity() != bufferSize)
+            return;
+        if (freeCount.incrementAndGet() > maxPooled) {
+            freeCount.decrementAndGet();
+            return;
+        }
+        free.offer(buf);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return the number of idle buffers currently in the pool
+     */
+    public int getFreeCount() {
+        return freeCount.get();
+    }
+}
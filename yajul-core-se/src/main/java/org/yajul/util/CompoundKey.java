@@ -1,5 +1,7 @@
 package org.yajul.util;
 
+import org.yajul.collections.FlyweightPool;
+
 import java.io.Serializable;
 import java.util.Arrays;
 
@@ -8,15 +10,19 @@ import java.util.Arrays;
  * and testing for equality.  Immutable, and the components should be immutable as well.
  * Objects used in the compound key should implement Comparable and Serializable if the CompoundKey
  * is to be used in either of those ways.
+ * <br>
+ * For keys with two or three components, {@link Two} and {@link Three} keep the components in fields rather than
+ * an array, and {@link LongLong} and {@link LongInt} hold primitive components without boxing.  All of them are
+ * equal to a plain CompoundKey with the same components, and have the same hash code.
  *
  * @author Joshua Davis
  */
 public class CompoundKey implements Comparable<CompoundKey>, Serializable, Cloneable {
 
-    private static final int HASH_NUMBER = 31;
+    private static final FlyweightPool<CompoundKey> INTERNED = new FlyweightPool<CompoundKey>();
 
     /**
-     * The component objects in the key.
+     * The component objects in the key, null for the fixed arity subclasses.
      */
     private final Object[] components;
 
@@ -32,17 +38,70 @@ public class CompoundKey implements Comparable<CompoundKey>, Serializable, Clone
      * @return int - The hash value.
      */
     public static int computeHash(Object[] components) {
-        // Sum all of the hash codes of the components, using an algorithm similar to that used by
-        // java.lang.String.
-        int rv = 0;
-        int limit = components.length;
-        for (int i = 0; i < limit; i++) {
-            Object c = components[i];
-            if (c == null)
-                throw new IllegalArgumentException("A value for component[" + i + "] is required!");
-            rv += c.hashCode() * (HASH_NUMBER ^ (limit - i));
-        }
-        return rv;
+        // Mix in the hash code of each component, then mix the whole, so that keys made of small, correlated
+        // values (e.g. an id and a day) neither collide nor bunch up in the hash table.
+        int rv = 1;
+        for (int i = 0; i < components.length; i++)
+            rv = combineHash(rv, checkComponent(components[i], i).hashCode());
+        return mixHash(rv);
+    }
+
+    /**
+     * Adds the hash code of the next component to the hash code of the previous ones (a MurmurHash3 step).
+     * Start with 1, and finish with {@link #mixHash(int)}.
+     *
+     * @param hash          the hash code so far
+     * @param componentHash the hash code of the component
+     * @return the new hash code
+     */
+    protected static int combineHash(int hash, int componentHash) {
+        int k = Integer.rotateLeft(componentHash * 0xcc9e2d51, 15) * 0x1b873593;
+        return Integer.rotateLeft(hash ^ k, 13) * 5 + 0xe6546b64;
+    }
+
+    /**
+     * Spreads the bits of a hash code (the MurmurHash3 finalizer).
+     *
+     * @param h the hash code
+     * @return the mixed hash code
+     */
+    protected static int mixHash(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * @param component the component
+     * @param index     the index of the component
+     * @param <T>       the type of the component
+     * @return the component
+     * @throws IllegalArgumentException if the component is null
+     */
+    protected static <T> T checkComponent(T component, int index) {
+        if (component == null)
+            throw new IllegalArgumentException("A value for component[" + index + "] is required!");
+        return component;
+    }
+
+    /**
+     * Compares two components, as CompoundKey.compareTo() does.
+     *
+     * @param a a component that implements Comparable
+     * @param b the corresponding component of the other key
+     * @return a negative integer, zero, or a positive integer as a is less than, equal to, or greater than b
+     * @throws ClassCastException if a is not Comparable, or if it can't be compared to b
+     */
+    public static int compareComponents(Object a, Object b) {
+        if (a == b)
+            return 0;
+        if (!(a instanceof Comparable))
+            throw new ClassCastException(a.getClass().getName() + " is not Comparable");
+        //noinspection unchecked
+        return ((Comparable<Object>) a).compareTo(b);
     }
 
     /**
@@ -64,19 +123,8 @@ public class CompoundKey implements Comparable<CompoundKey>, Serializable, Clone
     public static int compareObjectArrays(Object[] a_array, Object[] b_array) {
         // First, check if the length of the arrays is different.
         int rc = a_array.length - b_array.length;
-        if (rc == 0) {
-            Comparable<Object> a;
-            Object b;
-            for (int i = 0; i < a_array.length; i++) {
-                //noinspection unchecked
-                a = (Comparable<Object>) a_array[i];
-                b = b_array[i];
-                //noinspection unchecked
-                rc = a.compareTo(b);
-                if (rc != 0)    // If the a_array are not equal, stop now.
-                    break;
-            } // for
-        }
+        for (int i = 0; rc == 0 && i < a_array.length; i++)
+            rc = compareComponents(a_array[i], b_array[i]);   // Stop at the first difference.
         return rc;
     }
 
@@ -98,6 +146,17 @@ public class CompoundKey implements Comparable<CompoundKey>, Serializable, Clone
         hash = computeHash(components);
     }
 
+    /**
+     * For subclasses that keep the components in fields.  They must override size(), getComponent(),
+     * and compute the hash code the same way as computeHash().
+     *
+     * @param hash the hash code
+     */
+    protected CompoundKey(int hash) {
+        this.components = null;
+        this.hash = hash;
+    }
+
     /**
      * Indicates whether some other object is "equal to" this one.  This implementation
      * compares all of the elements of the compound key.
@@ -112,6 +171,8 @@ public class CompoundKey implements Comparable<CompoundKey>, Serializable, Clone
      */
     @Override
     public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
         if (obj instanceof CompoundKey) {
             CompoundKey other = (CompoundKey) obj;
             // Check the hash codes first, if they are not equal... return false.
@@ -119,7 +180,16 @@ public class CompoundKey implements Comparable<CompoundKey>, Serializable, Clone
                 return false;
             // Hash codes are the same, so the objects must be compared.
             // Use the Arrays class as a short cut.
-            return Arrays.equals(components, other.components);
+            if (components != null && other.components != null)
+                return Arrays.equals(components, other.components);
+            int n = size();
+            if (n != other.size())
+                return false;
+            for (int i = 0; i < n; i++) {
+                if (!getComponent(i).equals(other.getComponent(i)))
+                    return false;
+            }
+            return true;
         } else
             return false;
     }
@@ -156,11 +226,11 @@ public class CompoundKey implements Comparable<CompoundKey>, Serializable, Clone
         buf.append("@");
         buf.append(Integer.toHexString(System.identityHashCode(this)));
         buf.append("[ ");
-        for (int i = 0; i < components.length; i++) {
+        for (int i = 0; i < size(); i++) {
             buf.append("#");
             buf.append(Integer.toString(i));
             buf.append(" [ ");
-            buf.append(components[i].toString());
+            buf.append(getComponent(i).toString());
             buf.append(" ] ");
         }
 
@@ -205,7 +275,13 @@ public class CompoundKey implements Comparable<CompoundKey>, Serializable, Clone
      *         is less than, equal to, or greater than the specified object.
      */
     public int compareTo(CompoundKey other) {
-        return compareObjectArrays(components, other.components);
+        if (components != null && other.components != null)
+            return compareObjectArrays(components, other.components);
+        int n = size();
+        int rc = n - other.size();
+        for (int i = 0; rc == 0 && i < n; i++)
+            rc = compareComponents(getComponent(i), other.getComponent(i));
+        return rc;
     }
 
     /**
@@ -245,8 +321,9 @@ public class CompoundKey implements Comparable<CompoundKey>, Serializable, Clone
      * @return Object[] - A copy of the array of components.
      */
     public Object[] cloneComponents() {
-        Object[] array = new Object[components.length];
-        System.arraycopy(components, 0, array, 0, components.length);
+        Object[] array = new Object[size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = getComponent(i);
         return array;
     }
 
@@ -267,6 +344,28 @@ public class CompoundKey implements Comparable<CompoundKey>, Serializable, Clone
         return new CompoundKey(cloneComponents());
     }
 
+    /**
+     * Returns the canonical instance of a key, like String.intern(), so that hot keys can be shared
+     * instead of duplicated.  The pool holds keys weakly.  If the canonical instance is of a different
+     * class than the key (e.g. a plain CompoundKey rather than a Two), the key itself is returned.
+     *
+     * @param key the key, or null
+     * @param <K> the type of key
+     * @return the canonical instance of the key
+     */
+    public static <K extends CompoundKey> K intern(K key) {
+        CompoundKey pooled = INTERNED.get(key);
+        //noinspection unchecked
+        return pooled == null || pooled.getClass() != key.getClass() ? key : (K) pooled;
+    }
+
+    /**
+     * @return the pool used by intern(), for statistics
+     */
+    public static FlyweightPool<CompoundKey> getInternPool() {
+        return INTERNED;
+    }
+
     /**
      * A two-component compound key using generics.
      *
@@ -274,28 +373,68 @@ public class CompoundKey implements Comparable<CompoundKey>, Serializable, Clone
      * @param <Y> the type of the second component.
      */
     public static class Two<X, Y> extends CompoundKey {
-        protected Two(Object one, Object two, Object three) {
-            super(one, two, three);
+        private final X one;
+        private final Y two;
+
+        protected Two(X one, Y two, int hash) {
+            super(hash);
+            this.one = one;
+            this.two = two;
         }
 
         public Two(X one, Y two) {
-            super(one, two);
+            this(one, two, mixHash(combineHash(combineHash(1,
+                    checkComponent(one, 0).hashCode()), checkComponent(two, 1).hashCode())));
         }
 
         /**
          * @return the first component of the key
          */
         public X getOne() {
-            //noinspection unchecked
-            return (X) getComponent(0);
+            return one;
         }
 
         /**
          * @return the second component of the key
          */
         public Y getTwo() {
-            //noinspection unchecked
-            return (Y) getComponent(1);
+            return two;
+        }
+
+        @Override
+        public int size() {
+            return 2;
+        }
+
+        @Override
+        public Object getComponent(int n) {
+            switch (n) {
+                case 0:
+                    return one;
+                case 1:
+                    return two;
+                default:
+                    throw new ArrayIndexOutOfBoundsException(n);
+            }
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj != null && obj.getClass() == Two.class && getClass() == Two.class) {
+                Two<?, ?> other = (Two<?, ?>) obj;
+                return hashCode() == other.hashCode() && one.equals(other.one) && two.equals(other.two);
+            }
+            return super.equals(obj);
+        }
+
+        @Override
+        public int compareTo(CompoundKey other) {
+            if (other.getClass() == Two.class && getClass() == Two.class) {
+                Two<?, ?> o = (Two<?, ?>) other;
+                int rc = compareComponents(one, o.one);
+                return rc != 0 ? rc : compareComponents(two, o.two);
+            }
+            return super.compareTo(other);
         }
     }
 
@@ -307,16 +446,180 @@ public class CompoundKey implements Comparable<CompoundKey>, Serializable, Clone
      * @param <Z> the type of the third component.
      */
     public static class Three<X, Y, Z> extends Two<X, Y> {
+        private final Z three;
+
         public Three(X one, Y two, Z three) {
-            super(one, two, three);
+            super(one, two, mixHash(combineHash(combineHash(combineHash(1,
+                    checkComponent(one, 0).hashCode()), checkComponent(two, 1).hashCode()),
+                    checkComponent(three, 2).hashCode())));
+            this.three = three;
         }
 
         /**
          * @return the third component of the key
          */
         public Z getThree() {
-            //noinspection unchecked
-            return (Z) getComponent(2);
+            return three;
+        }
+
+        @Override
+        public int size() {
+            return 3;
+        }
+
+        @Override
+        public Object getComponent(int n) {
+            return n == 2 ? three : super.getComponent(n);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj != null && obj.getClass() == Three.class && getClass() == Three.class) {
+                Three<?, ?, ?> other = (Three<?, ?, ?>) obj;
+                return hashCode() == other.hashCode() && getOne().equals(other.getOne())
+                        && getTwo().equals(other.getTwo()) && three.equals(other.three);
+            }
+            return super.equals(obj);
+        }
+
+        @Override
+        public int compareTo(CompoundKey other) {
+            if (other.getClass() == Three.class && getClass() == Three.class) {
+                Three<?, ?, ?> o = (Three<?, ?, ?>) other;
+                int rc = compareComponents(getOne(), o.getOne());
+                if (rc == 0)
+                    rc = compareComponents(getTwo(), o.getTwo());
+                return rc != 0 ? rc : compareComponents(three, o.three);
+            }
+            return super.compareTo(other);
+        }
+    }
+
+    /**
+     * A key of two longs, e.g. a pair of ids, without boxing.  Equal to a CompoundKey of two Longs.
+     */
+    public static class LongLong extends CompoundKey {
+        private final long one;
+        private final long two;
+
+        public LongLong(long one, long two) {
+            super(mixHash(combineHash(combineHash(1, longHash(one)), longHash(two))));
+            this.one = one;
+            this.two = two;
+        }
+
+        public long getOne() {
+            return one;
+        }
+
+        public long getTwo() {
+            return two;
+        }
+
+        @Override
+        public int size() {
+            return 2;
+        }
+
+        @Override
+        public Object getComponent(int n) {
+            switch (n) {
+                case 0:
+                    return one;
+                case 1:
+                    return two;
+                default:
+                    throw new ArrayIndexOutOfBoundsException(n);
+            }
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof LongLong) {
+                LongLong other = (LongLong) obj;
+                return one == other.one && two == other.two;
+            }
+            return super.equals(obj);
+        }
+
+        @Override
+        public int compareTo(CompoundKey other) {
+            if (other instanceof LongLong) {
+                LongLong o = (LongLong) other;
+                int rc = compareLongs(one, o.one);
+                return rc != 0 ? rc : compareLongs(two, o.two);
+            }
+            return super.compareTo(other);
         }
     }
+
+    /**
+     * A key of a long and an int, e.g. an id and a day number, without boxing.  Equal to a CompoundKey of a
+     * Long and an Integer.
+     */
+    public static class LongInt extends CompoundKey {
+        private final long one;
+        private final int two;
+
+        public LongInt(long one, int two) {
+            super(mixHash(combineHash(combineHash(1, longHash(one)), two)));
+            this.one = one;
+            this.two = two;
+        }
+
+        public long getOne() {
+            return one;
+        }
+
+        public int getTwo() {
+            return two;
+        }
+
+        @Override
+        public int size() {
+            return 2;
+        }
+
+        @Override
+        public Object getComponent(int n) {
+            switch (n) {
+                case 0:
+                    return one;
+                case 1:
+                    return two;
+                default:
+                    throw new ArrayIndexOutOfBoundsException(n);
+            }
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof LongInt) {
+                LongInt other = (LongInt) obj;
+                return one == other.one && two == other.two;
+            }
+            return super.equals(obj);
+        }
+
+        @Override
+        public int compareTo(CompoundKey other) {
+            if (other instanceof LongInt) {
+                LongInt o = (LongInt) other;
+                int rc = compareLongs(one, o.one);
+                return rc != 0 ? rc : (two < o.two ? -1 : (two == o.two ? 0 : 1));
+            }
+            return super.compareTo(other);
+        }
+    }
+
+    /**
+     * @return the same as Long.hashCode()
+     */
+    private static int longHash(long value) {
+        return (int) (value ^ (value >>> 32));
+    }
+
+    private static int compareLongs(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
 }
@@ -1,10 +1,21 @@
 package org.yajul.util;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Provides stream and reader/writer copying functions.
  * <br>
+ * The <code>transfer</code> methods count bytes with a <code>long</code> and will use
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)} /
+ * {@link FileChannel#transferFrom(ReadableByteChannel, long, long)} when one of the
+ * endpoints is a file, so the bytes never have to pass through the Java heap.
+ * <br>
  * User: jdavis
  * Date: Jan 28, 2004
  * Time: 5:53:42 PM
@@ -59,6 +70,28 @@ public class Copier {
         void endOfStream(int total);
     }
 
+    /**
+     * A callback that receives the totals as longs, for copies larger than 2GB.  When
+     * a LongCallback is given to one of the <code>transfer</code> methods, these
+     * methods are called instead of the int versions in {@link Callback}.
+     */
+    public interface LongCallback extends Callback {
+        /**
+         * Progress callback for InputStream/OutputStream copy.
+         * @param buf the current buffer about to be written.
+         * @param length the number of bytes in the buffer
+         * @param total  the total number of bytes so far
+         * @return true if it's okay to keep going, false to stop the copy loop
+         */
+        boolean beforeWrite(byte[] buf, int length, long total);
+
+        /**
+         * The end of the input stream was reached.
+         * @param total the total number of bytes copied
+         */
+        void endOfStream(long total);
+    }
+
 
     /**
      * Copies the input stream into the output stream in an efficient manner.
@@ -90,33 +123,104 @@ public class Copier {
      * @param limit The number of bytes to copy, or UNLIMITED (-1) to copy
      *              until the end of the input stream.
      * @param callback optional callback interface.
-     * @return int The number of bytes copied.
+     * @return int The number of bytes copied, or Integer.MAX_VALUE if more than that
+     * were copied.  Use {@link #transfer(InputStream, OutputStream, int, long, Callback)} for large copies.
      * @throws java.io.IOException When the stream could not be copied.
      */
     public static int copy(InputStream in, OutputStream out, int bufsz, int limit, Callback callback) throws IOException {
+        return clamp(transfer(in, out, bufsz, limit, callback));
+    }
+
+    /**
+     * Copies the input stream into the output stream, using a zero-copy file channel
+     * transfer when there is no callback and either stream is a file stream.  Otherwise
+     * this is the same as {@link #copy(InputStream, OutputStream, int, int, Callback)}
+     * except that the byte count is a long.
+     * This version does not synchronize on the streams, so it is not safe
+     * to use when the streams are being accessed by multiple threads.
+     *
+     * @param in    The input stream.
+     * @param out   The output stream.  If this is null, the input will be
+     *              discarded, similar to piping to /dev/null on UN*X.
+     * @param bufsz The size of the buffer to use, if a buffer is needed.
+     * @param limit The number of bytes to copy, or UNLIMITED (-1) to copy
+     *              until the end of the input stream.
+     * @param callback optional callback interface.  Use a {@link LongCallback} to get
+     *                 totals larger than Integer.MAX_VALUE.
+     * @return long The number of bytes copied.
+     * @throws java.io.IOException When the stream could not be copied.
+     */
+    public static long transfer(InputStream in, OutputStream out, int bufsz, long limit, Callback callback) throws IOException {
+        if (bufsz <= 0)
+            throw new IllegalArgumentException("Buffer size must be > 0");
+        if (callback == null && out != null) {
+            if (in instanceof FileInputStream) {
+                FileChannel src = ((FileInputStream) in).getChannel();
+                if (hasSize(src)) {
+                    WritableByteChannel dst = (out instanceof FileOutputStream) ?
+                            ((FileOutputStream) out).getChannel() : Channels.newChannel(out);
+                    return transferFromFile(src, dst, limit);
+                }
+            } else if (out instanceof FileOutputStream) {
+                FileChannel dst = ((FileOutputStream) out).getChannel();
+                if (isSeekable(dst))
+                    return transferToFile(Channels.newChannel(in), dst, limit);
+            }
+        }
+        return copyStream(in, out, bufsz, limit, callback);
+    }
+
+    /**
+     * Copies bytes from one channel to another.  If there is no callback and either
+     * channel is a FileChannel, this uses FileChannel.transferTo / transferFrom.  Otherwise,
+     * the bytes are copied through a pooled direct buffer (or a heap buffer, if there is a
+     * callback that needs to see the bytes).  Both channels must be in blocking mode.
+     * The file channel positions are advanced by the number of bytes transferred, just like
+     * a read or write would.
+     *
+     * @param in    The input channel.
+     * @param out   The output channel.  If this is null, the input will be discarded.
+     * @param limit The number of bytes to copy, or UNLIMITED (-1) to copy
+     *              until the end of the input.
+     * @param callback optional callback interface.
+     * @return long The number of bytes copied.
+     * @throws IOException When the bytes could not be copied.
+     */
+    public static long transfer(ReadableByteChannel in, WritableByteChannel out, long limit, Callback callback) throws IOException {
+        checkBlocking(in);
+        checkBlocking(out);
+        if (callback == null && out != null) {
+            if (in instanceof FileChannel && hasSize((FileChannel) in))
+                return transferFromFile((FileChannel) in, out, limit);
+            if (out instanceof FileChannel && isSeekable((FileChannel) out))
+                return transferToFile(in, (FileChannel) out, limit);
+        }
+        return copyChannel(in, out, limit, callback);
+    }
+
+    private static long copyStream(InputStream in, OutputStream out, int bufsz, long limit, Callback callback) throws IOException {
         if (bufsz <= 0)
             throw new IllegalArgumentException("Buffer size must be > 0");
         byte[] buf = new byte[bufsz];
         int bytesRead;
-        int total = 0;
+        long total = 0;
         int readLimit = bufsz;
         _start(callback);
         while (true) {
             // If a limit was specified, calculate the number of bytes
             // that should be read by the next read operation.
             if (limit > 0) {
-                readLimit = limit - total;
-                if (readLimit > bufsz)
-                    readLimit = bufsz;
-                else if (readLimit <= 0)
+                long remaining = limit - total;
+                if (remaining <= 0)
                     break;
+                readLimit = (remaining > bufsz) ? bufsz : (int) remaining;
             }
             bytesRead = in.read(buf, 0, readLimit);
             if (bytesRead == EOS)
                 break;
             total += bytesRead;
             if (callback != null) {
-                boolean keepGoing = callback.beforeWrite(buf, bytesRead, total);
+                boolean keepGoing = _beforeWrite(callback, buf, bytesRead, total);
                 if (!keepGoing)
                     break;
             }
@@ -127,9 +231,130 @@ public class Copier {
         return total;
     }
 
-    private static void _end(Callback callback, int total) {
-        if (callback != null)
-            callback.endOfStream(total);
+    private static long copyChannel(ReadableByteChannel in, WritableByteChannel out, long limit, Callback callback) throws IOException {
+        ByteBufferPool pool = ByteBufferPool.getSharedPool();
+        // The callback needs a byte array, so use a heap buffer in that case.
+        ByteBuffer buf = (callback == null) ? pool.acquire() : ByteBuffer.allocate(pool.getBufferSize());
+        long total = 0;
+        try {
+            _start(callback);
+            while (true) {
+                buf.clear();
+                if (limit > 0) {
+                    long remaining = limit - total;
+                    if (remaining <= 0)
+                        break;
+                    if (remaining < buf.capacity())
+                        buf.limit((int) remaining);
+                }
+                int bytesRead = in.read(buf);
+                if (bytesRead == EOS)
+                    break;
+                total += bytesRead;
+                if (callback != null) {
+                    boolean keepGoing = _beforeWrite(callback, buf.array(), bytesRead, total);
+                    if (!keepGoing)
+                        break;
+                }
+                if (out != null) {
+                    buf.flip();
+                    while (buf.hasRemaining())
+                        out.write(buf);
+                }
+            } // while
+            _end(callback, total);
+            return total;
+        } finally {
+            pool.release(buf);
+        }
+    }
+
+    private static long transferFromFile(FileChannel src, WritableByteChannel dst, long limit) throws IOException {
+        long position = src.position();
+        long count = src.size() - position;
+        if (limit > 0 && limit < count)
+            count = limit;
+        long total = 0;
+        try {
+            while (total < count) {
+                long n = src.transferTo(position + total, count - total, dst);
+                if (n <= 0)
+                    break;  // The file was truncated.
+                total += n;
+            }
+        } finally {
+            // transferTo() doesn't move the position, but a read would have.
+            src.position(position + total);
+        }
+        return total;
+    }
+
+    private static long transferToFile(ReadableByteChannel src, FileChannel dst, long limit) throws IOException {
+        long position = dst.position();
+        long total = 0;
+        try {
+            while (true) {
+                long count = ByteBufferPool.DEFAULT_BUFFER_SIZE * 16L;
+                if (limit > 0) {
+                    long remaining = limit - total;
+                    if (remaining <= 0)
+                        break;
+                    if (remaining < count)
+                        count = remaining;
+                }
+                // For a blocking source, transferFrom() only comes up short at the end of the input.
+                long n = dst.transferFrom(src, position + total, count);
+                total += n;
+                if (n < count)
+                    break;
+            }
+        } finally {
+            // transferFrom() doesn't move the position, but a write would have.
+            dst.position(position + total);
+        }
+        return total;
+    }
+
+    private static boolean hasSize(FileChannel channel) {
+        // Special files (e.g. /proc and sysfs) have a size of zero, but they are not empty.
+        try {
+            return isSeekable(channel) && channel.size() > 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean isSeekable(FileChannel channel) {
+        // Pipes and devices can have file channels, but they can't be positioned.
+        try {
+            channel.position();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void checkBlocking(Object channel) {
+        if (channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking())
+            throw new IllegalArgumentException("Channel must be in blocking mode: " + channel);
+    }
+
+    private static boolean _beforeWrite(Callback callback, byte[] buf, int length, long total) {
+        if (callback instanceof LongCallback)
+            return ((LongCallback) callback).beforeWrite(buf, length, total);
+        else
+            return callback.beforeWrite(buf, length, clamp(total));
+    }
+
+    private static void _end(Callback callback, long total) {
+        if (callback instanceof LongCallback)
+            ((LongCallback) callback).endOfStream(total);
+        else if (callback != null)
+            callback.endOfStream(clamp(total));
+    }
+
+    private static int clamp(long total) {
+        return (total > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) total;
     }
 
     private static void _start(Callback callback) {
@@ -0,0 +1,194 @@
+package org.yajul.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread safe, least recently used cache, bounded by the number of entries and by the total
+ * size of the entries.  The size of each entry is supplied by the caller when the entry is put,
+ * e.g. the serialized length.  Entries can also expire after a fixed time to live.
+ * <br>
+ * Hit, miss, eviction and expiration counts are kept for monitoring.
+ */
+public class LruCache<K, V> {
+    private final int maxEntries;
+    private final long maxSize;
+    private final long timeToLive;
+    private final Clock clock;
+    private final LinkedHashMap<K, Entry<V>> map;
+    private long size;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    private static class Entry<V> {
+        private final V value;
+        private final long size;
+        private final long created;
+
+        private Entry(V value, long size, long created) {
+            this.value = value;
+            this.size = size;
+            this.created = created;
+        }
+    }
+
+    /**
+     * Creates a cache that uses the system clock.
+     *
+     * @param maxEntries the maximum number of entries
+     * @param maxSize    the maximum total size of the entries
+     * @param timeToLive how long an entry stays valid in milliseconds, or zero for no expiry
+     */
+    public LruCache(int maxEntries, long maxSize, long timeToLive) {
+        this(maxEntries, maxSize, timeToLive, DefaultClock.INSTANCE);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxEntries the maximum number of entries
+     * @param maxSize    the maximum total size of the entries
+     * @param timeToLive how long an entry stays valid in milliseconds, or zero for no expiry
+     * @param clock      the clock used to expire entries
+     */
+    public LruCache(int maxEntries, long maxSize, long timeToLive, Clock clock) {
+        if (maxEntries <= 0)
+            throw new IllegalArgumentException("Maximum entries must be > 0");
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("Maximum size must be > 0");
+        if (timeToLive < 0)
+            throw new IllegalArgumentException("Time to live must be >= 0");
+        this.maxEntries = maxEntries;
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+        this.clock = clock;
+        this.map = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the cached value, and makes it the most recently used.
+     *
+     * @param key the key
+     * @return the value, or null if there is no live entry for the key
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = map.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (isExpired(entry, clock.currentTimeMillis())) {
+            map.remove(key);
+            size -= entry.size;
+            expirations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Adds or replaces an entry, evicting the least recently used entries if the cache is too big.
+     * Values bigger than the maximum size are not cached.
+     *
+     * @param key   the key
+     * @param value the value
+     * @param size  the size of the value, in whatever unit the maximum size is in
+     */
+    public synchronized void put(K key, V value, long size) {
+        if (size < 0)
+            throw new IllegalArgumentException("Size must be >= 0");
+        remove(key);
+        if (size > maxSize)
+            return;
+        map.put(key, new Entry<V>(value, size, clock.currentTimeMillis()));
+        this.size += size;
+        Iterator<Map.Entry<K, Entry<V>>> iterator = map.entrySet().iterator();
+        while ((map.size() > maxEntries || this.size > maxSize) && iterator.hasNext()) {
+            Entry<V> eldest = iterator.next().getValue();
+            iterator.remove();
+            this.size -= eldest.size;
+            evictions++;
+        }
+    }
+
+    /**
+     * Removes an entry.
+     *
+     * @param key the key
+     * @return true if there was an entry
+     */
+    public synchronized boolean remove(K key) {
+        Entry<V> entry = map.remove(key);
+        if (entry == null)
+            return false;
+        size -= entry.size;
+        return true;
+    }
+
+    /**
+     * Removes all entries.  The counters are not reset.
+     */
+    public synchronized void clear() {
+        map.clear();
+        size = 0;
+    }
+
+    private boolean isExpired(Entry<V> entry, long now) {
+        return timeToLive > 0 && now - entry.created >= timeToLive;
+    }
+
+    public synchronized int getEntryCount() {
+        return map.size();
+    }
+
+    /**
+     * @return the total size of the cached entries
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of entries removed to make room for new ones
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of entries removed because they outlived the time to live
+     */
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    public synchronized String toString() {
+        return "LruCache{entries=" + map.size() + ", size=" + size + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + ", expirations=" + expirations + "}";
+    }
+}
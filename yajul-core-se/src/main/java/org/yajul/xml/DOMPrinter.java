@@ -32,7 +32,6 @@ import org.w3c.dom.Node;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
@@ -43,6 +42,9 @@ import java.io.ByteArrayOutputStream;
 /**
  * Provides functions that print DOM objects to streams.  Works with
  * any JAXP1.1 compliant implementation (e.g. XALAN).
+ * <br>
+ * Each thread keeps its transformers, made by {@link DOMUtil#newTransformer()} for the current
+ * {@link XMLSecurity} profile, and resets them before each use.
  * @author Joshua Davis
  */
 public class DOMPrinter
@@ -52,6 +54,15 @@ public class DOMPrinter
     /** Transformer output property value for 'false'. **/
     public static final String FALSE = "no";
 
+    /** Transformers by security profile, with and without the XML declaration. **/
+    private static final ThreadLocal<Transformer[]> transformers = new ThreadLocal<Transformer[]>()
+    {
+        protected Transformer[] initialValue()
+        {
+            return new Transformer[XMLSecurity.values().length * 2];
+        }
+    };
+
     /**
      * Prints a node (Document or Element) into a string, without the
      * XML declaration.
@@ -126,8 +137,17 @@ public class DOMPrinter
     private static Transformer createTransformer(boolean omitXMLDeclaration)
             throws TransformerConfigurationException
     {
-        TransformerFactory factory = TransformerFactory.newInstance();
-        Transformer transformer = factory.newTransformer();
+        XMLSecurity profile = DOMUtil.getSecurity();
+        Transformer[] cache = transformers.get();
+        int i = profile.ordinal() * 2 + (omitXMLDeclaration ? 1 : 0);
+        Transformer transformer = cache[i];
+        if (transformer == null)
+        {
+            transformer = DOMUtil.newTransformer(profile);
+            cache[i] = transformer;
+        }
+        else
+            transformer.reset();
 
         // Set the output properties.
         setOutputProperties(transformer, omitXMLDeclaration);
@@ -37,6 +37,7 @@ import org.yajul.util.StringUtil;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMResult;
@@ -54,6 +55,9 @@ import static org.yajul.collections.CollectionUtil.newArrayList;
  * Provides commonly used DOM operations in convenient methods.
  * Good for replacing many lines of DOM code with a nice one-liner.
  * Works with any JAXP 1.1 implementation (e.g. XERCES/XALAN).
+ * <br>
+ * The JAXP factories are looked up once (for each {@link XMLSecurity} profile) and shared.  Parsing uses a
+ * DocumentBuilder kept for each thread, which is reset before each use.
  *
  * @author Joshua Davis
  */
@@ -63,6 +67,37 @@ public class DOMUtil {
      */
     private static final String DEFAULT_URI = "file://";
 
+    private static final int PROFILES = XMLSecurity.values().length;
+
+    private static volatile XMLSecurity security = XMLSecurity.DEFAULT;
+
+    /**
+     * Factories by profile.  JAXP factories are not thread safe, so they are used while holding the lock.
+     */
+    private static final DocumentBuilderFactory[] builderFactories = new DocumentBuilderFactory[PROFILES];
+    private static final TransformerFactory[] transformerFactories = new TransformerFactory[PROFILES];
+
+    private static final ThreadLocal<DocumentBuilder[]> builders = new ThreadLocal<DocumentBuilder[]>() {
+        protected DocumentBuilder[] initialValue() {
+            return new DocumentBuilder[PROFILES];
+        }
+    };
+
+    /**
+     * Sets the security profile for documents parsed, created and printed from now on, for all threads.
+     *
+     * @param security the profile, XMLSecurity.DEFAULT initially
+     */
+    public static void setSecurity(XMLSecurity security) {
+        if (security == null)
+            throw new IllegalArgumentException("security cannot be null!");
+        DOMUtil.security = security;
+    }
+
+    public static XMLSecurity getSecurity() {
+        return security;
+    }
+
     /**
      * Creates a new DOM document with the specified root element
      * as the 'document element'.
@@ -89,7 +124,7 @@ public class DOMUtil {
      */
     public static Document createDocument()
             throws ParserConfigurationException {
-        DocumentBuilder builder = getDocumentBuilder();
+        DocumentBuilder builder = getThreadDocumentBuilder();
         return builder.newDocument();
     }
 
@@ -130,7 +165,7 @@ public class DOMUtil {
     }
 
     /**
-     * Returns a new document builder.
+     * Returns a new document builder, from the shared factory for the current security profile.
      *
      * @return DocumentBuilder - A new document builder.
      * @throws ParserConfigurationException - If the JAXP
@@ -138,8 +173,62 @@ public class DOMUtil {
      */
     public static DocumentBuilder getDocumentBuilder()
             throws ParserConfigurationException {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        return factory.newDocumentBuilder();
+        return newDocumentBuilder(security);
+    }
+
+    /**
+     * Returns a new transformer (which copies the source to the result), from the shared factory for the
+     * current security profile.
+     *
+     * @return a new transformer
+     * @throws TransformerConfigurationException If the JAXP implementation is configured incorrectly
+     */
+    public static Transformer newTransformer() throws TransformerConfigurationException {
+        return newTransformer(security);
+    }
+
+    static Transformer newTransformer(XMLSecurity profile) throws TransformerConfigurationException {
+        synchronized (transformerFactories) {
+            return getTransformerFactory(profile).newTransformer();
+        }
+    }
+
+    private static DocumentBuilder newDocumentBuilder(XMLSecurity profile) throws ParserConfigurationException {
+        synchronized (builderFactories) {
+            DocumentBuilderFactory factory = builderFactories[profile.ordinal()];
+            if (factory == null) {
+                factory = DocumentBuilderFactory.newInstance();
+                profile.configure(factory);
+                builderFactories[profile.ordinal()] = factory;
+            }
+            return factory.newDocumentBuilder();
+        }
+    }
+
+    /**
+     * @return the thread's document builder for the current profile, reset so it is like a new one
+     * @throws ParserConfigurationException If the JAXP implementation is configured incorrectly
+     */
+    private static DocumentBuilder getThreadDocumentBuilder() throws ParserConfigurationException {
+        XMLSecurity profile = security;
+        DocumentBuilder[] cache = builders.get();
+        DocumentBuilder builder = cache[profile.ordinal()];
+        if (builder == null) {
+            builder = newDocumentBuilder(profile);
+            cache[profile.ordinal()] = builder;
+        } else
+            builder.reset();
+        return builder;
+    }
+
+    private static TransformerFactory getTransformerFactory(XMLSecurity profile) {
+        TransformerFactory factory = transformerFactories[profile.ordinal()];
+        if (factory == null) {
+            factory = TransformerFactory.newInstance();
+            profile.configure(factory);
+            transformerFactories[profile.ordinal()] = factory;
+        }
+        return factory;
     }
 
     // --- Navigation methods ---
@@ -314,7 +403,7 @@ public class DOMUtil {
     public static Document parse(InputStream input)
             throws javax.xml.parsers.ParserConfigurationException,
             org.xml.sax.SAXException, java.io.IOException {
-        DocumentBuilder builder = getDocumentBuilder();
+        DocumentBuilder builder = getThreadDocumentBuilder();
         return builder.parse(input, DEFAULT_URI);
     }
 
@@ -398,10 +487,13 @@ public class DOMUtil {
      */
     public static Document parse(XMLReader reader, InputSource input) throws TransformerConfigurationException, IOException, SAXException {
         // Use the transformer factory to create a content handler that will build a DOM.
-        TransformerFactory factory = TransformerFactory.newInstance();
-        if (!factory.getFeature(SAXTransformerFactory.FEATURE))
-            throw new TransformerConfigurationException("The transformer factory does not support SAX transformation!");
-        TransformerHandler handler = ((SAXTransformerFactory) factory).newTransformerHandler();
+        TransformerHandler handler;
+        synchronized (transformerFactories) {
+            TransformerFactory factory = getTransformerFactory(security);
+            if (!factory.getFeature(SAXTransformerFactory.FEATURE))
+                throw new TransformerConfigurationException("The transformer factory does not support SAX transformation!");
+            handler = ((SAXTransformerFactory) factory).newTransformerHandler();
+        }
         // Create a DOM result for the transformation.
         DOMResult domResult = new DOMResult();
         handler.setResult(domResult);
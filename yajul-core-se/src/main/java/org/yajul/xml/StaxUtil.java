@@ -0,0 +1,147 @@
+package org.yajul.xml;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.stream.util.StreamReaderDelegate;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * StAX (streaming XML) helpers, for documents that are too big to build as DOM trees.
+ * Memory use is bounded by the size of the largest text node, not the size of the document.
+ */
+public class StaxUtil {
+    public static final String DEFAULT_ENCODING = "UTF-8";
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // Don't go out to the network (or the file system) for external entities.
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * Creates a stream reader.  Closing the reader closes the input stream as well.
+     *
+     * @param input the XML
+     * @return the reader
+     * @throws XMLStreamException if the reader could not be created
+     */
+    public static XMLStreamReader createReader(final InputStream input) throws XMLStreamException {
+        return new StreamReaderDelegate(INPUT_FACTORY.createXMLStreamReader(input)) {
+            public void close() throws XMLStreamException {
+                try {
+                    super.close();
+                } finally {
+                    try {
+                        input.close();
+                    } catch (IOException e) {
+                        throw new XMLStreamException(e);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates a stream writer that writes UTF-8.  Closing the writer does not close the output stream.
+     *
+     * @param output the output stream
+     * @return the writer
+     * @throws XMLStreamException if the writer could not be created
+     */
+    public static XMLStreamWriter createWriter(OutputStream output) throws XMLStreamException {
+        return OUTPUT_FACTORY.createXMLStreamWriter(output, DEFAULT_ENCODING);
+    }
+
+    /**
+     * Copies the events from the reader to the writer, from the current event to the end of the document.
+     *
+     * @param reader the reader
+     * @param writer the writer
+     * @return the number of elements copied
+     * @throws XMLStreamException if the input can't be parsed or the output can't be written
+     */
+    public static int copy(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+        int elements = 0;
+        int event = reader.getEventType();
+        while (true) {
+            switch (event) {
+                case XMLStreamConstants.START_DOCUMENT:
+                    writer.writeStartDocument(DEFAULT_ENCODING, reader.getVersion() == null ? "1.0" : reader.getVersion());
+                    break;
+                case XMLStreamConstants.END_DOCUMENT:
+                    writer.writeEndDocument();
+                    writer.flush();
+                    return elements;
+                case XMLStreamConstants.START_ELEMENT:
+                    writeStartElement(reader, writer);
+                    elements++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    writer.writeEndElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.CDATA:
+                    writer.writeCData(reader.getText());
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    writer.writeComment(reader.getText());
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+                    break;
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    writer.writeEntityRef(reader.getLocalName());
+                    break;
+                case XMLStreamConstants.DTD:
+                    writer.writeDTD(reader.getText());
+                    break;
+                default:
+                    break;
+            }
+            if (!reader.hasNext()) {
+                writer.flush();
+                return elements;
+            }
+            event = reader.next();
+        }
+    }
+
+    private static void writeStartElement(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+        String prefix = reader.getPrefix();
+        String namespace = reader.getNamespaceURI();
+        if (namespace == null)
+            writer.writeStartElement(reader.getLocalName());
+        else
+            writer.writeStartElement(prefix == null ? "" : prefix, reader.getLocalName(), namespace);
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String nsPrefix = reader.getNamespacePrefix(i);
+            if (nsPrefix == null || nsPrefix.length() == 0)
+                writer.writeDefaultNamespace(reader.getNamespaceURI(i));
+            else
+                writer.writeNamespace(nsPrefix, reader.getNamespaceURI(i));
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String attributeNamespace = reader.getAttributeNamespace(i);
+            if (attributeNamespace == null || attributeNamespace.length() == 0) {
+                writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            } else {
+                String attributePrefix = reader.getAttributePrefix(i);
+                writer.writeAttribute(attributePrefix == null ? "" : attributePrefix, attributeNamespace,
+                        reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            }
+        }
+    }
+}
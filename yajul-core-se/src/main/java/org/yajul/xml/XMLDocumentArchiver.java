@@ -2,13 +2,20 @@ package org.yajul.xml;
 
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
+import org.yajul.io.ByteCountingInputStream;
 import org.yajul.io.DocumentArchiver;
+import org.yajul.util.Copier;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Date;
 import java.util.logging.Level;
@@ -18,6 +25,9 @@ import static org.yajul.juli.LogHelper.unexpected;
 
 /**
  * Adds DOM document storeage methods to DocumentArchiver.
+ * <br>
+ * The DOM methods hold the whole document in memory.  For large documents use the streaming methods,
+ * storeXml() and openXmlReader(), which go through the compressed sink and source a buffer at a time.
  * <hr>
  * User: jdavis<br>
  * Date: May 14, 2004<br>
@@ -33,7 +43,7 @@ public class XMLDocumentArchiver extends DocumentArchiver
 
     public XMLDocumentArchiver()
     {
-        setExtension(DEFAULT_EXTENSION);
+        setBaseExtension(".xml");
     }
 
     /**
@@ -56,6 +66,7 @@ public class XMLDocumentArchiver extends DocumentArchiver
             OutputStream stream = docOut.getStream();
             DOMPrinter.printNode(document,stream);
             stream.close();
+            invalidate(subDirectory, docOut.getFilename());
             if (log.isLoggable(Level.FINE))
                 log.log(Level.FINE,"storeDocument() : Document sucessfully stored.");
             return docOut.getFilename();    // Return the relative file name.
@@ -68,12 +79,12 @@ public class XMLDocumentArchiver extends DocumentArchiver
         catch (TransformerConfigurationException e)
         {
             unexpected(log, e);
-            throw new IOException(e.getMessage());
+            throw new IOException(e.getMessage(), e);
         }
         catch (TransformerException e)
         {
             unexpected(log, e);
-            throw new IOException(e.getMessage());
+            throw new IOException(e.getMessage(), e);
         }
         finally
         {
@@ -90,13 +101,20 @@ public class XMLDocumentArchiver extends DocumentArchiver
      * @return The document (DOM).
      * @throws IOException if something goes wrong.
      */
-    public Document retrieveDocument(String subDirectory, Long id, Date date) throws IOException
+    public Document retrieveDocument(final String subDirectory, Long id, Date date) throws IOException
     {
-        return retrieveDocument(subDirectory,generateFileName(id,date));
+        return findById(generateFileName(id, date), new Lookup<Document>()
+        {
+            public Document find(String fileName) throws IOException
+            {
+                return retrieveDocument(subDirectory, fileName);
+            }
+        });
     }
 
     /**
-     * Retrieves a DOM Document given the sub-directory and the file name.
+     * Retrieves a DOM Document given the sub-directory and the file name.  If there is a cache, the
+     * document is a copy of the cached document.
      * @param subDirectory The sub-directory.
      * @param fileName     The name of the file, as returned by the storeObject() method.
      * @return The document (DOM).
@@ -108,12 +126,21 @@ public class XMLDocumentArchiver extends DocumentArchiver
             log.log(Level.FINE,"retrieveDocument() : ENTER");
         try
         {
+            Object cached = getCached(subDirectory, fileName);
+            if (cached instanceof Document)
+                return (Document) ((Document) cached).cloneNode(true);
+            long version = getCacheVersion(subDirectory, fileName);
             Source source = getSource(subDirectory, fileName);
             log.info("retrieveDocument() : " + source.getFilename());
-            Document document = DOMUtil.parse(source.getStream());
+            ByteCountingInputStream counter = new ByteCountingInputStream(source.getStream());
+            Document document = DOMUtil.parse(counter);
             if (log.isLoggable(Level.FINE))
                 log.log(Level.FINE,"retrieveDocument() : Document sucessfully retrieved.");
-            return document;
+            if (getCache() == null)
+                return document;
+            // Keep a private copy in the cache, so callers can modify the document they get.
+            putCached(subDirectory, fileName, document, counter.getByteCount(), version);
+            return (Document) document.cloneNode(true);
         } // try
         catch (FileNotFoundException e)
         {
@@ -127,12 +154,12 @@ public class XMLDocumentArchiver extends DocumentArchiver
         catch (ParserConfigurationException e)
         {
             unexpected(log, e);
-            throw new IOException(e.getMessage());
+            throw new IOException(e.getMessage(), e);
         }
         catch (SAXException e)
         {
             unexpected(log, e);
-            throw new IOException(e.getMessage());
+            throw new IOException(e.getMessage(), e);
         }
         finally
         {
@@ -141,4 +168,137 @@ public class XMLDocumentArchiver extends DocumentArchiver
         }
     }
 
+    /**
+     * Stores an XML document from a stream reader, without building a DOM tree.  The reader should be at
+     * the start of the document, it is read to the end but not closed.
+     *
+     * @param subDirectory The sub-directory of the storeage directory where documents of this type are stored.
+     * @param id           The id object that will be used to generate the file name.
+     * @param date         The date, which will be used to generate the directory name.
+     * @param reader       The document.
+     * @return The name of the file that was used to store the document.
+     * @throws IOException if something goes wrong.
+     */
+    public String storeXml(String subDirectory, Object id, Date date, XMLStreamReader reader) throws IOException
+    {
+        if (log.isLoggable(Level.FINE))
+            log.log(Level.FINE,"storeXml() : ENTER");
+        try
+        {
+            Sink docOut = getSink(subDirectory, id, date);
+            OutputStream stream = docOut.getStream();
+            try
+            {
+                XMLStreamWriter writer = StaxUtil.createWriter(stream);
+                if (reader.getEventType() != XMLStreamConstants.START_DOCUMENT)
+                    writer.writeStartDocument(StaxUtil.DEFAULT_ENCODING, "1.0");
+                int elements = StaxUtil.copy(reader, writer);
+                writer.close();
+                if (log.isLoggable(Level.FINE))
+                    log.log(Level.FINE,"storeXml() : " + elements + " elements sucessfully stored.");
+            }
+            finally
+            {
+                stream.close();
+            }
+            invalidate(subDirectory, docOut.getFilename());
+            return docOut.getFilename();    // Return the relative file name.
+        }
+        catch (IOException e)
+        {
+            unexpected(log, e);
+            throw e;
+        }
+        catch (XMLStreamException e)
+        {
+            unexpected(log, e);
+            throw new IOException(e.getMessage(), e);
+        }
+        finally
+        {
+            if (log.isLoggable(Level.FINE))
+                log.log(Level.FINE,"storeXml() : LEAVE");
+        }
+    }
+
+    /**
+     * Stores an XML document from an input stream, as is.  The input is copied a buffer at a time, it is
+     * not parsed.  The input stream is read to the end but not closed.
+     *
+     * @param subDirectory The sub-directory of the storeage directory where documents of this type are stored.
+     * @param id           The id object that will be used to generate the file name.
+     * @param date         The date, which will be used to generate the directory name.
+     * @param xml          The document.
+     * @return The name of the file that was used to store the document.
+     * @throws IOException if something goes wrong.
+     */
+    public String storeXml(String subDirectory, Object id, Date date, InputStream xml) throws IOException
+    {
+        try
+        {
+            Sink docOut = getSink(subDirectory, id, date);
+            OutputStream stream = docOut.getStream();
+            try
+            {
+                Copier.transfer(xml, stream, Copier.DEFAULT_BUFFER_SIZE * 8, Copier.UNLIMITED, Copier.NO_CALLBACK);
+            }
+            finally
+            {
+                stream.close();
+            }
+            invalidate(subDirectory, docOut.getFilename());
+            return docOut.getFilename();
+        }
+        catch (IOException e)
+        {
+            unexpected(log, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a stream reader for an archived XML document given the sub-directory, id and date.
+     * @param subDirectory The sub-directory of the storeage directory where documents of this type are stored.
+     * @param id           The id object that will be used to generate the file name.
+     * @param date         The date, which will be used to generate the directory name.
+     * @return The reader, which must be closed.
+     * @throws IOException if something goes wrong.
+     */
+    public XMLStreamReader openXmlReader(final String subDirectory, Object id, Date date) throws IOException
+    {
+        return findById(generateFileName(id, date), new Lookup<XMLStreamReader>()
+        {
+            public XMLStreamReader find(String fileName) throws IOException
+            {
+                return openXmlReader(subDirectory, fileName);
+            }
+        });
+    }
+
+    /**
+     * Opens a stream reader for an archived XML document, given the sub-directory and the file name.  The document
+     * is decompressed and parsed as the reader is advanced.  Closing the reader closes the file.  The cache, if
+     * there is one, is not used.
+     * @param subDirectory The sub-directory.
+     * @param fileName     The name of the file, as returned by storeDocument() or storeXml().
+     * @return The reader, which must be closed.
+     * @throws IOException if something goes wrong.
+     */
+    public XMLStreamReader openXmlReader(String subDirectory, String fileName) throws IOException
+    {
+        Source source = getSource(subDirectory, fileName);
+        if (log.isLoggable(Level.FINE))
+            log.log(Level.FINE,"openXmlReader() : " + source.getFilename());
+        InputStream stream = source.getStream();
+        try
+        {
+            return StaxUtil.createReader(stream);
+        }
+        catch (XMLStreamException e)
+        {
+            stream.close();
+            unexpected(log, e);
+            throw new IOException(e.getMessage(), e);
+        }
+    }
 }
@@ -0,0 +1,88 @@
+package org.yajul.xml;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * How the XML factories used by DOMUtil and DOMPrinter are configured, see
+ * {@link DOMUtil#setSecurity(XMLSecurity)}.
+ */
+public enum XMLSecurity {
+    /**
+     * The JAXP implementation's defaults.
+     */
+    DEFAULT,
+    /**
+     * Secure processing, with no external entities, DTDs or stylesheets.  Documents with an internal DTD
+     * can still be parsed.
+     */
+    SECURE,
+    /**
+     * As SECURE, and documents with a DOCTYPE declaration are rejected.
+     */
+    NO_DOCTYPE;
+
+    private static final Logger log = Logger.getLogger(XMLSecurity.class.getName());
+
+    private static final String FEATURES = "http://xml.org/sax/features/";
+    private static final String XERCES_FEATURES = "http://apache.org/xml/features/";
+
+    /**
+     * Configures a new factory.
+     *
+     * @param factory the factory
+     */
+    public void configure(DocumentBuilderFactory factory) {
+        if (this == DEFAULT)
+            return;
+        try {
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException("Secure processing is not supported by " + factory.getClass().getName(), e);
+        }
+        setFeature(factory, FEATURES + "external-general-entities", false);
+        setFeature(factory, FEATURES + "external-parameter-entities", false);
+        setFeature(factory, XERCES_FEATURES + "nonvalidating/load-external-dtd", false);
+        if (this == NO_DOCTYPE)
+            setFeature(factory, XERCES_FEATURES + "disallow-doctype-decl", true);
+        factory.setXIncludeAware(false);
+    }
+
+    /**
+     * Configures a new factory.
+     *
+     * @param factory the factory
+     */
+    public void configure(TransformerFactory factory) {
+        if (this == DEFAULT)
+            return;
+        try {
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        } catch (TransformerConfigurationException e) {
+            throw new IllegalStateException("Secure processing is not supported by " + factory.getClass().getName(), e);
+        }
+        setAttribute(factory, XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        setAttribute(factory, XMLConstants.ACCESS_EXTERNAL_STYLESHEET, "");
+    }
+
+    private static void setFeature(DocumentBuilderFactory factory, String feature, boolean value) {
+        try {
+            factory.setFeature(feature, value);
+        } catch (ParserConfigurationException e) {
+            log.log(Level.WARNING, "Feature " + feature + " is not supported by " + factory.getClass().getName());
+        }
+    }
+
+    private static void setAttribute(TransformerFactory factory, String attribute, String value) {
+        try {
+            factory.setAttribute(attribute, value);
+        } catch (IllegalArgumentException e) {
+            log.log(Level.WARNING, "Attribute " + attribute + " is not supported by " + factory.getClass().getName());
+        }
+    }
+}
@@ -3,12 +3,24 @@ package org.yajul.comparators;
 import org.junit.Test;
 import org.yajul.comparators.ComparatorChain;
 import org.yajul.comparators.ComparatorUtil;
+import org.yajul.comparators.KeyComparator;
 import org.yajul.comparators.NullComparator;
 import org.yajul.comparators.ReverseComparator;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -69,6 +81,111 @@ public class ComparatorTest {
         assertTrue(Arrays.equals(sorted, array));
     }
 
+    private static final KeyComparator.StringKey<Thing> NAME = new KeyComparator.StringKey<Thing>() {
+        public String key(Thing o) {
+            return o.getName();
+        }
+    };
+
+    private static final KeyComparator.IntKey<Thing> DEPARTMENT_ID = new KeyComparator.IntKey<Thing>() {
+        public int key(Thing o) {
+            return o.getDepartmentId();
+        }
+    };
+
+    @Test
+    public void testKeyComparator() {
+        Thing[] array = {new Thing("f", 1), new Thing("c", 2), new Thing(null, 2), new Thing("b", 1), new Thing("e", 2), new Thing("d", 3)};
+        KeyComparator<Thing> comparator = new KeyComparator.Builder<Thing>()
+                .byInt(DEPARTMENT_ID).descending().byString(NAME).build();
+        Thing[] copy = array.clone();
+        Arrays.sort(copy, comparator);
+        Thing[] sorted = {new Thing("d", 3), new Thing(null, 2), new Thing("c", 2), new Thing("e", 2), new Thing("b", 1), new Thing("f", 1)};
+        assertArrayEquals(sorted, copy);
+
+        copy = array.clone();
+        comparator.sort(copy);
+        assertArrayEquals(sorted, copy);
+
+        KeyComparator<Thing> nullsHigh = new KeyComparator.Builder<Thing>().byString(NAME, true).build();
+        assertTrue(nullsHigh.compare(new Thing(null, 1), new Thing("a", 1)) > 0);
+        assertEquals(0, nullsHigh.compare(new Thing(null, 1), new Thing(null, 2)));
+
+        // Reversing a key after build() doesn't change the comparator that was built.
+        KeyComparator.Builder<Thing> builder = new KeyComparator.Builder<Thing>().byString(NAME);
+        KeyComparator<Thing> ascending = builder.build();
+        KeyComparator<Thing> descending = builder.descending().build();
+        assertTrue(ascending.compare(new Thing("a", 1), new Thing("b", 1)) < 0);
+        assertTrue(descending.compare(new Thing("a", 1), new Thing("b", 1)) > 0);
+    }
+
+    /**
+     * A chain of String.CASE_INSENSITIVE_ORDER and Collections.reverseOrder(), serialized by the original
+     * ComparatorChain, which kept the comparators in a List.
+     */
+    private static final String OLD_CHAIN = "rO0ABXNyACVvcmcueWFqdWwuY29tcGFyYXRvcnMuQ29tcGFyYXRvckNoYWluL/wfoQ0ojZEC"
+            + "AAFMAA9jb21wYXJhdG9yQ2hhaW50ABBMamF2YS91dGlsL0xpc3Q7eHBzcgAaamF2YS51dGlsLkFycmF5cyRBcnJheUxpc3TZpDy+"
+            + "zYgG0gIAAVsAAWF0ABNbTGphdmEvbGFuZy9PYmplY3Q7eHB1cgAXW0xqYXZhLnV0aWwuQ29tcGFyYXRvcjv3sdhVvN0hoAIAAHhw"
+            + "AAAAAnNyACpqYXZhLmxhbmcuU3RyaW5nJENhc2VJbnNlbnNpdGl2ZUNvbXBhcmF0b3J3A1x9XFDlzgIAAHhwc3IAJ2phdmEudXRp"
+            + "bC5Db2xsZWN0aW9ucyRSZXZlcnNlQ29tcGFyYXRvcmQEivBTTkrQAgAAeHA=";
+
+    @Test
+    public void testChainSerialization() throws Exception {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(OLD_CHAIN)));
+        @SuppressWarnings("unchecked")
+        ComparatorChain<String> old = (ComparatorChain<String>) in.readObject();
+        in.close();
+        assertEquals(2, old.size());
+        assertTrue(old.compare("a", "B") < 0);
+        assertTrue(old.compare("abc", "ABC") < 0);     // Equal ignoring case, so reverse order.
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(old);
+        out.close();
+        in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Object copy = in.readObject();
+        in.close();
+        assertEquals(old, copy);
+        assertTrue(((ComparatorChain<?>) copy).size() == 2);
+    }
+
+    @Test
+    public void testKeySort() {
+        Random random = new Random(42);
+        List<Thing> things = new ArrayList<Thing>();
+        for (int i = 0; i < 20000; i++)
+            things.add(new Thing(random.nextInt(10) == 0 ? null : "n" + random.nextInt(100), random.nextInt(50)));
+
+        // Single int key: packed into longs.  The sort must be stable, like Collections.sort().
+        KeyComparator<Thing> byDepartment = new KeyComparator.Builder<Thing>().byInt(DEPARTMENT_ID).descending().build();
+        List<Thing> expected = new ArrayList<Thing>(things);
+        Collections.sort(expected, byDepartment);
+        List<Thing> actual = new ArrayList<Thing>(things);
+        byDepartment.sort(actual);
+        assertSameOrder(expected, actual);
+
+        // Several keys, and a comparator.
+        KeyComparator<Thing> chain = new KeyComparator.Builder<Thing>().byString(NAME).byInt(DEPARTMENT_ID)
+                .then(new Comparator<Thing>() {
+                    public int compare(Thing o1, Thing o2) {
+                        return 0;
+                    }
+                }).build();
+        expected = new ArrayList<Thing>(things);
+        Collections.sort(expected, chain);
+        int[] order = chain.sortedIndexes(things);
+        assertEquals(things.size(), order.length);
+        for (int i = 0; i < order.length; i++)
+            assertTrue(expected.get(i) == things.get(order[i]));
+    }
+
+    private static void assertSameOrder(List<Thing> expected, List<Thing> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertTrue("at " + i, expected.get(i) == actual.get(i));
+    }
+
     private static class Thing {
         private String name;
         private int departmentId;
@@ -94,14 +211,14 @@ public class ComparatorTest {
             Thing thing = (Thing) o;
 
             if (departmentId != thing.departmentId) return false;
-            if (!name.equals(thing.name)) return false;
+            if (name != null ? !name.equals(thing.name) : thing.name != null) return false;
 
             return true;
         }
 
         @Override
         public int hashCode() {
-            int result = name.hashCode();
+            int result = name != null ? name.hashCode() : 0;
             result = 31 * result + departmentId;
             return result;
         }
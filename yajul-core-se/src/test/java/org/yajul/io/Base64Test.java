@@ -12,6 +12,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Random;
 
 import junit.framework.TestCase;
 
@@ -116,4 +117,94 @@ public class Base64Test extends TestCase
         String decoded = new String(out.toByteArray());
         System.out.println(decoded);
     }
-}
\ No newline at end of file
+
+    public void testBlocks() throws IOException
+    {
+        Random random = new Random(42);
+        for (int size = 0; size < 1000; size += 37)
+        {
+            byte[] inputBytes = new byte[size];
+            random.nextBytes(inputBytes);
+            String expected = java.util.Base64.getEncoder().encodeToString(inputBytes);
+
+            // Static fast path.
+            String encoded = Base64Encoder.encode(inputBytes);
+            TestCase.assertEquals(expected, encoded.replace("\n", ""));
+            TestCase.assertTrue(Arrays.equals(inputBytes, Base64Decoder.decode(encoded.getBytes())));
+
+            // Stream, written in odd sized blocks.
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Base64OutputStream encoder = new Base64OutputStream(out);
+            for (int off = 0; off < size; off += 7)
+                encoder.write(inputBytes, off, Math.min(7, size - off));
+            encoder.close();
+            TestCase.assertEquals(encoded, new String(out.toByteArray()));
+
+            // Stream, read in odd sized blocks.
+            Base64InputStream decoder = new Base64InputStream(new ByteArrayInputStream(out.toByteArray()));
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            byte[] buf = new byte[5];
+            int n;
+            while ((n = decoder.read(buf, 0, buf.length)) != -1)
+                decoded.write(buf, 0, n);
+            TestCase.assertTrue(Arrays.equals(inputBytes, decoded.toByteArray()));
+        }
+    }
+
+    public void testLineBreaks() throws IOException
+    {
+        byte[] inputBytes = new byte[1000];
+        String encoded = Base64Encoder.encode(inputBytes);
+        String[] lines = encoded.split("\n");
+        for (int i = 0; i < lines.length - 1; i++)
+            TestCase.assertEquals(Base64OutputStream.MIME_LINE_LENGTH, lines[i].length());
+    }
+
+    public void testUrlSafe() throws IOException
+    {
+        Random random = new Random(7);
+        byte[] inputBytes = new byte[500];
+        random.nextBytes(inputBytes);
+        String encoded = Base64Encoder.encodeUrlSafe(inputBytes);
+        TestCase.assertEquals(java.util.Base64.getUrlEncoder().encodeToString(inputBytes), encoded);
+        TestCase.assertTrue(Arrays.equals(inputBytes, Base64Decoder.decode(encoded.getBytes())));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Base64OutputStream encoder = new Base64OutputStream(out, true, Base64OutputStream.NO_LINE_BREAKS);
+        encoder.write(inputBytes);
+        encoder.close();
+        TestCase.assertEquals(encoded, new String(out.toByteArray()));
+    }
+
+    public void testShortLines() throws IOException
+    {
+        Random random = new Random(11);
+        byte[] inputBytes = new byte[5000];
+        random.nextBytes(inputBytes);
+        for (int lineLength = 1; lineLength <= 4; lineLength++)
+        {
+            // Every character can have a line break in front of it, in the block and the single byte paths.
+            byte[] expected = Base64Encoder.encodeToBytes(inputBytes, 0, inputBytes.length, false, lineLength);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Base64OutputStream encoder = new Base64OutputStream(out, false, lineLength);
+            encoder.write(inputBytes, 0, 4000);
+            for (int i = 4000; i < inputBytes.length; i++)
+                encoder.write(inputBytes[i]);
+            encoder.close();
+            TestCase.assertEquals(new String(expected), new String(out.toByteArray()));
+        }
+    }
+
+    public void testBadInput()
+    {
+        try
+        {
+            Base64Decoder.decode("QUJD\nQ".getBytes());
+            TestCase.fail("Expected Base64FormatException");
+        }
+        catch (Base64FormatException expected)
+        {
+            // Okay.
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.yajul.io;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.Deflater;
+
+/**
+ * Tests the compression codecs and the codec header.
+ */
+public class CompressionCodecTest extends TestCase
+{
+    public CompressionCodecTest(String name)
+    {
+        super(name);
+    }
+
+    public void testRoundTrip() throws IOException
+    {
+        CompressionCodec[] codecs = new CompressionCodec[] {
+                CompressionCodecs.NONE,
+                CompressionCodecs.GZIP,
+                CompressionCodecs.DEFLATE_FAST,
+                new DeflateCodec(Deflater.BEST_COMPRESSION, Deflater.FILTERED),
+                CompressionCodecs.LZ4,
+        };
+        byte[][] inputs = new byte[][] {
+                new byte[0],
+                new byte[] { 42 },
+                text(100),
+                text(Lz4Codec.BLOCK_SIZE * 3 + 17),
+                random(Lz4Codec.BLOCK_SIZE + 5),
+                new byte[200000],   // One long run.
+        };
+        for (CompressionCodec codec : codecs)
+        {
+            for (byte[] input : inputs)
+            {
+                byte[] compressed = compress(codec, input, null);
+                byte[] output = decompress(compressed, null);
+                assertTrue(codec + " " + input.length, Arrays.equals(input, output));
+            }
+        }
+    }
+
+    public void testCompresses() throws IOException
+    {
+        byte[] input = text(100000);
+        assertTrue(compress(CompressionCodecs.LZ4, input, null).length < input.length / 2);
+        assertTrue(compress(CompressionCodecs.DEFLATE_FAST, input, null).length < input.length / 2);
+        // Incompressible data is stored, with only the block headers added.
+        byte[] noise = random(100000);
+        assertTrue(compress(CompressionCodecs.LZ4, noise, null).length < noise.length + 64);
+    }
+
+    public void testHeader() throws IOException
+    {
+        byte[] input = text(1000);
+        // No header for GZIP, so it is readable by older versions.
+        assertEquals((byte) 0x1f, compress(CompressionCodecs.GZIP, input, null)[0]);
+        // Uncompressed data that looks like GZIP is recorded as uncompressed.
+        byte[] gzipLike = compress(CompressionCodecs.GZIP, input, null);
+        byte[] none = compress(CompressionCodecs.NONE, gzipLike, null);
+        assertEquals(CompressionCodecs.NONE_ID, none[3]);
+        assertTrue(Arrays.equals(gzipLike, decompress(none, null)));
+        // Documents without a header, from older versions, are read as the caller says, or by the magic number.
+        assertTrue(Arrays.equals(gzipLike, read(CompressionCodecs.openInput(
+                new ByteArrayInputStream(gzipLike), CompressionCodecs.NONE, null))));
+        assertTrue(Arrays.equals(input, decompress(gzipLike, null)));
+        assertTrue(Arrays.equals(input, decompress(input, null)));
+        byte[] lz4 = compress(CompressionCodecs.LZ4, input, null);
+        assertEquals(CompressionCodecs.LZ4_ID, lz4[3]);
+        lz4[3] = 99;
+        try
+        {
+            decompress(lz4, null);
+            fail("Unknown codec id was not detected");
+        }
+        catch (IOException e)
+        {
+            // Expected.
+        }
+    }
+
+    public void testCorrupt() throws IOException
+    {
+        byte[] compressed = compress(CompressionCodecs.LZ4, text(5000), null);
+        byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+        try
+        {
+            decompress(truncated, null);
+            fail("Truncated input was not detected");
+        }
+        catch (IOException e)
+        {
+            // Expected.
+        }
+        for (int i = 12; i < compressed.length - 4; i++)
+            compressed[i] = (byte) 0xff;
+        try
+        {
+            decompress(compressed, null);
+            fail("Corrupt input was not detected");
+        }
+        catch (IOException e)
+        {
+            // Expected.
+        }
+    }
+
+    public void testStats() throws IOException
+    {
+        ConcurrentMap<String, CodecStats> stats = new ConcurrentHashMap<String, CodecStats>();
+        byte[] input = text(10000);
+        byte[] compressed = compress(CompressionCodecs.LZ4, input, stats);
+        decompress(compressed, stats);
+        CodecStats lz4 = stats.get("lz4");
+        assertNotNull(lz4);
+        assertEquals(1, lz4.getCompressCount());
+        assertEquals(input.length, lz4.getCompressInputBytes());
+        assertEquals(compressed.length, lz4.getCompressOutputBytes());
+        assertEquals(1, lz4.getDecompressCount());
+        assertEquals(input.length, lz4.getDecompressOutputBytes());
+        assertTrue(lz4.getCompressionRatio() < 1.0);
+        assertFalse(stats.containsKey("gzip"));
+    }
+
+    private static byte[] compress(CompressionCodec codec, byte[] input,
+                                   ConcurrentMap<String, CodecStats> stats) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        OutputStream out = CompressionCodecs.openOutput(baos, codec, stats);
+        out.write(input);
+        out.close();
+        return baos.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] compressed, ConcurrentMap<String, CodecStats> stats)
+            throws IOException
+    {
+        return read(CompressionCodecs.openInput(new ByteArrayInputStream(compressed), stats));
+    }
+
+    private static byte[] read(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[1000];
+        int n;
+        while ((n = in.read(buf)) >= 0)
+            baos.write(buf, 0, n);
+        in.close();
+        return baos.toByteArray();
+    }
+
+    private static byte[] text(int length)
+    {
+        Random random = new Random(length);
+        String[] words = new String[] { "archive ", "document ", "the ", "of ", "<element>", "</element>\n", "12345 " };
+        StringBuilder sb = new StringBuilder(length + 20);
+        while (sb.length() < length)
+            sb.append(words[random.nextInt(words.length)]);
+        sb.setLength(length);
+        return sb.toString().getBytes();
+    }
+
+    private static byte[] random(int length)
+    {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -4,13 +4,29 @@ import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 import org.w3c.dom.Document;
+import org.yajul.util.CompoundKey;
+import org.yajul.util.LruCache;
 import org.yajul.xml.DOMPrinter;
 import org.yajul.xml.DOMUtil;
+import org.yajul.xml.StaxUtil;
 import org.yajul.xml.XMLDocumentArchiver;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  * Tests DocumentArchiver and XMLDocumentArchiver
@@ -102,6 +118,380 @@ public class DocumentArchiverTest extends TestCase
         assertEquals(expected,x);
     }
 
+    /**
+     * Test batch store / retrieve, on an executor, with backups.
+     */
+    public void testBatch() throws Exception
+    {
+        org.yajul.io.archiver.DocumentArchiver batch = new org.yajul.io.archiver.DocumentArchiver();
+        File dir = new File("./temp/document-archiver-batch-test");
+        if (dir.exists())
+            FileUtil.recursiveDelete(dir);
+        batch.setStoreageDirectory(dir);
+        batch.init();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            batch.setExecutor(executor);
+            Map<Object,Object> objects = new LinkedHashMap<Object,Object>();
+            for (int i = 0; i < 50; i++)
+                objects.put(new Long(i),"object " + i);
+            Map<Object,String> names = batch.storeAll(SUB_DIRECTORY,date,objects);
+            assertEquals(objects.keySet(),names.keySet());
+            // Store again twice, making two backups of each.
+            batch.storeAll(SUB_DIRECTORY,date,objects);
+            batch.storeAll(SUB_DIRECTORY,date,objects);
+            File stored = new File(new File(dir,SUB_DIRECTORY),names.get(new Long(7)));
+            assertTrue(new File(stored.getPath() + ".1").exists());
+            assertTrue(new File(stored.getPath() + ".2").exists());
+            assertFalse(new File(stored.getPath() + ".3").exists());
+
+            Map<Object,Object> retrieved = batch.retrieveAll(SUB_DIRECTORY,date,
+                    Arrays.asList(new Long(3),new Long(999),new Long(42)));
+            assertEquals(2,retrieved.size());
+            assertEquals("object 3",retrieved.get(new Long(3)));
+            assertEquals("object 42",retrieved.get(new Long(42)));
+            assertFalse(retrieved.containsKey(new Long(999)));
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Test storing with different codecs, and retrieving with whatever codec is current.
+     */
+    public void testCodecs() throws Exception
+    {
+        archiver.init();
+        assertEquals(".dat.gz",archiver.getExtension());
+        archiver.setCodecName("lz4");
+        assertEquals(".dat.lz4",archiver.getExtension());
+        String lz4Name = archiver.storeObject(SUB_DIRECTORY,id,date,"lz4");
+        assertTrue(lz4Name.endsWith(".dat.lz4"));
+        archiver.setCodec(new DeflateCodec(9,0));
+        String deflateName = archiver.storeObject(SUB_DIRECTORY,id,date,"deflate");
+        archiver.setGzip(false);
+        assertEquals(".dat.gz",archiver.getExtension());
+        String noneName = archiver.storeObject(SUB_DIRECTORY,id,date,"none");
+        archiver.setGzip(true);
+        assertEquals("lz4",archiver.retrieveObject(SUB_DIRECTORY,lz4Name));
+        assertEquals("deflate",archiver.retrieveObject(SUB_DIRECTORY,deflateName));
+        assertEquals("none",archiver.retrieveObject(SUB_DIRECTORY,noneName));
+        assertEquals(1,archiver.getCodecStats().get("lz4").getCompressCount());
+        assertEquals(1,archiver.getCodecStats().get("lz4").getDecompressCount());
+        assertTrue(archiver.getCodecStats().containsKey("deflate"));
+        assertEquals(".xml.gz",xmlarchiver.getExtension());
+
+        org.yajul.io.archiver.DocumentArchiver other = new org.yajul.io.archiver.DocumentArchiver();
+        other.setStoreageDirectory(new File("./temp/document-archiver-test"));
+        other.setCodec(CompressionCodecs.LZ4);
+        String name = other.storeObject(SUB_DIRECTORY,id,date,"other");
+        other.setCodec(CompressionCodecs.NONE);
+        assertEquals("other",other.retrieveObject(SUB_DIRECTORY,name));
+        assertEquals(1,other.getCodecStats().get("lz4").getDecompressCount());
+    }
+
+    /**
+     * Test retrieving by id from a tree written by older versions, which always used the '.dat.gz' extension,
+     * even when the documents were not compressed.
+     */
+    public void testLegacyExtension() throws Exception
+    {
+        archiver.init();
+        Long legacyId = new Long(2);
+        File dir = new File(archiver.getStoreageDirectory(),SUB_DIRECTORY);
+        String fileName = archiver.generateFileName(legacyId,date);
+        assertTrue(fileName.endsWith(".dat.gz"));
+        File file = new File(dir,fileName);
+        file.getParentFile().mkdirs();
+        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file));
+        oos.writeObject("legacy");
+        oos.close();
+
+        archiver.setGzip(false);
+        assertEquals(fileName,archiver.generateFileName(legacyId,date));
+        assertEquals("legacy",archiver.retrieveObject(SUB_DIRECTORY,legacyId,date));
+        archiver.setCodecName("lz4");
+        assertEquals("legacy",archiver.retrieveObject(SUB_DIRECTORY,legacyId,date));
+
+        org.yajul.io.archiver.DocumentArchiver other = new org.yajul.io.archiver.DocumentArchiver();
+        other.setStoreageDirectory(archiver.getStoreageDirectory());
+        other.setGzip(false);
+        assertEquals("legacy",other.retrieveObject(SUB_DIRECTORY,legacyId,date));
+        other.setCodec(CompressionCodecs.LZ4);
+        assertEquals("legacy",other.retrieveObject(SUB_DIRECTORY,legacyId,date));
+        // Once an extension is set, only that is used.
+        archiver.setExtension(".dat.lz4");
+        try
+        {
+            archiver.retrieveObject(SUB_DIRECTORY,legacyId,date);
+            fail("Expected FileNotFoundException");
+        }
+        catch (FileNotFoundException expected)
+        {
+        }
+    }
+
+    /**
+     * Test the retrieval cache.
+     */
+    public void testCache() throws Exception
+    {
+        archiver.init();
+        archiver.setCache(new LruCache<CompoundKey,Object>(10,100000,0));
+        archiver.storeObject(SUB_DIRECTORY,id,date,"cached");
+        Object first = archiver.retrieveObject(SUB_DIRECTORY,id,date);
+        assertSame(first,archiver.retrieveObject(SUB_DIRECTORY,id,date));
+        assertEquals(1,archiver.getCache().getHits());
+        assertEquals(1,archiver.getCache().getEntryCount());
+        assertTrue(archiver.getCache().getSize() > 0);
+        // Storing the same id invalidates the entry.
+        archiver.storeObject(SUB_DIRECTORY,id,date,"changed");
+        assertEquals(0,archiver.getCache().getEntryCount());
+        assertEquals("changed",archiver.retrieveObject(SUB_DIRECTORY,id,date));
+
+        xmlarchiver.setCache(new LruCache<CompoundKey,Object>(10,100000,0));
+        Document doc = DOMUtil.createDocument("test");
+        String name = xmlarchiver.storeDocument("documents",id,date,doc);
+        Document retrieved = xmlarchiver.retrieveDocument("documents",name);
+        retrieved.getDocumentElement().setAttribute("changed","true");
+        Document again = xmlarchiver.retrieveDocument("documents",name);
+        assertEquals(1,xmlarchiver.getCache().getHits());
+        assertEquals("",again.getDocumentElement().getAttribute("changed"));
+
+        // A store while the old document is being read keeps the old document out of the cache.
+        DocumentArchiver racing = new DocumentArchiver()
+        {
+            private boolean stored;
+
+            public Source getSource(String subDirectory,String fileName) throws IOException
+            {
+                Source source = super.getSource(subDirectory,fileName);
+                if (!stored)
+                {
+                    stored = true;
+                    storeObject(SUB_DIRECTORY,id,date,"stored while reading");
+                }
+                return source;
+            }
+        };
+        racing.setStoreageDirectory(archiver.getStoreageDirectory());
+        racing.setCache(new LruCache<CompoundKey,Object>(10,100000,0));
+        assertEquals("changed",racing.retrieveObject(SUB_DIRECTORY,id,date));
+        assertEquals(0,racing.getCache().getEntryCount());
+        assertEquals("stored while reading",racing.retrieveObject(SUB_DIRECTORY,id,date));
+    }
+
+    /**
+     * Test streaming XML documents in and out, without building a DOM.
+     */
+    public void testStreamingXml() throws Exception
+    {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><root xmlns:x=\"urn:x\">");
+        for (int i = 0; i < 1000; i++)
+            xml.append("<x:item n=\"").append(i).append("\">text &amp; more<!-- c --></x:item>");
+        xml.append("</root>");
+        byte[] bytes = xml.toString().getBytes("UTF-8");
+
+        String name = xmlarchiver.storeXml("documents",id,date,new ByteArrayInputStream(bytes));
+        assertEquals(1001,countElements(xmlarchiver.openXmlReader("documents",name)));
+
+        // Copy through the stream reader, then read it back with the DOM methods.
+        XMLStreamReader reader = StaxUtil.createReader(new ByteArrayInputStream(bytes));
+        String copy = xmlarchiver.storeXml("documents","copy",date,reader);
+        reader.close();
+        assertEquals(1001,countElements(xmlarchiver.openXmlReader("documents","copy",date)));
+        Document doc = xmlarchiver.retrieveDocument("documents",copy);
+        assertEquals("root",doc.getDocumentElement().getTagName());
+        assertEquals(1000,doc.getElementsByTagName("x:item").getLength());
+        assertEquals("999",((org.w3c.dom.Element)doc.getElementsByTagName("x:item").item(999)).getAttribute("n"));
+    }
+
+    private static int countElements(XMLStreamReader reader) throws Exception
+    {
+        int count = 0;
+        try
+        {
+            while (reader.hasNext())
+            {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT)
+                    count++;
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return count;
+    }
+
+    /**
+     * Test the retrieve directory index.
+     */
+    public void testRetrieveIndex() throws Exception
+    {
+        File old = new File("./temp/document-archiver-index-test/old");
+        File primary = new File("./temp/document-archiver-index-test/primary");
+        if (old.getParentFile().exists())
+            FileUtil.recursiveDelete(old.getParentFile());
+        org.yajul.io.archiver.DocumentArchiver oldArchiver = new org.yajul.io.archiver.DocumentArchiver();
+        oldArchiver.setStoreageDirectory(old);
+        oldArchiver.storeObject(SUB_DIRECTORY,id,date,"old");
+        oldArchiver.setPacked(true);
+        oldArchiver.storeObject(SUB_DIRECTORY,id,new Date(86400000L),"old packed");
+        oldArchiver.close();
+
+        archiver.setStoreageDirectory(primary);
+        archiver.setRetrieveDirectories(Arrays.asList(
+                new File("./temp/document-archiver-index-test/missing").getPath(),old.getPath()));
+        archiver.setRetrieveIndex(new RetrieveDirectoryIndex());
+        assertEquals("old",archiver.retrieveObject(SUB_DIRECTORY,id,date));
+        try
+        {
+            archiver.retrieveObject(SUB_DIRECTORY,new Long(2),date);
+            fail("Should not have found the document");
+        }
+        catch (FileNotFoundException e)
+        {
+            // Expected.
+        }
+        RetrieveDirectoryIndex index = archiver.getRetrieveIndex();
+        assertEquals(2,index.getListings());   // The missing directory and the old directory, once each.
+        // Document 2 is looked for under every codec's extension.
+        assertEquals(8,index.getNegatives());
+
+        org.yajul.io.archiver.DocumentArchiver reader = new org.yajul.io.archiver.DocumentArchiver();
+        reader.setStoreageDirectory(primary);
+        reader.setRetrieveDirectories(Arrays.asList(old.getPath()));
+        reader.setRetrieveIndex(new RetrieveDirectoryIndex());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            reader.scanRetrieveDirectories(executor);
+        }
+        finally
+        {
+            executor.shutdown();
+            executor.awaitTermination(10,TimeUnit.SECONDS);
+        }
+        assertEquals(2,reader.getRetrieveIndex().getDirectoryCount());
+        assertEquals("old packed",reader.retrieveObject(SUB_DIRECTORY,id,new Date(86400000L)));
+        assertEquals(2,reader.getRetrieveIndex().getListings());
+    }
+
+    /**
+     * Test packed storeage, and packing an existing tree.
+     */
+    public void testPacked() throws Exception
+    {
+        File dir = new File("./temp/document-archiver-pack-test");
+        if (dir.exists())
+            FileUtil.recursiveDelete(dir);
+        org.yajul.io.archiver.DocumentArchiver packed = new org.yajul.io.archiver.DocumentArchiver();
+        packed.setStoreageDirectory(dir);
+        packed.setPacked(true);
+        packed.setMaxSegmentSize(100);  // Start a new segment for almost every document.
+        packed.init();
+        String name = null;
+        for (int i = 0; i < 20; i++)
+            name = packed.storeObject(SUB_DIRECTORY,new Long(i),date,"packed " + i);
+        packed.storeObject(SUB_DIRECTORY,new Long(19),date,"packed again");
+        assertEquals("packed 3",packed.retrieveObject(SUB_DIRECTORY,new Long(3),date));
+        assertEquals("packed again",packed.retrieveObject(SUB_DIRECTORY,name));
+        assertEquals("packed 19",packed.retrieveObject(SUB_DIRECTORY,name + ".1"));
+        File day = new File(new File(dir,SUB_DIRECTORY),name).getParentFile();
+        assertFalse(new File(new File(dir,SUB_DIRECTORY),name).exists());
+        assertTrue(new File(day,"documents-1.pack").exists());
+        packed.close();
+
+        // A plain archiver reads the packed directory, and after the loose files are packed, those too.
+        org.yajul.io.archiver.DocumentArchiver plain = new org.yajul.io.archiver.DocumentArchiver();
+        plain.setStoreageDirectory(dir);
+        plain.storeObject("loose",id,date,"loose");
+        assertEquals("packed 5",plain.retrieveObject(SUB_DIRECTORY,new Long(5),date));
+        org.yajul.io.archiver.PackMigrator migrator = new org.yajul.io.archiver.PackMigrator();
+        migrator.setDeleteFiles(true);
+        assertEquals(1,migrator.pack(new File(dir,"loose")));
+        assertEquals("loose",plain.retrieveObject("loose",id,date));
+        assertFalse(new File(new File(dir,"loose"),plain.generateFileName(id,date)).exists());
+    }
+
+    /**
+     * Test storing into a directory that has been packed without deleting the files, and packing it again.
+     */
+    public void testStoreAfterPack() throws Exception
+    {
+        File dir = new File("./temp/document-archiver-repack-test");
+        if (dir.exists())
+            FileUtil.recursiveDelete(dir);
+        org.yajul.io.archiver.DocumentArchiver plain = new org.yajul.io.archiver.DocumentArchiver();
+        plain.setStoreageDirectory(dir);
+        String name = plain.storeObject(SUB_DIRECTORY,id,date,"old");
+        File f = new File(new File(dir,SUB_DIRECTORY),name);
+        byte[] old = java.nio.file.Files.readAllBytes(f.toPath());
+        org.yajul.io.archiver.PackMigrator migrator = new org.yajul.io.archiver.PackMigrator();
+        assertEquals(1,migrator.pack(dir));
+        assertTrue(f.exists());
+
+        // The store goes to the pack, and the packed copy of the file is superseded.
+        plain.storeObject(SUB_DIRECTORY,id,date,"new");
+        assertEquals("new",plain.retrieveObject(SUB_DIRECTORY,id,date));
+        assertFalse(f.exists());
+
+        // Packing again leaves out a stale file of a name that is already packed.
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(old);
+        out.close();
+        migrator.setDeleteFiles(true);
+        assertEquals(0,migrator.pack(dir));
+        assertFalse(f.exists());
+        assertEquals("new",plain.retrieveObject(SUB_DIRECTORY,id,date));
+        plain.close();
+    }
+
+    /**
+     * Test two packed archivers appending to the same directories, while a migrator packs loose files.
+     */
+    public void testSharedPack() throws Exception
+    {
+        File dir = new File("./temp/document-archiver-shared-pack-test");
+        if (dir.exists())
+            FileUtil.recursiveDelete(dir);
+        org.yajul.io.archiver.DocumentArchiver plain = new org.yajul.io.archiver.DocumentArchiver();
+        plain.setStoreageDirectory(dir);
+        plain.storeObject(SUB_DIRECTORY,new Long(100),date,"loose");
+        org.yajul.io.archiver.DocumentArchiver a = new org.yajul.io.archiver.DocumentArchiver();
+        org.yajul.io.archiver.DocumentArchiver b = new org.yajul.io.archiver.DocumentArchiver();
+        a.setStoreageDirectory(dir);
+        b.setStoreageDirectory(dir);
+        a.setPacked(true);
+        b.setPacked(true);
+        for (int i = 0; i < 10; i++)
+        {
+            a.storeObject(SUB_DIRECTORY,new Long(i),date,"a " + i);
+            b.storeObject(SUB_DIRECTORY,new Long(i + 10),date,"b " + i);
+        }
+        // Read the index before the migrator appends to it.
+        assertEquals("a 1",b.retrieveObject(SUB_DIRECTORY,new Long(1),date));
+        org.yajul.io.archiver.PackMigrator migrator = new org.yajul.io.archiver.PackMigrator();
+        migrator.setDeleteFiles(true);
+        assertEquals(1,migrator.pack(new File(dir,SUB_DIRECTORY)));
+        b.storeObject(SUB_DIRECTORY,new Long(1),date,"b again");
+        for (int i = 0; i < 10; i++)
+        {
+            assertEquals("b " + i,a.retrieveObject(SUB_DIRECTORY,new Long(i + 10),date));
+            if (i != 1)
+                assertEquals("a " + i,b.retrieveObject(SUB_DIRECTORY,new Long(i),date));
+        }
+        assertEquals("b again",a.retrieveObject(SUB_DIRECTORY,new Long(1),date));
+        assertEquals("loose",a.retrieveObject(SUB_DIRECTORY,new Long(100),date));
+        assertEquals("loose",b.retrieveObject(SUB_DIRECTORY,new Long(100),date));
+        a.close();
+        b.close();
+    }
+
     /**
      * Constructs a test suite for this test case, providing any required
      * Setup wrappers, or decorators as well.
@@ -191,4 +191,64 @@ public class StreamCopierTest extends TestCase {
         TestCase.assertTrue(Arrays.equals(expectedBytes, copyBytes));
     }
 
+    public void testPipelinedCopy() throws Exception {
+        byte[] bytes = new byte[100 * 1024];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) i;
+        final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        // A slow sink: the reader should be able to get ahead of it by the number of buffers.
+        OutputStream slowSink = new FilterOutputStream(copy) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException ignore) {
+                }
+                out.write(b, off, len);
+            }
+        };
+        final CopyCallbacks callbacks = new CopyCallbacks();
+        StreamCopier copier = new StreamCopier(new ByteArrayInputStream(bytes), slowSink, 4096, Copier.UNLIMITED, callbacks, 4);
+        Thread t = new Thread(copier);
+        t.start();
+        TestCase.assertEquals(bytes.length, copier.getFuture().get().longValue());
+        TestCase.assertTrue(copier.waitForComplete(1000));
+        TestCase.assertNull(copier.getException());
+        TestCase.assertTrue(Arrays.equals(bytes, copy.toByteArray()));
+        TestCase.assertTrue(callbacks.isStartCalled());
+        TestCase.assertTrue(callbacks.isEndCalled());
+    }
+
+    public void testPipelinedCopyWriteError() throws Exception {
+        byte[] bytes = new byte[100 * 1024];
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("broken");
+            }
+        };
+        StreamCopier copier = new StreamCopier(new ByteArrayInputStream(bytes), broken, 1024, Copier.UNLIMITED, Copier.NO_CALLBACK, 2);
+        copier.run();
+        TestCase.assertNotNull(copier.getException());
+        TestCase.assertEquals("broken", copier.getException().getMessage());
+        TestCase.assertTrue(copier.getFuture().isCompletedExceptionally());
+    }
+
+    public void testPipelinedCopyRuntimeError() throws Exception {
+        byte[] bytes = new byte[100 * 1024];
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IllegalStateException("broken");
+            }
+        };
+        StreamCopier copier = new StreamCopier(new ByteArrayInputStream(bytes), broken, 1024, Copier.UNLIMITED, Copier.NO_CALLBACK, 2);
+        Thread t = new Thread(copier);
+        t.start();
+        t.join(10000);
+        TestCase.assertFalse("The copy did not finish", t.isAlive());
+        TestCase.assertNotNull(copier.getException());
+        TestCase.assertTrue(copier.getException().getCause() instanceof IllegalStateException);
+        TestCase.assertTrue(copier.getFuture().isCompletedExceptionally());
+    }
 }
@@ -7,10 +7,18 @@ import org.yajul.io.NullOutputStream;
 import org.yajul.io.SerializationStats;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.PriorityQueue;
+import java.util.Map;
+import java.util.Collections;
+import java.util.TreeSet;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.Deflater;
@@ -160,6 +168,54 @@ public class SerializationTest  {
         log.info("no compression, elapsed = " + (end - start));        
     }
 
+    @Test
+    public void testPooledBuffers() throws Exception {
+        Thing t = createThing();
+        byte[] bytes = SerializationHelper.toByteArray(t, 128);
+        assertTrue(Arrays.equals(bytes, SerializationHelper.toByteArray(t)));
+        assertTrue(SerializationHelper.getSizeHint(Thing.class) >= bytes.length);
+
+        // The view shares the pooled buffer, so it is overwritten by the next serialization.
+        ByteBuffer view = SerializationHelper.toByteBuffer(t);
+        assertEquals(bytes.length, view.remaining());
+        assertEquals(t.getFoos(), ((Thing) SerializationHelper.fromByteBuffer(view)).getFoos());
+        assertEquals(0, view.position());
+
+        ByteBuffer target = ByteBuffer.allocate(bytes.length + 10);
+        target.put((byte) 1);
+        assertEquals(bytes.length, SerializationHelper.serializeTo(t, target));
+        target.flip();
+        target.get();
+        assertEquals(t.getFoos(), ((Thing) SerializationHelper.fromByteBuffer(target)).getFoos());
+        try {
+            SerializationHelper.serializeTo(t, ByteBuffer.allocate(10));
+            fail("Expected an overflow");
+        } catch (java.nio.BufferOverflowException ignore) {
+        }
+
+        // Nested serialization (the wrapper serializes the wrapped object in writeExternal) gets its own buffer.
+        ByteArrayWrapper<Thing> wrapper = new ByteArrayWrapper<Thing>(t);
+        ByteArrayWrapper<Thing> clone = SerializationHelper.clone(wrapper);
+        assertEquals(t.getFoos(), clone.unwrap().getFoos());
+
+        // A smaller object shrinks the hint slowly.
+        ArrayList<Foo> list = new ArrayList<Foo>();
+        addFoos(list);
+        int large = SerializationHelper.toByteArray(list).length;
+        int hint = SerializationHelper.getSizeHint(ArrayList.class);
+        assertTrue(hint >= large);
+        list.subList(1, list.size()).clear();
+        int small = SerializationHelper.toByteArray(list).length;
+        assertEquals(hint - (hint - small) / 4, SerializationHelper.getSizeHint(ArrayList.class));
+
+        // One very large object doesn't make the hint (or the pooled buffer) that large.
+        HashMap<Integer, byte[]> huge = new HashMap<Integer, byte[]>();
+        for (int i = 0; i < 64; i++)
+            huge.put(i, new byte[4096]);
+        assertTrue(SerializationHelper.toByteArray(huge).length > 256 * 1024);
+        assertTrue(SerializationHelper.getSizeHint(HashMap.class) <= 64 * 1024);
+    }
+
     public static enum MyEnum {
         VALUE1,
         VALUE2,
@@ -532,6 +588,483 @@ public class SerializationTest  {
         }
     }
 
+    public static class CompactFooBar implements Externalizable {
+        private long id;
+        private String one;
+        private MyEnum two;
+        private Date three;
+        private int[] counts;
+
+        public CompactFooBar() {
+        }
+
+        public CompactFooBar(long id, String one, MyEnum two, Date three, int[] counts) {
+            this.id = id;
+            this.one = one;
+            this.two = two;
+            this.three = three;
+            this.counts = counts;
+        }
+
+        public void writeExternal(ObjectOutput out) throws IOException {
+            CompactExternalizableHelper.writeVersion(out, 1);
+            CompactExternalizableHelper.writeSignedVarLong(out, id);
+            int bits = CompactExternalizableHelper.writeNullBits(out, one, two, three);
+            if (ExternalizableHelper.isNotNullBit(bits, 0))
+                CompactExternalizableHelper.writeString(out, one);
+            if (ExternalizableHelper.isNotNullBit(bits, 1))
+                CompactExternalizableHelper.writeEnum(out, two);
+            if (ExternalizableHelper.isNotNullBit(bits, 2))
+                CompactExternalizableHelper.writeVarLong(out, three.getTime());
+            CompactExternalizableHelper.writeIntArray(out, counts);
+        }
+
+        public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+            CompactExternalizableHelper.readVersion(in, 1);
+            id = CompactExternalizableHelper.readSignedVarLong(in);
+            int bits = CompactExternalizableHelper.readNullBits(in);
+            if (ExternalizableHelper.isNotNullBit(bits, 0))
+                one = CompactExternalizableHelper.readString(in);
+            if (ExternalizableHelper.isNotNullBit(bits, 1))
+                two = CompactExternalizableHelper.readEnum(in, MyEnum.values());
+            if (ExternalizableHelper.isNotNullBit(bits, 2))
+                three = new Date(CompactExternalizableHelper.readVarLong(in));
+            counts = CompactExternalizableHelper.readIntArray(in);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CompactFooBar)) return false;
+
+            CompactFooBar other = (CompactFooBar) o;
+
+            if (id != other.id) return false;
+            if (one != null ? !one.equals(other.one) : other.one != null) return false;
+            if (three != null ? !three.equals(other.three) : other.three != null) return false;
+            if (two != other.two) return false;
+
+            return Arrays.equals(counts, other.counts);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (id ^ (id >>> 32));
+        }
+    }
+
+    @Test
+    public void testCompactEncoding() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        long[] longs = { 0, 1, -1, 63, -64, 64, Long.MAX_VALUE, Long.MIN_VALUE };
+        int[] ints = { 0, 1, -1, 127, 128, Integer.MAX_VALUE, Integer.MIN_VALUE };
+        for (long v : longs)
+            CompactExternalizableHelper.writeSignedVarLong(out, v);
+        for (int v : ints) {
+            CompactExternalizableHelper.writeSignedVarInt(out, v);
+            CompactExternalizableHelper.writeVarInt(out, v);
+        }
+        CompactExternalizableHelper.writeString(out, "gr\u00fc\u00dfe \u65e5\u672c");
+        CompactExternalizableHelper.writeString(out, null);
+        CompactExternalizableHelper.writeString(out, "");
+        CompactExternalizableHelper.writeLongArray(out, longs);
+        CompactExternalizableHelper.writeDoubleArray(out, new double[] { 1.5, -0.0 });
+        CompactExternalizableHelper.writeBooleanArray(out, new boolean[] { true, false, false, true, true, false, true, false, true });
+        CompactExternalizableHelper.writeByteArray(out, null);
+        CompactExternalizableHelper.writeEnum(out, null);
+        out.close();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        for (long v : longs)
+            assertEquals(v, CompactExternalizableHelper.readSignedVarLong(in));
+        for (int v : ints) {
+            assertEquals(v, CompactExternalizableHelper.readSignedVarInt(in));
+            assertEquals(v, CompactExternalizableHelper.readVarInt(in));
+        }
+        assertEquals("gr\u00fc\u00dfe \u65e5\u672c", CompactExternalizableHelper.readString(in));
+        assertNull(CompactExternalizableHelper.readString(in));
+        assertEquals("", CompactExternalizableHelper.readString(in));
+        assertTrue(Arrays.equals(longs, CompactExternalizableHelper.readLongArray(in)));
+        assertTrue(Arrays.equals(new double[] { 1.5, -0.0 }, CompactExternalizableHelper.readDoubleArray(in)));
+        assertTrue(Arrays.equals(new boolean[] { true, false, false, true, true, false, true, false, true },
+                CompactExternalizableHelper.readBooleanArray(in)));
+        assertNull(CompactExternalizableHelper.readByteArray(in));
+        assertNull(CompactExternalizableHelper.readEnum(in, MyEnum.values()));
+        assertEquals(-1, in.read());
+
+        CompactFooBar full = new CompactFooBar(42, "\u00e9t\u00e9", MyEnum.VALUE3, new Date(), new int[] { 1, -2, 300 });
+        assertEquals(full, SerializationHelper.clone(full));
+        CompactFooBar empty = new CompactFooBar(-1, null, null, null, null);
+        assertEquals(empty, SerializationHelper.clone(empty));
+        log.info("compact size = " + SerializationStats.sizeOf(full) + ", all null = " + SerializationStats.sizeOf(empty));
+
+        // A newer layout than the reader knows about is rejected.
+        baos = new ByteArrayOutputStream();
+        out = new DataOutputStream(baos);
+        CompactExternalizableHelper.writeVersion(out, 2);
+        out.close();
+        try {
+            CompactExternalizableHelper.readVersion(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())), 1);
+            fail("Expected an InvalidObjectException");
+        } catch (InvalidObjectException ignore) {
+        }
+    }
+
+    public static class Unwritable implements Serializable {
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            throw new NotSerializableException("unwritable");
+        }
+    }
+
+    public static class Msg implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private int a;
+        private int b;
+    }
+
+    /**
+     * Reads a descriptor of a class with the given int fields, as another version of the class would write it.
+     */
+    private static ObjectStreamClass streamDescriptor(Class<?> c, String... intFields) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(ObjectStreamConstants.STREAM_MAGIC);
+        out.writeShort(ObjectStreamConstants.STREAM_VERSION);
+        out.writeByte(ObjectStreamConstants.TC_CLASS);
+        out.writeByte(ObjectStreamConstants.TC_CLASSDESC);
+        out.writeUTF(c.getName());
+        out.writeLong(ObjectStreamClass.lookup(c).getSerialVersionUID());
+        out.writeByte(ObjectStreamConstants.SC_SERIALIZABLE);
+        out.writeShort(intFields.length);
+        for (String field : intFields) {
+            out.writeByte('I');
+            out.writeUTF(field);
+        }
+        out.writeByte(ObjectStreamConstants.TC_ENDBLOCKDATA);
+        out.writeByte(ObjectStreamConstants.TC_NULL);
+        out.flush();
+        final ObjectStreamClass[] desc = new ObjectStreamClass[1];
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())) {
+            @Override
+            protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+                return desc[0] = super.readClassDescriptor();
+            }
+        };
+        assertSame(c, in.readObject());
+        return desc[0];
+    }
+
+    @Test
+    public void testSessionSerializer() throws Exception {
+        Foo f = new Foo("one", 1);
+        int plain = SerializationHelper.toByteArray(f).length;
+
+        // Pre-registered dictionary, shared by both ends.
+        ClassDescriptorDictionary shared = new ClassDescriptorDictionary().register(Foo.class, Thing.class, Bar.class);
+        SessionSerializer serializer = new SessionSerializer(shared);
+        byte[] bytes = serializer.toByteArray(f);
+        log.info("session size = " + bytes.length + ", plain = " + plain);
+        assertTrue(bytes.length < plain / 2);
+        assertEquals(f, serializer.fromByteArray(bytes));
+        assertEquals(0, serializer.getInlineDescriptors());
+
+        // Unknown classes (ArrayList here) fall back to full descriptors.
+        Thing t = createThing();
+        Thing t2 = (Thing) serializer.fromByteArray(serializer.toByteArray(t));
+        assertEquals(t.getFoos(), t2.getFoos());
+        assertTrue(serializer.getInlineDescriptors() > 0);
+
+        // Learning: each end has its own copy, the reader learns the ids from the first message.
+        SessionSerializer writer = new SessionSerializer(new ClassDescriptorDictionary(shared));
+        SessionSerializer reader = new SessionSerializer(new ClassDescriptorDictionary(shared));
+        writer.setLearning(true);
+        reader.setLearning(true);
+        byte[] first = writer.toByteArray(t);
+        byte[] second = writer.toByteArray(t);
+        assertTrue(second.length < first.length);
+        assertEquals(t.getFoos(), ((Thing) reader.fromByteArray(first)).getFoos());
+        assertEquals(t.getFoos(), ((Thing) reader.fromByteArray(second)).getFoos());
+        assertEquals(writer.getDictionary().size(), reader.getDictionary().size());
+
+        // A reader that missed the first message can't resolve the learned ids.
+        try {
+            new SessionSerializer(new ClassDescriptorDictionary(shared)).fromByteArray(second);
+            fail("Expected an InvalidClassException");
+        } catch (InvalidClassException ignore) {
+        }
+        // A message that fails part way doesn't add its descriptors, so the next message still reads.
+        SessionSerializer failing = new SessionSerializer(new ClassDescriptorDictionary(shared));
+        failing.setLearning(true);
+        int size = failing.getDictionary().size();
+        try {
+            failing.toByteArray(new ArrayList<Object>(Arrays.asList(new Date(), new Unwritable())));
+            fail("Expected a NotSerializableException");
+        } catch (NotSerializableException ignore) {
+        }
+        assertEquals(size, failing.getDictionary().size());
+        byte[] next = failing.toByteArray(new ArrayList<Object>(Arrays.asList(new Date(), t)));
+        SessionSerializer late = new SessionSerializer(new ClassDescriptorDictionary(shared));
+        late.setLearning(true);
+        assertEquals(t.getFoos(), ((Thing) ((List) late.fromByteArray(next)).get(1)).getFoos());
+        assertEquals(failing.getDictionary().size(), late.getDictionary().size());
+        // ... and a plain stream is rejected.
+        try {
+            serializer.fromByteArray(SerializationHelper.toByteArray(f));
+            fail("Expected a StreamCorruptedException");
+        } catch (StreamCorruptedException ignore) {
+        }
+
+        // Another version of a class, with the same serialVersionUID but different fields, has another key...
+        ObjectStreamClass other = streamDescriptor(Msg.class, "a");
+        ClassDescriptorDictionary local = new ClassDescriptorDictionary().register(Msg.class);
+        assertEquals(0, local.getId(ObjectStreamClass.lookup(Msg.class)));
+        assertEquals(-1, local.getId(other));
+        assertFalse(local.register(0, other));
+        // ... and a reader that has it under the writer's id rejects the stream rather than misreading it.
+        ClassDescriptorDictionary remote = new ClassDescriptorDictionary();
+        assertTrue(remote.register(0, other));
+        Msg msg = new Msg();
+        byte[] message = new SessionSerializer(local).toByteArray(new Object[] { msg, msg, "tail" });
+        try {
+            new SessionSerializer(remote).fromByteArray(message);
+            fail("Expected an InvalidClassException");
+        } catch (InvalidClassException ignore) {
+        }
+        Object[] read = (Object[]) new SessionSerializer(new ClassDescriptorDictionary().register(Msg.class))
+                .fromByteArray(message);
+        assertSame(read[0], read[1]);
+        assertEquals("tail", read[2]);
+    }
+
+    @Test
+    public void testCompressedWrapper() throws Exception {
+        Thing t = createThing();
+        for (int i = 0; i < 20; i++)
+            addFoos(t.getFoos());
+        CompressedByteArrayWrapper.Policy policy = new CompressedByteArrayWrapper.Policy(Deflater.BEST_SPEED, 256);
+        CompressedByteArrayWrapper<Thing> wrapper = new CompressedByteArrayWrapper<Thing>(t, policy);
+        byte[] bytes = wrapper.wrap();
+        assertTrue(CompressedByteArrayWrapper.isCompressed(bytes));
+        assertTrue(bytes.length < SerializationHelper.toByteArray(t).length);
+        assertEquals(1, policy.getCompressedCount());
+        assertTrue(policy.getRatio() < 1.0);
+
+        // Round trip through serialization, the copy has the same policy settings.
+        CompressedByteArrayWrapper<Thing> clone = SerializationHelper.clone(wrapper);
+        assertTrue(clone.isWrapped());
+        assertEquals(t.getFoos(), clone.unwrap().getFoos());
+        assertEquals(256, clone.getPolicy().getThreshold());
+        assertTrue(clone.getPolicy().isKeepWrapped());
+        CompressedByteArrayWrapper<Foo> plain = new CompressedByteArrayWrapper<Foo>(new Foo("one", 1));
+        assertSame(CompressedByteArrayWrapper.DEFAULT_POLICY, SerializationHelper.clone(plain).getPolicy());
+
+        // The compressed bytes are kept, each unwrap is a new copy.
+        Thing first = wrapper.unwrap();
+        assertEquals(t.getFoos(), first.getFoos());
+        assertTrue(wrapper.isWrapped());
+        assertSame(bytes, wrapper.wrap());
+        assertNotSame(first, wrapper.unwrap());
+        assertEquals(2, policy.getUnwrapCount());
+
+        // Small payloads stay raw.
+        CompressedByteArrayWrapper<Foo> small = new CompressedByteArrayWrapper<Foo>(new Foo("one", 1), policy);
+        assertFalse(CompressedByteArrayWrapper.isCompressed(small.wrap()));
+        assertEquals(new Foo("one", 1), small.unwrap());
+        assertEquals(2, policy.getWrapCount());
+        assertEquals(1, policy.getCompressedCount());
+
+        // Without keepWrapped, concurrent unwraps of one wrapped instance deserialize once, and all get the same object.
+        CompressedByteArrayWrapper.Policy unwrapOnce = new CompressedByteArrayWrapper.Policy(Deflater.BEST_SPEED, 256, false);
+        final CompressedByteArrayWrapper<Thing> shared =
+                SerializationHelper.clone(new CompressedByteArrayWrapper<Thing>(t, unwrapOnce));
+        assertFalse(shared.getPolicy().isKeepWrapped());
+        final Thing[] results = new Thing[8];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        results[n] = shared.unwrap();
+                    } catch (Exception e) {
+                        log.log(Level.SEVERE, "unwrap failed", e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        for (Thing result : results)
+            assertSame(results[0], result);
+        assertFalse(shared.isWrapped());
+
+        byte[] compressed = SerializationHelper.toCompressedByteArray(t, Deflater.BEST_COMPRESSION);
+        assertEquals(t.getFoos(), ((Thing) SerializationHelper.fromCompressedByteArray(compressed)).getFoos());
+    }
+
+    @Test
+    public void testProfiler() throws Exception {
+        Thing t = createThing();
+        SerializationProfiler.Snapshot snapshot = SerializationStats.profile(t);
+        int size = SerializationStats.sizeOf(t);
+        assertEquals(size, snapshot.getSampledBytes());
+        long total = 0;
+        for (SerializationProfiler.Entry entry : snapshot.getClasses())
+            total += entry.getBytes();
+        assertEquals(size, total);
+        assertEquals(size, snapshot.getPathEntry("Thing").getRetainedBytes());
+        assertEquals(10, snapshot.getClassEntry(Foo.class.getName()).getCount());
+        assertEquals(1, snapshot.getPathEntry("Thing.bar").getCount());
+        assertEquals(1, snapshot.getPathEntry("Thing.foos").getCount());
+        assertEquals(10, snapshot.getPathEntry("Thing.foos[]").getCount());
+        assertEquals(10, snapshot.getPathEntry("Thing.foos[].name").getCount());
+        SerializationProfiler.Entry foos = snapshot.getPathEntry("Thing.foos");
+        assertTrue(foos.getRetainedBytes() > snapshot.getPathEntry("Thing.foos[]").getRetainedBytes());
+        assertEquals(foos.getRetainedBytes(), foos.getBytes() + snapshot.getPathEntry("Thing.foos[]").getRetainedBytes());
+        log.info("paths: " + snapshot.getPaths());
+
+        // Sample one in four calls from SerializationHelper.
+        SerializationProfiler profiler = new SerializationProfiler(4);
+        SerializationHelper.setProfiler(profiler);
+        try {
+            for (int i = 0; i < 10; i++)
+                SerializationHelper.toByteArray(new Foo("foo", i));
+        } finally {
+            SerializationHelper.setProfiler(null);
+        }
+        snapshot = profiler.snapshot();
+        assertEquals(10, snapshot.getCalls());
+        assertEquals(2, snapshot.getSamples());
+        assertEquals(2, snapshot.getClassEntry(Foo.class.getName()).getCount());
+        assertEquals(Foo.class.getName(), snapshot.getClasses().get(0).getName());
+        profiler.reset();
+        assertEquals(0, profiler.snapshot().getClasses().size());
+    }
+
+    public static class Counter implements Serializable {
+        private AtomicLong count = new AtomicLong(5);
+    }
+
+    public static class Node implements Serializable {
+        private String name;
+        private Node next;
+        private List<Node> children = new ArrayList<Node>();
+        private Map<Object, String> tags = new HashMap<Object, String>();
+        private TreeSet<String> sorted = new TreeSet<String>(Collections.<String>reverseOrder());
+        private MyEnum kind = MyEnum.VALUE2;
+        private Date created = new Date(1000);
+        private long[] values = { 1, 2, 3 };
+        private transient int cached = -1;
+
+        public Node() {
+        }
+
+        public Node(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Uses the identity hash code, so a hash map key copy only works if the map is rebuilt.
+     */
+    public static class IdentityKey implements Serializable {
+        private String label;
+
+        public IdentityKey() {
+        }
+    }
+
+    public static class NotCopyable {
+        private final String value;
+
+        public NotCopyable(String value) {
+            this.value = value;
+        }
+    }
+
+    @Test
+    public void testDeepCopy() throws Exception {
+        Node root = new Node("root");
+        Node child = new Node("child");
+        root.next = child;
+        child.next = root;                  // Cycle.
+        root.children.add(child);           // Shared with root.next.
+        root.children.add(child);
+        IdentityKey key = new IdentityKey();
+        root.tags.put(key, "key");
+        root.sorted.add("a");
+        root.sorted.add("b");
+        root.cached = 42;
+        Object[] graph = { root, key, new ByteArrayWrapper<Foo>(new Foo("wrapped", 1)), new int[] { 7 } };
+
+        DeepCopier copier = new DeepCopier();
+        Object[] copy = copier.copy(graph);
+        Node r = (Node) copy[0];
+        assertNotSame(root, r);
+        assertEquals("root", r.name);
+        assertSame(r, r.next.next);
+        assertSame(r.next, r.children.get(0));
+        assertSame(r.children.get(0), r.children.get(1));
+        assertNotSame(child, r.next);
+        assertSame(root.name, r.name);          // Immutables are shared.
+        assertSame(MyEnum.VALUE2, r.kind);
+        assertNotSame(root.created, r.created);
+        assertEquals(root.created, r.created);
+        assertNotSame(root.values, r.values);
+        assertTrue(Arrays.equals(root.values, r.values));
+        assertEquals(-1, r.cached);             // Transient fields are not copied.
+
+        // The copied key is the same object as the copy of the top level reference, and finds its entry.
+        IdentityKey k = (IdentityKey) copy[1];
+        assertNotSame(key, k);
+        assertEquals("key", r.tags.get(k));
+        assertEquals(Arrays.asList("b", "a"), new ArrayList<String>(r.sorted));
+        r.sorted.add("c");
+        assertEquals("c", r.sorted.first());    // Still reverse order.
+
+        // Externalizable objects are copied with serialization.
+        assertEquals(1, copier.getFallbackCount());
+        assertEquals(new Foo("wrapped", 1), ((ByteArrayWrapper<?>) copy[2]).unwrap());
+
+        try {
+            copier.copy(new NotCopyable("x"));
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException ignore) {
+        }
+
+        // JDK classes whose fields can't be made accessible (Java 9 and later) are copied with serialization.
+        Counter counter = new Counter();
+        Counter c = copier.copy(counter);
+        assertNotSame(counter.count, c.count);
+        assertEquals(5, c.count.get());
+
+        // Collections with settings a rebuild would lose keep them.
+        PriorityQueue<Integer> queue = new PriorityQueue<Integer>(4, Collections.<Integer>reverseOrder());
+        queue.addAll(Arrays.asList(3, 5, 1));
+        PriorityQueue<Integer> q = copier.copy(queue);
+        assertNotSame(queue, q);
+        q.add(4);
+        assertEquals(Integer.valueOf(5), q.peek());
+        LinkedHashMap<String, String> lru = new LinkedHashMap<String, String>(16, 0.75f, true);
+        lru.put("a", "1");
+        lru.put("b", "2");
+        LinkedHashMap<String, String> l = copier.copy(lru);
+        l.get("a");
+        assertEquals(Arrays.asList("b", "a"), new ArrayList<String>(l.keySet()));
+
+        // Marking a class immutable after it has been copied takes effect.
+        Date date = new Date();
+        assertNotSame(date, copier.copy(date));
+        copier.addImmutable(Date.class);
+        assertSame(date, copier.copy(date));
+
+        assertNull(SerializationHelper.deepCopy(null));
+        Thing t = createThing();
+        assertEquals(t.getFoos(), SerializationHelper.deepCopy(t).getFoos());
+    }
+
     @Test
     public void testNullableBits() throws Exception {
         FooBar fooBar1 = new FooBar("one",MyEnum.VALUE1,new Date());
@@ -0,0 +1,211 @@
+package org.yajul.util;
+
+import org.junit.Test;
+import org.yajul.reflection.BeanCopier;
+
+import java.lang.reflect.InvocationTargetException;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests BeanCopier.
+ */
+public class BeanCopierTest {
+
+    public static class Source {
+        private long id;
+        private String name;
+        private int amount;
+        private String created;
+        private double total;
+        private String count;
+
+        public Source() {
+        }
+
+        public Source(long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(long id) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int getAmount() {
+            return amount;
+        }
+
+        public void setAmount(int amount) {
+            this.amount = amount;
+        }
+
+        public String getCreated() {
+            return created;
+        }
+
+        public void setCreated(String created) {
+            this.created = created;
+        }
+
+        public double getTotal() {
+            return total;
+        }
+
+        public void setTotal(double total) {
+            this.total = total;
+        }
+
+        public String getCount() {
+            return count;
+        }
+
+        public void setCount(String count) {
+            this.count = count;
+        }
+    }
+
+    public static class Target {
+        private Long id;
+        private String name = "unset";
+        private long amount;
+        private Date created;
+        private String total;
+        private int count;
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public long getAmount() {
+            return amount;
+        }
+
+        public void setAmount(long amount) {
+            this.amount = amount;
+        }
+
+        public Date getCreated() {
+            return created;
+        }
+
+        public void setCreated(Date created) {
+            this.created = created;
+        }
+
+        public String getTotal() {
+            return total;
+        }
+
+        public void setTotal(String total) {
+            this.total = total;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+    }
+
+    @Test
+    public void testConversions() throws Exception {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        BeanCopier<Source, Target> copier = BeanCopier.compile(Source.class, Target.class, new BeanCopier.Options()
+                .format("created", dateFormat)
+                .format("total", new DecimalFormat("0.00", DecimalFormatSymbols.getInstance(Locale.US))));
+        assertEquals(Collections.singletonList("count"), copier.getSkippedProperties());
+        assertEquals(5, copier.getPropertyNames().size());
+
+        Source source = new Source(42, "answer");
+        source.setAmount(7);
+        source.setCreated("1970-01-02");
+        source.setTotal(3.14159);
+        source.setCount("12");
+        Target target = copier.copy(source);
+        assertEquals(Long.valueOf(42), target.getId());
+        assertEquals("answer", target.getName());
+        assertEquals(7L, target.getAmount());
+        assertEquals(new Date(24 * 60 * 60 * 1000L), target.getCreated());
+        assertEquals("3.14", target.getTotal());
+        assertEquals(0, target.getCount());
+
+        source.setCreated("not a date");
+        try {
+            copier.copy(source);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException ignore) {
+        }
+    }
+
+    @Test
+    public void testNulls() throws Exception {
+        BeanCopier<Source, Target> copier = BeanCopier.compile(Source.class, Target.class);
+        Target target = copier.copy(new Source(1, null));
+        assertNull(target.getName());
+
+        BeanCopier<Source, Target> skipping = BeanCopier.compile(Source.class, Target.class,
+                new BeanCopier.Options().skipNulls(true).exclude("amount"));
+        assertFalse(skipping.getPropertyNames().contains("amount"));
+        Source source = new Source(1, null);
+        source.setAmount(99);
+        target = skipping.copy(source);
+        assertEquals("unset", target.getName());
+        assertEquals(0L, target.getAmount());
+    }
+
+    @Test
+    public void testBulk() throws InvocationTargetException {
+        BeanCopier<Source, Source> copier = BeanCopier.compile(Source.class, Source.class);
+        List<Source> sources = Arrays.asList(new Source(1, "one"), null, new Source(3, "three"));
+        List<Source> copies = copier.copyAll(sources);
+        assertEquals(3, copies.size());
+        assertNotSame(sources.get(0), copies.get(0));
+        assertEquals("one", copies.get(0).getName());
+        assertNull(copies.get(1));
+        assertEquals(3L, copies.get(2).getId());
+
+        Source existing = new Source();
+        Source[] targets = copier.copyAll(sources.toArray(new Source[3]), new Source[]{existing, null, null});
+        assertSame(existing, targets[0]);
+        assertEquals("one", existing.getName());
+        assertNull(targets[1]);
+        assertEquals("three", targets[2].getName());
+    }
+}
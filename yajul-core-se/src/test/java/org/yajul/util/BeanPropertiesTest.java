@@ -0,0 +1,148 @@
+package org.yajul.util;
+
+import org.junit.Test;
+import org.yajul.reflection.BeanProperties;
+import org.yajul.reflection.PropertyAccessors;
+import org.yajul.reflection.PropertyMap;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests BeanProperties, PropertyAccessors and PropertyMap.
+ */
+public class BeanPropertiesTest {
+
+    public static class TestBean {
+        private int intProp;
+        private String stringProp;
+        private long longProp;
+
+        public int getIntProp() {
+            return intProp;
+        }
+
+        public void setIntProp(int intProp) {
+            this.intProp = intProp;
+        }
+
+        public String getStringProp() {
+            return stringProp;
+        }
+
+        public void setStringProp(String stringProp) {
+            this.stringProp = stringProp;
+        }
+
+        public long getLongProp() {
+            return longProp;
+        }
+
+        public void setLongProp(long longProp) {
+            this.longProp = longProp;
+        }
+
+        public String getReadOnly() {
+            return "constant";
+        }
+
+        public void setWriteOnly(String value) {
+            stringProp = value;
+        }
+
+        public String getBroken() {
+            throw new IllegalStateException("broken");
+        }
+    }
+
+    private static class PrivateBean {
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    @Test
+    public void testCache() {
+        BeanProperties properties = BeanProperties.forClass(TestBean.class);
+        assertSame(properties, BeanProperties.forClass(TestBean.class));
+        assertEquals(6, properties.size());
+        try {
+            properties.getPropertyNames().clear();
+            fail("Expected an UnsupportedOperationException");
+        } catch (UnsupportedOperationException ignore) {
+        }
+    }
+
+    @Test
+    public void testAccessors() throws Exception {
+        BeanProperties properties = BeanProperties.forClass(TestBean.class);
+        TestBean bean = new TestBean();
+        properties.setProperty(bean, "intProp", 3);
+        assertEquals(3, bean.getIntProp());
+        assertEquals(3, properties.getIntProperty(bean, "intProp"));
+        properties.setProperty(bean, "stringProp", "test");
+        assertEquals("test", properties.getProperty(bean, "stringProp"));
+        properties.setProperty(bean, "writeOnly", "written");
+        assertEquals("written", bean.getStringProp());
+
+        PropertyAccessors longProp = properties.getAccessorMethods("longProp");
+        assertTrue(longProp.isBound());
+        assertEquals(long.class, longProp.getType());
+        longProp.invokeSetter(bean, 42);                // Widened, like Method.invoke().
+        assertEquals(42L, bean.getLongProp());
+        try {
+            longProp.invokeSetter(bean, "42");
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException ignore) {
+        }
+        try {
+            longProp.invokeSetter(bean, null);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException ignore) {
+        }
+        try {
+            longProp.invokeGetter("not a bean");
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException ignore) {
+        }
+        try {
+            properties.getAccessorMethods("broken").invokeGetter(bean);
+            fail("Expected an InvocationTargetException");
+        } catch (InvocationTargetException e) {
+            assertEquals("broken", e.getCause().getMessage());
+        }
+        assertEquals(String.class, properties.getAccessorMethods("writeOnly").getType());
+
+        BeanProperties privateProperties = BeanProperties.forClass(PrivateBean.class);
+        PrivateBean privateBean = new PrivateBean();
+        privateProperties.setProperty(privateBean, "name", "hidden");
+        assertEquals("hidden", privateProperties.getProperty(privateBean, "name"));
+    }
+
+    @Test
+    public void testCopy() throws Exception {
+        BeanProperties properties = BeanProperties.forClass(TestBean.class);
+        TestBean bean = new TestBean();
+        bean.setIntProp(7);
+        bean.setStringProp("seven");
+        bean.setLongProp(77);
+        TestBean copy = new TestBean();
+        properties.copy(bean, copy);                    // Read only and write only properties are skipped.
+        assertEquals(7, copy.getIntProp());
+        assertEquals("seven", copy.getStringProp());
+        assertEquals(77, copy.getLongProp());
+
+        Map map = new PropertyMap(bean);
+        assertEquals(6, map.size());
+        assertEquals("constant", map.get("readOnly"));
+        assertEquals(77L, map.get("longProp"));
+    }
+}
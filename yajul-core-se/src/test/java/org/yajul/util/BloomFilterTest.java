@@ -0,0 +1,36 @@
+package org.yajul.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test BloomFilter.
+ */
+public class BloomFilterTest
+{
+    @Test
+    public void testFalsePositives()
+    {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++)
+            filter.add("document-" + i + ".dat.gz");
+        for (int i = 0; i < 10000; i++)
+            assertTrue(filter.mightContain("document-" + i + ".dat.gz"));
+        int falsePositives = 0;
+        for (int i = 10000; i < 20000; i++)
+        {
+            if (filter.mightContain("document-" + i + ".dat.gz"))
+                falsePositives++;
+        }
+        assertTrue("Too many false positives: " + falsePositives, falsePositives < 200);
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        BloomFilter filter = new BloomFilter(0, 0.01);
+        assertFalse(filter.mightContain("anything"));
+    }
+}
@@ -7,6 +7,8 @@ import static org.junit.Assert.*;
 
 
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Tests CompoundKey.
@@ -172,4 +174,80 @@ public class CompoundKeyTest {
         assertNotNull(iae);
 
     }
+
+    @Test
+    public void testFixedArity() throws Exception {
+        CompoundKey.Two<String, Integer> two = new CompoundKey.Two<String, Integer>("foo", 33);
+        CompoundKey plain = new CompoundKey("foo", 33);
+        assertCompoundKeyEquals(two, plain);
+        assertCompoundKeyEquals(two, new CompoundKey.Two<String, Integer>("foo", 33));
+        assertEquals("foo", two.getOne());
+        assertEquals(33, (int) two.getTwo());
+        assertEquals(2, two.size());
+        assertEquals(33, two.getComponent(1));
+        assertTrue(two.compareTo(new CompoundKey.Two<String, Integer>("foo", 34)) < 0);
+
+        CompoundKey.Three<String, Integer, Date> three = new CompoundKey.Three<String, Integer, Date>("foo", 33, new Date(0));
+        checkEquality(three, new CompoundKey("foo", 33, new Date(0)));
+        assertCompoundKeyEquals(three, new CompoundKey.Three<String, Integer, Date>("foo", 33, new Date(0)));
+        assertFalse(three.equals(two));
+        assertFalse(two.equals(three));
+        assertTrue(three.compareTo(two) > 0);
+        assertEquals(new Date(0), three.getThree());
+
+        CompoundKey.Two<String, Integer> copy = SerializationHelper.serialClone(two);
+        assertCompoundKeyEquals(two, copy);
+        assertEquals("foo", copy.getOne());
+
+        try {
+            new CompoundKey.Two<String, Integer>("foo", null);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException ignore) {
+        }
+    }
+
+    @Test
+    public void testPrimitiveKeys() {
+        CompoundKey.LongLong ll = new CompoundKey.LongLong(5000000000L, -7);
+        assertCompoundKeyEquals(ll, new CompoundKey(5000000000L, -7L));
+        assertCompoundKeyEquals(ll, new CompoundKey.LongLong(5000000000L, -7));
+        assertEquals(-7L, ll.getComponent(1));
+        assertTrue(ll.compareTo(new CompoundKey.LongLong(5000000000L, 0)) < 0);
+        assertTrue(ll.compareTo(new CompoundKey.LongLong(-1, 0)) > 0);
+
+        CompoundKey.LongInt li = new CompoundKey.LongInt(12, 34);
+        assertCompoundKeyEquals(li, new CompoundKey(12L, 34));
+        assertCompoundKeyEquals(li, new CompoundKey.Two<Long, Integer>(12L, 34));
+        assertFalse(li.equals(new CompoundKey(12L, 34L)));   // Integer and Long are never equal.
+        assertEquals(34, li.getTwo());
+        assertTrue(li.compareTo(new CompoundKey.LongInt(12, 35)) < 0);
+    }
+
+    @Test
+    public void testHashDistribution() {
+        // Small, correlated components should not collide, and should spread over the low bits.
+        Set<Integer> hashes = new HashSet<Integer>();
+        Set<Integer> buckets = new HashSet<Integer>();
+        for (long id = 0; id < 100; id++) {
+            for (int day = 0; day < 100; day++) {
+                int h = new CompoundKey.LongInt(id, day).hashCode();
+                hashes.add(h);
+                buckets.add(h & 0x3FFF);
+            }
+        }
+        assertEquals(10000, hashes.size());
+        assertTrue("buckets=" + buckets.size(), buckets.size() > 4500);
+    }
+
+    @Test
+    public void testIntern() {
+        CompoundKey.LongInt a = new CompoundKey.LongInt(1, 2);
+        CompoundKey.LongInt b = new CompoundKey.LongInt(1, 2);
+        assertSame(a, CompoundKey.intern(a));
+        assertSame(a, CompoundKey.intern(b));
+        assertNull(CompoundKey.intern(null));
+        // An equal key of another class is not substituted.
+        CompoundKey.Two<Long, Integer> two = new CompoundKey.Two<Long, Integer>(1L, 2);
+        assertSame(two, CompoundKey.intern(two));
+    }
 }
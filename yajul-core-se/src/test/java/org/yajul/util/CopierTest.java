@@ -4,6 +4,10 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.CharArrayReader;
 import java.io.CharArrayWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.channels.Channels;
 import java.util.Arrays;
 
 import junit.framework.TestCase;
@@ -117,4 +121,121 @@ public class CopierTest
         }
         assertNotNull(iae);
     }
+
+    @Test
+    public void testFileTransfer() throws Exception
+    {
+        byte[] bytes = BYTES;
+        File source = File.createTempFile("copier", ".in");
+        File target = File.createTempFile("copier", ".out");
+        try
+        {
+            FileOutputStream fos = new FileOutputStream(source);
+            assertEquals(bytes.length, Copier.transfer(new ByteArrayInputStream(bytes), fos, 8, Copier.UNLIMITED, Copier.NO_CALLBACK));
+            fos.close();
+            assertEquals(bytes.length, source.length());
+
+            // Skip the first two bytes, then transfer with a limit.  The position should move just like a read.
+            FileInputStream fis = new FileInputStream(source);
+            assertEquals(2, fis.read(new byte[2]));
+            fos = new FileOutputStream(target);
+            assertEquals(10, Copier.transfer(fis, fos, 8, 10, Copier.NO_CALLBACK));
+            assertEquals(bytes[12], (byte) fis.read());
+            fis.close();
+            fos.close();
+            byte[] expected = new byte[10];
+            System.arraycopy(bytes, 2, expected, 0, 10);
+            assertTrue(Arrays.equals(expected, Copier.toByteArray(new FileInputStream(target))));
+
+            // File to an ordinary stream.
+            fis = new FileInputStream(source);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            assertEquals(bytes.length, Copier.copy(fis, output, 8, Copier.UNLIMITED));
+            fis.close();
+            assertTrue(Arrays.equals(bytes, output.toByteArray()));
+        }
+        finally
+        {
+            source.delete();
+            target.delete();
+        }
+    }
+
+    @Test
+    public void testSpecialFile() throws Exception
+    {
+        // Files in /proc have a size of zero, so they have to be read rather than transferred.
+        File status = new File("/proc/self/status");
+        if (!status.canRead())
+            return;
+        FileInputStream fis = new FileInputStream(status);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try
+        {
+            long count = Copier.copy(fis, output, 8, Copier.UNLIMITED);
+            assertTrue(count > 0);
+            assertEquals(count, output.size());
+        }
+        finally
+        {
+            fis.close();
+        }
+    }
+
+    @Test
+    public void testChannelTransfer() throws Exception
+    {
+        byte[] bytes = BYTES;
+        final long[] totals = new long[2];
+        Copier.LongCallback callback = new Copier.LongCallback()
+        {
+            public boolean beforeWrite(byte[] buf, int length, long total)
+            {
+                totals[0] = total;
+                return true;
+            }
+
+            public void endOfStream(long total)
+            {
+                totals[1] = total;
+            }
+
+            public void startOfStream()
+            {
+            }
+
+            public boolean beforeWrite(byte[] buf, int length, int total)
+            {
+                fail("int callback should not be used");
+                return false;
+            }
+
+            public boolean beforeWrite(char[] buf, int length, int total)
+            {
+                return true;
+            }
+
+            public void endOfStream(int total)
+            {
+                fail("int callback should not be used");
+            }
+        };
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        long total = Copier.transfer(Channels.newChannel(new ByteArrayInputStream(bytes)),
+                Channels.newChannel(output), 15, callback);
+        assertEquals(15, total);
+        assertEquals(15, totals[0]);
+        assertEquals(15, totals[1]);
+        byte[] expected = new byte[15];
+        System.arraycopy(bytes, 0, expected, 0, 15);
+        assertTrue(Arrays.equals(expected, output.toByteArray()));
+
+        // No callback, uses a pooled direct buffer.
+        output = new ByteArrayOutputStream();
+        total = Copier.transfer(Channels.newChannel(new ByteArrayInputStream(bytes)),
+                Channels.newChannel(output), Copier.UNLIMITED, Copier.NO_CALLBACK);
+        assertEquals(bytes.length, total);
+        assertTrue(Arrays.equals(bytes, output.toByteArray()));
+        assertTrue(ByteBufferPool.getSharedPool().getFreeCount() > 0);
+    }
 }
@@ -0,0 +1,93 @@
+package org.yajul.util;
+
+import org.junit.Test;
+import org.yajul.reflection.FieldPrinter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests FieldPrinter.
+ */
+public class FieldPrinterTest {
+
+    public static class Foo {
+        public int count = 3;
+        public String name = "foo";
+        public Bar bar;
+        public Baz baz;
+    }
+
+    public static class Bar {
+        public long id = 42;
+        public Bar next;
+    }
+
+    public static class Baz {
+        public String toString() {
+            return "baz!";
+        }
+    }
+
+    public static class Kaboom {
+        public Object kaboom;
+    }
+
+    public static class Bean {
+        public String getName() {
+            return "bean";
+        }
+    }
+
+    @Test
+    public void testFormat() {
+        Foo foo = new Foo();
+        assertEquals(Foo.class.getName() + "[count=3, name='foo', bar=null, baz=null]", FieldPrinter.toString(foo));
+
+        foo.bar = new Bar();
+        foo.baz = new Baz();
+        assertEquals(Foo.class.getName() + "[count=3, name='foo', bar=|" + Bar.class.getName()
+                + "[id=42, next=null]|, baz=#baz!#]", FieldPrinter.toString(foo));
+
+        assertEquals(Bean.class.getName() + "[getName='bean']", FieldPrinter.toString(new Bean()));
+        assertEquals("null", FieldPrinter.toString(null));
+    }
+
+    @Test
+    public void testLimits() {
+        Bar bar = new Bar();
+        bar.next = bar;
+        String name = Bar.class.getName();
+        assertEquals(name + "[id=42, next=|<cycle>|]", FieldPrinter.toString(bar));
+
+        Bar chain = new Bar();
+        chain.next = new Bar();
+        chain.next.next = new Bar();
+        FieldPrinter fp = new FieldPrinter();
+        fp.setMaxDepth(1);
+        fp.append(chain);
+        assertEquals(name + "[id=42, next=|" + name + "[id=42, next=|...|]|]", fp.toString());
+
+        fp.reset();
+        fp.setMaxDepth(FieldPrinter.DEFAULT_MAX_DEPTH);
+        fp.setMaxLength(10);
+        fp.append(chain);
+        assertEquals(name.substring(0, 10) + "...", fp.toString());
+
+        StringBuilder sb = new StringBuilder("bar: ");
+        assertSame(sb, FieldPrinter.appendTo(sb, new Bar()));
+        assertEquals("bar: " + name + "[id=42, next=null]", sb.toString());
+    }
+
+    @Test
+    public void testNested() {
+        // A toString() that uses FieldPrinter, while FieldPrinter.toString() is printing.
+        Kaboom kaboom = new Kaboom();
+        kaboom.kaboom = new Object() {
+            public String toString() {
+                return FieldPrinter.toString(new Bar());
+            }
+        };
+        assertEquals(Kaboom.class.getName() + "[kaboom=#" + Bar.class.getName() + "[id=42, next=null]#]",
+                FieldPrinter.toString(kaboom));
+    }
+}
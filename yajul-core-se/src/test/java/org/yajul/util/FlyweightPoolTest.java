@@ -0,0 +1,112 @@
+package org.yajul.util;
+
+import org.junit.Test;
+import org.yajul.collections.FlyweightPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests FlyweightPool.
+ */
+public class FlyweightPoolTest
+{
+    @Test
+    public void testPool()
+    {
+        FlyweightPool<String> pool = new FlyweightPool<String>();
+        String a = new String("abc");
+        String b = new String("abc");
+        assertNotSame(a, b);
+        assertSame(a, pool.get(a));
+        assertSame(a, pool.get(b));
+        assertNull(pool.get(null));
+        assertEquals(1, pool.size());
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+        assertEquals(0.5, pool.getHitRate(), 0.0001);
+        pool.clear();
+        assertEquals(0, pool.size());
+        assertSame(b, pool.get(b));
+    }
+
+    @Test
+    public void testBounded()
+    {
+        FlyweightPool<Integer> pool = new FlyweightPool<Integer>(FlyweightPool.Retention.STRONG, 4, 1);
+        Integer first = new Integer(1000);
+        pool.get(first);
+        for (int i = 1; i < 4; i++)
+            pool.get(new Integer(1000 + i));
+        assertSame(first, pool.get(new Integer(1000)));   // Now the most recently used.
+        pool.get(new Integer(2000));
+        assertEquals(4, pool.size());
+        assertEquals(1, pool.getEvictions());
+        assertSame(first, pool.get(new Integer(1000)));
+        Integer evicted = new Integer(1001);
+        assertSame(evicted, pool.get(evicted));          // 1001 was the least recently used.
+    }
+
+    @Test
+    public void testConcurrent() throws Exception
+    {
+        final FlyweightPool<String> pool = new FlyweightPool<String>(FlyweightPool.Retention.SOFT, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<String[]>> futures = new ArrayList<Future<String[]>>();
+            for (int t = 0; t < 4; t++)
+            {
+                futures.add(executor.submit(new Callable<String[]>()
+                {
+                    public String[] call() throws Exception
+                    {
+                        String[] shared = new String[500];
+                        for (int i = 0; i < shared.length; i++)
+                            shared[i] = pool.get(Integer.toString(i));
+                        return shared;
+                    }
+                }));
+            }
+            String[] expected = futures.get(0).get();
+            for (Future<String[]> future : futures)
+            {
+                String[] shared = future.get();
+                for (int i = 0; i < shared.length; i++)
+                    assertSame(expected[i], shared[i]);
+            }
+            assertEquals(500, pool.size());
+            assertEquals(2000, pool.getHits() + pool.getMisses());
+            assertEquals(500, pool.getMisses());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testIntern()
+    {
+        String s = new String("flyweight-test");
+        assertSame(s.intern(), FlyweightPool.intern(new String("flyweight-test")));
+        String pooled = FlyweightPool.intern(s, true);
+        assertSame(pooled, FlyweightPool.intern(new String("flyweight-test"), true));
+        assertNull(FlyweightPool.intern(null, true));
+        FlyweightPool.setInternWithPool(true);
+        try
+        {
+            assertSame(pooled, FlyweightPool.intern(new String("flyweight-test")));
+        }
+        finally
+        {
+            FlyweightPool.setInternWithPool(false);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.yajul.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test LruCache.
+ */
+public class LruCacheTest
+{
+    @Test
+    public void testBounds()
+    {
+        LruCache<String, String> cache = new LruCache<String, String>(3, 100, 0);
+        cache.put("a", "A", 10);
+        cache.put("b", "B", 10);
+        cache.put("c", "C", 10);
+        assertEquals("A", cache.get("a"));     // 'b' is now the least recently used.
+        cache.put("d", "D", 10);
+        assertNull(cache.get("b"));
+        assertEquals(3, cache.getEntryCount());
+        assertEquals(1, cache.getEvictions());
+        // Size bound: 'e' pushes out the two least recently used.
+        cache.put("e", "E", 85);
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(95, cache.getSize());
+        assertEquals("E", cache.get("e"));
+        assertEquals("D", cache.get("d"));
+        // Too big to cache at all.
+        cache.put("f", "F", 101);
+        assertNull(cache.get("f"));
+        assertEquals(3, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        cache.remove("e");
+        assertEquals(10, cache.getSize());
+    }
+
+    @Test
+    public void testTimeToLive()
+    {
+        MutableClock clock = new MutableClock();
+        clock.setCurrentTimeMillis(1000);
+        LruCache<String, String> cache = new LruCache<String, String>(10, 10, 100, clock);
+        cache.put("a", "A", 1);
+        clock.increment(99);
+        assertEquals("A", cache.get("a"));
+        clock.increment(1);
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.getExpirations());
+        assertEquals(0, cache.getSize());
+    }
+}
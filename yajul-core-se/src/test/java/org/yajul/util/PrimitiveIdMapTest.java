@@ -0,0 +1,191 @@
+package org.yajul.util;
+
+import org.junit.Test;
+import org.yajul.collections.EntityWithId;
+import org.yajul.collections.IdMap;
+import org.yajul.collections.IntIdMap;
+import org.yajul.collections.LongIdMap;
+import org.yajul.serialization.SerializationHelper;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests LongIdMap and IntIdMap.
+ */
+public class PrimitiveIdMapTest
+{
+    public static class LongThing implements EntityWithId<Long>, Serializable
+    {
+        private final Long id;
+        private final String name;
+
+        public LongThing(long id, String name)
+        {
+            this.id = id;
+            this.name = name;
+        }
+
+        public Long getId()
+        {
+            return id;
+        }
+
+        public boolean equals(Object o)
+        {
+            return o instanceof LongThing && id.equals(((LongThing) o).id) && name.equals(((LongThing) o).name);
+        }
+
+        public int hashCode()
+        {
+            return id.hashCode() * 31 + name.hashCode();
+        }
+
+        public String toString()
+        {
+            return name;
+        }
+    }
+
+    public static class IntThing implements EntityWithId<Integer>, Serializable
+    {
+        private final Integer id;
+
+        public IntThing(int id)
+        {
+            this.id = id;
+        }
+
+        public Integer getId()
+        {
+            return id;
+        }
+
+        public boolean equals(Object o)
+        {
+            return o instanceof IntThing && id.equals(((IntThing) o).id);
+        }
+
+        public int hashCode()
+        {
+            return id.hashCode();
+        }
+    }
+
+    @Test
+    public void testLongIdMap() throws Exception
+    {
+        LongIdMap<LongThing> map = new LongIdMap<LongThing>();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(1));
+        assertEquals("{}", map.toString());
+
+        List<LongThing> things = new ArrayList<LongThing>();
+        IdMap<Long, LongThing> reference = new IdMap<Long, LongThing>();
+        for (int i = 0; i < 1000; i++)
+        {
+            // Large, similar ids, in a scrambled order.
+            LongThing thing = new LongThing(((i * 7919L) % 1000) << 32 | i, "thing" + i);
+            things.add(thing);
+            map.put(thing);
+            reference.put(thing);
+        }
+        map.put(null);
+        LongThing one = new LongThing(1, "one");
+        map.put(one);
+        reference.put(one);
+        assertEquals(reference.size(), map.size());
+        for (LongThing thing : reference.values())
+            assertSame(thing, map.get(thing.getId()));
+        assertFalse(map.containsId(2));
+
+        // Insertion order, like IdMap.
+        assertEquals(new ArrayList<LongThing>(reference.values()), new ArrayList<LongThing>(map.values()));
+        long[] ids = map.getIds();
+        assertEquals(things.get(0).getId().longValue(), ids[0]);
+        assertEquals(1L, ids[ids.length - 1]);
+
+        // Replacing keeps the position.
+        LongThing replacement = new LongThing(things.get(0).getId(), "replacement");
+        assertSame(things.get(0), map.put(replacement.getId(), replacement));
+        assertSame(replacement, map.values().iterator().next());
+        map.put(things.get(0));
+
+        // Remove every other one, then check the rest can still be found.
+        for (int i = 0; i < things.size(); i += 2)
+        {
+            assertSame(things.get(i), map.remove(things.get(i).getId()));
+            reference.remove(things.get(i).getId());
+        }
+        assertNull(map.remove(things.get(0).getId()));
+        assertEquals(reference.size(), map.size());
+        for (int i = 1; i < things.size(); i += 2)
+            assertSame(things.get(i), map.get(things.get(i).getId()));
+        assertEquals(new ArrayList<LongThing>(reference.values()), new ArrayList<LongThing>(map.values()));
+
+        // Grow past the holes.
+        for (int i = 0; i < things.size(); i += 2)
+            map.put(things.get(i));
+        assertEquals(things.size() + 1, map.size());
+        for (LongThing thing : things)
+            assertSame(thing, map.get(thing.getId()));
+
+        // Serialization keeps the order and equality.
+        byte[] bytes = SerializationHelper.toByteArray(map);
+        @SuppressWarnings("unchecked")
+        LongIdMap<LongThing> copy = (LongIdMap<LongThing>) SerializationHelper.fromByteArray(bytes);
+        assertEquals(map, copy);
+        assertEquals(map.hashCode(), copy.hashCode());
+        assertTrue(Arrays.equals(map.getIds(), copy.getIds()));
+
+        LongIdMap<LongThing> subset = new LongIdMap<LongThing>(map, new long[]{1, things.get(3).getId(), 12345});
+        assertEquals(2, subset.size());
+        assertSame(things.get(3), subset.get(things.get(3).getId()));
+        subset.addSubset(map, Arrays.asList(1L));
+        assertEquals(1, subset.size());
+        assertEquals("one", subset.getOne().toString());
+
+        // Removing through the iterator.
+        for (Iterator<LongThing> it = copy.iterator(); it.hasNext(); )
+        {
+            if (it.next().getId() != 1)
+                it.remove();
+        }
+        assertEquals(1, copy.size());
+        assertTrue(copy.containsId(1));
+        copy.clear();
+        assertTrue(copy.isEmpty());
+        assertEquals(0, LongIdMap.idArray(copy).length);
+    }
+
+    @Test
+    public void testIntIdMap() throws Exception
+    {
+        List<IntThing> things = new ArrayList<IntThing>();
+        for (int i = 0; i < 500; i++)
+            things.add(new IntThing(i * 1024));
+        IntIdMap<IntThing> map = new IntIdMap<IntThing>(things);
+        map.aggregate(things);
+        assertEquals(500, map.size());
+        for (IntThing thing : things)
+            assertSame(thing, map.get(thing.getId()));
+        for (int i = 0; i < 500; i += 3)
+            map.remove(i * 1024);
+        assertFalse(map.containsId(0));
+        assertTrue(map.containsId(1024));
+        assertEquals(333, map.size());
+        assertEquals(333, map.getIds().length);
+        assertEquals(1024, map.getIds()[0]);
+
+        @SuppressWarnings("unchecked")
+        IntIdMap<IntThing> copy = (IntIdMap<IntThing>) SerializationHelper.fromByteArray(
+                SerializationHelper.toByteArray(map));
+        assertEquals(map, copy);
+        assertTrue(Arrays.equals(map.getIds(), copy.getIds()));
+    }
+}
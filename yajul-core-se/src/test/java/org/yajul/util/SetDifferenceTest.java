@@ -0,0 +1,175 @@
+package org.yajul.util;
+
+import org.junit.Test;
+import org.yajul.collections.SetDifference;
+import org.yajul.comparators.ComparatorUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests SetDifference.
+ */
+public class SetDifferenceTest
+{
+    private static class Collector<T> implements SetDifference.Handler<T>
+    {
+        private final List<T> leftOnly = new ArrayList<T>();
+        private final List<T> rightOnly = new ArrayList<T>();
+        private final List<T> both = new ArrayList<T>();
+
+        public void leftOnly(T element)
+        {
+            leftOnly.add(element);
+        }
+
+        public void rightOnly(T element)
+        {
+            rightOnly.add(element);
+        }
+
+        public void both(T element)
+        {
+            both.add(element);
+        }
+    }
+
+    @Test
+    public void testDiff()
+    {
+        Set<String> left = new HashSet<String>(Arrays.asList("a", "b", "c"));
+        Set<String> right = new HashSet<String>(Arrays.asList("b", "c", "d", "e"));
+        SetDifference<String> diff = SetDifference.diff(left, right);
+        assertEquals(Collections.singleton("a"), diff.getLeftOnly());
+        assertEquals(new HashSet<String>(Arrays.asList("d", "e")), diff.getRightOnly());
+        assertEquals(new HashSet<String>(Arrays.asList("b", "c")), diff.getBoth());
+    }
+
+    @Test
+    public void testMerge()
+    {
+        TreeSet<String> left = new TreeSet<String>(Arrays.asList("a", "c", "e", "f"));
+        TreeSet<String> right = new TreeSet<String>(Arrays.asList("b", "c", "d", "f", "g"));
+        Collector<String> c = new Collector<String>();
+        SetDifference.merge(left.iterator(), right.iterator(), null, c);
+        assertEquals(Arrays.asList("a", "e"), c.leftOnly);
+        assertEquals(Arrays.asList("b", "d", "g"), c.rightOnly);
+        assertEquals(Arrays.asList("c", "f"), c.both);
+
+        // Descending, with a comparator.
+        c = new Collector<String>();
+        SetDifference.merge(left.descendingIterator(), right.descendingIterator(),
+                Collections.<String>reverseOrder(), c);
+        assertEquals(Arrays.asList("e", "a"), c.leftOnly);
+        assertEquals(Arrays.asList("g", "d", "b"), c.rightOnly);
+
+        try
+        {
+            SetDifference.merge(Arrays.asList("b", "a").iterator(), Arrays.asList("a").iterator(), null,
+                    new Collector<String>());
+            fail("Expected an IllegalArgumentException");
+        }
+        catch (IllegalArgumentException ignore)
+        {
+        }
+
+        // Null elements, with a comparator that orders them.
+        c = new Collector<String>();
+        SetDifference.merge(Arrays.asList(null, "a", "c").iterator(), Arrays.asList("a", "b").iterator(),
+                ComparatorUtil.NULL_LOW_STRING_COMPARATOR, c);
+        assertEquals(Arrays.asList(null, "c"), c.leftOnly);
+        assertEquals(Arrays.asList("b"), c.rightOnly);
+        assertEquals(Arrays.asList("a"), c.both);
+    }
+
+    @Test
+    public void testMergeLongs()
+    {
+        final List<Long> leftOnly = new ArrayList<Long>();
+        final List<Long> rightOnly = new ArrayList<Long>();
+        final List<Long> both = new ArrayList<Long>();
+        SetDifference.LongHandler handler = new SetDifference.LongHandler()
+        {
+            public void leftOnly(long element)
+            {
+                leftOnly.add(element);
+            }
+
+            public void rightOnly(long element)
+            {
+                rightOnly.add(element);
+            }
+
+            public void both(long element)
+            {
+                both.add(element);
+            }
+        };
+        SetDifference.merge(new long[]{1, 3, 5, 7}, new long[]{-1, 3, 4, 7, 9, 10}, handler);
+        assertEquals(Arrays.asList(1L, 5L), leftOnly);
+        assertEquals(Arrays.asList(-1L, 4L, 9L, 10L), rightOnly);
+        assertEquals(Arrays.asList(3L, 7L), both);
+
+        try
+        {
+            SetDifference.merge(new long[]{1, 2}, new long[]{5, 5}, handler);
+            fail("Expected an IllegalArgumentException");
+        }
+        catch (IllegalArgumentException ignore)
+        {
+        }
+    }
+
+    @Test
+    public void testParallelDiff()
+    {
+        Set<Long> left = new HashSet<Long>();
+        Set<Long> right = new HashSet<Long>();
+        for (long i = 0; i < 100000; i++)
+        {
+            if (i % 3 != 0)
+                left.add(i);
+            if (i % 5 != 0)
+                right.add(i);
+        }
+        final Set<Long> leftOnly = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final AtomicLong rightOnly = new AtomicLong();
+        final AtomicLong both = new AtomicLong();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        SetDifference.parallelDiff(left, right, new SetDifference.Handler<Long>()
+        {
+            public void leftOnly(Long element)
+            {
+                leftOnly.add(element);
+            }
+
+            public void rightOnly(Long element)
+            {
+                rightOnly.incrementAndGet();
+            }
+
+            public void both(Long element)
+            {
+                both.incrementAndGet();
+            }
+        }, pool);
+        pool.shutdown();
+        SetDifference<Long> expected = SetDifference.diff(left, right);
+        assertEquals(expected.getLeftOnly(), leftOnly);
+        assertEquals(expected.getRightOnly().size(), rightOnly.get());
+        assertEquals(expected.getBoth().size(), both.get());
+        // Multiples of 15 are in neither set.
+        long union = 100000 - (100000 + 14) / 15;
+        assertEquals(union - leftOnly.size() - rightOnly.get(), both.get());
+    }
+}
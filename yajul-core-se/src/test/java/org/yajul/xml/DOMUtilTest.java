@@ -0,0 +1,101 @@
+package org.yajul.xml;
+
+import org.junit.After;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests DOMUtil and DOMPrinter with cached builders and transformers, and the security profiles.
+ */
+public class DOMUtilTest {
+
+    @After
+    public void restoreSecurity() {
+        DOMUtil.setSecurity(XMLSecurity.DEFAULT);
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            Document doc = DOMUtil.parse(stream("<test><elem>" + i + "</elem></test>"));
+            assertEquals(String.valueOf(i), DOMUtil.getChildText(DOMUtil.getChildElements(doc, "elem").get(0)));
+            assertTrue(DOMPrinter.nodeToString(doc).contains("<elem>" + i + "</elem>"));
+        }
+        assertNotSame(DOMUtil.getDocumentBuilder(), DOMUtil.getDocumentBuilder());
+
+        // A failed parse doesn't affect the next one.
+        try {
+            DOMUtil.parse(stream("<test>"));
+            fail("Expected a SAXException");
+        } catch (SAXException ignore) {
+        }
+        Document doc = DOMUtil.createDocument("created");
+        assertEquals("created", doc.getDocumentElement().getTagName());
+    }
+
+    @Test
+    public void testThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 40; i++) {
+                final int n = i;
+                results.add(executor.submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        Document doc = DOMUtil.parse(stream("<test>" + n + "</test>"));
+                        return DOMUtil.getChildText(doc.getDocumentElement());
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++)
+                assertEquals(String.valueOf(i), results.get(i).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSecurity() throws Exception {
+        File secret = File.createTempFile("secret", ".txt");
+        secret.deleteOnExit();
+        FileWriter writer = new FileWriter(secret);
+        writer.write("secret");
+        writer.close();
+        String xml = "<!DOCTYPE test [<!ENTITY e SYSTEM \"" + secret.toURI() + "\">]><test>&e;</test>";
+
+        assertEquals(XMLSecurity.DEFAULT, DOMUtil.getSecurity());
+        assertEquals("secret", DOMUtil.parse(stream(xml)).getDocumentElement().getTextContent());
+
+        DOMUtil.setSecurity(XMLSecurity.SECURE);
+        assertEquals("", DOMUtil.parse(stream(xml)).getDocumentElement().getTextContent());
+        Document doc = DOMUtil.parse(stream("<!DOCTYPE test [<!ENTITY e \"internal\">]><test>&e;</test>"));
+        assertEquals("internal", doc.getDocumentElement().getTextContent());
+        assertTrue(DOMPrinter.nodeToString(doc).contains("<test>"));
+
+        DOMUtil.setSecurity(XMLSecurity.NO_DOCTYPE);
+        try {
+            DOMUtil.parse(stream(xml));
+            fail("Expected a SAXException");
+        } catch (SAXException ignore) {
+        }
+        assertEquals("ok", DOMUtil.parse(stream("<test>ok</test>")).getDocumentElement().getTextContent());
+    }
+
+    private static InputStream stream(String xml) throws Exception {
+        return new ByteArrayInputStream(xml.getBytes("UTF-8"));
+    }
+}